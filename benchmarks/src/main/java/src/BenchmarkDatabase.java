@@ -0,0 +1,130 @@
+package src;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.SplittableRandom;
+
+// Generates a synthetic hotel database once per (rooms, reservations) pair and opens a scratch copy of it,
+// so benchmarks that write never change the baseline the next run starts from
+final class BenchmarkDatabase {
+    static final LocalDate HISTORY_START = LocalDate.of(2020, 1, 1);
+    static final String[] ROOM_TYPES = {"Standard", "Deluxe", "Suite"};
+    static final double[] PRICES = {100.0, 150.0, 250.0};
+    
+    private static final int COMMIT_EVERY = 100_000;
+    
+    private BenchmarkDatabase() {}
+    
+    // Days from HISTORY_START covered by the generated stays
+    static int horizonDays(int rooms, int reservations) {
+        return (int) Math.max(30, (long) reservations / rooms * 6 + 30);
+    }
+    
+    static void open(int rooms, int reservations) throws Exception {
+        File dir = new File(System.getProperty("hotel.bench.dir", "target/bench-db"));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File golden = new File(dir, "hotel-" + rooms + "-" + reservations + ".db");
+        if (!golden.exists()) {
+            generate(golden, rooms, reservations);
+        }
+        File scratch = new File(dir, "scratch-" + golden.getName());
+        deleteDatabase(scratch);
+        Files.copy(golden.toPath(), scratch.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        
+        System.setProperty("hotel.db.url", "jdbc:sqlite:" + scratch.getPath());
+        HotelReservationSystem.DatabaseManager.initializeDatabase();
+    }
+    
+    private static void generate(File golden, int rooms, int reservations) throws Exception {
+        File staging = new File(golden.getPath() + ".tmp");
+        deleteDatabase(staging);
+        String url = "jdbc:sqlite:" + staging.getPath();
+        
+        // Creates the schema (and the ten sample rooms) exactly as the application does
+        System.setProperty("hotel.db.url", url);
+        HotelReservationSystem.DatabaseManager.initializeDatabase();
+        
+        SplittableRandom random = new SplittableRandom(42);
+        try (Connection conn = DriverManager.getConnection(url)) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA synchronous = OFF");
+            }
+            conn.setAutoCommit(false);
+            
+            try (PreparedStatement insert = conn.prepareStatement(
+                    "INSERT INTO rooms (room_number, room_type, price_per_night) VALUES (?, ?, ?)")) {
+                for (int i = 11; i <= rooms; i++) {
+                    insert.setString(1, Integer.toString(i));
+                    insert.setString(2, ROOM_TYPES[i % 3]);
+                    insert.setDouble(3, PRICES[i % 3]);
+                    insert.addBatch();
+                    if (i % COMMIT_EVERY == 0) {
+                        insert.executeBatch();
+                        conn.commit();
+                    }
+                }
+                insert.executeBatch();
+                conn.commit();
+            }
+            
+            // Each room gets its own non-overlapping timeline of stays
+            int start = (int) HISTORY_START.toEpochDay();
+            int[] cursor = new int[rooms];
+            for (int i = 0; i < rooms; i++) {
+                cursor[i] = start + random.nextInt(30);
+            }
+            try (PreparedStatement reservation = conn.prepareStatement(
+                    "INSERT INTO reservations (reservation_id, room_id, guest_name, guest_email, " +
+                    "check_in_date, check_out_date, total_price, status) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+                 PreparedStatement payment = conn.prepareStatement(
+                    "INSERT INTO payments (reservation_id, amount, payment_date, payment_method) VALUES (?, ?, ?, ?)")) {
+                for (int id = 1; id <= reservations; id++) {
+                    int room = (id - 1) % rooms;
+                    int checkIn = cursor[room] + random.nextInt(5);
+                    int nights = 1 + random.nextInt(7);
+                    cursor[room] = checkIn + nights;
+                    double total = nights * PRICES[(room + 1) % 3];
+                    LocalDate checkInDate = LocalDate.ofEpochDay(checkIn);
+                    
+                    reservation.setInt(1, id);
+                    reservation.setInt(2, room + 1);
+                    reservation.setString(3, "Guest " + id);
+                    reservation.setString(4, "guest" + id + "@example.com");
+                    HotelReservationSystem.DatabaseManager.bindDate(reservation, 5, checkInDate);
+                    HotelReservationSystem.DatabaseManager.bindDate(reservation, 6, checkInDate.plusDays(nights));
+                    reservation.setDouble(7, total);
+                    reservation.setString(8, random.nextInt(10) == 0 ? "Cancelled" : "Confirmed");
+                    reservation.addBatch();
+                    
+                    payment.setInt(1, id);
+                    payment.setDouble(2, total);
+                    HotelReservationSystem.DatabaseManager.bindDate(payment, 3, checkInDate.minusDays(random.nextInt(60)));
+                    payment.setString(4, random.nextBoolean() ? "Credit Card" : "Debit Card");
+                    payment.addBatch();
+                    
+                    if (id % COMMIT_EVERY == 0) {
+                        reservation.executeBatch();
+                        payment.executeBatch();
+                        conn.commit();
+                    }
+                }
+                reservation.executeBatch();
+                payment.executeBatch();
+                conn.commit();
+            }
+        }
+        HotelReservationSystem.DatabaseManager.shutdown();
+        Files.move(staging.toPath(), golden.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    private static void deleteDatabase(File db) throws IOException {
+        for (String suffix : new String[] {"", "-wal", "-shm", "-events"}) {
+            Files.deleteIfExists(new File(db.getPath() + suffix).toPath());
+        }
+    }
+}
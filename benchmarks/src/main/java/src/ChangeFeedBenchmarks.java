@@ -0,0 +1,70 @@
+package src;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.*;
+
+// The change feed on a scratch log that setup fills with a million events. publish times numbering, logging
+// and ringing one event with 0, 1 and 4 subscribers taking batches from the ring; catchUp reads a batch of
+// 1024 from the log at a random earlier sequence, as a subscriber resuming behind the ring does.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChangeFeedBenchmarks {
+    @Param({"0", "1", "4"})
+    public int subscribers;
+
+    private static final int LOGGED = 1_000_000;
+    private static final int BATCH = 1024;
+
+    private Path log;
+    private HotelReservationSystem.ChangeFeed feed;
+    private final AtomicLong delivered = new AtomicLong();
+    private int next;
+
+    @State(Scope.Thread)
+    public static class Caller {
+        final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        log = Paths.get(System.getProperty("hotel.bench.dir", "target/bench-db"), "changes-bench.log");
+        Files.createDirectories(log.getParent());
+        Files.deleteIfExists(log);
+        feed = new HotelReservationSystem.ChangeFeed(log, 65536, 250, BATCH, false);
+        for (int i = 0; i < LOGGED; i++) {
+            publish();
+        }
+        for (int i = 0; i < subscribers; i++) {
+            feed.subscribe("bench-" + i, feed.lastSequence(), events -> delivered.addAndGet(events.size()));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        feed.close();
+        System.out.printf("%n%d events delivered, %.1f MB logged%n", delivered.get(), Files.size(log) / 1e6);
+        Files.deleteIfExists(log);
+    }
+
+    @Benchmark
+    public long publish() {
+        next++;
+        return feed.publish(HotelReservationSystem.ChangeEvent.cancelled(next, next % 1000 + 1));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int catchUp(Caller caller) throws Exception {
+        List<HotelReservationSystem.ChangeEvent> batch = feed.read(caller.random.nextInt(LOGGED - BATCH), BATCH, 0);
+        return batch.size();
+    }
+}
@@ -0,0 +1,50 @@
+package src;
+import java.time.LocalDate;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Quotes through the pricing engine with weekend, seasonal and length-of-stay rules in force
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PricingBenchmarks {
+    @Param({"1", "7", "30"})
+    public int nights;
+
+    private static final String[] TYPES = BenchmarkDatabase.ROOM_TYPES;
+
+    private HotelReservationSystem.PricingEngine pricing;
+    private int today;
+
+    @State(Scope.Thread)
+    public static class Caller {
+        final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pricing = new HotelReservationSystem.PricingEngine();
+        for (String type : TYPES) {
+            pricing.setRatePlan(type, new HotelReservationSystem.RatePlan("15",
+                "12-20..01-05:40,07-01..08-31:20,04-10..04-20:-10", "7:5,14:10,28:20"));
+        }
+        today = (int) LocalDate.now().toEpochDay();
+    }
+
+    @Benchmark
+    public long quote(Caller caller) {
+        int type = caller.random.nextInt(TYPES.length);
+        int checkIn = today + caller.random.nextInt(365);
+        return pricing.quote(TYPES[type], 10_000 + type * 5_000L, checkIn, checkIn + nights);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long quote_8threads(Caller caller) {
+        return quote(caller);
+    }
+}
@@ -0,0 +1,122 @@
+package src;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Reservation hot paths against a generated database. The full parameter matrix is large; narrow it with
+// e.g. java -jar target/benchmarks.jar -p rooms=1000 -p reservations=1000000
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ReservationBenchmarks {
+    @Param({"10", "1000", "100000"})
+    public int rooms;
+    
+    @Param({"10000", "1000000", "10000000"})
+    public int reservations;
+    
+    private HotelReservationSystem.RoomService roomService;
+    private HotelReservationSystem.ReservationService reservationService;
+    private HotelReservationSystem.PaymentService paymentService;
+    private int horizonDays;
+    
+    @State(Scope.Thread)
+    public static class Caller {
+        final SplittableRandom random = new SplittableRandom();
+    }
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkDatabase.open(rooms, reservations);
+        roomService = new HotelReservationSystem.RoomService();
+        reservationService = new HotelReservationSystem.ReservationService();
+        paymentService = new HotelReservationSystem.PaymentService();
+        horizonDays = BenchmarkDatabase.horizonDays(rooms, reservations);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        HotelReservationSystem.DatabaseManager.shutdown();
+    }
+    
+    @Benchmark
+    public boolean isRoomAvailable(Caller caller) {
+        LocalDate checkIn = historyDate(caller);
+        return reservationService.isRoomAvailable(randomRoom(caller), checkIn, checkIn.plusDays(3));
+    }
+    
+    // The pre-index SQL overlap check, kept as the baseline for isRoomAvailable
+    @Benchmark
+    public boolean isRoomAvailableSql(Caller caller) throws SQLException {
+        LocalDate checkIn = historyDate(caller);
+        try (HotelReservationSystem.PooledConnection conn = HotelReservationSystem.DatabaseManager.getConnection()) {
+            PreparedStatement pstmt = conn.prepare(HotelReservationSystem.Sql.RESERVATION_OVERLAP_COUNT);
+            pstmt.setInt(1, randomRoom(caller));
+            HotelReservationSystem.DatabaseManager.bindDate(pstmt, 2, checkIn.plusDays(3));
+            HotelReservationSystem.DatabaseManager.bindDate(pstmt, 3, checkIn);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() && rs.getInt(1) == 0;
+            }
+        }
+    }
+    
+    @Benchmark
+    public int searchAvailableRooms(Caller caller) {
+        LocalDate checkIn = historyDate(caller);
+        String roomType = BenchmarkDatabase.ROOM_TYPES[caller.random.nextInt(BenchmarkDatabase.ROOM_TYPES.length)];
+        return roomService.searchAvailableRooms(roomType, checkIn, checkIn.plusDays(3)).size();
+    }
+    
+    // Booked beyond the generated history so the stay is almost always free, then cancelled again
+    @Benchmark
+    public boolean bookAndCancel(Caller caller) {
+        LocalDate checkIn = BenchmarkDatabase.HISTORY_START.plusDays(horizonDays + caller.random.nextInt(3650));
+        HotelReservationSystem.Reservation reservation = reservationService.makeReservation(
+            randomRoom(caller), "Bench Guest", "bench@example.com", checkIn, checkIn.plusDays(2), 100.0);
+        return reservation != null && reservationService.cancelReservation(reservation.getReservationId());
+    }
+    
+    @Benchmark
+    public boolean processPayment(Caller caller) {
+        return paymentService.processPayment(1 + caller.random.nextInt(Math.max(1, reservations)), 100.0, "Cash");
+    }
+    
+    @Benchmark
+    @Threads(8)
+    public boolean isRoomAvailable_8threads(Caller caller) {
+        return isRoomAvailable(caller);
+    }
+    
+    @Benchmark
+    @Threads(8)
+    public int searchAvailableRooms_8threads(Caller caller) {
+        return searchAvailableRooms(caller);
+    }
+    
+    @Benchmark
+    @Threads(8)
+    public boolean bookAndCancel_8threads(Caller caller) {
+        return bookAndCancel(caller);
+    }
+    
+    @Benchmark
+    @Threads(8)
+    public boolean processPayment_8threads(Caller caller) {
+        return processPayment(caller);
+    }
+    
+    private int randomRoom(Caller caller) {
+        return 1 + caller.random.nextInt(rooms);
+    }
+    
+    private LocalDate historyDate(Caller caller) {
+        return BenchmarkDatabase.HISTORY_START.plusDays(caller.random.nextInt(horizonDays));
+    }
+}
@@ -0,0 +1,134 @@
+package src;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Reservation objects against the columnar ReservationStore, on the heap and off it. Setup prints the
+// memory each model holds per reservation; the benchmarks time a revenue scan over a 30-night window.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ReservationStoreBenchmarks {
+    @Param({"objects", "columns", "offheap"})
+    public String model;
+
+    @Param({"1000000", "10000000"})
+    public int reservations;
+
+    private static final int ROOMS = 1000;
+    private static final int WINDOW_NIGHTS = 30;
+
+    private List<HotelReservationSystem.Reservation> objects;
+    private HotelReservationSystem.ReservationStore store;
+    private int firstDay;
+    private int horizonDays;
+
+    // Reused across scans so the columnar scan allocates nothing
+    private final RevenueScan revenueScan = new RevenueScan();
+
+    static final class RevenueScan implements HotelReservationSystem.ReservationStore.StayScan {
+        long cents;
+
+        @Override
+        public void visit(int reservationId, int roomId, int checkIn, int checkOut, long priceCents) {
+            cents += priceCents;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Caller {
+        final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        firstDay = (int) BenchmarkDatabase.HISTORY_START.toEpochDay();
+        horizonDays = BenchmarkDatabase.horizonDays(ROOMS, reservations);
+        long heapBefore = usedHeap();
+        long directBefore = usedDirect();
+
+        // Each room gets back-to-back stays of 1-6 nights; one guest in four books again
+        SplittableRandom random = new SplittableRandom(42);
+        int[] nextFree = new int[ROOMS + 1];
+        int guests = Math.max(1, reservations / 4);
+        if ("objects".equals(model)) {
+            objects = new ArrayList<>(reservations);
+        } else {
+            store = new HotelReservationSystem.ReservationStore("offheap".equals(model), reservations + 1);
+        }
+        for (int id = 1; id <= reservations; id++) {
+            int roomId = 1 + random.nextInt(ROOMS);
+            int checkIn = firstDay + nextFree[roomId] + random.nextInt(2);
+            int checkOut = checkIn + 1 + random.nextInt(6);
+            nextFree[roomId] = checkOut - firstDay;
+            int guest = random.nextInt(guests);
+            // New String instances per row, as a JDBC driver would materialize them
+            String name = new String("Guest " + guest);
+            String email = new String("guest" + guest + "@example.com");
+            double price = BenchmarkDatabase.PRICES[roomId % 3] * (checkOut - checkIn);
+            boolean cancelled = random.nextInt(100) < 8;
+            if (objects != null) {
+                HotelReservationSystem.Reservation reservation = new HotelReservationSystem.Reservation(roomId, name,
+                    email, LocalDate.ofEpochDay(checkIn), LocalDate.ofEpochDay(checkOut), price);
+                reservation.setReservationId(id);
+                reservation.setStatus(cancelled ? "Cancelled" : "Confirmed");
+                objects.add(reservation);
+            } else {
+                store.put(id, roomId, name, email, checkIn, checkOut,
+                    HotelReservationSystem.Money.cents(price),
+                    cancelled ? HotelReservationSystem.ReservationStore.CANCELLED
+                              : HotelReservationSystem.ReservationStore.CONFIRMED);
+            }
+        }
+
+        long heap = usedHeap() - heapBefore;
+        long direct = usedDirect() - directBefore;
+        System.out.printf("%n%s: %.1f heap + %.1f off-heap bytes per reservation%n", model,
+            (double) heap / reservations, (double) direct / reservations);
+    }
+
+    @Benchmark
+    public long windowRevenue(Caller caller) {
+        int from = firstDay + caller.random.nextInt(horizonDays);
+        int to = from + WINDOW_NIGHTS;
+        if (objects != null) {
+            long cents = 0;
+            for (HotelReservationSystem.Reservation reservation : objects) {
+                if ("Confirmed".equals(reservation.getStatus())
+                        && reservation.getCheckInDate().toEpochDay() < to
+                        && reservation.getCheckOutDate().toEpochDay() > from) {
+                    cents += reservation.getTotalCents();
+                }
+            }
+            return cents;
+        }
+        revenueScan.cents = 0;
+        store.forEachConfirmed(from, to, revenueScan);
+        return revenueScan.cents;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long usedDirect() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,120 @@
+package src;
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Room assignment over a year of stays booked by room type. Setup books the year to about 85% occupancy in
+// random order through the incremental best fit, and prints the orphan nights it leaves against a naive
+// first-free assignment of the same requests, before and after a full re-optimization. The benchmarks time
+// one incremental assignment and the full plan, fork/join across the room types and one type at a time.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class RoomAssignmentBenchmarks {
+    @Param({"1000"})
+    public int rooms;
+
+    private static final int NIGHTS = 365;
+    private static final double TARGET_OCCUPANCY = 0.85;
+
+    private HotelReservationSystem.AvailabilityIndex index;
+    private HotelReservationSystem.RoomAssigner assigner;
+    private final BitSet flexibleStays = new BitSet();
+    private int from;
+
+    @State(Scope.Thread)
+    public static class Caller {
+        final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkDatabase.open(rooms, 0);
+        index = HotelReservationSystem.DatabaseManager.getAvailabilityIndex();
+        assigner = HotelReservationSystem.RoomAssigner.create();
+        from = (int) LocalDate.now().plusDays(1).toEpochDay();
+
+        // The naive assignment gets the same requests, each in the first free room of its type
+        String[] types = BenchmarkDatabase.ROOM_TYPES;
+        HotelReservationSystem.RoomCalendar[][] naive = new HotelReservationSystem.RoomCalendar[types.length][];
+        for (int t = 0; t < types.length; t++) {
+            naive[t] = index.copyCalendars(index.roomsOfType(types[t]));
+        }
+
+        SplittableRandom random = new SplittableRandom(42);
+        long target = (long) (rooms * NIGHTS * TARGET_OCCUPANCY);
+        long booked = 0;
+        int id = 0;
+        for (int misses = 0; booked < target && misses < 100_000; ) {
+            int t = random.nextInt(types.length);
+            int in = from + random.nextInt(NIGHTS);
+            int out = Math.min(in + 1 + random.nextInt(6), from + NIGHTS);
+            int roomId = index.bestFitRoom(types[t], LocalDate.ofEpochDay(in), LocalDate.ofEpochDay(out), assigner);
+            if (roomId == 0) {
+                misses++;
+                continue;
+            }
+            index.addStay(roomId, ++id, LocalDate.ofEpochDay(in), LocalDate.ofEpochDay(out));
+            flexibleStays.set(id);
+            booked += out - in;
+            for (HotelReservationSystem.RoomCalendar calendar : naive[t]) {
+                if (assigner.fitCost(calendar, in, out) >= 0) {
+                    calendar.add(id, in, out);
+                    break;
+                }
+            }
+        }
+
+        int naiveOrphans = 0;
+        int naiveOptimized = 0;
+        int bestFitOrphans = 0;
+        int bestFitOptimized = 0;
+        for (int t = 0; t < types.length; t++) {
+            naiveOrphans += assigner.orphanNights(naive[t], from);
+            naiveOptimized += assigner.planType(types[t], index.roomsOfType(types[t]), naive[t], flexibleStays, from)
+                .getOrphanNightsAfter();
+        }
+        for (HotelReservationSystem.RoomAssigner.TypePlan plan : assigner.plan(index, flexibleStays, from)) {
+            bestFitOrphans += plan.getOrphanNightsBefore();
+            bestFitOptimized += plan.getOrphanNightsAfter();
+        }
+        System.out.printf("%n%d stays, %.1f%% occupancy; orphan nights: first free %d (%d re-optimized), " +
+            "best fit %d (%d re-optimized)%n", id, 100.0 * booked / ((long) rooms * NIGHTS), naiveOrphans,
+            naiveOptimized, bestFitOrphans, bestFitOptimized);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        HotelReservationSystem.DatabaseManager.shutdown();
+    }
+
+    @Benchmark
+    public int assignRoom(Caller caller) {
+        LocalDate checkIn = LocalDate.ofEpochDay(from + caller.random.nextInt(NIGHTS));
+        return index.bestFitRoom(BenchmarkDatabase.ROOM_TYPES[caller.random.nextInt(BenchmarkDatabase.ROOM_TYPES.length)],
+            checkIn, checkIn.plusDays(1 + caller.random.nextInt(6)), assigner);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<HotelReservationSystem.RoomAssigner.TypePlan> planParallel() {
+        return assigner.plan(index, flexibleStays, from);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int planSequential() {
+        int moves = 0;
+        for (String type : index.roomTypes()) {
+            int[] roomIds = index.roomsOfType(type);
+            moves += assigner.planType(type, roomIds, index.copyCalendars(roomIds), flexibleStays, from).getMoves();
+        }
+        return moves;
+    }
+}
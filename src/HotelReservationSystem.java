@@ -1,703 +1,10914 @@
-package src;
-import java.sql.*;
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
-import java.time.temporal.ChronoUnit;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Scanner;
-
-public class HotelReservationSystem {
-    // Database configuration
-    private static final String DB_URL = "jdbc:sqlite:hotel.db";
-    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE;
-    
-    // Main entities
-    static class Room {
-        private int roomId;
-        private String roomNumber;
-        private String roomType;
-        private double pricePerNight;
-        private boolean isAvailable;
-        
-        public Room(int roomId, String roomNumber, String roomType, double pricePerNight, boolean isAvailable) {
-            this.roomId = roomId;
-            this.roomNumber = roomNumber;
-            this.roomType = roomType;
-            this.pricePerNight = pricePerNight;
-            this.isAvailable = isAvailable;
-        }
-
-        // Getters
-        public int getRoomId() { return roomId; }
-        public String getRoomNumber() { return roomNumber; }
-        public String getRoomType() { return roomType; }
-        public double getPricePerNight() { return pricePerNight; }
-        public boolean isAvailable() { return isAvailable; }
-    }
-
-    static class Reservation {
-        private int reservationId;
-        private int roomId;
-        private String guestName;
-        private String guestEmail;
-        private LocalDate checkInDate;
-        private LocalDate checkOutDate;
-        private double totalPrice;
-        private String status;
-        
-        public Reservation(int roomId, String guestName, String guestEmail, 
-                         LocalDate checkInDate, LocalDate checkOutDate, double totalPrice) {
-            this.roomId = roomId;
-            this.guestName = guestName;
-            this.guestEmail = guestEmail;
-            this.checkInDate = checkInDate;
-            this.checkOutDate = checkOutDate;
-            this.totalPrice = totalPrice;
-            this.status = "Confirmed";
-        }
-
-        // Getters and setters
-        public int getReservationId() { return reservationId; }
-        public void setReservationId(int reservationId) { this.reservationId = reservationId; }
-        public int getRoomId() { return roomId; }
-        public String getGuestName() { return guestName; }
-        public String getGuestEmail() { return guestEmail; }
-        public LocalDate getCheckInDate() { return checkInDate; }
-        public LocalDate getCheckOutDate() { return checkOutDate; }
-        public double getTotalPrice() { return totalPrice; }
-        public String getStatus() { return status; }
-        public void setStatus(String status) { this.status = status; }
-    }
-
-    static class Payment {
-        private int paymentId;
-        private int reservationId;
-        private double amount;
-        private LocalDate paymentDate;
-        private String paymentMethod;
-        
-        public Payment(int reservationId, double amount, String paymentMethod) {
-            this.reservationId = reservationId;
-            this.amount = amount;
-            this.paymentMethod = paymentMethod;
-            this.paymentDate = LocalDate.now();
-        }
-
-        // Getters and setters
-        public int getPaymentId() { return paymentId; }
-        public void setPaymentId(int paymentId) { this.paymentId = paymentId; }
-        public int getReservationId() { return reservationId; }
-        public double getAmount() { return amount; }
-        public LocalDate getPaymentDate() { return paymentDate; }
-        public void setPaymentDate(LocalDate paymentDate) { this.paymentDate = paymentDate; }
-        public String getPaymentMethod() { return paymentMethod; }
-    }
-
-    // Database manager
-    static class DatabaseManager {
-        public static void initializeDatabase() {
-            try (Connection conn = DriverManager.getConnection(DB_URL);
-                 Statement stmt = conn.createStatement()) {
-                
-                // Create tables
-                stmt.execute("CREATE TABLE IF NOT EXISTS rooms (" +
-                    "room_id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                    "room_number TEXT NOT NULL UNIQUE," +
-                    "room_type TEXT NOT NULL," +
-                    "price_per_night REAL NOT NULL," +
-                    "is_available BOOLEAN NOT NULL DEFAULT 1)");
-                
-                stmt.execute("CREATE TABLE IF NOT EXISTS reservations (" +
-                    "reservation_id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                    "room_id INTEGER NOT NULL," +
-                    "guest_name TEXT NOT NULL," +
-                    "guest_email TEXT NOT NULL," +
-                    "check_in_date TEXT NOT NULL," +
-                    "check_out_date TEXT NOT NULL," +
-                    "total_price REAL NOT NULL," +
-                    "status TEXT NOT NULL," +
-                    "FOREIGN KEY (room_id) REFERENCES rooms(room_id))");
-                
-                stmt.execute("CREATE TABLE IF NOT EXISTS payments (" +
-                    "payment_id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                    "reservation_id INTEGER NOT NULL," +
-                    "amount REAL NOT NULL," +
-                    "payment_date TEXT NOT NULL," +
-                    "payment_method TEXT NOT NULL," +
-                    "FOREIGN KEY (reservation_id) REFERENCES reservations(reservation_id))");
-                
-                // Insert sample data if empty
-                insertSampleRooms();
-                
-            } catch (SQLException e) {
-                System.out.println("Database initialization failed: " + e.getMessage());
-            }
-        }
-        
-        private static void insertSampleRooms() {
-            try (Connection conn = DriverManager.getConnection(DB_URL);
-                 Statement stmt = conn.createStatement();
-                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM rooms")) {
-                
-                if (rs.getInt(1) == 0) {
-                    String[] roomTypes = {"Standard", "Deluxe", "Suite"};
-                    double[] prices = {100.0, 150.0, 250.0};
-                    
-                    for (int i = 1; i <= 10; i++) {
-                        String roomType = roomTypes[i % 3];
-                        double price = prices[i % 3];
-                        stmt.executeUpdate(String.format(
-                            "INSERT INTO rooms (room_number, room_type, price_per_night) " +
-                            "VALUES ('%d', '%s', %.2f)", i, roomType, price));
-                    }
-                }
-            } catch (SQLException e) {
-                System.out.println("Error inserting sample rooms: " + e.getMessage());
-            }
-        }
-        
-        public static Connection getConnection() throws SQLException {
-            return DriverManager.getConnection(DB_URL);
-        }
-    }
-
-    // Service classes
-    static class RoomService {
-        public List<Room> getAllAvailableRooms() {
-            List<Room> rooms = new ArrayList<>();
-            String sql = "SELECT * FROM rooms WHERE is_available = 1";
-            
-            try (Connection conn = DatabaseManager.getConnection();
-                 Statement stmt = conn.createStatement();
-                 ResultSet rs = stmt.executeQuery(sql)) {
-                
-                while (rs.next()) {
-                    rooms.add(new Room(
-                        rs.getInt("room_id"),
-                        rs.getString("room_number"),
-                        rs.getString("room_type"),
-                        rs.getDouble("price_per_night"),
-                        rs.getBoolean("is_available")));
-                }
-            } catch (SQLException e) {
-                System.out.println("Error fetching rooms: " + e.getMessage());
-            }
-            return rooms;
-        }
-        
-        public List<Room> searchAvailableRooms(String roomType, LocalDate checkIn, LocalDate checkOut) {
-            List<Room> availableRooms = new ArrayList<>();
-            String sql = "SELECT r.* FROM rooms r WHERE r.room_type = ? AND r.is_available = 1 " +
-                         "AND NOT EXISTS (SELECT 1 FROM reservations res WHERE res.room_id = r.room_id " +
-                         "AND res.status = 'Confirmed' AND res.check_out_date > ? AND res.check_in_date < ?)";
-            
-            try (Connection conn = DatabaseManager.getConnection();
-                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                
-                pstmt.setString(1, roomType);
-                pstmt.setString(2, checkIn.format(DATE_FORMATTER));
-                pstmt.setString(3, checkOut.format(DATE_FORMATTER));
-                
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    while (rs.next()) {
-                        availableRooms.add(new Room(
-                            rs.getInt("room_id"),
-                            rs.getString("room_number"),
-                            rs.getString("room_type"),
-                            rs.getDouble("price_per_night"),
-                            rs.getBoolean("is_available")));
-                    }
-                }
-            } catch (SQLException e) {
-                System.out.println("Error searching rooms: " + e.getMessage());
-            }
-            return availableRooms;
-        }
-        
-        public boolean updateRoomAvailability(int roomId, boolean isAvailable) {
-            String sql = "UPDATE rooms SET is_available = ? WHERE room_id = ?";
-            
-            try (Connection conn = DatabaseManager.getConnection();
-                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                
-                pstmt.setBoolean(1, isAvailable);
-                pstmt.setInt(2, roomId);
-                
-                return pstmt.executeUpdate() > 0;
-            } catch (SQLException e) {
-                System.out.println("Error updating room availability: " + e.getMessage());
-                return false;
-            }
-        }
-        
-        public Room findRoomByNumber(String roomNumber) {
-            String sql = "SELECT * FROM rooms WHERE room_number = ? AND is_available = 1";
-            
-            try (Connection conn = DatabaseManager.getConnection();
-                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                
-                pstmt.setString(1, roomNumber);
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    if (rs.next()) {
-                        return new Room(
-                            rs.getInt("room_id"),
-                            rs.getString("room_number"),
-                            rs.getString("room_type"),
-                            rs.getDouble("price_per_night"),
-                            rs.getBoolean("is_available"));
-                    }
-                }
-            } catch (SQLException e) {
-                System.out.println("Error finding room: " + e.getMessage());
-            }
-            return null;
-        }
-    }
-
-    static class ReservationService {
-        public boolean isRoomAvailable(int roomId, LocalDate checkIn, LocalDate checkOut) {
-            String sql = "SELECT COUNT(*) FROM reservations WHERE room_id = ? AND status = 'Confirmed' " +
-                         "AND ((check_in_date < ? AND check_out_date > ?))";
-            
-            try (Connection conn = DatabaseManager.getConnection();
-                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                
-                pstmt.setInt(1, roomId);
-                pstmt.setString(2, checkOut.format(DATE_FORMATTER));
-                pstmt.setString(3, checkIn.format(DATE_FORMATTER));
-                
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    if (rs.next()) {
-                        return rs.getInt(1) == 0;
-                    }
-                }
-            } catch (SQLException e) {
-                System.out.println("Error checking room availability: " + e.getMessage());
-            }
-            return false;
-        }
-        
-        public double calculateTotalCost(int roomId, LocalDate checkIn, LocalDate checkOut) {
-            String sql = "SELECT price_per_night FROM rooms WHERE room_id = ?";
-            double pricePerNight = 0;
-            
-            try (Connection conn = DatabaseManager.getConnection();
-                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                
-                pstmt.setInt(1, roomId);
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    if (rs.next()) {
-                        pricePerNight = rs.getDouble("price_per_night");
-                    }
-                }
-            } catch (SQLException e) {
-                System.out.println("Error getting room price: " + e.getMessage());
-            }
-            
-            long days = ChronoUnit.DAYS.between(checkIn, checkOut);
-            return days * pricePerNight;
-        }
-        
-        public void generateReceipt(Reservation reservation, Payment payment) {
-            System.out.println("\n=== BOOKING RECEIPT ===");
-            System.out.println("Reservation ID: " + reservation.getReservationId());
-            System.out.println("Guest Name: " + reservation.getGuestName());
-            System.out.println("Room ID: " + reservation.getRoomId());
-            System.out.println("Check-in: " + reservation.getCheckInDate());
-            System.out.println("Check-out: " + reservation.getCheckOutDate());
-            System.out.println("Total Nights: " + 
-                ChronoUnit.DAYS.between(reservation.getCheckInDate(), reservation.getCheckOutDate()));
-            System.out.printf("Total Cost: $%.2f%n", reservation.getTotalPrice());
-            System.out.println("Payment Method: " + payment.getPaymentMethod());
-            System.out.println("Payment Date: " + payment.getPaymentDate());
-            System.out.println("Status: " + reservation.getStatus());
-            System.out.println("=========================");
-        }
-        
-        public Reservation makeReservation(int roomId, String guestName, String guestEmail, 
-                                         LocalDate checkIn, LocalDate checkOut, double pricePerNight) {
-            long nights = ChronoUnit.DAYS.between(checkIn, checkOut);
-            double totalPrice = nights * pricePerNight;
-            Reservation reservation = new Reservation(roomId, guestName, guestEmail, checkIn, checkOut, totalPrice);
-            
-            String sql = "INSERT INTO reservations (room_id, guest_name, guest_email, " +
-                         "check_in_date, check_out_date, total_price, status) " +
-                         "VALUES (?, ?, ?, ?, ?, ?, ?)";
-            
-            try (Connection conn = DatabaseManager.getConnection();
-                 PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-                
-                pstmt.setInt(1, roomId);
-                pstmt.setString(2, guestName);
-                pstmt.setString(3, guestEmail);
-                pstmt.setString(4, checkIn.format(DATE_FORMATTER));
-                pstmt.setString(5, checkOut.format(DATE_FORMATTER));
-                pstmt.setDouble(6, totalPrice);
-                pstmt.setString(7, reservation.getStatus());
-                
-                int affectedRows = pstmt.executeUpdate();
-                if (affectedRows == 0) return null;
-                
-                try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
-                    if (generatedKeys.next()) {
-                        reservation.setReservationId(generatedKeys.getInt(1));
-                    }
-                }
-                
-                RoomService roomService = new RoomService();
-                roomService.updateRoomAvailability(roomId, false);
-                
-                return reservation;
-            } catch (SQLException e) {
-                System.out.println("Error making reservation: " + e.getMessage());
-                return null;
-            }
-        }
-        
-        public boolean cancelReservation(int reservationId) {
-            int roomId = -1;
-            String getRoomSql = "SELECT room_id FROM reservations WHERE reservation_id = ?";
-            
-            try (Connection conn = DatabaseManager.getConnection();
-                 PreparedStatement pstmt = conn.prepareStatement(getRoomSql)) {
-                
-                pstmt.setInt(1, reservationId);
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    if (rs.next()) {
-                        roomId = rs.getInt("room_id");
-                    } else {
-                        return false;
-                    }
-                }
-                
-                String updateReservationSql = "UPDATE reservations SET status = 'Cancelled' WHERE reservation_id = ?";
-                try (PreparedStatement updateStmt = conn.prepareStatement(updateReservationSql)) {
-                    updateStmt.setInt(1, reservationId);
-                    if (updateStmt.executeUpdate() == 0) return false;
-                }
-                
-                if (roomId != -1) {
-                    RoomService roomService = new RoomService();
-                    roomService.updateRoomAvailability(roomId, true);
-                }
-                
-                return true;
-            } catch (SQLException e) {
-                System.out.println("Error cancelling reservation: " + e.getMessage());
-                return false;
-            }
-        }
-        
-        public Reservation getReservationDetails(int reservationId) {
-            String sql = "SELECT * FROM reservations WHERE reservation_id = ?";
-            
-            try (Connection conn = DatabaseManager.getConnection();
-                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                
-                pstmt.setInt(1, reservationId);
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    if (rs.next()) {
-                        Reservation reservation = new Reservation(
-                            rs.getInt("room_id"),
-                            rs.getString("guest_name"),
-                            rs.getString("guest_email"),
-                            LocalDate.parse(rs.getString("check_in_date"), DATE_FORMATTER),
-                            LocalDate.parse(rs.getString("check_out_date"), DATE_FORMATTER),
-                            rs.getDouble("total_price"));
-                        reservation.setReservationId(rs.getInt("reservation_id"));
-                        reservation.setStatus(rs.getString("status"));
-                        return reservation;
-                    }
-                }
-            } catch (SQLException e) {
-                System.out.println("Error fetching reservation: " + e.getMessage());
-            } catch (DateTimeParseException e) {
-                System.out.println("Error parsing reservation dates: " + e.getMessage());
-            }
-            return null;
-        }
-    }
-
-    static class PaymentService {
-        public boolean processPayment(int reservationId, double amount, String paymentMethod) {
-            Payment payment = new Payment(reservationId, amount, paymentMethod);
-            
-            String sql = "INSERT INTO payments (reservation_id, amount, payment_date, payment_method) " +
-                         "VALUES (?, ?, ?, ?)";
-            
-            try (Connection conn = DatabaseManager.getConnection();
-                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                
-                pstmt.setInt(1, payment.getReservationId());
-                pstmt.setDouble(2, payment.getAmount());
-                pstmt.setString(3, payment.getPaymentDate().format(DATE_FORMATTER));
-                pstmt.setString(4, payment.getPaymentMethod());
-                
-                return pstmt.executeUpdate() > 0;
-            } catch (SQLException e) {
-                System.out.println("Error processing payment: " + e.getMessage());
-                return false;
-            }
-        }
-        
-        public Payment getPaymentDetails(int reservationId) {
-            String sql = "SELECT * FROM payments WHERE reservation_id = ?";
-            
-            try (Connection conn = DatabaseManager.getConnection();
-                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                
-                pstmt.setInt(1, reservationId);
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    if (rs.next()) {
-                        Payment payment = new Payment(
-                            rs.getInt("reservation_id"),
-                            rs.getDouble("amount"),
-                            rs.getString("payment_method"));
-                        payment.setPaymentId(rs.getInt("payment_id"));
-                        
-                        // Safe date parsing with error handling
-                        String dateStr = rs.getString("payment_date");
-                        try {
-                            payment.setPaymentDate(dateStr != null ? 
-                                LocalDate.parse(dateStr, DATE_FORMATTER) : 
-                                LocalDate.now());
-                        } catch (DateTimeParseException e) {
-                            System.out.println("Invalid payment date format, using current date");
-                            payment.setPaymentDate(LocalDate.now());
-                        }
-                        
-                        return payment;
-                    }
-                }
-            } catch (SQLException e) {
-                System.out.println("Error fetching payment: " + e.getMessage());
-            }
-            return null;
-        }
-    }
-
-    // Main application
-    private static Scanner scanner = new Scanner(System.in);
-    private static RoomService roomService = new RoomService();
-    private static ReservationService reservationService = new ReservationService();
-    private static PaymentService paymentService = new PaymentService();
-    
-    public static void main(String[] args) {
-        DatabaseManager.initializeDatabase();
-        showMainMenu();
-    }
-    
-    private static void showMainMenu() {
-        while (true) {
-            System.out.println("\n=== Hotel Reservation System ===");
-            System.out.println("1. Search Available Rooms");
-            System.out.println("2. Make a Reservation");
-            System.out.println("3. View/Cancel Reservation");
-            System.out.println("4. Exit");
-            System.out.print("Enter your choice: ");
-            
-            int choice = scanner.nextInt();
-            scanner.nextLine(); // consume newline
-            
-            switch (choice) {
-                case 1: searchRooms(); break;
-                case 2: makeReservation(); break;
-                case 3: manageReservation(); break;
-                case 4: 
-                    System.out.println("Thank you for using our system. Goodbye!");
-                    return;
-                default:
-                    System.out.println("Invalid choice. Please try again.");
-            }
-        }
-    }
-    
-    private static void searchRooms() {
-        System.out.println("\n=== Search Available Rooms ===");
-        System.out.print("Enter room type (Standard/Deluxe/Suite or leave blank for all): ");
-        String roomType = scanner.nextLine();
-        
-        LocalDate checkIn = getDateInput("Enter check-in date (YYYY-MM-DD): ");
-        LocalDate checkOut = getDateInput("Enter check-out date (YYYY-MM-DD): ");
-        
-        List<Room> availableRooms;
-        if (roomType.isEmpty()) {
-            availableRooms = roomService.getAllAvailableRooms();
-        } else {
-            availableRooms = roomService.searchAvailableRooms(roomType, checkIn, checkOut);
-        }
-        
-        if (availableRooms.isEmpty()) {
-            System.out.println("No available rooms found for your criteria.");
-        } else {
-            System.out.println("\nAvailable Rooms:");
-            System.out.printf("%-10s %-10s %-15s %-10s%n", 
-                "Room No.", "Type", "Price/Night", "Available");
-            for (Room room : availableRooms) {
-                System.out.printf("%-10s %-10s %-15.2f %-10s%n",
-                    room.getRoomNumber(),
-                    room.getRoomType(),
-                    room.getPricePerNight(),
-                    room.isAvailable() ? "Yes" : "No");
-            }
-        }
-    }
-    
-    private static void makeReservation() {
-        System.out.println("\n=== Make a Reservation ===");
-        System.out.print("Enter room number to book: ");
-        String roomNumber = scanner.nextLine();
-        
-        Room room = roomService.findRoomByNumber(roomNumber);
-        if (room == null) {
-            System.out.println("Room not found or not available.");
-            return;
-        }
-        
-        LocalDate checkIn = getDateInput("Enter check-in date (YYYY-MM-DD): ");
-        LocalDate checkOut = getDateInput("Enter check-out date (YYYY-MM-DD): ");
-        
-        // Validate dates
-        if (checkOut.isBefore(checkIn.plusDays(1))) {
-            System.out.println("Error: Minimum stay is 1 night");
-            return;
-        }
-        
-        // Check availability
-        if (!reservationService.isRoomAvailable(room.getRoomId(), checkIn, checkOut)) {
-            System.out.println("Room not available for selected dates");
-            return;
-        }
-        
-        // Get guest info
-        System.out.print("Enter guest name: ");
-        String guestName = scanner.nextLine();
-        System.out.print("Enter guest email: ");
-        String guestEmail = scanner.nextLine();
-        
-        // Calculate total price
-        double totalPrice = reservationService.calculateTotalCost(room.getRoomId(), checkIn, checkOut);
-        
-        // Confirm reservation
-        System.out.printf("\nReservation Summary:%n");
-        System.out.printf("Room: %s (%s)%n", room.getRoomNumber(), room.getRoomType());
-        System.out.printf("Dates: %s to %s (%d nights)%n", checkIn, checkOut, 
-            ChronoUnit.DAYS.between(checkIn, checkOut));
-        System.out.printf("Total Price: $%.2f%n", totalPrice);
-        System.out.print("Confirm reservation? (Y/N): ");
-        String confirm = scanner.nextLine();
-        
-        if (confirm.equalsIgnoreCase("Y")) {
-            // Make reservation
-            Reservation reservation = reservationService.makeReservation(
-                room.getRoomId(), guestName, guestEmail, checkIn, checkOut, room.getPricePerNight());
-            
-            if (reservation != null) {
-                System.out.println("Reservation created successfully!");
-                System.out.println("Your reservation ID is: " + reservation.getReservationId());
-                
-                // Process payment
-                processPayment(reservation);
-            } else {
-                System.out.println("Failed to create reservation.");
-            }
-        } else {
-            System.out.println("Reservation cancelled.");
-        }
-    }
-    
-    private static void processPayment(Reservation reservation) {
-        System.out.println("\n=== Payment Processing ===");
-        System.out.printf("Total amount due: $%.2f%n", reservation.getTotalPrice());
-        
-        System.out.println("Select payment method:");
-        System.out.println("1. Credit Card");
-        System.out.println("2. Debit Card");
-        System.out.println("3. Cash");
-        System.out.print("Enter your choice: ");
-        int choice = scanner.nextInt();
-        scanner.nextLine();
-        
-        String paymentMethod = switch (choice) {
-            case 1 -> "Credit Card";
-            case 2 -> "Debit Card";
-            case 3 -> "Cash";
-            default -> {
-                System.out.println("Invalid choice. Defaulting to Credit Card.");
-                yield "Credit Card";
-            }
-        };
-        
-        boolean paymentSuccess = paymentService.processPayment(
-            reservation.getReservationId(), reservation.getTotalPrice(), paymentMethod);
-        
-        if (paymentSuccess) {
-            Payment payment = paymentService.getPaymentDetails(reservation.getReservationId());
-            reservationService.generateReceipt(reservation, payment);
-            System.out.println("Payment processed successfully!");
-        } else {
-            System.out.println("Payment processing failed.");
-        }
-    }
-    
-    private static void manageReservation() {
-        System.out.println("\n=== Manage Reservation ===");
-        System.out.print("Enter your reservation ID: ");
-        int reservationId = scanner.nextInt();
-        scanner.nextLine();
-        
-        Reservation reservation = reservationService.getReservationDetails(reservationId);
-        if (reservation == null) {
-            System.out.println("Reservation not found.");
-            return;
-        }
-        
-        System.out.println("\nReservation Details:");
-        System.out.println("ID: " + reservationId);
-        System.out.println("Guest: " + reservation.getGuestName());
-        System.out.println("Email: " + reservation.getGuestEmail());
-        System.out.println("Dates: " + reservation.getCheckInDate() + " to " + reservation.getCheckOutDate());
-        System.out.printf("Total Price: $%.2f%n", reservation.getTotalPrice());
-        System.out.println("Status: " + reservation.getStatus());
-        
-        Payment payment = paymentService.getPaymentDetails(reservationId);
-        if (payment != null) {
-            System.out.println("\nPayment Details:");
-            System.out.println("Amount: $" + payment.getAmount());
-            System.out.println("Method: " + payment.getPaymentMethod());
-            System.out.println("Date: " + payment.getPaymentDate());
-        }
-        
-        if (reservation.getStatus().equals("Confirmed")) {
-            System.out.print("\nDo you want to cancel this reservation? (Y/N): ");
-            String choice = scanner.nextLine();
-            
-            if (choice.equalsIgnoreCase("Y")) {
-                boolean cancelled = reservationService.cancelReservation(reservationId);
-                System.out.println(cancelled ? 
-                    "Reservation cancelled successfully." : 
-                    "Failed to cancel reservation.");
-            }
-        }
-    }
-    
-    private static LocalDate getDateInput(String prompt) {
-        while (true) {
-            System.out.print(prompt);
-            String dateStr = scanner.nextLine();
-            
-            try {
-                LocalDate date = LocalDate.parse(dateStr, DATE_FORMATTER);
-                if (date.isBefore(LocalDate.now())) {
-                    System.out.println("Error: Date cannot be in the past");
-                    continue;
-                }
-                return date;
-            } catch (DateTimeParseException e) {
-                System.out.println("Invalid date format. Please use YYYY-MM-DD.");
-            }
-        }
-    }
+package src;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.time.DateTimeException;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.MonthDay;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.function.IntConsumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class HotelReservationSystem {
+    // Database configuration
+    private static final String DEFAULT_DB_URL = "jdbc:sqlite:hotel.db";
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE;
+    
+    // Main entities
+    static class Room {
+        private int roomId;
+        private String roomNumber;
+        private String roomType;
+        private long priceCents;
+        private boolean isAvailable;
+        private int capacity;
+        
+        public Room(int roomId, String roomNumber, String roomType, double pricePerNight, boolean isAvailable,
+                    int capacity) {
+            this.roomId = roomId;
+            this.roomNumber = roomNumber;
+            this.roomType = roomType;
+            this.priceCents = Money.cents(pricePerNight);
+            this.isAvailable = isAvailable;
+            this.capacity = capacity;
+        }
+
+        // Getters
+        public int getRoomId() { return roomId; }
+        public String getRoomNumber() { return roomNumber; }
+        public String getRoomType() { return roomType; }
+        public double getPricePerNight() { return Money.decimal(priceCents); }
+        public long getPriceCents() { return priceCents; }
+        public boolean isAvailable() { return isAvailable; }
+        public int getCapacity() { return capacity; }
+    }
+
+    static class Reservation {
+        private int reservationId;
+        private int roomId;
+        private String guestName;
+        private String guestEmail;
+        private LocalDate checkInDate;
+        private LocalDate checkOutDate;
+        private long totalCents;
+        private String status;
+        private int guestId;
+        // Booked by room type: the room optimizer may move the stay to another room of that type
+        private boolean roomFlexible;
+        
+        public Reservation(int roomId, String guestName, String guestEmail, 
+                         LocalDate checkInDate, LocalDate checkOutDate, double totalPrice) {
+            this.roomId = roomId;
+            this.guestName = guestName;
+            this.guestEmail = guestEmail;
+            this.checkInDate = checkInDate;
+            this.checkOutDate = checkOutDate;
+            this.totalCents = Money.cents(totalPrice);
+            this.status = "Confirmed";
+        }
+
+        // Getters and setters
+        public int getReservationId() { return reservationId; }
+        public void setReservationId(int reservationId) { this.reservationId = reservationId; }
+        public int getRoomId() { return roomId; }
+        public String getGuestName() { return guestName; }
+        public String getGuestEmail() { return guestEmail; }
+        public LocalDate getCheckInDate() { return checkInDate; }
+        public LocalDate getCheckOutDate() { return checkOutDate; }
+        public double getTotalPrice() { return Money.decimal(totalCents); }
+        public long getTotalCents() { return totalCents; }
+        public String getStatus() { return status; }
+        public void setStatus(String status) { this.status = status; }
+        public int getGuestId() { return guestId; }
+        public void setGuestId(int guestId) { this.guestId = guestId; }
+        public boolean isRoomFlexible() { return roomFlexible; }
+        public void setRoomFlexible(boolean roomFlexible) { this.roomFlexible = roomFlexible; }
+    }
+
+    // A guest profile: one per distinct email, named as on the guest's latest booking
+    static class Guest {
+        private final int guestId;
+        private final String name;
+        private final String email;
+        
+        public Guest(int guestId, String name, String email) {
+            this.guestId = guestId;
+            this.name = name;
+            this.email = email;
+        }
+        
+        // Trims spaces and lowercases ASCII only, exactly as lower(trim(...)) does when SQLite links guests
+        static String normalizeEmail(String email) {
+            int start = 0;
+            int end = email.length();
+            while (start < end && email.charAt(start) == ' ') start++;
+            while (end > start && email.charAt(end - 1) == ' ') end--;
+            char[] chars = email.substring(start, end).toCharArray();
+            for (int i = 0; i < chars.length; i++) {
+                if (chars[i] >= 'A' && chars[i] <= 'Z') chars[i] += 'a' - 'A';
+            }
+            return new String(chars);
+        }
+
+        // Getters
+        public int getGuestId() { return guestId; }
+        public String getName() { return name; }
+        public String getEmail() { return email; }
+    }
+
+    // A charge, or a refund when the amount is negative. Charges taken through PaymentService start
+    // Pending and are settled with the gateway in the background; recorded and imported rows are Settled.
+    static class Payment {
+        static final String PENDING = "Pending";
+        static final String SETTLED = "Settled";
+        static final String FAILED = "Failed";
+        
+        private int paymentId;
+        private int reservationId;
+        private long amountCents;
+        private LocalDate paymentDate;
+        private String paymentMethod;
+        private String status = SETTLED;
+        private String idempotencyKey;
+        private String gatewayReference;
+        
+        public Payment(int reservationId, double amount, String paymentMethod) {
+            this.reservationId = reservationId;
+            this.amountCents = Money.cents(amount);
+            this.paymentMethod = paymentMethod;
+            this.paymentDate = LocalDate.now();
+        }
+
+        // Getters and setters
+        public int getPaymentId() { return paymentId; }
+        public void setPaymentId(int paymentId) { this.paymentId = paymentId; }
+        public int getReservationId() { return reservationId; }
+        public void setReservationId(int reservationId) { this.reservationId = reservationId; }
+        public double getAmount() { return Money.decimal(amountCents); }
+        public long getAmountCents() { return amountCents; }
+        public boolean isRefund() { return amountCents < 0; }
+        public LocalDate getPaymentDate() { return paymentDate; }
+        public void setPaymentDate(LocalDate paymentDate) { this.paymentDate = paymentDate; }
+        public String getPaymentMethod() { return paymentMethod; }
+        public String getStatus() { return status; }
+        public void setStatus(String status) { this.status = status; }
+        public String getIdempotencyKey() { return idempotencyKey; }
+        public void setIdempotencyKey(String idempotencyKey) { this.idempotencyKey = idempotencyKey; }
+        public String getGatewayReference() { return gatewayReference; }
+        public void setGatewayReference(String gatewayReference) { this.gatewayReference = gatewayReference; }
+    }
+
+    // Amounts are long cents; doubles only appear where they are stored or displayed
+    static final class Money {
+        private Money() {}
+        
+        static long cents(double amount) {
+            return Math.round(amount * 100);
+        }
+        
+        static double decimal(long cents) {
+            return cents / 100.0;
+        }
+        
+        // Basis points of an amount (10000 = all of it), rounded half up
+        static long applyBps(long cents, int bps) {
+            return Math.floorDiv(cents * bps + 5000, 10000);
+        }
+        
+        // "12.5" percent as 1250 basis points
+        static int percentToBps(String percent) {
+            return (int) Math.round(Double.parseDouble(percent.trim()) * 100);
+        }
+    }
+
+    // Outcome of a booking attempt; conflicts are a normal result, not an error
+    static class BookingResult {
+        enum Status { CONFIRMED, CONFLICT, INVALID, FAILED }
+        
+        private final Status status;
+        private final Reservation reservation;
+        private final Payment payment;
+        private final String message;
+        
+        private BookingResult(Status status, Reservation reservation, Payment payment, String message) {
+            this.status = status;
+            this.reservation = reservation;
+            this.payment = payment;
+            this.message = message;
+        }
+        
+        static BookingResult confirmed(Reservation reservation, Payment payment) {
+            return new BookingResult(Status.CONFIRMED, reservation, payment, "Reservation confirmed");
+        }
+        
+        static BookingResult conflict(String message) {
+            return new BookingResult(Status.CONFLICT, null, null, message);
+        }
+        
+        static BookingResult invalid(String message) {
+            return new BookingResult(Status.INVALID, null, null, message);
+        }
+        
+        static BookingResult failed(String message) {
+            return new BookingResult(Status.FAILED, null, null, message);
+        }
+
+        // Getters
+        public Status getStatus() { return status; }
+        public Reservation getReservation() { return reservation; }
+        public Payment getPayment() { return payment; }
+        public String getMessage() { return message; }
+        public boolean isConfirmed() { return status == Status.CONFIRMED; }
+    }
+
+    // ACCEPTED payments are stored as Pending and settle in the background; REPLAYED returns the payment
+    // first stored under the same idempotency key
+    static class PaymentResult {
+        enum Status { ACCEPTED, REPLAYED, REJECTED, FAILED }
+        
+        private final Status status;
+        private final Payment payment;
+        private final String message;
+        
+        private PaymentResult(Status status, Payment payment, String message) {
+            this.status = status;
+            this.payment = payment;
+            this.message = message;
+        }
+        
+        static PaymentResult accepted(Payment payment) {
+            return new PaymentResult(Status.ACCEPTED, payment, "Payment accepted");
+        }
+        
+        static PaymentResult replayed(Payment payment) {
+            return new PaymentResult(Status.REPLAYED, payment, "Payment already submitted with this key");
+        }
+        
+        static PaymentResult rejected(String message) {
+            return new PaymentResult(Status.REJECTED, null, message);
+        }
+        
+        static PaymentResult failed(String message) {
+            return new PaymentResult(Status.FAILED, null, message);
+        }
+        
+        // Getters
+        public Status getStatus() { return status; }
+        public Payment getPayment() { return payment; }
+        public String getMessage() { return message; }
+        public boolean isStored() { return status == Status.ACCEPTED || status == Status.REPLAYED; }
+    }
+
+    // SQL statement registry: every service query is declared once and prepared once per connection
+    enum Sql {
+        ROOMS_ALL("SELECT * FROM rooms ORDER BY room_id"),
+        ROOMS_FREE_BY_TYPE("SELECT r.room_id FROM rooms r WHERE r.room_type = ? " +
+            "AND NOT EXISTS (SELECT 1 FROM reservations res WHERE res.room_id = r.room_id " +
+            "AND res.status = 'Confirmed' AND res.check_out_date > ? AND res.check_in_date < ?)"),
+        ROOM_UPDATE_AVAILABILITY("UPDATE rooms SET is_available = ? WHERE room_id = ?"),
+        ROOM_UPDATE_PRICE("UPDATE rooms SET price_per_night = ? WHERE room_id = ?"),
+        ROOM_BY_NUMBER("SELECT * FROM rooms WHERE room_number = ?"),
+        ROOM_BY_ID("SELECT * FROM rooms WHERE room_id = ?"),
+        RESERVATION_OVERLAP_COUNT("SELECT COUNT(*) FROM reservations WHERE room_id = ? AND status = 'Confirmed' " +
+            "AND ((check_in_date < ? AND check_out_date > ?))"),
+        RESERVATION_INSERT("INSERT INTO reservations (room_id, guest_name, guest_email, " +
+            "check_in_date, check_out_date, total_price, status, guest_id, room_flexible) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)", true),
+        RESERVATION_ROOM_ID("SELECT room_id FROM reservations WHERE reservation_id = ?"),
+        RESERVATION_CANCEL("UPDATE reservations SET status = 'Cancelled' WHERE reservation_id = ? " +
+            "AND status = 'Confirmed'"),
+        RESERVATION_BY_ID("SELECT * FROM reservations WHERE reservation_id = ?"),
+        RESERVATIONS_CONFIRMED("SELECT reservation_id, room_id, check_in_date, check_out_date " +
+            "FROM reservations WHERE status = 'Confirmed'"),
+        RESERVATIONS_FLEXIBLE("SELECT reservation_id FROM reservations " +
+            "WHERE room_flexible = 1 AND status = 'Confirmed' AND check_in_date >= ?"),
+        RESERVATION_MOVE("UPDATE reservations SET room_id = ? " +
+            "WHERE reservation_id = ? AND room_id = ? AND status = 'Confirmed' AND room_flexible = 1"),
+        RESERVATIONS_BY_GUEST("SELECT * FROM reservations WHERE guest_id = ? ORDER BY check_in_date, reservation_id"),
+        GUESTS_ALL("SELECT * FROM guests ORDER BY guest_id"),
+        GUEST_BY_EMAIL("SELECT guest_id, name FROM guests WHERE email = ?"),
+        GUEST_INSERT("INSERT INTO guests (email, name) VALUES (?, ?)", true),
+        GUEST_RENAME("UPDATE guests SET name = ? WHERE guest_id = ?"),
+        PAYMENT_INSERT("INSERT INTO payments (reservation_id, amount, payment_date, payment_method, status, " +
+            "idempotency_key) VALUES (?, ?, ?, ?, ?, ?)", true),
+        PAYMENT_BY_RESERVATION("SELECT * FROM payments WHERE reservation_id = ? ORDER BY payment_id"),
+        PAYMENT_BY_KEY("SELECT * FROM payments WHERE idempotency_key = ?"),
+        // What a refund may still return: settled charges less refunds that have not failed
+        PAYMENT_REFUNDABLE("SELECT COALESCE(SUM(amount), 0) FROM payments WHERE reservation_id = ? " +
+            "AND (status = 'Settled' OR (status = 'Pending' AND amount < 0))"),
+        PAYMENTS_PENDING("SELECT * FROM payments WHERE status = 'Pending' ORDER BY payment_id"),
+        PAYMENT_SETTLE("UPDATE payments SET status = ?, gateway_reference = ? " +
+            "WHERE payment_id = ? AND status = 'Pending'"),
+        REPORT_STAYS("SELECT room_id, check_in_date, check_out_date, total_price FROM reservations " +
+            "WHERE status = 'Confirmed' AND check_in_date >= ? AND check_in_date < ?"),
+        REPORT_STAYS_CARRIED_IN("SELECT room_id, check_in_date, check_out_date, total_price FROM reservations " +
+            "WHERE status = 'Confirmed' AND check_in_date < ? AND check_out_date > ?"),
+        REPORT_PAYMENTS("SELECT payment_method, amount FROM payments WHERE payment_date >= ? AND payment_date < ? " +
+            "AND status = 'Settled'"),
+        BEGIN_IMMEDIATE("BEGIN IMMEDIATE"),
+        COMMIT("COMMIT"),
+        ROLLBACK("ROLLBACK"),
+        SAVEPOINT("SAVEPOINT write_op"),
+        RELEASE_SAVEPOINT("RELEASE write_op"),
+        ROLLBACK_TO_SAVEPOINT("ROLLBACK TO write_op");
+        
+        private final String text;
+        private final boolean returnsGeneratedKeys;
+        
+        Sql(String text) {
+            this(text, false);
+        }
+        
+        Sql(String text, boolean returnsGeneratedKeys) {
+            this.text = text;
+            this.returnsGeneratedKeys = returnsGeneratedKeys;
+        }
+        
+        public String getText() { return text; }
+        public boolean returnsGeneratedKeys() { return returnsGeneratedKeys; }
+        
+        // Executions go through these so each statement's latency and failures are recorded in Metrics
+        public ResultSet executeQuery(PreparedStatement pstmt) throws SQLException {
+            long started = System.nanoTime();
+            try {
+                return pstmt.executeQuery();
+            } catch (SQLException e) {
+                Metrics.sqlError(this);
+                throw e;
+            } finally {
+                Metrics.recordSql(this, started);
+            }
+        }
+        
+        public int executeUpdate(PreparedStatement pstmt) throws SQLException {
+            long started = System.nanoTime();
+            try {
+                return pstmt.executeUpdate();
+            } catch (SQLException e) {
+                Metrics.sqlError(this);
+                throw e;
+            } finally {
+                Metrics.recordSql(this, started);
+            }
+        }
+        
+        public int[] executeBatch(PreparedStatement pstmt) throws SQLException {
+            long started = System.nanoTime();
+            try {
+                return pstmt.executeBatch();
+            } catch (SQLException e) {
+                Metrics.sqlError(this);
+                throw e;
+            } finally {
+                Metrics.recordSql(this, started);
+            }
+        }
+    }
+
+    // Versioned schema migrations, tracked with PRAGMA user_version
+    static class SchemaMigrations {
+        // Creates a profile for each new email among unlinked reservations, named as on its latest one,
+        // then links those reservations. Bulk loads bypass the repository, so they run this afterwards.
+        private static final String[] GUEST_LINKING = {
+            "INSERT OR IGNORE INTO guests (email, name) SELECT email, guest_name FROM (" +
+                "SELECT lower(trim(guest_email)) AS email, guest_name, MAX(reservation_id) AS latest " +
+                "FROM reservations WHERE guest_id IS NULL GROUP BY email) ORDER BY latest",
+            "UPDATE reservations SET guest_id = (SELECT guest_id FROM guests " +
+                "WHERE email = lower(trim(reservations.guest_email))) WHERE guest_id IS NULL"
+        };
+        
+        private static final String[][] MIGRATIONS = {
+            // 1: base tables
+            {
+                "CREATE TABLE IF NOT EXISTS rooms (" +
+                    "room_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "room_number TEXT NOT NULL UNIQUE," +
+                    "room_type TEXT NOT NULL," +
+                    "price_per_night REAL NOT NULL," +
+                    "is_available BOOLEAN NOT NULL DEFAULT 1)",
+                "CREATE TABLE IF NOT EXISTS reservations (" +
+                    "reservation_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "room_id INTEGER NOT NULL," +
+                    "guest_name TEXT NOT NULL," +
+                    "guest_email TEXT NOT NULL," +
+                    "check_in_date TEXT NOT NULL," +
+                    "check_out_date TEXT NOT NULL," +
+                    "total_price REAL NOT NULL," +
+                    "status TEXT NOT NULL," +
+                    "FOREIGN KEY (room_id) REFERENCES rooms(room_id))",
+                "CREATE TABLE IF NOT EXISTS payments (" +
+                    "payment_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "reservation_id INTEGER NOT NULL," +
+                    "amount REAL NOT NULL," +
+                    "payment_date TEXT NOT NULL," +
+                    "payment_method TEXT NOT NULL," +
+                    "FOREIGN KEY (reservation_id) REFERENCES reservations(reservation_id))"
+            },
+            // 2: secondary indexes matching the service predicates, plus a settings table
+            {
+                "CREATE INDEX IF NOT EXISTS idx_reservations_room_status_dates " +
+                    "ON reservations(room_id, status, check_in_date, check_out_date)",
+                "CREATE INDEX IF NOT EXISTS idx_payments_reservation ON payments(reservation_id)",
+                "CREATE INDEX IF NOT EXISTS idx_rooms_type_available ON rooms(room_type, is_available)",
+                "CREATE TABLE IF NOT EXISTS schema_settings (" +
+                    "setting_key TEXT PRIMARY KEY," +
+                    "setting_value TEXT NOT NULL)"
+            },
+            // 3: guest capacity per room, backfilled from the room type
+            {
+                "ALTER TABLE rooms ADD COLUMN capacity INTEGER NOT NULL DEFAULT 2",
+                "UPDATE rooms SET capacity = CASE room_type WHEN 'Suite' THEN 4 WHEN 'Deluxe' THEN 3 ELSE 2 END"
+            },
+            // 4: date-ordered access for reports
+            {
+                "CREATE INDEX IF NOT EXISTS idx_reservations_status_check_in " +
+                    "ON reservations(status, check_in_date, check_out_date)",
+                "CREATE INDEX IF NOT EXISTS idx_payments_date ON payments(payment_date)"
+            },
+            // 5: asynchronous settlement; earlier payments were recorded as already taken
+            {
+                "ALTER TABLE payments ADD COLUMN status TEXT NOT NULL DEFAULT 'Settled'",
+                "ALTER TABLE payments ADD COLUMN idempotency_key TEXT",
+                "ALTER TABLE payments ADD COLUMN gateway_reference TEXT",
+                "CREATE UNIQUE INDEX IF NOT EXISTS idx_payments_idempotency_key ON payments(idempotency_key) " +
+                    "WHERE idempotency_key IS NOT NULL",
+                "CREATE INDEX IF NOT EXISTS idx_payments_pending ON payments(status) WHERE status = 'Pending'"
+            },
+            // 6: guest profiles, one per normalized email, linked from their reservations
+            {
+                "CREATE TABLE IF NOT EXISTS guests (" +
+                    "guest_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "email TEXT NOT NULL UNIQUE," +
+                    "name TEXT NOT NULL)",
+                "ALTER TABLE reservations ADD COLUMN guest_id INTEGER REFERENCES guests(guest_id)",
+                GUEST_LINKING[0],
+                GUEST_LINKING[1],
+                "CREATE INDEX IF NOT EXISTS idx_reservations_guest ON reservations(guest_id, check_in_date)"
+            },
+            // 7: stays booked by room type, which the room optimizer may move between rooms of that type
+            {
+                "ALTER TABLE reservations ADD COLUMN room_flexible INTEGER NOT NULL DEFAULT 0",
+                "CREATE INDEX IF NOT EXISTS idx_reservations_flexible ON reservations(check_in_date) " +
+                    "WHERE room_flexible = 1 AND status = 'Confirmed'"
+            }
+        };
+        
+        // Date columns per table that switch from ISO TEXT to epoch-day INTEGER
+        private static final String[][] DATE_COLUMNS = {
+            {"reservations", "check_in_date", "check_out_date"},
+            {"payments", "payment_date"}
+        };
+        
+        private static final String DATE_ENCODING_KEY = "date_encoding";
+        private static final String EPOCH_DAY_ENCODING = "epoch_day";
+        
+        static int latestVersion() {
+            return MIGRATIONS.length;
+        }
+        
+        static void migrate(PooledConnection conn) throws SQLException {
+            migrate(conn, MIGRATIONS.length);
+        }
+        
+        // Stops at targetVersion, leaving the schema as the release that shipped it
+        static void migrate(PooledConnection conn, int targetVersion) throws SQLException {
+            int version;
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+                version = rs.next() ? rs.getInt(1) : 0;
+            }
+            for (int v = version; v < Math.min(targetVersion, MIGRATIONS.length); v++) {
+                List<String> statements = new ArrayList<>(Arrays.asList(MIGRATIONS[v]));
+                statements.add("PRAGMA user_version = " + (v + 1));
+                applyInTransaction(conn, statements);
+            }
+        }
+        
+        static void linkGuests(PooledConnection conn) throws SQLException {
+            applyInTransaction(conn, Arrays.asList(GUEST_LINKING));
+        }
+        
+        static boolean usesEpochDayDates(PooledConnection conn) throws SQLException {
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "SELECT setting_value FROM schema_settings WHERE setting_key = ?")) {
+                pstmt.setString(1, DATE_ENCODING_KEY);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    return rs.next() && EPOCH_DAY_ENCODING.equals(rs.getString(1));
+                }
+            }
+        }
+        
+        // One-way conversion: SQLite TEXT affinity would turn integers back into text, so each table
+        // is rebuilt from its own stored DDL with the date columns retyped as INTEGER
+        static void convertToEpochDayDates(PooledConnection conn) throws SQLException {
+            List<String> statements = new ArrayList<>();
+            for (String[] table : DATE_COLUMNS) {
+                String name = table[0];
+                String ddl = null;
+                List<String> indexes = new ArrayList<>();
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                        "SELECT type, sql FROM sqlite_master WHERE tbl_name = ? AND sql IS NOT NULL")) {
+                    pstmt.setString(1, name);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            if ("table".equals(rs.getString("type"))) {
+                                ddl = rs.getString("sql");
+                            } else {
+                                indexes.add(rs.getString("sql"));
+                            }
+                        }
+                    }
+                }
+                if (ddl == null) {
+                    throw new SQLException("Cannot convert dates, table not found: " + name);
+                }
+                
+                String staging = name + "_epoch_day";
+                String stagingDdl = ddl.replaceFirst("(?i)CREATE TABLE (IF NOT EXISTS )?\"?" + name + "\"?", "CREATE TABLE " + staging);
+                StringBuilder conversion = new StringBuilder("UPDATE " + staging + " SET ");
+                for (int i = 1; i < table.length; i++) {
+                    stagingDdl = stagingDdl.replace(table[i] + " TEXT", table[i] + " INTEGER");
+                    if (i > 1) conversion.append(", ");
+                    conversion.append(table[i]).append(" = CAST(julianday(").append(table[i])
+                        .append(") - 2440587.5 AS INTEGER)");
+                }
+                statements.add(stagingDdl);
+                statements.add("INSERT INTO " + staging + " SELECT * FROM " + name);
+                statements.add(conversion.toString());
+                statements.add("DROP TABLE " + name);
+                statements.add("ALTER TABLE " + staging + " RENAME TO " + name);
+                statements.addAll(indexes);
+            }
+            statements.add("INSERT OR REPLACE INTO schema_settings (setting_key, setting_value) VALUES ('" +
+                DATE_ENCODING_KEY + "', '" + EPOCH_DAY_ENCODING + "')");
+            applyInTransaction(conn, statements);
+        }
+        
+        private static void applyInTransaction(PooledConnection conn, List<String> statements) throws SQLException {
+            Connection connection = conn.getConnection();
+            connection.setAutoCommit(false);
+            try (Statement stmt = connection.createStatement()) {
+                for (String sql : statements) {
+                    stmt.execute(sql);
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    // Database manager
+    static class DatabaseManager {
+        private static final int DEFAULT_READ_POOL_SIZE = 4;
+        private static final long DEFAULT_ACQUIRE_TIMEOUT_MS = 5000;
+        private static final long DEFAULT_VALIDATION_INTERVAL_MS = 30000;
+        private static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;
+
+        private static final Set<Sql> HOT_QUERIES = EnumSet.of(
+            Sql.ROOM_UPDATE_AVAILABILITY, Sql.ROOM_UPDATE_PRICE, Sql.ROOM_BY_NUMBER, Sql.ROOM_BY_ID,
+            Sql.RESERVATION_OVERLAP_COUNT, Sql.RESERVATION_ROOM_ID, Sql.RESERVATION_CANCEL,
+            Sql.RESERVATION_BY_ID, Sql.PAYMENT_BY_RESERVATION, Sql.PAYMENT_BY_KEY, Sql.PAYMENT_REFUNDABLE,
+            Sql.PAYMENTS_PENDING, Sql.PAYMENT_SETTLE, Sql.REPORT_STAYS, Sql.REPORT_STAYS_CARRIED_IN,
+            Sql.REPORT_PAYMENTS, Sql.RESERVATIONS_BY_GUEST, Sql.GUEST_BY_EMAIL, Sql.GUEST_RENAME,
+            Sql.RESERVATIONS_FLEXIBLE, Sql.RESERVATION_MOVE);
+
+        private static ConnectionPool pool;
+        private static WritePipeline writePipeline;
+        private static HotelRepository repository;
+        private static SettlementQueue settlementQueue;
+        private static ChangeFeed changeFeed;
+        private static PropertyShards propertyShards;
+        private static volatile boolean epochDayDates;
+        private static final AvailabilityIndex availabilityIndex = new AvailabilityIndex();
+        private static final RoomCatalog roomCatalog = new RoomCatalog(DatabaseManager::getRepository);
+        private static final GuestIndex guestIndex = new GuestIndex();
+        private static final RoomLocks roomLocks = RoomLocks.create();
+        private static final HoldRegistry holdRegistry = HoldRegistry.create(availabilityIndex);
+        private static final PricingEngine pricingEngine = new PricingEngine();
+        private static final OccupancyCalendar occupancyCalendar =
+            new OccupancyCalendar(availabilityIndex, () -> getRoomCatalog().findAll(),
+                Integer.getInteger("hotel.calendar.cachedWindows", 16));
+        private static volatile boolean catalogLoaded;
+        private static volatile boolean availabilityLoaded;
+
+        public static void initializeDatabase() {
+            try {
+                if (!inMemoryStorage()) {
+                    try (PooledConnection conn = getWriteConnection()) {
+                        SchemaMigrations.migrate(conn);
+                        if (Boolean.getBoolean("hotel.db.epochDayDates") && !SchemaMigrations.usesEpochDayDates(conn)) {
+                            SchemaMigrations.convertToEpochDayDates(conn);
+                        }
+                        epochDayDates = SchemaMigrations.usesEpochDayDates(conn);
+                        if (!"false".equals(System.getProperty("hotel.db.verifyQueryPlans"))) {
+                            verifyQueryPlans(conn);
+                        }
+                    }
+                }
+                
+                // Insert sample data if empty
+                insertSampleRooms(getRepository());
+                
+                roomCatalog.load(getRepository());
+                catalogLoaded = true;
+                loadAvailabilityIndex();
+                getChangeFeed();
+                int pending = getSettlementQueue().recover();
+                if (pending > 0) {
+                    System.out.println("Resuming settlement of " + pending + " pending payments");
+                }
+                if (!"false".equals(System.getProperty("hotel.metrics.jmx"))) {
+                    Metrics.registerMBean();
+                }
+            } catch (SQLException e) {
+                System.out.println("Database initialization failed: " + e.getMessage());
+            }
+        }
+        
+        // -Dhotel.storage=memory keeps all state in memory, persisted by a journal and snapshots
+        // under -Dhotel.memory.dir; SQLite is the default
+        static boolean inMemoryStorage() {
+            return "memory".equals(System.getProperty("hotel.storage"));
+        }
+        
+        public static synchronized HotelRepository getRepository() {
+            if (repository == null) {
+                if (inMemoryStorage()) {
+                    try {
+                        repository = MemoryRepository.open(Paths.get(System.getProperty("hotel.memory.dir", "hotel-data")));
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Cannot open in-memory store: " + e.getMessage(), e);
+                    }
+                } else {
+                    repository = new JdbcRepository(MAIN);
+                }
+            }
+            return repository;
+        }
+        
+        // The main database, opened from -Dhotel.db.url, with its caches
+        static final MainDatabase MAIN = new MainDatabase();
+        
+        static class MainDatabase implements ConnectionSource, BookingContext {
+            @Override
+            public PooledConnection read() throws SQLException {
+                return getConnection();
+            }
+            
+            @Override
+            public PooledConnection write() throws SQLException {
+                return getWriteConnection();
+            }
+            
+            @Override
+            public WritePipeline writePipeline() {
+                return getWritePipeline();
+            }
+            
+            @Override
+            public HotelRepository repository() {
+                return getRepository();
+            }
+            
+            @Override
+            public AvailabilityIndex availabilityIndex() {
+                return getAvailabilityIndex();
+            }
+            
+            @Override
+            public RoomCatalog roomCatalog() {
+                return getRoomCatalog();
+            }
+            
+            @Override
+            public SettlementQueue settlementQueue() {
+                return getSettlementQueue();
+            }
+            
+            @Override
+            public GuestIndex guestIndex() {
+                return guestIndex;
+            }
+            
+            @Override
+            public HoldRegistry holds() {
+                return getHoldRegistry();
+            }
+            
+            @Override
+            public ChangeFeed changes() {
+                return getChangeFeed();
+            }
+            
+            @Override
+            public RoomLocks roomLocks() {
+                return roomLocks;
+            }
+            
+            @Override
+            public void reloadCaches() {
+                DatabaseManager.reloadCaches();
+            }
+        }
+        
+        public static synchronized PropertyShards getPropertyShards() {
+            if (propertyShards == null) {
+                propertyShards = PropertyShards.create();
+            }
+            return propertyShards;
+        }
+        
+        public static synchronized SettlementQueue getSettlementQueue() {
+            if (settlementQueue == null) {
+                settlementQueue = SettlementQueue.create(getRepository(), getChangeFeed());
+            }
+            return settlementQueue;
+        }
+        
+        // Opened before any write can publish to it; -Dhotel.events.file overrides where the log is kept
+        public static synchronized ChangeFeed getChangeFeed() {
+            if (changeFeed == null) {
+                String file = System.getProperty("hotel.events.file");
+                changeFeed = openChangeFeed(file != null ? Paths.get(file)
+                    : inMemoryStorage() ? Paths.get(System.getProperty("hotel.memory.dir", "hotel-data"), "events.log")
+                    : changeLogPath(System.getProperty("hotel.db.url", DEFAULT_DB_URL)));
+            }
+            return changeFeed;
+        }
+        
+        static ChangeFeed openChangeFeed(Path path) {
+            try {
+                return ChangeFeed.open(path);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot open change log " + path + ": " + e.getMessage(), e);
+            }
+        }
+        
+        // A database file's change log sits beside it as <file>-events, like SQLite's -wal and -shm
+        static Path changeLogPath(String url) {
+            String file = url.startsWith("jdbc:sqlite:") ? url.substring("jdbc:sqlite:".length()) : "";
+            if (file.isEmpty() || file.startsWith(":") || file.startsWith("file:")) {
+                return Paths.get("hotel-events.log");
+            }
+            return Paths.get(file + "-events");
+        }
+        
+        // Fails startup if a hot query would scan a whole table instead of searching an index
+        private static void verifyQueryPlans(PooledConnection conn) throws SQLException {
+            List<String> fullScans = new ArrayList<>();
+            for (Sql sql : HOT_QUERIES) {
+                try (PreparedStatement pstmt = conn.prepareStatement("EXPLAIN QUERY PLAN " + sql.getText())) {
+                    int parameters = pstmt.getParameterMetaData().getParameterCount();
+                    for (int i = 1; i <= parameters; i++) {
+                        pstmt.setNull(i, Types.NULL);
+                    }
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            String detail = rs.getString("detail");
+                            if (detail.startsWith("SCAN ")) {
+                                fullScans.add(sql + ": " + detail);
+                            }
+                        }
+                    }
+                }
+            }
+            if (!fullScans.isEmpty()) {
+                throw new IllegalStateException("Hot queries fall back to full scans: " + fullScans);
+            }
+        }
+        
+        // Dates are ISO-8601 TEXT unless the database was converted with -Dhotel.db.epochDayDates=true
+        public static void bindDate(PreparedStatement pstmt, int index, LocalDate date) throws SQLException {
+            if (epochDayDates) {
+                pstmt.setLong(index, date.toEpochDay());
+            } else {
+                pstmt.setString(index, date.format(DATE_FORMATTER));
+            }
+        }
+        
+        public static LocalDate readDate(ResultSet rs, String column) throws SQLException {
+            if (epochDayDates) {
+                long epochDay = rs.getLong(column);
+                return rs.wasNull() ? null : LocalDate.ofEpochDay(epochDay);
+            }
+            String value = rs.getString(column);
+            return value == null ? null : LocalDate.parse(value, DATE_FORMATTER);
+        }
+        
+        public static int readEpochDay(ResultSet rs, String column) throws SQLException {
+            return epochDayDates ? rs.getInt(column) : parseEpochDay(rs.getString(column));
+        }
+        
+        // Bulk readers decode millions of dates; the general formatter dominates their cost, so plain
+        // yyyy-MM-dd values are decoded by hand and anything else goes through the formatter
+        static int parseEpochDay(String value) {
+            if (value.length() == 10 && value.charAt(4) == '-' && value.charAt(7) == '-') {
+                int year = digits(value, 0, 4);
+                int month = digits(value, 5, 7);
+                int day = digits(value, 8, 10);
+                if (year >= 0 && month >= 0 && day >= 0) {
+                    return (int) LocalDate.of(year, month, day).toEpochDay();
+                }
+            }
+            return (int) LocalDate.parse(value, DATE_FORMATTER).toEpochDay();
+        }
+        
+        private static int digits(String value, int start, int end) {
+            int result = 0;
+            for (int i = start; i < end; i++) {
+                int digit = value.charAt(i) - '0';
+                if (digit < 0 || digit > 9) return -1;
+                result = result * 10 + digit;
+            }
+            return result;
+        }
+        
+        private static void loadAvailabilityIndex() throws SQLException {
+            availabilityIndex.rebuild(getRepository());
+            availabilityLoaded = true;
+            
+            // The check compares against SQL queries, so it only applies to the SQLite backend
+            if (Boolean.getBoolean("hotel.availability.verify") && !inMemoryStorage()) {
+                try (PooledConnection conn = getConnection()) {
+                    LocalDate today = LocalDate.now();
+                    int mismatches = 0;
+                    for (int week = 0; week < 52; week++) {
+                        LocalDate checkIn = today.plusWeeks(week);
+                        mismatches += availabilityIndex.verifyAgainstDatabase(conn, checkIn, checkIn.plusDays(3));
+                    }
+                    System.out.println("Availability index verification: " + mismatches + " mismatches");
+                }
+            }
+        }
+        
+        static boolean usesEpochDayDates() {
+            return epochDayDates;
+        }
+        
+        static void insertSampleRooms(HotelRepository repo) {
+            try {
+                if (repo.loadRooms().isEmpty()) {
+                    String[] roomTypes = {"Standard", "Deluxe", "Suite"};
+                    double[] prices = {100.0, 150.0, 250.0};
+                    int[] capacities = {2, 3, 4};
+                    
+                    List<Room> rooms = new ArrayList<>();
+                    for (int i = 1; i <= 10; i++) {
+                        rooms.add(new Room(i, Integer.toString(i), roomTypes[i % 3], prices[i % 3], true, capacities[i % 3]));
+                    }
+                    repo.insertRooms(rooms);
+                }
+            } catch (SQLException e) {
+                System.out.println("Error inserting sample rooms: " + e.getMessage());
+            }
+        }
+        
+        // Drops the room catalog, availability index and guest index after bulk changes; all reload on next use
+        public static synchronized void reloadCaches() {
+            availabilityLoaded = false;
+            catalogLoaded = false;
+            guestIndex.reset();
+        }
+        
+        // Read connections come from a bounded pool; writes share one serialized connection
+        public static PooledConnection getConnection() throws SQLException {
+            return pool().acquireRead();
+        }
+        
+        public static PooledConnection getWriteConnection() throws SQLException {
+            return pool().acquireWrite();
+        }
+        
+        // Holds live in the availability index, so it is loaded before any can be placed
+        public static HoldRegistry getHoldRegistry() {
+            getAvailabilityIndex();
+            return holdRegistry;
+        }
+        
+        public static AvailabilityIndex getAvailabilityIndex() {
+            if (!availabilityLoaded) {
+                synchronized (DatabaseManager.class) {
+                    if (!availabilityLoaded) {
+                        try {
+                            loadAvailabilityIndex();
+                        } catch (SQLException e) {
+                            System.out.println("Error loading availability index: " + e.getMessage());
+                        }
+                    }
+                }
+            }
+            return availabilityIndex;
+        }
+        
+        public static PricingEngine getPricingEngine() {
+            return pricingEngine;
+        }
+        
+        public static OccupancyCalendar getOccupancyCalendar() {
+            getAvailabilityIndex();
+            return occupancyCalendar;
+        }
+        
+        public static RoomCatalog getRoomCatalog() {
+            if (!catalogLoaded) {
+                synchronized (DatabaseManager.class) {
+                    if (!catalogLoaded) {
+                        try {
+                            roomCatalog.load(getRepository());
+                            catalogLoaded = true;
+                        } catch (SQLException e) {
+                            System.out.println("Error loading room catalog: " + e.getMessage());
+                        }
+                    }
+                }
+            }
+            return roomCatalog;
+        }
+        
+        public static synchronized WritePipeline getWritePipeline() {
+            if (writePipeline == null) {
+                writePipeline = newWritePipeline(pool(), "write-pipeline");
+            }
+            return writePipeline;
+        }
+        
+        static WritePipeline newWritePipeline(ConnectionPool pool, String name) {
+            return new WritePipeline(pool, name, groupCommitEnabled(),
+                Integer.getInteger("hotel.write.maxBatch", 256),
+                Long.getLong("hotel.write.lingerMicros", 500),
+                Integer.getInteger("hotel.write.maxAttempts", 5),
+                Long.getLong("hotel.write.backoffMs", 10),
+                Integer.getInteger("hotel.write.queueCapacity", 65536));
+        }
+        
+        private static boolean groupCommitEnabled() {
+            return !"false".equals(System.getProperty("hotel.write.groupCommit"));
+        }
+        
+        public static PoolStats getPoolStats() {
+            return pool().stats();
+        }
+        
+        public static StatementCacheStats getStatementCacheStats() {
+            return pool().statementStats();
+        }
+        
+        public static void shutdown() {
+            SettlementQueue queue;
+            PropertyShards shards;
+            synchronized (DatabaseManager.class) {
+                queue = settlementQueue;
+                settlementQueue = null;
+                shards = propertyShards;
+                propertyShards = null;
+            }
+            // Outside the lock: settlements finishing during close still write through the pipeline
+            if (queue != null) {
+                queue.close();
+            }
+            if (shards != null) {
+                shards.close();
+            }
+            closeStorage();
+        }
+        
+        private static synchronized void closeStorage() {
+            if (repository != null) {
+                repository.close();
+                repository = null;
+            }
+            if (writePipeline != null) {
+                writePipeline.close();
+                writePipeline = null;
+            }
+            if (pool != null) {
+                pool.close();
+                pool = null;
+            }
+            // After the pipeline, whose last commits still publish
+            if (changeFeed != null) {
+                changeFeed.close();
+                changeFeed = null;
+            }
+            availabilityLoaded = false;
+            catalogLoaded = false;
+            guestIndex.reset();
+            holdRegistry.close();
+        }
+        
+        private static List<String> connectionPragmas() {
+            return Arrays.asList(
+                "PRAGMA journal_mode = " + System.getProperty("hotel.db.journalMode", "WAL"),
+                // Group commit makes a WAL sync per batch cheap, so commits are fully durable by default;
+                // without it, NORMAL only risks the last commits on an OS crash
+                "PRAGMA synchronous = " + System.getProperty("hotel.db.synchronous", groupCommitEnabled() ? "FULL" : "NORMAL"),
+                "PRAGMA cache_size = -" + Long.getLong("hotel.db.cacheSizeKb", 16384),
+                "PRAGMA mmap_size = " + Long.getLong("hotel.db.mmapSize", 268435456L),
+                "PRAGMA temp_store = MEMORY");
+        }
+        
+        private static synchronized ConnectionPool pool() {
+            if (pool == null) {
+                // Read when the pool opens, so tools can point the system at another file before starting it
+                pool = newConnectionPool(System.getProperty("hotel.db.url", DEFAULT_DB_URL));
+            }
+            return pool;
+        }
+        
+        static ConnectionPool newConnectionPool(String url) {
+            return new ConnectionPool(url,
+                Integer.getInteger("hotel.db.pool.size", DEFAULT_READ_POOL_SIZE),
+                Long.getLong("hotel.db.pool.acquireTimeoutMs", DEFAULT_ACQUIRE_TIMEOUT_MS),
+                Long.getLong("hotel.db.pool.validationIntervalMs", DEFAULT_VALIDATION_INTERVAL_MS),
+                Integer.getInteger("hotel.db.statementCacheSize", DEFAULT_STATEMENT_CACHE_SIZE),
+                connectionPragmas());
+        }
+    }
+
+    // A long-lived connection handed out by the pool; close() returns it instead of closing it
+    static class PooledConnection implements AutoCloseable {
+        private final ConnectionPool pool;
+        private final Connection connection;
+        private final boolean writer;
+        private final Map<Sql, PreparedStatement> statements;
+        private boolean inTransaction;
+        private long lastUsedNanos;
+        
+        PooledConnection(ConnectionPool pool, Connection connection, boolean writer, int statementCacheSize) {
+            this.pool = pool;
+            this.connection = connection;
+            this.writer = writer;
+            this.lastUsedNanos = System.nanoTime();
+            // Access-ordered map gives LRU eviction; evicted statements are closed
+            this.statements = new LinkedHashMap<Sql, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Sql, PreparedStatement> eldest) {
+                    if (size() <= statementCacheSize) return false;
+                    pool.recordStatementEviction(eldest.getKey());
+                    try {
+                        eldest.getValue().close();
+                    } catch (SQLException e) {
+                        System.out.println("Error closing cached statement: " + e.getMessage());
+                    }
+                    return true;
+                }
+            };
+        }
+        
+        // Returns the cached statement for this connection; callers must not close it
+        public PreparedStatement prepare(Sql sql) throws SQLException {
+            PreparedStatement pstmt = statements.get(sql);
+            if (pstmt != null && !pstmt.isClosed()) {
+                pool.recordStatementHit(sql);
+                return pstmt;
+            }
+            pool.recordStatementMiss(sql);
+            pstmt = sql.returnsGeneratedKeys()
+                ? connection.prepareStatement(sql.getText(), Statement.RETURN_GENERATED_KEYS)
+                : connection.prepareStatement(sql.getText());
+            statements.put(sql, pstmt);
+            return pstmt;
+        }
+        
+        // Prepares (from cache) and runs a statement that takes no parameters
+        public ResultSet query(Sql sql) throws SQLException {
+            return sql.executeQuery(prepare(sql));
+        }
+        
+        public void execute(Sql sql) throws SQLException {
+            sql.executeUpdate(prepare(sql));
+        }
+        
+        public Statement createStatement() throws SQLException {
+            return connection.createStatement();
+        }
+        
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            return connection.prepareStatement(sql);
+        }
+        
+        public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+            return connection.prepareStatement(sql, autoGeneratedKeys);
+        }
+        
+        // Explicit transactions; BEGIN IMMEDIATE takes SQLite's write lock up front instead of at the first write
+        public void beginImmediate() throws SQLException {
+            execute(Sql.BEGIN_IMMEDIATE);
+            inTransaction = true;
+        }
+        
+        public void commit() throws SQLException {
+            execute(Sql.COMMIT);
+            inTransaction = false;
+        }
+        
+        public void rollback() {
+            if (!inTransaction) return;
+            inTransaction = false;
+            try {
+                execute(Sql.ROLLBACK);
+            } catch (SQLException e) {
+                System.out.println("Error rolling back transaction: " + e.getMessage());
+            }
+        }
+        
+        public Connection getConnection() { return connection; }
+        public boolean isWriter() { return writer; }
+        
+        @Override
+        public void close() {
+            pool.release(this);
+        }
+    }
+
+    static class ConnectionPool {
+        private final String url;
+        private final int maxReaders;
+        private final long acquireTimeoutMillis;
+        private final long validationIntervalNanos;
+        private final BlockingQueue<PooledConnection> idleReaders;
+        private final AtomicInteger openReaders = new AtomicInteger();
+        private final AtomicInteger activeReaders = new AtomicInteger();
+        // SQLite allows a single writer, so writes queue on a fair lock instead of racing for SQLITE_BUSY
+        private final ReentrantLock writeLock = new ReentrantLock(true);
+        private PooledConnection writer;
+        
+        private final LongAdder acquisitions = new LongAdder();
+        private final LongAdder totalWaitNanos = new LongAdder();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder replacedConnections = new LongAdder();
+        private final int statementCacheSize;
+        private final List<String> connectionPragmas;
+        private final LongAdder[] statementHits = newCounters(Sql.values().length);
+        private final LongAdder[] statementMisses = newCounters(Sql.values().length);
+        private final LongAdder[] statementEvictions = newCounters(Sql.values().length);
+        private volatile boolean closed;
+        
+        ConnectionPool(String url, int maxReaders, long acquireTimeoutMillis, long validationIntervalMillis,
+                       int statementCacheSize, List<String> connectionPragmas) {
+            if (maxReaders < 1) {
+                throw new IllegalArgumentException("Read pool size must be at least 1");
+            }
+            this.url = url;
+            this.maxReaders = maxReaders;
+            this.acquireTimeoutMillis = acquireTimeoutMillis;
+            this.validationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(validationIntervalMillis);
+            this.idleReaders = new ArrayBlockingQueue<>(maxReaders);
+            this.statementCacheSize = statementCacheSize;
+            this.connectionPragmas = connectionPragmas;
+        }
+        
+        PooledConnection acquireRead() throws SQLException {
+            ensureOpen();
+            long start = System.nanoTime();
+            PooledConnection conn = idleReaders.poll();
+            if (conn == null) {
+                conn = openReaderIfBelowLimit();
+            }
+            if (conn == null) {
+                try {
+                    conn = idleReaders.poll(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a read connection", e);
+                }
+                if (conn == null) {
+                    timeouts.increment();
+                    Metrics.connectionTimeout();
+                    throw new SQLException("Timed out waiting for a read connection after " +
+                        acquireTimeoutMillis + " ms");
+                }
+            }
+            try {
+                conn = validate(conn);
+            } catch (SQLException e) {
+                openReaders.decrementAndGet();
+                throw e;
+            }
+            recordWait(start, false);
+            activeReaders.incrementAndGet();
+            return conn;
+        }
+        
+        PooledConnection acquireWrite() throws SQLException {
+            ensureOpen();
+            long start = System.nanoTime();
+            try {
+                if (!writeLock.tryLock(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    timeouts.increment();
+                    Metrics.connectionTimeout();
+                    throw new SQLException("Timed out waiting for the write connection after " +
+                        acquireTimeoutMillis + " ms");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for the write connection", e);
+            }
+            try {
+                writer = writer == null ? open(true) : validate(writer);
+            } catch (SQLException e) {
+                writer = null;
+                writeLock.unlock();
+                throw e;
+            }
+            recordWait(start, true);
+            return writer;
+        }
+        
+        void release(PooledConnection conn) {
+            conn.lastUsedNanos = System.nanoTime();
+            if (conn.isWriter()) {
+                // Never hand the writer on with a transaction left open
+                if (writeLock.getHoldCount() == 1) {
+                    conn.rollback();
+                }
+                writeLock.unlock();
+                return;
+            }
+            activeReaders.decrementAndGet();
+            if (closed || !idleReaders.offer(conn)) {
+                openReaders.decrementAndGet();
+                closeQuietly(conn);
+            }
+        }
+        
+        PoolStats stats() {
+            long count = acquisitions.sum();
+            return new PoolStats(
+                maxReaders,
+                activeReaders.get() + (writeLock.isLocked() ? 1 : 0),
+                idleReaders.size() + (writer != null && !writeLock.isLocked() ? 1 : 0),
+                writeLock.getQueueLength(),
+                count,
+                count == 0 ? 0 : totalWaitNanos.sum() / count,
+                maxWaitNanos.get(),
+                timeouts.sum(),
+                replacedConnections.sum());
+        }
+        
+        StatementCacheStats statementStats() {
+            Sql[] all = Sql.values();
+            long[] hits = new long[all.length];
+            long[] misses = new long[all.length];
+            long[] evictions = new long[all.length];
+            for (int i = 0; i < all.length; i++) {
+                hits[i] = statementHits[i].sum();
+                misses[i] = statementMisses[i].sum();
+                evictions[i] = statementEvictions[i].sum();
+            }
+            return new StatementCacheStats(hits, misses, evictions);
+        }
+        
+        void recordStatementHit(Sql sql) { statementHits[sql.ordinal()].increment(); }
+        void recordStatementMiss(Sql sql) { statementMisses[sql.ordinal()].increment(); }
+        void recordStatementEviction(Sql sql) { statementEvictions[sql.ordinal()].increment(); }
+        
+        void close() {
+            closed = true;
+            PooledConnection conn;
+            while ((conn = idleReaders.poll()) != null) {
+                openReaders.decrementAndGet();
+                closeQuietly(conn);
+            }
+            writeLock.lock();
+            try {
+                if (writer != null) {
+                    closeQuietly(writer);
+                    writer = null;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        
+        private PooledConnection openReaderIfBelowLimit() throws SQLException {
+            while (true) {
+                int open = openReaders.get();
+                if (open >= maxReaders) return null;
+                if (openReaders.compareAndSet(open, open + 1)) break;
+            }
+            try {
+                return open(false);
+            } catch (SQLException e) {
+                openReaders.decrementAndGet();
+                throw e;
+            }
+        }
+        
+        private PooledConnection open(boolean forWriter) throws SQLException {
+            Connection connection = DriverManager.getConnection(url);
+            try (Statement stmt = connection.createStatement()) {
+                // Per-connection PRAGMA state now survives across queries
+                stmt.execute("PRAGMA busy_timeout = " + acquireTimeoutMillis);
+                for (String pragma : connectionPragmas) {
+                    // journal_mode is persistent and needs write access, so only the writer sets it
+                    if (forWriter || !pragma.startsWith("PRAGMA journal_mode")) {
+                        stmt.execute(pragma);
+                    }
+                }
+                if (!forWriter) {
+                    stmt.execute("PRAGMA query_only = ON");
+                }
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+            return new PooledConnection(this, connection, forWriter, statementCacheSize);
+        }
+        
+        // Health check: connections idle longer than the validation interval are probed before reuse
+        private PooledConnection validate(PooledConnection conn) throws SQLException {
+            if (System.nanoTime() - conn.lastUsedNanos < validationIntervalNanos) {
+                return conn;
+            }
+            boolean valid;
+            try {
+                valid = !conn.getConnection().isClosed() && conn.getConnection().isValid(1);
+            } catch (SQLException e) {
+                valid = false;
+            }
+            if (valid) {
+                return conn;
+            }
+            closeQuietly(conn);
+            replacedConnections.increment();
+            return open(conn.isWriter());
+        }
+        
+        private void recordWait(long start, boolean forWriter) {
+            long waited = System.nanoTime() - start;
+            Metrics.connectionWait(forWriter, waited);
+            acquisitions.increment();
+            totalWaitNanos.add(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+        }
+        
+        private void ensureOpen() throws SQLException {
+            if (closed) {
+                throw new SQLException("Connection pool is closed");
+            }
+        }
+        
+        private static LongAdder[] newCounters(int size) {
+            LongAdder[] counters = new LongAdder[size];
+            for (int i = 0; i < size; i++) {
+                counters[i] = new LongAdder();
+            }
+            return counters;
+        }
+        
+        private static void closeQuietly(PooledConnection conn) {
+            try {
+                conn.getConnection().close();
+            } catch (SQLException e) {
+                System.out.println("Error closing pooled connection: " + e.getMessage());
+            }
+        }
+    }
+
+    static class PoolStats {
+        private final int maxReaders;
+        private final int active;
+        private final int idle;
+        private final int waitingWriters;
+        private final long acquisitions;
+        private final long averageWaitNanos;
+        private final long maxWaitNanos;
+        private final long timeouts;
+        private final long replacedConnections;
+        
+        PoolStats(int maxReaders, int active, int idle, int waitingWriters, long acquisitions,
+                  long averageWaitNanos, long maxWaitNanos, long timeouts, long replacedConnections) {
+            this.maxReaders = maxReaders;
+            this.active = active;
+            this.idle = idle;
+            this.waitingWriters = waitingWriters;
+            this.acquisitions = acquisitions;
+            this.averageWaitNanos = averageWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.timeouts = timeouts;
+            this.replacedConnections = replacedConnections;
+        }
+
+        // Getters
+        public int getMaxReaders() { return maxReaders; }
+        public int getActive() { return active; }
+        public int getIdle() { return idle; }
+        public int getWaitingWriters() { return waitingWriters; }
+        public long getAcquisitions() { return acquisitions; }
+        public long getAverageWaitNanos() { return averageWaitNanos; }
+        public long getMaxWaitNanos() { return maxWaitNanos; }
+        public long getTimeouts() { return timeouts; }
+        public long getReplacedConnections() { return replacedConnections; }
+        
+        @Override
+        public String toString() {
+            return String.format("readers=%d active=%d idle=%d waitingWriters=%d acquisitions=%d " +
+                "avgWait=%.1fus maxWait=%.1fus timeouts=%d replaced=%d",
+                maxReaders, active, idle, waitingWriters, acquisitions,
+                averageWaitNanos / 1000.0, maxWaitNanos / 1000.0, timeouts, replacedConnections);
+        }
+    }
+
+    static class StatementCacheStats {
+        private final long[] hits;
+        private final long[] misses;
+        private final long[] evictions;
+        
+        StatementCacheStats(long[] hits, long[] misses, long[] evictions) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        // Getters
+        public long getHits(Sql sql) { return hits[sql.ordinal()]; }
+        public long getMisses(Sql sql) { return misses[sql.ordinal()]; }
+        public long getEvictions(Sql sql) { return evictions[sql.ordinal()]; }
+        
+        public long getTotalHits() { return Arrays.stream(hits).sum(); }
+        public long getTotalMisses() { return Arrays.stream(misses).sum(); }
+        
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format("hits=%d misses=%d%n",
+                getTotalHits(), getTotalMisses()));
+            for (Sql sql : Sql.values()) {
+                if (hits[sql.ordinal()] + misses[sql.ordinal()] == 0) continue;
+                sb.append(String.format("  %-28s hits=%-8d misses=%-4d evictions=%d%n", sql,
+                    hits[sql.ordinal()], misses[sql.ordinal()], evictions[sql.ordinal()]));
+            }
+            return sb.toString();
+        }
+    }
+
+    // In-memory room catalog keyed by id, number and type; rooms are loaded once and refreshed
+    // in place by writes that know the new value, or invalidated and reloaded on the next lookup
+    static class RoomCatalog {
+        private final ConcurrentHashMap<Integer, Room> byId = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, Integer> idsByNumber = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, int[]> idsByType = new ConcurrentHashMap<>();
+        private volatile int[] allIds = new int[0];
+        private volatile PriceOrder priceOrder;
+        
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        // Where misses are looked up: the catalog's own database, which for a property shard is not the main one
+        private final Supplier<HotelRepository> repository;
+        // Room ids and numbers the database did not have, so asking again stays off it. Every way of adding
+        // rooms ends in load(), which empties them; the generation keeps a lookup that raced a load from
+        // recording a miss the load may have made wrong.
+        private final Set<Integer> missingIds = ConcurrentHashMap.newKeySet();
+        private final Set<String> missingNumbers = ConcurrentHashMap.newKeySet();
+        private final int maxMissing = Integer.getInteger("hotel.catalog.maxMissing", 10000);
+        private volatile long generation;
+        
+        RoomCatalog(Supplier<HotelRepository> repository) {
+            this.repository = repository;
+        }
+        
+        // Builds the id arrays in one pass; rooms arrive in id order, so they are already sorted
+        public synchronized void load(HotelRepository repository) throws SQLException {
+            generation++;
+            missingIds.clear();
+            missingNumbers.clear();
+            byId.clear();
+            idsByNumber.clear();
+            idsByType.clear();
+            priceOrder = null;
+            Map<String, List<Integer>> typeMembers = new HashMap<>();
+            List<Integer> ids = new ArrayList<>();
+            for (Room room : repository.loadRooms()) {
+                byId.put(room.getRoomId(), room);
+                idsByNumber.put(room.getRoomNumber(), room.getRoomId());
+                typeMembers.computeIfAbsent(room.getRoomType(), t -> new ArrayList<>()).add(room.getRoomId());
+                ids.add(room.getRoomId());
+            }
+            for (Map.Entry<String, List<Integer>> entry : typeMembers.entrySet()) {
+                idsByType.put(entry.getKey(), toArray(entry.getValue()));
+            }
+            allIds = toArray(ids);
+        }
+        
+        public Room findById(int roomId) {
+            Room room = byId.get(roomId);
+            if (room != null || missingIds.contains(roomId)) {
+                hits.increment();
+                return room;
+            }
+            misses.increment();
+            return loadRoom(repository -> repository.findRoom(roomId), missingIds, roomId);
+        }
+        
+        public Room findByNumber(String roomNumber) {
+            Integer roomId = idsByNumber.get(roomNumber);
+            if (roomId != null) {
+                return findById(roomId);
+            }
+            if (missingNumbers.contains(roomNumber)) {
+                hits.increment();
+                return null;
+            }
+            misses.increment();
+            return loadRoom(repository -> repository.findRoomByNumber(roomNumber), missingNumbers, roomNumber);
+        }
+        
+        // Bounded, so a client probing made-up numbers cannot grow it without end
+        private synchronized <K> void recordMissing(Set<K> missing, K key, long seen) {
+            if (generation != seen) return;
+            if (missing.size() >= maxMissing) {
+                missing.clear();
+            }
+            missing.add(key);
+        }
+        
+        public List<Room> findByType(String roomType) {
+            return resolve(idsByType.getOrDefault(roomType, new int[0]));
+        }
+        
+        public List<Room> findAll() {
+            return resolve(allIds);
+        }
+        
+        public Set<String> roomTypes() {
+            return idsByType.keySet();
+        }
+        
+        // All rooms ordered by (price, room id), rebuilt lazily after a room is added or repriced
+        public PriceOrder priceOrder() {
+            PriceOrder order = priceOrder;
+            if (order != null) return order;
+            synchronized (this) {
+                if (priceOrder == null) {
+                    priceOrder = PriceOrder.of(findAll());
+                }
+                return priceOrder;
+            }
+        }
+        
+        // Refresh: the writer already knows the new flag, so no reload is needed
+        public void applyAvailability(int roomId, boolean isAvailable) {
+            byId.computeIfPresent(roomId, (id, room) -> new Room(room.getRoomId(), room.getRoomNumber(),
+                room.getRoomType(), room.getPricePerNight(), isAvailable, room.getCapacity()));
+        }
+        
+        // Invalidate: the next lookup reloads the room from the repository
+        public void invalidate(int roomId) {
+            if (byId.remove(roomId) != null) {
+                evictions.increment();
+            }
+            // Waits out a rebuild in progress, which may have read the old price
+            synchronized (this) {
+                priceOrder = null;
+            }
+        }
+        
+        public CacheStats stats() {
+            return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), byId.size());
+        }
+        
+        private List<Room> resolve(int[] roomIds) {
+            List<Room> rooms = new ArrayList<>(roomIds.length);
+            for (int roomId : roomIds) {
+                Room room = findById(roomId);
+                if (room != null) {
+                    rooms.add(room);
+                }
+            }
+            return rooms;
+        }
+        
+        // A room the database does not have is remembered under the key it was asked for
+        private <K> Room loadRoom(RoomLookup lookup, Set<K> missing, K key) {
+            long seen = generation;
+            try {
+                Room room = lookup.find(repository.get());
+                if (room != null) {
+                    register(room);
+                } else {
+                    recordMissing(missing, key, seen);
+                }
+                return room;
+            } catch (SQLException e) {
+                System.out.println("Error loading room: " + e.getMessage());
+                return null;
+            }
+        }
+        
+        private interface RoomLookup {
+            Room find(HotelRepository repository) throws SQLException;
+        }
+        
+        private synchronized void register(Room room) {
+            if (byId.put(room.getRoomId(), room) != null) return;
+            idsByNumber.put(room.getRoomNumber(), room.getRoomId());
+            int[] typeIds = idsByType.getOrDefault(room.getRoomType(), new int[0]);
+            if (!contains(typeIds, room.getRoomId())) {
+                idsByType.put(room.getRoomType(), appendSorted(typeIds, room.getRoomId()));
+                allIds = appendSorted(allIds, room.getRoomId());
+                priceOrder = null;
+            }
+        }
+        
+        private static int[] toArray(List<Integer> values) {
+            int[] array = new int[values.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = values.get(i);
+            }
+            return array;
+        }
+        
+        private static boolean contains(int[] sorted, int value) {
+            return Arrays.binarySearch(sorted, value) >= 0;
+        }
+        
+        private static int[] appendSorted(int[] sorted, int value) {
+            int[] copy = Arrays.copyOf(sorted, sorted.length + 1);
+            copy[sorted.length] = value;
+            Arrays.sort(copy);
+            return copy;
+        }
+        
+        static Room readRoom(ResultSet rs) throws SQLException {
+            return new Room(
+                rs.getInt("room_id"),
+                rs.getString("room_number"),
+                rs.getString("room_type"),
+                rs.getDouble("price_per_night"),
+                rs.getBoolean("is_available"),
+                rs.getInt("capacity"));
+        }
+    }
+    
+    // Immutable (price, room id) ordering of the catalog; searches walk it from the cheapest room up
+    static class PriceOrder {
+        private final int[] roomIds;
+        private final long[] priceCents;
+        
+        private PriceOrder(int[] roomIds, long[] priceCents) {
+            this.roomIds = roomIds;
+            this.priceCents = priceCents;
+        }
+        
+        static PriceOrder of(List<Room> rooms) {
+            List<Room> sorted = new ArrayList<>(rooms);
+            sorted.sort(Comparator.comparingLong(Room::getPriceCents).thenComparingInt(Room::getRoomId));
+            int[] roomIds = new int[sorted.size()];
+            long[] priceCents = new long[sorted.size()];
+            for (int i = 0; i < roomIds.length; i++) {
+                roomIds[i] = sorted.get(i).getRoomId();
+                priceCents[i] = sorted.get(i).getPriceCents();
+            }
+            return new PriceOrder(roomIds, priceCents);
+        }
+        
+        public int size() { return roomIds.length; }
+        public int roomId(int position) { return roomIds[position]; }
+        public long priceCents(int position) { return priceCents[position]; }
+        
+        // First position strictly after (priceCents, roomId): where a keyset cursor resumes
+        public int positionAfter(long cents, int roomId) {
+            int low = 0;
+            int high = roomIds.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (priceCents[mid] < cents || (priceCents[mid] == cents && roomIds[mid] <= roomId)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    interface StatementBinder {
+        void bind(PreparedStatement pstmt) throws SQLException;
+    }
+
+    static class CacheStats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final int size;
+        
+        CacheStats(long hits, long misses, long evictions, int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.size = size;
+        }
+
+        // Getters
+        public long getHits() { return hits; }
+        public long getMisses() { return misses; }
+        public long getEvictions() { return evictions; }
+        public int getSize() { return size; }
+        
+        public double getHitRatio() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("size=%d hits=%d misses=%d evictions=%d hitRatio=%.3f",
+                size, hits, misses, evictions, getHitRatio());
+        }
+    }
+
+    // Prefix index over guests. Each guest is filed under its email, its lowercased name and each word of
+    // the name, as a "key\0" entry ending in the guest id as two chars, so a key's guests sort by id. The
+    // entries are a sorted array built on load, plus a sorted delta of guests booked since, merged into the
+    // array once it passes an eighth of its size. A renamed guest's old keys stay until the next load, so
+    // each match is checked against the guest's current keys.
+    static class GuestIndex {
+        private static final char SEPARATOR = '\u0000';
+        private static final int MIN_MERGE = 4096;
+        
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private Guest[] guests = new Guest[1024];
+        private String[] entries = new String[0];
+        private final TreeSet<String> delta = new TreeSet<>();
+        private volatile boolean loaded;
+        
+        // Guests booked while the load reads the repository were added meanwhile and are kept
+        public synchronized void ensureLoaded(HotelRepository repository) throws SQLException {
+            if (loaded) return;
+            List<Guest> stored = repository.loadGuests();
+            lock.writeLock().lock();
+            try {
+                for (Guest guest : stored) {
+                    if (guest(guest.getGuestId()) == null) {
+                        put(guest);
+                    }
+                }
+                List<String> all = new ArrayList<>();
+                for (Guest guest : guests) {
+                    if (guest == null) continue;
+                    for (String key : keys(guest)) {
+                        all.add(entry(key, guest.getGuestId()));
+                    }
+                }
+                entries = all.toArray(new String[0]);
+                Arrays.sort(entries);
+                delta.clear();
+                loaded = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        // After bulk loads, which write guests behind the index's back
+        public void reset() {
+            lock.writeLock().lock();
+            try {
+                guests = new Guest[1024];
+                entries = new String[0];
+                delta.clear();
+                loaded = false;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        // Called after each booking commits, loaded or not
+        public void add(int guestId, String name, String email) {
+            Guest guest = new Guest(guestId, name, Guest.normalizeEmail(email));
+            lock.writeLock().lock();
+            try {
+                Guest previous = guest(guestId);
+                Set<String> previousKeys = previous == null ? Set.of() : keys(previous);
+                put(guest);
+                for (String key : keys(guest)) {
+                    if (!previousKeys.contains(key)) {
+                        delta.add(entry(key, guestId));
+                    }
+                }
+                if (delta.size() > Math.max(MIN_MERGE, entries.length / 8)) {
+                    mergeDelta();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        public Guest find(int guestId) {
+            lock.readLock().lock();
+            try {
+                return guest(guestId);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        // Guests with a key starting with the prefix (case-insensitive), in key order
+        public List<Guest> search(String prefix, int limit) {
+            String from = prefix.trim().toLowerCase(Locale.ROOT).replace(String.valueOf(SEPARATOR), "");
+            List<Guest> result = new ArrayList<>();
+            if (from.isEmpty() || limit <= 0) return result;
+            Set<Integer> seen = new HashSet<>();
+            lock.readLock().lock();
+            try {
+                int position = lowerBound(from);
+                Iterator<String> recent = delta.tailSet(from).iterator();
+                String fromArray = position < entries.length ? entries[position] : null;
+                String fromDelta = recent.hasNext() ? recent.next() : null;
+                while (result.size() < limit) {
+                    String next;
+                    if (fromDelta == null || (fromArray != null && fromArray.compareTo(fromDelta) <= 0)) {
+                        next = fromArray;
+                        position++;
+                        fromArray = position < entries.length ? entries[position] : null;
+                    } else {
+                        next = fromDelta;
+                        fromDelta = recent.hasNext() ? recent.next() : null;
+                    }
+                    if (next == null || !next.startsWith(from)) break;
+                    int length = next.length();
+                    int guestId = next.charAt(length - 2) << 16 | next.charAt(length - 1);
+                    Guest guest = guest(guestId);
+                    if (guest != null && keys(guest).contains(next.substring(0, length - 3)) && seen.add(guestId)) {
+                        result.add(guest);
+                    }
+                }
+                return result;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        public int size() {
+            lock.readLock().lock();
+            try {
+                return entries.length + delta.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        // The normalized email, the whole name and each of its words, lowercased
+        static Set<String> keys(Guest guest) {
+            Set<String> keys = new LinkedHashSet<>();
+            keys.add(guest.getEmail());
+            String name = guest.getName().trim().toLowerCase(Locale.ROOT);
+            if (!name.isEmpty()) {
+                keys.add(name);
+                for (String word : name.split("\\s+")) {
+                    keys.add(word);
+                }
+            }
+            return keys;
+        }
+        
+        private static String entry(String key, int guestId) {
+            return key.replace(String.valueOf(SEPARATOR), "") + SEPARATOR + (char) (guestId >>> 16) + (char) guestId;
+        }
+        
+        // Both sides are sorted, so one pass merges them
+        private void mergeDelta() {
+            String[] merged = new String[entries.length + delta.size()];
+            int i = 0;
+            int out = 0;
+            for (String recent : delta) {
+                while (i < entries.length && entries[i].compareTo(recent) <= 0) {
+                    merged[out++] = entries[i++];
+                }
+                merged[out++] = recent;
+            }
+            System.arraycopy(entries, i, merged, out, entries.length - i);
+            entries = merged;
+            delta.clear();
+        }
+        
+        private int lowerBound(String key) {
+            int low = 0;
+            int high = entries.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (entries[mid].compareTo(key) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+        
+        private Guest guest(int guestId) {
+            return guestId > 0 && guestId < guests.length ? guests[guestId] : null;
+        }
+        
+        private void put(Guest guest) {
+            int guestId = guest.getGuestId();
+            if (guestId >= guests.length) {
+                guests = Arrays.copyOf(guests, Math.max(guests.length * 2, guestId + 1));
+            }
+            guests[guestId] = guest;
+        }
+    }
+
+    // In-memory availability index: confirmed stays per room as sorted, non-overlapping [in, out) night intervals.
+    // Holds share the calendars under negative ids, so they block availability like a stay; listeners and
+    // sweeps only see confirmed stays. Stays the database already double-books are kept aside as conflicts.
+    static class AvailabilityIndex {
+        private final Map<Integer, RoomCalendar> calendars = new HashMap<>();
+        private final Map<String, int[]> roomsByType = new HashMap<>();
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final List<StayListener> listeners = new CopyOnWriteArrayList<>();
+        // Bumped under the write lock by every change, so readers can tell whether a sweep is still current
+        private long version;
+        
+        // Called under the write lock, after the index has changed
+        interface StayListener {
+            void stayChanged(int roomId, int checkIn, int checkOut, boolean booked);
+            void rebuilt();
+        }
+        
+        interface StayVisitor {
+            void visit(int roomId, int checkIn, int checkOut);
+        }
+        
+        public void addListener(StayListener listener) {
+            listeners.add(listener);
+        }
+        
+        // Reloads rooms and confirmed stays from the repository; returns the number of stays indexed
+        public int rebuild(HotelRepository repository) throws SQLException {
+            Map<Integer, RoomCalendar> freshCalendars = new HashMap<>();
+            Map<String, List<Integer>> typeMembers = new HashMap<>();
+            int[] counts = new int[2];
+            
+            for (Room room : repository.loadRooms()) {
+                freshCalendars.put(room.getRoomId(), new RoomCalendar());
+                typeMembers.computeIfAbsent(room.getRoomType(), t -> new ArrayList<>()).add(room.getRoomId());
+            }
+            repository.forEachConfirmedStay((reservationId, roomId, in, out) -> {
+                RoomCalendar calendar = freshCalendars.computeIfAbsent(roomId, id -> new RoomCalendar());
+                if (calendar.overlaps(in, out)) {
+                    calendar.addConflict(reservationId, in, out);
+                    counts[1]++;
+                } else {
+                    calendar.add(reservationId, in, out);
+                }
+                counts[0]++;
+            });
+            int stays = counts[0];
+            if (counts[1] > 0) {
+                System.out.println("Warning: " + counts[1] + " confirmed reservations overlap an existing stay; " +
+                    "they block their rooms until cancelled");
+            }
+            
+            lock.writeLock().lock();
+            try {
+                // Holds exist only here, so they carry over unless a stay now covers their dates
+                for (Map.Entry<Integer, RoomCalendar> entry : calendars.entrySet()) {
+                    RoomCalendar old = entry.getValue();
+                    for (int i = 0; i < old.size(); i++) {
+                        if (old.id(i) > 0) continue;
+                        RoomCalendar calendar = freshCalendars.computeIfAbsent(entry.getKey(), id -> new RoomCalendar());
+                        if (!calendar.overlaps(old.start(i), old.end(i))) {
+                            calendar.add(old.id(i), old.start(i), old.end(i));
+                        }
+                    }
+                }
+                calendars.clear();
+                calendars.putAll(freshCalendars);
+                roomsByType.clear();
+                for (Map.Entry<String, List<Integer>> entry : typeMembers.entrySet()) {
+                    roomsByType.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+                }
+                version++;
+                for (StayListener listener : listeners) {
+                    listener.rebuilt();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return stays;
+        }
+        
+        // Visits every stay overlapping [from, to) under one read lock; returns the version it saw
+        public long sweep(int from, int to, StayVisitor visitor) {
+            lock.readLock().lock();
+            try {
+                for (Map.Entry<Integer, RoomCalendar> entry : calendars.entrySet()) {
+                    entry.getValue().forEachOverlapping(entry.getKey(), from, to, visitor);
+                }
+                return version;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        public long version() {
+            lock.readLock().lock();
+            try {
+                return version;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        public boolean isFree(int roomId, LocalDate checkIn, LocalDate checkOut) {
+            return isFree(roomId, checkIn, checkOut, 0);
+        }
+        
+        // Free apart from the given hold, which a booking confirming it may overlap
+        public boolean isFree(int roomId, LocalDate checkIn, LocalDate checkOut, int holdId) {
+            lock.readLock().lock();
+            try {
+                RoomCalendar calendar = calendars.get(roomId);
+                return calendar == null || !calendar.overlapsExcept((int) checkIn.toEpochDay(),
+                    (int) checkOut.toEpochDay(), -holdId);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        public int[] freeRooms(String roomType, LocalDate checkIn, LocalDate checkOut) {
+            return freeRooms(roomType, checkIn, checkOut, true);
+        }
+        
+        private int[] freeRooms(String roomType, LocalDate checkIn, LocalDate checkOut, boolean countHolds) {
+            int in = (int) checkIn.toEpochDay();
+            int out = (int) checkOut.toEpochDay();
+            lock.readLock().lock();
+            try {
+                int[] members = roomsByType.get(roomType);
+                if (members == null) return new int[0];
+                int[] free = new int[members.length];
+                int count = 0;
+                for (int roomId : members) {
+                    RoomCalendar calendar = calendars.get(roomId);
+                    if (calendar == null || !(countHolds ? calendar.overlaps(in, out) : calendar.overlapsBooked(in, out))) {
+                        free[count++] = roomId;
+                    }
+                }
+                return Arrays.copyOf(free, count);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        public void addStay(int roomId, int reservationId, LocalDate checkIn, LocalDate checkOut) {
+            int in = (int) checkIn.toEpochDay();
+            int out = (int) checkOut.toEpochDay();
+            lock.writeLock().lock();
+            try {
+                calendars.computeIfAbsent(roomId, id -> new RoomCalendar()).add(reservationId, in, out);
+                version++;
+                for (StayListener listener : listeners) {
+                    listener.stayChanged(roomId, in, out, true);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        // Blocks the dates for a hold if they are free; atomic with every other check and change
+        public boolean tryHold(int roomId, int holdId, int checkIn, int checkOut) {
+            lock.writeLock().lock();
+            try {
+                RoomCalendar calendar = calendars.computeIfAbsent(roomId, id -> new RoomCalendar());
+                if (calendar.overlaps(checkIn, checkOut)) return false;
+                calendar.add(-holdId, checkIn, checkOut);
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        public void releaseHold(int roomId, int holdId) {
+            lock.writeLock().lock();
+            try {
+                RoomCalendar calendar = calendars.get(roomId);
+                if (calendar != null) {
+                    calendar.remove(-holdId);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        // Replaces a hold with the stay booked from it under one lock, so the dates are never free in between
+        public void convertHold(int roomId, int holdId, int reservationId, LocalDate checkIn, LocalDate checkOut) {
+            lock.writeLock().lock();
+            try {
+                releaseHold(roomId, holdId);
+                addStay(roomId, reservationId, checkIn, checkOut);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        // The free room of the type that the assigner fits [checkIn, checkOut) into most tightly; 0 if none is free
+        public int bestFitRoom(String roomType, LocalDate checkIn, LocalDate checkOut, RoomAssigner assigner) {
+            int in = (int) checkIn.toEpochDay();
+            int out = (int) checkOut.toEpochDay();
+            lock.readLock().lock();
+            try {
+                int[] members = roomsByType.get(roomType);
+                if (members == null) return 0;
+                int best = 0;
+                long bestCost = Long.MAX_VALUE;
+                for (int roomId : members) {
+                    RoomCalendar calendar = calendars.get(roomId);
+                    long cost = assigner.fitCost(calendar == null ? new RoomCalendar() : calendar, in, out);
+                    if (cost >= 0 && cost < bestCost) {
+                        best = roomId;
+                        bestCost = cost;
+                    }
+                }
+                return best;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        public List<String> roomTypes() {
+            lock.readLock().lock();
+            try {
+                return new ArrayList<>(roomsByType.keySet());
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        public int[] roomsOfType(String roomType) {
+            lock.readLock().lock();
+            try {
+                int[] members = roomsByType.get(roomType);
+                return members == null ? new int[0] : members.clone();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        // Private copies of the rooms' calendars, holds included, for planning outside the lock
+        public RoomCalendar[] copyCalendars(int[] roomIds) {
+            lock.readLock().lock();
+            try {
+                RoomCalendar[] copies = new RoomCalendar[roomIds.length];
+                for (int i = 0; i < roomIds.length; i++) {
+                    RoomCalendar calendar = calendars.get(roomIds[i]);
+                    copies[i] = calendar == null ? new RoomCalendar() : calendar.copy();
+                }
+                return copies;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        // Whether a hold sits on any night a move would take in its new room, which makes the plan stale
+        public boolean holdsOverlap(RoomMoves moves) {
+            lock.readLock().lock();
+            try {
+                for (int i = 0; i < moves.size(); i++) {
+                    RoomCalendar calendar = calendars.get(moves.toRoom(i));
+                    if (calendar != null && calendar.overlapsHold(moves.checkIn(i), moves.checkOut(i))) return true;
+                }
+                return false;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        // Applies committed room moves: every stay leaves its room before any arrives. The caller holds the
+        // rooms' stripes and has checked holdsOverlap, so the new nights are free.
+        public void moveStays(RoomMoves moves) {
+            lock.writeLock().lock();
+            try {
+                for (int i = 0; i < moves.size(); i++) {
+                    removeStay(moves.fromRoom(i), moves.reservationId(i));
+                }
+                for (int i = 0; i < moves.size(); i++) {
+                    addStay(moves.toRoom(i), moves.reservationId(i), LocalDate.ofEpochDay(moves.checkIn(i)),
+                        LocalDate.ofEpochDay(moves.checkOut(i)));
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        public void removeStay(int roomId, int reservationId) {
+            lock.writeLock().lock();
+            try {
+                RoomCalendar calendar = calendars.get(roomId);
+                int position = calendar == null ? -1 : calendar.indexOf(reservationId);
+                if (position < 0 && calendar != null && calendar.conflicts() != null) {
+                    calendar = calendar.conflicts();
+                    position = calendar.indexOf(reservationId);
+                }
+                if (position >= 0) {
+                    int in = calendar.start(position);
+                    int out = calendar.end(position);
+                    calendar.removeAt(position);
+                    version++;
+                    for (StayListener listener : listeners) {
+                        listener.stayChanged(roomId, in, out, false);
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        // Cross-checks the index against the SQL availability queries; returns the number of mismatches
+        public int verifyAgainstDatabase(PooledConnection conn, LocalDate checkIn, LocalDate checkOut) throws SQLException {
+            int mismatches = 0;
+            List<String> types = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                types.addAll(roomsByType.keySet());
+            } finally {
+                lock.readLock().unlock();
+            }
+            
+            for (String roomType : types) {
+                Set<Integer> expected = new HashSet<>();
+                PreparedStatement pstmt = conn.prepare(Sql.ROOMS_FREE_BY_TYPE);
+                pstmt.setString(1, roomType);
+                DatabaseManager.bindDate(pstmt, 2, checkIn);
+                DatabaseManager.bindDate(pstmt, 3, checkOut);
+                try (ResultSet rs = Sql.ROOMS_FREE_BY_TYPE.executeQuery(pstmt)) {
+                    while (rs.next()) {
+                        expected.add(rs.getInt("room_id"));
+                    }
+                }
+                Set<Integer> actual = new HashSet<>();
+                for (int roomId : freeRooms(roomType, checkIn, checkOut, false)) {
+                    actual.add(roomId);
+                }
+                if (!expected.equals(actual)) {
+                    System.out.println("Availability mismatch for " + roomType + ": database=" + expected +
+                        " index=" + actual);
+                    mismatches++;
+                }
+            }
+            return mismatches;
+        }
+    }
+
+    // Rooms x nights occupancy for a date window, built in one sweep of the availability index and cached
+    // per window. Cached grids are patched in place as stays are added or removed, and dropped on rebuild;
+    // callers get a copy, which no later change reaches.
+    static class OccupancyCalendar implements AvailabilityIndex.StayListener {
+        public static final int MAX_NIGHTS = 731;
+        
+        private final AvailabilityIndex index;
+        private final Supplier<List<Room>> rooms;
+        private final int maxWindows;
+        private final Map<Long, OccupancyGrid> grids;
+        
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        
+        OccupancyCalendar(AvailabilityIndex index, Supplier<List<Room>> rooms, int maxWindows) {
+            this.index = index;
+            this.rooms = rooms;
+            this.maxWindows = maxWindows;
+            this.grids = new LinkedHashMap<Long, OccupancyGrid>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, OccupancyGrid> eldest) {
+                    if (size() <= OccupancyCalendar.this.maxWindows) return false;
+                    evictions.increment();
+                    return true;
+                }
+            };
+            index.addListener(this);
+        }
+        
+        public OccupancyGrid grid(LocalDate from, LocalDate to) {
+            long started = System.nanoTime();
+            try {
+                int fromDay = (int) from.toEpochDay();
+                int toDay = (int) to.toEpochDay();
+                if (toDay <= fromDay || toDay - fromDay > MAX_NIGHTS) {
+                    throw new IllegalArgumentException("Window must cover 1 to " + MAX_NIGHTS + " nights");
+                }
+                long key = ((long) fromDay << 32) | (toDay & 0xffffffffL);
+                synchronized (grids) {
+                    OccupancyGrid cached = grids.get(key);
+                    if (cached != null) {
+                        hits.increment();
+                        return cached.copy();
+                    }
+                }
+                misses.increment();
+                
+                OccupancyGrid grid = new OccupancyGrid(fromDay, toDay - fromDay, rooms.get());
+                long version = index.sweep(fromDay, toDay, (roomId, in, out) -> grid.mark(roomId, in, out, true));
+                synchronized (grids) {
+                    grids.put(key, grid);
+                }
+                // A stay that changed between the sweep and the put never reached this grid; let the next call rebuild
+                if (index.version() != version) {
+                    synchronized (grids) {
+                        grids.remove(key, grid);
+                    }
+                }
+                return grid.copy();
+            } finally {
+                Metrics.record(Metrics.ServiceMethod.CALENDAR_GRID, started);
+            }
+        }
+        
+        @Override
+        public void stayChanged(int roomId, int checkIn, int checkOut, boolean booked) {
+            List<OccupancyGrid> cached;
+            synchronized (grids) {
+                if (grids.isEmpty()) return;
+                cached = new ArrayList<>(grids.values());
+            }
+            for (OccupancyGrid grid : cached) {
+                grid.mark(roomId, checkIn, checkOut, booked);
+            }
+        }
+        
+        @Override
+        public void rebuilt() {
+            synchronized (grids) {
+                grids.clear();
+            }
+        }
+        
+        public CacheStats stats() {
+            synchronized (grids) {
+                return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), grids.size());
+            }
+        }
+    }
+
+    // One bit per room-night (set = booked by a confirmed stay) plus booked-room counts per type and night
+    static class OccupancyGrid {
+        private final int fromDay;
+        private final int nights;
+        private final int words;
+        private final int[] roomIds;
+        private final String[] roomNumbers;
+        private final String[] types;
+        private final int[] roomTypes;
+        private final int[] roomsPerType;
+        private final long[] booked;
+        private final int[] bookedByType;
+        
+        OccupancyGrid(int fromDay, int nights, List<Room> rooms) {
+            this.fromDay = fromDay;
+            this.nights = nights;
+            this.words = (nights + 63) >>> 6;
+            
+            List<Room> sorted = new ArrayList<>(rooms);
+            sorted.sort((a, b) -> Integer.compare(a.getRoomId(), b.getRoomId()));
+            Map<String, Integer> typeIndex = new LinkedHashMap<>();
+            this.roomIds = new int[sorted.size()];
+            this.roomNumbers = new String[sorted.size()];
+            this.roomTypes = new int[sorted.size()];
+            for (int i = 0; i < roomIds.length; i++) {
+                Room room = sorted.get(i);
+                roomIds[i] = room.getRoomId();
+                roomNumbers[i] = room.getRoomNumber();
+                roomTypes[i] = typeIndex.computeIfAbsent(room.getRoomType(), t -> typeIndex.size());
+            }
+            this.types = typeIndex.keySet().toArray(new String[0]);
+            this.roomsPerType = new int[types.length];
+            for (int type : roomTypes) {
+                roomsPerType[type]++;
+            }
+            this.booked = new long[roomIds.length * words];
+            this.bookedByType = new int[types.length * nights];
+        }
+        
+        // The room and type tables never change after the build, so a copy shares them
+        private OccupancyGrid(OccupancyGrid source) {
+            this.fromDay = source.fromDay;
+            this.nights = source.nights;
+            this.words = source.words;
+            this.roomIds = source.roomIds;
+            this.roomNumbers = source.roomNumbers;
+            this.types = source.types;
+            this.roomTypes = source.roomTypes;
+            this.roomsPerType = source.roomsPerType;
+            this.booked = source.booked.clone();
+            this.bookedByType = source.bookedByType.clone();
+        }
+        
+        synchronized OccupancyGrid copy() {
+            return new OccupancyGrid(this);
+        }
+        
+        // Marks the nights of [checkIn, checkOut) that fall inside the window; rooms added after the build are ignored
+        synchronized void mark(int roomId, int checkIn, int checkOut, boolean isBooked) {
+            int room = Arrays.binarySearch(roomIds, roomId);
+            if (room < 0) return;
+            int first = Math.max(checkIn, fromDay) - fromDay;
+            int last = Math.min(checkOut, fromDay + nights) - fromDay;
+            int base = room * words;
+            int typeBase = roomTypes[room] * nights;
+            for (int night = first; night < last; night++) {
+                long bit = 1L << night;
+                int word = base + (night >>> 6);
+                if (((booked[word] & bit) != 0) == isBooked) continue;
+                booked[word] ^= bit;
+                bookedByType[typeBase + night] += isBooked ? 1 : -1;
+            }
+        }
+        
+        public synchronized int[] availableByType(int type) {
+            int[] available = new int[nights];
+            for (int night = 0; night < nights; night++) {
+                available[night] = roomsPerType[type] - bookedByType[type * nights + night];
+            }
+            return available;
+        }
+        
+        // Little-endian bitmap for one room: bit n of byte n / 8 is the window's n-th night
+        public synchronized byte[] roomBitmap(int room) {
+            byte[] bytes = new byte[(nights + 7) >>> 3];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) (booked[room * words + (i >>> 3)] >>> ((i & 7) << 3));
+            }
+            return bytes;
+        }
+        
+        public synchronized boolean isBooked(int room, int night) {
+            return (booked[room * words + (night >>> 6)] & (1L << night)) != 0;
+        }
+        
+        public LocalDate getFrom() { return LocalDate.ofEpochDay(fromDay); }
+        public LocalDate getTo() { return LocalDate.ofEpochDay(fromDay + nights); }
+        public int getNights() { return nights; }
+        public int getRoomCount() { return roomIds.length; }
+        public int getRoomId(int room) { return roomIds[room]; }
+        public String getRoomNumber(int room) { return roomNumbers[room]; }
+        public int getTypeCount() { return types.length; }
+        public String getType(int type) { return types[type]; }
+        public int getRoomsOfType(int type) { return roomsPerType[type]; }
+    }
+
+    // Parallel arrays sorted by check-in; an overlap check is one binary search
+    static class RoomCalendar {
+        private int[] starts = new int[4];
+        private int[] ends = new int[4];
+        private int[] reservationIds = new int[4];
+        private int size;
+        // Confirmed stays that overlap one above, as an index rebuilt from a double-booked database finds them.
+        // Kept out of the arrays so those stay disjoint, and checked one by one; null while there are none.
+        private RoomCalendar conflicts;
+        
+        boolean overlaps(int in, int out) {
+            // Last stay starting before our check-out is the only candidate, since stays never overlap
+            int i = lastStartBefore(out);
+            return i >= 0 && ends[i] > in || overlapsConflict(in, out);
+        }
+        
+        // As overlaps, but ignoring one stay; the one before it is then the only other candidate
+        boolean overlapsExcept(int in, int out, int ignoredId) {
+            int i = lastStartBefore(out);
+            if (i >= 0 && reservationIds[i] == ignoredId) i--;
+            return i >= 0 && ends[i] > in || overlapsConflict(in, out);
+        }
+        
+        // As overlaps, but only counting stays with positive ids
+        boolean overlapsBooked(int in, int out) {
+            for (int i = lastStartBefore(out); i >= 0 && ends[i] > in; i--) {
+                if (reservationIds[i] > 0) return true;
+            }
+            return overlapsConflict(in, out);
+        }
+        
+        // As overlaps, but only counting holds, which have negative ids
+        boolean overlapsHold(int in, int out) {
+            for (int i = lastStartBefore(out); i >= 0 && ends[i] > in; i--) {
+                if (reservationIds[i] < 0) return true;
+            }
+            return false;
+        }
+        
+        boolean overlapsConflict(int in, int out) {
+            if (conflicts == null) return false;
+            for (int i = 0; i < conflicts.size; i++) {
+                if (conflicts.starts[i] < out && conflicts.ends[i] > in) return true;
+            }
+            return false;
+        }
+        
+        void addConflict(int reservationId, int in, int out) {
+            if (conflicts == null) {
+                conflicts = new RoomCalendar();
+            }
+            conflicts.add(reservationId, in, out);
+        }
+        
+        RoomCalendar conflicts() { return conflicts; }
+        
+        void add(int reservationId, int in, int out) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                reservationIds = Arrays.copyOf(reservationIds, size * 2);
+            }
+            int pos = lastStartBefore(in) + 1;
+            System.arraycopy(starts, pos, starts, pos + 1, size - pos);
+            System.arraycopy(ends, pos, ends, pos + 1, size - pos);
+            System.arraycopy(reservationIds, pos, reservationIds, pos + 1, size - pos);
+            starts[pos] = in;
+            ends[pos] = out;
+            reservationIds[pos] = reservationId;
+            size++;
+        }
+        
+        void remove(int reservationId) {
+            int i = indexOf(reservationId);
+            if (i >= 0) {
+                removeAt(i);
+            } else if (conflicts != null) {
+                conflicts.remove(reservationId);
+            }
+        }
+        
+        int indexOf(int reservationId) {
+            for (int i = 0; i < size; i++) {
+                if (reservationIds[i] == reservationId) return i;
+            }
+            return -1;
+        }
+        
+        int size() { return size; }
+        int id(int i) { return reservationIds[i]; }
+        int start(int i) { return starts[i]; }
+        int end(int i) { return ends[i]; }
+        
+        void removeAt(int i) {
+            System.arraycopy(starts, i + 1, starts, i, size - i - 1);
+            System.arraycopy(ends, i + 1, ends, i, size - i - 1);
+            System.arraycopy(reservationIds, i + 1, reservationIds, i, size - i - 1);
+            size--;
+        }
+        
+        RoomCalendar copy() {
+            RoomCalendar copy = new RoomCalendar();
+            copy.starts = Arrays.copyOf(starts, starts.length);
+            copy.ends = Arrays.copyOf(ends, ends.length);
+            copy.reservationIds = Arrays.copyOf(reservationIds, reservationIds.length);
+            copy.size = size;
+            copy.conflicts = conflicts == null ? null : conflicts.copy();
+            return copy;
+        }
+        
+        // Stays are sorted and disjoint, so only the one starting before `from` can reach into the window.
+        // Holds (negative ids) are skipped: they block a room but are not stays.
+        void forEachOverlapping(int roomId, int from, int to, AvailabilityIndex.StayVisitor visitor) {
+            for (int i = Math.max(0, lastStartBefore(from)); i < size && starts[i] < to; i++) {
+                if (ends[i] > from && reservationIds[i] > 0) {
+                    visitor.visit(roomId, starts[i], ends[i]);
+                }
+            }
+            if (conflicts != null) {
+                for (int i = 0; i < conflicts.size; i++) {
+                    if (conflicts.starts[i] < to && conflicts.ends[i] > from) {
+                        visitor.visit(roomId, conflicts.starts[i], conflicts.ends[i]);
+                    }
+                }
+            }
+        }
+        
+        int lastStartBefore(int day) {
+            int lo = 0;
+            int hi = size - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (starts[mid] < day) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return hi;
+        }
+    }
+
+    // Stays to move between rooms of one type, in parallel arrays
+    static class RoomMoves {
+        private int[] reservationIds = new int[16];
+        private int[] fromRooms = new int[16];
+        private int[] toRooms = new int[16];
+        private int[] checkIns = new int[16];
+        private int[] checkOuts = new int[16];
+        private int size;
+        
+        void add(int reservationId, int fromRoom, int toRoom, int checkIn, int checkOut) {
+            if (size == reservationIds.length) {
+                reservationIds = Arrays.copyOf(reservationIds, size * 2);
+                fromRooms = Arrays.copyOf(fromRooms, size * 2);
+                toRooms = Arrays.copyOf(toRooms, size * 2);
+                checkIns = Arrays.copyOf(checkIns, size * 2);
+                checkOuts = Arrays.copyOf(checkOuts, size * 2);
+            }
+            reservationIds[size] = reservationId;
+            fromRooms[size] = fromRoom;
+            toRooms[size] = toRoom;
+            checkIns[size] = checkIn;
+            checkOuts[size] = checkOut;
+            size++;
+        }
+        
+        int size() { return size; }
+        int reservationId(int i) { return reservationIds[i]; }
+        int fromRoom(int i) { return fromRooms[i]; }
+        int toRoom(int i) { return toRooms[i]; }
+        int checkIn(int i) { return checkIns[i]; }
+        int checkOut(int i) { return checkOuts[i]; }
+    }
+
+    // Packs stays booked by room type onto the physical rooms of that type. Each booking takes the free room
+    // whose neighbouring stays leave the tightest gaps: an exact fit costs nothing, an open gap its length,
+    // and a gap shorter than the minimum stay, which can never be sold, costs more than any open one. A full
+    // pass lifts every future flexible stay off its type's rooms and re-places them in check-in order, one
+    // fork/join task per type, and a type's plan is kept only if it leaves fewer orphan nights. Stays booked
+    // by room number, stays already begun and holds are never moved.
+    static class RoomAssigner {
+        // Leaves only compute; the moves are committed afterwards, one type at a time
+        private static final ForkJoinPool WORKERS = new ForkJoinPool(
+            Integer.getInteger("hotel.assign.parallelism", Runtime.getRuntime().availableProcessors()));
+        private static final long ORPHAN_COST = 1L << 32;
+        private static final long OPEN_GAP = 1 << 16;
+        
+        private final int minStayNights;
+        
+        RoomAssigner(int minStayNights) {
+            this.minStayNights = minStayNights;
+        }
+        
+        public static RoomAssigner create() {
+            return new RoomAssigner(Integer.getInteger("hotel.assign.minStayNights", 2));
+        }
+        
+        // What placing [in, out) in this room costs in gaps either side of it; -1 if the room is taken
+        long fitCost(RoomCalendar calendar, int in, int out) {
+            int before = calendar.lastStartBefore(out);
+            if (before >= 0 && calendar.end(before) > in || calendar.overlapsConflict(in, out)) return -1;
+            return gapCost(before >= 0 ? in - calendar.end(before) : -1)
+                + gapCost(before + 1 < calendar.size() ? calendar.start(before + 1) - out : -1);
+        }
+        
+        // A gap of -1 has no stay on its far side
+        private long gapCost(int nights) {
+            if (nights == 0) return 0;
+            if (nights < 0) return OPEN_GAP;
+            return nights < minStayNights ? ORPHAN_COST : Math.min(nights, OPEN_GAP);
+        }
+        
+        // Nights from `from` on that sit in gaps too short to sell
+        int orphanNights(RoomCalendar[] calendars, int from) {
+            int nights = 0;
+            for (RoomCalendar calendar : calendars) {
+                for (int i = 1; i < calendar.size(); i++) {
+                    int gap = calendar.start(i) - calendar.end(i - 1);
+                    if (gap > 0 && gap < minStayNights && calendar.start(i) > from) {
+                        nights += calendar.start(i) - Math.max(calendar.end(i - 1), from);
+                    }
+                }
+            }
+            return nights;
+        }
+        
+        // Plans every room type in parallel from the index as it stands; nothing is changed
+        public List<TypePlan> plan(AvailabilityIndex index, BitSet flexibleStays, int from) {
+            return WORKERS.invoke(new RecursiveTask<List<TypePlan>>() {
+                @Override
+                protected List<TypePlan> compute() {
+                    List<RecursiveTask<TypePlan>> tasks = new ArrayList<>();
+                    for (String roomType : index.roomTypes()) {
+                        tasks.add(new RecursiveTask<TypePlan>() {
+                            @Override
+                            protected TypePlan compute() {
+                                int[] roomIds = index.roomsOfType(roomType);
+                                return planType(roomType, roomIds, index.copyCalendars(roomIds), flexibleStays, from);
+                            }
+                        });
+                    }
+                    List<TypePlan> plans = new ArrayList<>();
+                    for (RecursiveTask<TypePlan> task : invokeAll(tasks)) {
+                        plans.add(task.join());
+                    }
+                    return plans;
+                }
+            });
+        }
+        
+        // Re-places the type's movable stays in these calendars, which are the planner's own copies
+        TypePlan planType(String roomType, int[] roomIds, RoomCalendar[] calendars, BitSet flexibleStays, int from) {
+            TypePlan plan = new TypePlan(roomType);
+            plan.orphanNightsBefore = orphanNights(calendars, from);
+            plan.orphanNightsAfter = plan.orphanNightsBefore;
+            
+            int count = 0;
+            int[] ids = new int[64];
+            int[] ins = new int[64];
+            int[] outs = new int[64];
+            int[] rooms = new int[64];
+            for (int room = 0; room < calendars.length; room++) {
+                RoomCalendar calendar = calendars[room];
+                for (int i = calendar.size() - 1; i >= 0; i--) {
+                    int id = calendar.id(i);
+                    if (id <= 0 || calendar.start(i) < from || !flexibleStays.get(id)) continue;
+                    if (count == ids.length) {
+                        ids = Arrays.copyOf(ids, count * 2);
+                        ins = Arrays.copyOf(ins, count * 2);
+                        outs = Arrays.copyOf(outs, count * 2);
+                        rooms = Arrays.copyOf(rooms, count * 2);
+                    }
+                    ids[count] = id;
+                    ins[count] = calendar.start(i);
+                    outs[count] = calendar.end(i);
+                    rooms[count] = room;
+                    count++;
+                    calendar.removeAt(i);
+                }
+            }
+            plan.flexibleStays = count;
+            if (count == 0) return plan;
+            
+            // By check-in, longer stays first on the same day; the low 24 bits carry the stay's position
+            long[] order = new long[count];
+            for (int k = 0; k < count; k++) {
+                order[k] = ((long) (ins[k] - from) << 40) | ((long) (0xffff - Math.min(outs[k] - ins[k], 0xffff)) << 24) | k;
+            }
+            Arrays.sort(order);
+            int[] placed = new int[count];
+            for (long key : order) {
+                int k = (int) (key & 0xffffff);
+                // The stay's own room is tried first, so it only moves for a strictly tighter fit
+                int best = rooms[k];
+                long bestCost = fitCost(calendars[best], ins[k], outs[k]);
+                if (bestCost < 0) {
+                    bestCost = Long.MAX_VALUE;
+                    best = -1;
+                }
+                for (int room = 0; room < calendars.length; room++) {
+                    long cost = fitCost(calendars[room], ins[k], outs[k]);
+                    if (cost >= 0 && cost < bestCost) {
+                        best = room;
+                        bestCost = cost;
+                    }
+                }
+                if (best < 0) {
+                    // Fixed stays boxed this one in; the current assignment stands
+                    plan.unplaced = true;
+                    return plan;
+                }
+                calendars[best].add(ids[k], ins[k], outs[k]);
+                placed[k] = best;
+            }
+            int after = orphanNights(calendars, from);
+            if (after >= plan.orphanNightsBefore) return plan;
+            plan.orphanNightsAfter = after;
+            for (int k = 0; k < count; k++) {
+                if (placed[k] != rooms[k]) {
+                    plan.moves.add(ids[k], roomIds[rooms[k]], roomIds[placed[k]], ins[k], outs[k]);
+                }
+            }
+            return plan;
+        }
+        
+        static class TypePlan {
+            final String roomType;
+            final RoomMoves moves = new RoomMoves();
+            int flexibleStays;
+            int orphanNightsBefore;
+            int orphanNightsAfter;
+            boolean unplaced;
+            
+            TypePlan(String roomType) {
+                this.roomType = roomType;
+            }
+            
+            public String getRoomType() { return roomType; }
+            public int getMoves() { return moves.size(); }
+            public int getFlexibleStays() { return flexibleStays; }
+            public int getOrphanNightsBefore() { return orphanNightsBefore; }
+            public int getOrphanNightsAfter() { return orphanNightsAfter; }
+        }
+    }
+
+    // Outcome of a full room re-optimization; a skipped type changed under the plan or failed to commit
+    static class AssignmentReport {
+        int roomTypes;
+        int flexibleStays;
+        int moved;
+        int orphanNightsBefore;
+        int orphanNightsAfter;
+        int skippedTypes;
+        long elapsedNanos;
+        
+        public int getRoomTypes() { return roomTypes; }
+        public int getFlexibleStays() { return flexibleStays; }
+        public int getMoved() { return moved; }
+        public int getOrphanNightsBefore() { return orphanNightsBefore; }
+        public int getOrphanNightsAfter() { return orphanNightsAfter; }
+        public int getSkippedTypes() { return skippedTypes; }
+        public double getElapsedMillis() { return elapsedNanos / 1e6; }
+        
+        @Override
+        public String toString() {
+            return String.format("%d room types, %d flexible stays, %d moved, orphan nights %d -> %d, " +
+                "%d types skipped in %.1f ms", roomTypes, flexibleStays, moved, orphanNightsBefore, orphanNightsAfter,
+                skippedTypes, getElapsedMillis());
+        }
+    }
+
+    // A room held for [checkIn, checkOut) until expiresAt, kept only in memory. The links place it in its
+    // registry's timing wheel and are guarded by the registry.
+    static class Hold {
+        private final int holdId;
+        private final int roomId;
+        private final int checkIn;
+        private final int checkOut;
+        private final long expiresAt;
+        private final long deadlineTick;
+        // Placed by room type, so the booking confirming it is too
+        private final boolean roomFlexible;
+        private Hold prev;
+        private Hold next;
+        private int slot = -1;
+        
+        Hold(int holdId, int roomId, int checkIn, int checkOut, long expiresAt, long deadlineTick,
+             boolean roomFlexible) {
+            this.holdId = holdId;
+            this.roomId = roomId;
+            this.checkIn = checkIn;
+            this.checkOut = checkOut;
+            this.expiresAt = expiresAt;
+            this.deadlineTick = deadlineTick;
+            this.roomFlexible = roomFlexible;
+        }
+        
+        // Getters
+        public int getHoldId() { return holdId; }
+        public int getRoomId() { return roomId; }
+        public LocalDate getCheckInDate() { return LocalDate.ofEpochDay(checkIn); }
+        public LocalDate getCheckOutDate() { return LocalDate.ofEpochDay(checkOut); }
+        public long getExpiresAt() { return expiresAt; }
+        public boolean isRoomFlexible() { return roomFlexible; }
+    }
+
+    // Live holds for one BookingContext. A hold blocks its dates in the availability index and waits in a
+    // hashed timing wheel: one doubly linked list per tick slot, so placing, releasing and expiring a hold
+    // are O(1) and a tick only visits the slot it lands on. A hold due more than one turn ahead stays put
+    // until the turn its deadline falls in.
+    static class HoldRegistry implements AutoCloseable {
+        enum Outcome { PLACED, CONFIRMED, RELEASED, EXPIRED }
+        
+        // One daemon thread turns the wheel of every registry that has holds
+        private static final ScheduledExecutorService TICKER = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "hold-wheel");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        private final AvailabilityIndex index;
+        private final long tickNanos;
+        private final long defaultTtlMillis;
+        private final long maxTtlMillis;
+        private final int maxHolds;
+        private final Hold[] wheel;
+        private final int wheelMask;
+        private final long startNanos = System.nanoTime();
+        private final Map<Integer, Hold> holds = new ConcurrentHashMap<>();
+        private final AtomicInteger nextHoldId = new AtomicInteger();
+        // Slots taken against maxHolds: reserved before a hold is placed, given back when it leaves the map
+        private final AtomicInteger live = new AtomicInteger();
+        // Guarded by this: the last tick processed, holds on the wheel, and the ticker's task
+        private long tick;
+        private int scheduled;
+        private ScheduledFuture<?> ticking;
+        
+        HoldRegistry(AvailabilityIndex index, int wheelSlots, long tickMillis, long defaultTtlMillis,
+                     long maxTtlMillis, int maxHolds) {
+            // Round up to a power of two so the slot is a mask, not a modulo
+            int size = Integer.highestOneBit(Math.max(1, wheelSlots - 1)) << 1;
+            this.index = index;
+            this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+            this.defaultTtlMillis = defaultTtlMillis;
+            this.maxTtlMillis = maxTtlMillis;
+            this.maxHolds = maxHolds;
+            this.wheel = new Hold[size];
+            this.wheelMask = size - 1;
+        }
+        
+        public static HoldRegistry create(AvailabilityIndex index) {
+            return new HoldRegistry(index, Integer.getInteger("hotel.holds.wheelSlots", 1024),
+                Long.getLong("hotel.holds.tickMs", 1000),
+                TimeUnit.MINUTES.toMillis(Long.getLong("hotel.holds.ttlMinutes", 10)),
+                TimeUnit.MINUTES.toMillis(Long.getLong("hotel.holds.maxTtlMinutes", 60)),
+                Integer.getInteger("hotel.holds.max", 1_000_000));
+        }
+        
+        public Hold place(int roomId, LocalDate checkIn, LocalDate checkOut, long ttlMillis) {
+            return place(roomId, checkIn, checkOut, ttlMillis, false);
+        }
+        
+        // Holds the room for ttlMillis, or the default if 0; null if the dates are taken
+        public Hold place(int roomId, LocalDate checkIn, LocalDate checkOut, long ttlMillis, boolean roomFlexible) {
+            if (live.incrementAndGet() > maxHolds) {
+                live.decrementAndGet();
+                throw new RejectedExecutionException("Too many live holds (" + maxHolds + ")");
+            }
+            long ttl = ttlMillis <= 0 ? defaultTtlMillis : Math.min(ttlMillis, maxTtlMillis);
+            int holdId = nextHoldId.incrementAndGet();
+            int in = (int) checkIn.toEpochDay();
+            int out = (int) checkOut.toEpochDay();
+            boolean held = false;
+            try {
+                held = index.tryHold(roomId, holdId, in, out);
+            } finally {
+                if (!held) {
+                    live.decrementAndGet();
+                }
+            }
+            if (!held) {
+                return null;
+            }
+            long now = System.nanoTime();
+            Hold hold = new Hold(holdId, roomId, in, out, System.currentTimeMillis() + ttl,
+                (now - startNanos + TimeUnit.MILLISECONDS.toNanos(ttl) + tickNanos - 1) / tickNanos, roomFlexible);
+            synchronized (this) {
+                holds.put(holdId, hold);
+                link(hold);
+            }
+            Metrics.hold(Outcome.PLACED);
+            return hold;
+        }
+        
+        public Hold find(int holdId) {
+            return holds.get(holdId);
+        }
+        
+        public int size() {
+            return holds.size();
+        }
+        
+        // Takes the hold off the wheel to confirm it; null if it expired, was released or is being confirmed.
+        // The dates stay blocked until the caller converts the hold or hands it back to restore().
+        public Hold take(int holdId) {
+            Hold hold;
+            synchronized (this) {
+                hold = holds.remove(holdId);
+                if (hold == null) return null;
+                live.decrementAndGet();
+                unlink(hold);
+                if (hold.deadlineTick > currentTick()) return hold;
+            }
+            // Due, but the ticker has not reached it yet
+            expire(hold);
+            return null;
+        }
+        
+        // Puts back a hold whose confirmation failed, unless it ran out meanwhile
+        public void restore(Hold hold) {
+            synchronized (this) {
+                if (hold.deadlineTick > currentTick()) {
+                    // Back in even if the registry filled up meanwhile; it held its slot until take()
+                    live.incrementAndGet();
+                    holds.put(hold.getHoldId(), hold);
+                    link(hold);
+                    return;
+                }
+            }
+            expire(hold);
+        }
+        
+        public boolean release(int holdId) {
+            Hold hold;
+            synchronized (this) {
+                hold = holds.remove(holdId);
+                if (hold == null) return false;
+                live.decrementAndGet();
+                unlink(hold);
+            }
+            index.releaseHold(hold.getRoomId(), holdId);
+            Metrics.hold(Outcome.RELEASED);
+            return true;
+        }
+        
+        // Drops every hold and stops the ticker, as when the storage behind the index closes. Holds placed
+        // afterwards, as when a shard reopens, start the ticker again.
+        @Override
+        public void close() {
+            List<Hold> dropped;
+            synchronized (this) {
+                dropped = new ArrayList<>(holds.values());
+                holds.clear();
+                // Less what was dropped, not zero: a place() under way may have reserved a slot already
+                live.addAndGet(-dropped.size());
+                Arrays.fill(wheel, null);
+                scheduled = 0;
+                if (ticking != null) {
+                    ticking.cancel(false);
+                    ticking = null;
+                }
+            }
+            for (Hold hold : dropped) {
+                index.releaseHold(hold.getRoomId(), hold.getHoldId());
+            }
+        }
+        
+        // Runs on the ticker: catches the wheel up to the clock, expiring what is due in each slot it passes
+        private void advance() {
+            List<Hold> expired = new ArrayList<>();
+            synchronized (this) {
+                long target = currentTick();
+                if (scheduled == 0) {
+                    tick = Math.max(tick, target);
+                }
+                while (tick < target) {
+                    tick++;
+                    Hold hold = wheel[(int) (tick & wheelMask)];
+                    while (hold != null) {
+                        Hold next = hold.next;
+                        if (hold.deadlineTick <= tick) {
+                            unlink(hold);
+                            holds.remove(hold.getHoldId());
+                            live.decrementAndGet();
+                            expired.add(hold);
+                        }
+                        hold = next;
+                    }
+                }
+                // Nothing left to expire: stop ticking until link() schedules the next hold
+                if (scheduled == 0 && ticking != null) {
+                    ticking.cancel(false);
+                    ticking = null;
+                }
+            }
+            // Outside the wheel lock, so placing holds never waits on the index for an expiry burst
+            for (Hold hold : expired) {
+                expire(hold);
+            }
+        }
+        
+        private void expire(Hold hold) {
+            try {
+                index.releaseHold(hold.getRoomId(), hold.getHoldId());
+                Metrics.hold(Outcome.EXPIRED);
+            } catch (RuntimeException e) {
+                // An exception would cancel the ticker's task, and with it every later expiry
+                System.out.println("Error expiring hold " + hold.getHoldId() + ": " + e.getMessage());
+            }
+        }
+        
+        private long currentTick() {
+            return (System.nanoTime() - startNanos) / tickNanos;
+        }
+        
+        private void link(Hold hold) {
+            // Never behind the wheel, or it would wait a full turn
+            int slot = (int) (Math.max(hold.deadlineTick, tick + 1) & wheelMask);
+            hold.prev = null;
+            hold.next = wheel[slot];
+            if (hold.next != null) {
+                hold.next.prev = hold;
+            }
+            wheel[slot] = hold;
+            hold.slot = slot;
+            scheduled++;
+            if (ticking == null) {
+                long period = TimeUnit.NANOSECONDS.toMillis(tickNanos);
+                ticking = TICKER.scheduleAtFixedRate(this::advance, period, period, TimeUnit.MILLISECONDS);
+            }
+        }
+        
+        private void unlink(Hold hold) {
+            if (hold.slot < 0) return;
+            if (hold.prev != null) {
+                hold.prev.next = hold.next;
+            } else {
+                wheel[hold.slot] = hold.next;
+            }
+            if (hold.next != null) {
+                hold.next.prev = hold.prev;
+            }
+            hold.prev = null;
+            hold.next = null;
+            hold.slot = -1;
+            scheduled--;
+        }
+    }
+
+    // A unit of work for the write pipeline. apply() runs inside the batch transaction under its own
+    // savepoint; afterCommit() runs once the batch is committed, while the writer is still held.
+    abstract static class WriteOp<T> {
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private T result;
+        
+        abstract T apply(PooledConnection conn, WriteBatch batch) throws SQLException;
+        
+        // Result reported when this operation alone fails and its savepoint is rolled back
+        abstract T onError(SQLException e);
+        
+        void afterCommit(T result) {}
+        
+        CompletableFuture<T> future() { return future; }
+        
+        private void complete() {
+            afterCommit(result);
+            future.complete(result);
+        }
+    }
+
+    // Rows that need no generated key are queued here and sent with executeBatch just before COMMIT. An
+    // operation's rows stay staged until it returns, so one rolled back to its savepoint leaves none behind.
+    static class WriteBatch {
+        interface Row {
+            void bind(PreparedStatement pstmt) throws SQLException;
+        }
+        
+        private final PooledConnection conn;
+        private final List<Sql> stagedSql = new ArrayList<>();
+        private final List<Row> stagedRows = new ArrayList<>();
+        private final List<Sql> acceptedSql = new ArrayList<>();
+        private final List<Row> acceptedRows = new ArrayList<>();
+        private final Set<Sql> pending = EnumSet.noneOf(Sql.class);
+        
+        WriteBatch(PooledConnection conn) {
+            this.conn = conn;
+        }
+        
+        void add(Sql sql, Row row) {
+            stagedSql.add(sql);
+            stagedRows.add(row);
+        }
+        
+        void accept() {
+            acceptedSql.addAll(stagedSql);
+            acceptedRows.addAll(stagedRows);
+            reject();
+        }
+        
+        void reject() {
+            stagedSql.clear();
+            stagedRows.clear();
+        }
+        
+        int flush() throws SQLException {
+            for (int i = 0; i < acceptedRows.size(); i++) {
+                Sql sql = acceptedSql.get(i);
+                PreparedStatement pstmt = conn.prepare(sql);
+                pending.add(sql);
+                acceptedRows.get(i).bind(pstmt);
+                pstmt.addBatch();
+            }
+            acceptedSql.clear();
+            acceptedRows.clear();
+            int rows = 0;
+            for (Sql sql : pending) {
+                for (int count : sql.executeBatch(conn.prepare(sql))) {
+                    rows += Math.max(count, 0);
+                }
+            }
+            pending.clear();
+            return rows;
+        }
+        
+        void discard() {
+            reject();
+            acceptedSql.clear();
+            acceptedRows.clear();
+            for (Sql sql : pending) {
+                try {
+                    conn.prepare(sql).clearBatch();
+                } catch (SQLException e) {
+                    System.out.println("Error clearing statement batch: " + e.getMessage());
+                }
+            }
+            pending.clear();
+        }
+    }
+
+    // Group commit: writes from concurrent callers are collected into short batches, each committed in one
+    // transaction (one WAL sync), and every caller is released only after its batch has committed
+    static class WritePipeline implements AutoCloseable {
+        private static final long MAX_BACKOFF_MS = 500;
+        
+        private final ConnectionPool pool;
+        private final boolean groupCommit;
+        private final int maxBatchSize;
+        private final long lingerNanos;
+        private final int maxAttempts;
+        private final long baseBackoffMillis;
+        private final BlockingQueue<WriteOp<?>> queue;
+        private final Thread worker;
+        private volatile boolean running = true;
+        
+        private final long startNanos = System.nanoTime();
+        private final LongAdder batches = new LongAdder();
+        private final LongAdder operations = new LongAdder();
+        private final AtomicInteger largestBatch = new AtomicInteger();
+        private final LongAdder commitNanos = new LongAdder();
+        private final AtomicLong maxCommitNanos = new AtomicLong();
+        private final LongAdder retries = new LongAdder();
+        
+        WritePipeline(ConnectionPool pool, String name, boolean groupCommit, int maxBatchSize, long lingerMicros,
+                      int maxAttempts, long baseBackoffMillis, int queueCapacity) {
+            this.pool = pool;
+            this.groupCommit = groupCommit;
+            this.maxBatchSize = maxBatchSize;
+            this.lingerNanos = TimeUnit.MICROSECONDS.toNanos(lingerMicros);
+            this.maxAttempts = maxAttempts;
+            this.baseBackoffMillis = baseBackoffMillis;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            if (groupCommit) {
+                worker = new Thread(this::runLoop, name);
+                worker.setDaemon(true);
+                worker.start();
+            } else {
+                worker = null;
+            }
+        }
+        
+        // Blocks until the operation's batch is committed; failures are mapped through onError()
+        public <T> T execute(WriteOp<T> op) {
+            try {
+                return submit(op).get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                return op.onError(cause instanceof SQLException ? (SQLException) cause : new SQLException(cause));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return op.onError(new SQLException("Interrupted while waiting for commit", e));
+            }
+        }
+        
+        public <T> CompletableFuture<T> submit(WriteOp<T> op) {
+            if (!groupCommit || !running || Thread.currentThread() == worker) {
+                runBatch(Collections.singletonList(op));
+                return op.future();
+            }
+            try {
+                queue.put(op);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                op.future().completeExceptionally(new SQLException("Interrupted while queuing write", e));
+            }
+            return op.future();
+        }
+        
+        public PipelineStats stats() {
+            long batchCount = batches.sum();
+            long opCount = operations.sum();
+            double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+            return new PipelineStats(batchCount, opCount, largestBatch.get(),
+                elapsedSeconds > 0 ? opCount / elapsedSeconds : 0,
+                batchCount == 0 ? 0 : commitNanos.sum() / batchCount, maxCommitNanos.get(),
+                retries.sum(), queue.size());
+        }
+        
+        @Override
+        public void close() {
+            running = false;
+            if (worker != null) {
+                try {
+                    worker.join(TimeUnit.SECONDS.toMillis(30));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            // Anything still queued runs on the closing thread so no caller is left waiting
+            List<WriteOp<?>> leftover = new ArrayList<>();
+            queue.drainTo(leftover);
+            if (!leftover.isEmpty()) {
+                runBatch(leftover);
+            }
+        }
+        
+        private void runLoop() {
+            List<WriteOp<?>> batch = new ArrayList<>(maxBatchSize);
+            while (running || !queue.isEmpty()) {
+                try {
+                    WriteOp<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) continue;
+                    batch.add(first);
+                    long deadline = System.nanoTime() + lingerNanos;
+                    while (batch.size() < maxBatchSize) {
+                        queue.drainTo(batch, maxBatchSize - batch.size());
+                        long remaining = deadline - System.nanoTime();
+                        if (batch.size() >= maxBatchSize || remaining <= 0) break;
+                        WriteOp<?> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) break;
+                        batch.add(next);
+                    }
+                    runBatch(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    running = false;
+                } catch (RuntimeException e) {
+                    for (WriteOp<?> op : batch) {
+                        op.future().completeExceptionally(e);
+                    }
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+        
+        private void runBatch(List<WriteOp<?>> ops) {
+            for (int attempt = 1; ; attempt++) {
+                try (PooledConnection conn = pool.acquireWrite()) {
+                    WriteBatch batch = new WriteBatch(conn);
+                    conn.beginImmediate();
+                    try {
+                        for (WriteOp<?> op : ops) {
+                            applyWithSavepoint(conn, batch, op);
+                        }
+                        batch.flush();
+                        long commitStart = System.nanoTime();
+                        conn.commit();
+                        recordBatch(ops.size(), System.nanoTime() - commitStart);
+                    } catch (SQLException e) {
+                        batch.discard();
+                        conn.rollback();
+                        throw e;
+                    }
+                    for (WriteOp<?> op : ops) {
+                        op.complete();
+                    }
+                    return;
+                } catch (SQLException e) {
+                    if (isBusy(e) && attempt < maxAttempts && backOff(attempt)) {
+                        retries.increment();
+                        continue;
+                    }
+                    for (WriteOp<?> op : ops) {
+                        op.future().completeExceptionally(e);
+                    }
+                    return;
+                }
+            }
+        }
+        
+        private static <T> void applyWithSavepoint(PooledConnection conn, WriteBatch batch, WriteOp<T> op)
+                throws SQLException {
+            conn.execute(Sql.SAVEPOINT);
+            try {
+                op.result = op.apply(conn, batch);
+                batch.accept();
+            } catch (SQLException e) {
+                batch.reject();
+                if (isBusy(e)) throw e;
+                conn.execute(Sql.ROLLBACK_TO_SAVEPOINT);
+                op.result = op.onError(e);
+            }
+            conn.execute(Sql.RELEASE_SAVEPOINT);
+        }
+        
+        private void recordBatch(int size, long commitTime) {
+            batches.increment();
+            operations.add(size);
+            largestBatch.accumulateAndGet(size, Math::max);
+            commitNanos.add(commitTime);
+            maxCommitNanos.accumulateAndGet(commitTime, Math::max);
+        }
+        
+        // SQLITE_BUSY / SQLITE_LOCKED, including extended result codes
+        static boolean isBusy(SQLException e) {
+            int code = e.getErrorCode() & 0xff;
+            return code == 5 || code == 6;
+        }
+        
+        private boolean backOff(int attempt) {
+            long ceiling = Math.min(MAX_BACKOFF_MS, baseBackoffMillis << (attempt - 1));
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1));
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    static class PipelineStats {
+        private final long batches;
+        private final long operations;
+        private final int largestBatch;
+        private final double operationsPerSecond;
+        private final long averageCommitNanos;
+        private final long maxCommitNanos;
+        private final long retries;
+        private final int queued;
+        
+        PipelineStats(long batches, long operations, int largestBatch, double operationsPerSecond,
+                      long averageCommitNanos, long maxCommitNanos, long retries, int queued) {
+            this.batches = batches;
+            this.operations = operations;
+            this.largestBatch = largestBatch;
+            this.operationsPerSecond = operationsPerSecond;
+            this.averageCommitNanos = averageCommitNanos;
+            this.maxCommitNanos = maxCommitNanos;
+            this.retries = retries;
+            this.queued = queued;
+        }
+
+        // Getters
+        public long getBatches() { return batches; }
+        public long getOperations() { return operations; }
+        public int getLargestBatch() { return largestBatch; }
+        public double getOperationsPerSecond() { return operationsPerSecond; }
+        public long getAverageCommitNanos() { return averageCommitNanos; }
+        public long getMaxCommitNanos() { return maxCommitNanos; }
+        public long getRetries() { return retries; }
+        public int getQueued() { return queued; }
+        
+        @Override
+        public String toString() {
+            return String.format("batches=%d ops=%d avgBatch=%.1f largestBatch=%d throughput=%.0f ops/s " +
+                "avgCommit=%.1fus maxCommit=%.1fus retries=%d queued=%d",
+                batches, operations, batches == 0 ? 0.0 : (double) operations / batches, largestBatch,
+                operationsPerSecond, averageCommitNanos / 1000.0, maxCommitNanos / 1000.0, retries, queued);
+        }
+    }
+
+    // Storage behind the room, reservation and payment services, chosen with -Dhotel.storage: SQLite
+    // (the default) or in-memory state with a journal. Both report failures as SQLException. A write runs
+    // its afterCommit hook only if it took effect, once it is durable and before the next write commits,
+    // so cache updates are applied in commit order.
+    interface HotelRepository extends AutoCloseable {
+        interface StayRecordVisitor {
+            void visit(int reservationId, int roomId, int checkIn, int checkOut);
+        }
+        
+        // Rooms in id order
+        List<Room> loadRooms() throws SQLException;
+        Room findRoom(int roomId) throws SQLException;
+        Room findRoomByNumber(String roomNumber) throws SQLException;
+        void insertRooms(List<Room> rooms) throws SQLException;
+        boolean updateRoomAvailability(int roomId, boolean isAvailable, Runnable afterCommit) throws SQLException;
+        boolean updateRoomPrice(int roomId, double pricePerNight, Runnable afterCommit) throws SQLException;
+        
+        void forEachConfirmedStay(StayRecordVisitor visitor) throws SQLException;
+        // Inserts unless the stay overlaps a confirmed one, assigning the reservation id; the optional
+        // payment is recorded in the same commit. Booking also marks the room unavailable and links the
+        // reservation to its guest profile, creating or renaming the profile, and sets the guest id.
+        boolean insertReservation(Reservation reservation, Payment payment, Runnable afterCommit) throws SQLException;
+        // Cancels a confirmed reservation, false if it is unknown or already cancelled. Cancelling marks the
+        // room available again; the hook receives the room id
+        boolean cancelReservation(int reservationId, IntConsumer afterCommit) throws SQLException;
+        Reservation findReservation(int reservationId) throws SQLException;
+        // Confirmed stays booked by room type that check in on or after the given day
+        BitSet findFlexibleStays(LocalDate from) throws SQLException;
+        // Moves all the stays or none: false if any is no longer a confirmed flexible stay in its from-room,
+        // or would overlap a confirmed stay in its new room once every move is made
+        boolean moveReservations(RoomMoves moves, Runnable afterCommit) throws SQLException;
+        
+        // Guest profiles in id order
+        List<Guest> loadGuests() throws SQLException;
+        // The guest's reservations, cancelled ones included, by check-in date
+        List<Reservation> findGuestReservations(int guestId) throws SQLException;
+        
+        // Stores the payment and assigns its id. A payment whose idempotency key is already stored is not
+        // written again: the stored one is returned and the hook does not run. A refund larger than the
+        // reservation's refundable balance is rejected with null.
+        Payment insertPayment(Payment payment, Runnable afterCommit) throws SQLException;
+        // The reservation's payments and refunds in id order
+        List<Payment> findPayments(int reservationId) throws SQLException;
+        List<Payment> findPendingPayments() throws SQLException;
+        // Records the gateway's answer for a pending payment; false if it is no longer pending
+        boolean settlePayment(int paymentId, String status, String gatewayReference, Runnable afterCommit)
+            throws SQLException;
+        
+        @Override
+        void close();
+    }
+
+    // Where a JdbcRepository gets its connections and its writer: the main database or a property's shard
+    interface ConnectionSource {
+        PooledConnection read() throws SQLException;
+        PooledConnection write() throws SQLException;
+        WritePipeline writePipeline();
+    }
+
+    // SQLite backend: reads use the read pool, writes go through the group-commit pipeline
+    static class JdbcRepository implements HotelRepository {
+        private final ConnectionSource source;
+        
+        JdbcRepository(ConnectionSource source) {
+            this.source = source;
+        }
+        
+        @Override
+        public List<Room> loadRooms() throws SQLException {
+            List<Room> rooms = new ArrayList<>();
+            try (PooledConnection conn = source.read(); ResultSet rs = conn.query(Sql.ROOMS_ALL)) {
+                while (rs.next()) {
+                    rooms.add(RoomCatalog.readRoom(rs));
+                }
+            }
+            return rooms;
+        }
+        
+        @Override
+        public Room findRoom(int roomId) throws SQLException {
+            return queryRoom(Sql.ROOM_BY_ID, pstmt -> pstmt.setInt(1, roomId));
+        }
+        
+        @Override
+        public Room findRoomByNumber(String roomNumber) throws SQLException {
+            return queryRoom(Sql.ROOM_BY_NUMBER, pstmt -> pstmt.setString(1, roomNumber));
+        }
+        
+        private Room queryRoom(Sql sql, StatementBinder binder) throws SQLException {
+            try (PooledConnection conn = source.read()) {
+                PreparedStatement pstmt = conn.prepare(sql);
+                binder.bind(pstmt);
+                try (ResultSet rs = sql.executeQuery(pstmt)) {
+                    return rs.next() ? RoomCatalog.readRoom(rs) : null;
+                }
+            }
+        }
+        
+        @Override
+        public void insertRooms(List<Room> rooms) throws SQLException {
+            try (PooledConnection conn = source.write();
+                 PreparedStatement insert = conn.prepareStatement(DataSeeder.ROOM_INSERT)) {
+                conn.beginImmediate();
+                for (Room room : rooms) {
+                    insert.setInt(1, room.getRoomId());
+                    insert.setString(2, room.getRoomNumber());
+                    insert.setString(3, room.getRoomType());
+                    insert.setDouble(4, room.getPricePerNight());
+                    insert.setInt(5, room.getCapacity());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+                conn.commit();
+            }
+        }
+        
+        @Override
+        public boolean updateRoomAvailability(int roomId, boolean isAvailable, Runnable afterCommit) throws SQLException {
+            return write(new RepositoryWrite(afterCommit) {
+                @Override
+                Boolean apply(PooledConnection conn, WriteBatch batch) throws SQLException {
+                    PreparedStatement pstmt = conn.prepare(Sql.ROOM_UPDATE_AVAILABILITY);
+                    pstmt.setBoolean(1, isAvailable);
+                    pstmt.setInt(2, roomId);
+                    
+                    return Sql.ROOM_UPDATE_AVAILABILITY.executeUpdate(pstmt) > 0;
+                }
+            });
+        }
+        
+        @Override
+        public boolean updateRoomPrice(int roomId, double pricePerNight, Runnable afterCommit) throws SQLException {
+            return write(new RepositoryWrite(afterCommit) {
+                @Override
+                Boolean apply(PooledConnection conn, WriteBatch batch) throws SQLException {
+                    PreparedStatement pstmt = conn.prepare(Sql.ROOM_UPDATE_PRICE);
+                    pstmt.setDouble(1, pricePerNight);
+                    pstmt.setInt(2, roomId);
+                    
+                    return Sql.ROOM_UPDATE_PRICE.executeUpdate(pstmt) > 0;
+                }
+            });
+        }
+        
+        @Override
+        public void forEachConfirmedStay(StayRecordVisitor visitor) throws SQLException {
+            try (PooledConnection conn = source.read();
+                 ResultSet rs = conn.query(Sql.RESERVATIONS_CONFIRMED)) {
+                while (rs.next()) {
+                    visitor.visit(rs.getInt("reservation_id"), rs.getInt("room_id"),
+                        DatabaseManager.readEpochDay(rs, "check_in_date"), DatabaseManager.readEpochDay(rs, "check_out_date"));
+                }
+            }
+        }
+        
+        @Override
+        public boolean insertReservation(Reservation reservation, Payment payment, Runnable afterCommit)
+                throws SQLException {
+            return write(new RepositoryWrite(afterCommit) {
+                @Override
+                Boolean apply(PooledConnection conn, WriteBatch batch) throws SQLException {
+                    // Sees earlier bookings in the same batch, since they share the transaction
+                    PreparedStatement check = conn.prepare(Sql.RESERVATION_OVERLAP_COUNT);
+                    check.setInt(1, reservation.getRoomId());
+                    DatabaseManager.bindDate(check, 2, reservation.getCheckOutDate());
+                    DatabaseManager.bindDate(check, 3, reservation.getCheckInDate());
+                    try (ResultSet rs = Sql.RESERVATION_OVERLAP_COUNT.executeQuery(check)) {
+                        if (rs.next() && rs.getInt(1) > 0) return false;
+                    }
+                    
+                    reservation.setGuestId(linkGuest(conn, reservation.getGuestName(), reservation.getGuestEmail()));
+                    
+                    // Executed immediately: the generated key is needed for the payment row and the caller
+                    PreparedStatement insert = conn.prepare(Sql.RESERVATION_INSERT);
+                    insert.setInt(1, reservation.getRoomId());
+                    insert.setString(2, reservation.getGuestName());
+                    insert.setString(3, reservation.getGuestEmail());
+                    DatabaseManager.bindDate(insert, 4, reservation.getCheckInDate());
+                    DatabaseManager.bindDate(insert, 5, reservation.getCheckOutDate());
+                    insert.setDouble(6, reservation.getTotalPrice());
+                    insert.setString(7, reservation.getStatus());
+                    insert.setInt(8, reservation.getGuestId());
+                    insert.setBoolean(9, reservation.isRoomFlexible());
+                    Sql.RESERVATION_INSERT.executeUpdate(insert);
+                    try (ResultSet generatedKeys = insert.getGeneratedKeys()) {
+                        if (generatedKeys.next()) {
+                            reservation.setReservationId(generatedKeys.getInt(1));
+                        }
+                    }
+                    
+                    int roomId = reservation.getRoomId();
+                    batch.add(Sql.ROOM_UPDATE_AVAILABILITY, roomUpdate -> {
+                        roomUpdate.setBoolean(1, false);
+                        roomUpdate.setInt(2, roomId);
+                    });
+                    
+                    if (payment != null) {
+                        payment.setReservationId(reservation.getReservationId());
+                        insertPaymentRow(conn, payment);
+                    }
+                    return true;
+                }
+            });
+        }
+        
+        @Override
+        public boolean cancelReservation(int reservationId, IntConsumer afterCommit) throws SQLException {
+            int[] roomId = {-1};
+            return write(new RepositoryWrite(() -> afterCommit.accept(roomId[0])) {
+                @Override
+                Boolean apply(PooledConnection conn, WriteBatch batch) throws SQLException {
+                    PreparedStatement pstmt = conn.prepare(Sql.RESERVATION_ROOM_ID);
+                    pstmt.setInt(1, reservationId);
+                    try (ResultSet rs = Sql.RESERVATION_ROOM_ID.executeQuery(pstmt)) {
+                        if (!rs.next()) return false;
+                        roomId[0] = rs.getInt("room_id");
+                    }
+                    
+                    PreparedStatement updateStmt = conn.prepare(Sql.RESERVATION_CANCEL);
+                    updateStmt.setInt(1, reservationId);
+                    if (Sql.RESERVATION_CANCEL.executeUpdate(updateStmt) == 0) return false;
+                    
+                    int freedRoomId = roomId[0];
+                    batch.add(Sql.ROOM_UPDATE_AVAILABILITY, roomUpdate -> {
+                        roomUpdate.setBoolean(1, true);
+                        roomUpdate.setInt(2, freedRoomId);
+                    });
+                    return true;
+                }
+            });
+        }
+        
+        // A returning guest costs one lookup; a new email or a changed name one more statement
+        private static int linkGuest(PooledConnection conn, String name, String email) throws SQLException {
+            String normalized = Guest.normalizeEmail(email);
+            PreparedStatement lookup = conn.prepare(Sql.GUEST_BY_EMAIL);
+            lookup.setString(1, normalized);
+            try (ResultSet rs = Sql.GUEST_BY_EMAIL.executeQuery(lookup)) {
+                if (rs.next()) {
+                    int guestId = rs.getInt("guest_id");
+                    if (!name.equals(rs.getString("name"))) {
+                        PreparedStatement rename = conn.prepare(Sql.GUEST_RENAME);
+                        rename.setString(1, name);
+                        rename.setInt(2, guestId);
+                        Sql.GUEST_RENAME.executeUpdate(rename);
+                    }
+                    return guestId;
+                }
+            }
+            PreparedStatement insert = conn.prepare(Sql.GUEST_INSERT);
+            insert.setString(1, normalized);
+            insert.setString(2, name);
+            Sql.GUEST_INSERT.executeUpdate(insert);
+            try (ResultSet generatedKeys = insert.getGeneratedKeys()) {
+                if (!generatedKeys.next()) {
+                    throw new SQLException("No id generated for guest " + normalized);
+                }
+                return generatedKeys.getInt(1);
+            }
+        }
+        
+        @Override
+        public Reservation findReservation(int reservationId) throws SQLException {
+            try (PooledConnection conn = source.read()) {
+                PreparedStatement pstmt = conn.prepare(Sql.RESERVATION_BY_ID);
+                pstmt.setInt(1, reservationId);
+                try (ResultSet rs = Sql.RESERVATION_BY_ID.executeQuery(pstmt)) {
+                    return rs.next() ? readReservation(rs) : null;
+                }
+            }
+        }
+        
+        @Override
+        public BitSet findFlexibleStays(LocalDate from) throws SQLException {
+            BitSet stays = new BitSet();
+            try (PooledConnection conn = source.read()) {
+                PreparedStatement pstmt = conn.prepare(Sql.RESERVATIONS_FLEXIBLE);
+                DatabaseManager.bindDate(pstmt, 1, from);
+                try (ResultSet rs = Sql.RESERVATIONS_FLEXIBLE.executeQuery(pstmt)) {
+                    while (rs.next()) {
+                        stays.set(rs.getInt(1));
+                    }
+                }
+            }
+            return stays;
+        }
+        
+        @Override
+        public boolean moveReservations(RoomMoves moves, Runnable afterCommit) throws SQLException {
+            // Rows are already updated when a conflict shows, so it fails the savepoint and is reported as false
+            boolean[] conflict = {false};
+            try {
+                return write(new RepositoryWrite(afterCommit) {
+                    @Override
+                    Boolean apply(PooledConnection conn, WriteBatch batch) throws SQLException {
+                        PreparedStatement move = conn.prepare(Sql.RESERVATION_MOVE);
+                        for (int i = 0; i < moves.size(); i++) {
+                            move.setInt(1, moves.toRoom(i));
+                            move.setInt(2, moves.reservationId(i));
+                            move.setInt(3, moves.fromRoom(i));
+                            if (Sql.RESERVATION_MOVE.executeUpdate(move) == 0) {
+                                conflict[0] = true;
+                                throw new SQLException("Reservation " + moves.reservationId(i) + " has changed");
+                            }
+                        }
+                        // With every stay moved, each must be the only confirmed one on its new room for its nights
+                        PreparedStatement check = conn.prepare(Sql.RESERVATION_OVERLAP_COUNT);
+                        for (int i = 0; i < moves.size(); i++) {
+                            check.setInt(1, moves.toRoom(i));
+                            DatabaseManager.bindDate(check, 2, LocalDate.ofEpochDay(moves.checkOut(i)));
+                            DatabaseManager.bindDate(check, 3, LocalDate.ofEpochDay(moves.checkIn(i)));
+                            try (ResultSet rs = Sql.RESERVATION_OVERLAP_COUNT.executeQuery(check)) {
+                                if (rs.next() && rs.getInt(1) > 1) {
+                                    conflict[0] = true;
+                                    throw new SQLException("Room " + moves.toRoom(i) + " is taken");
+                                }
+                            }
+                        }
+                        return true;
+                    }
+                });
+            } catch (SQLException e) {
+                if (conflict[0]) return false;
+                throw e;
+            }
+        }
+        
+        @Override
+        public List<Guest> loadGuests() throws SQLException {
+            List<Guest> guests = new ArrayList<>();
+            try (PooledConnection conn = source.read(); ResultSet rs = conn.query(Sql.GUESTS_ALL)) {
+                while (rs.next()) {
+                    guests.add(new Guest(rs.getInt("guest_id"), rs.getString("name"), rs.getString("email")));
+                }
+            }
+            return guests;
+        }
+        
+        @Override
+        public List<Reservation> findGuestReservations(int guestId) throws SQLException {
+            List<Reservation> reservations = new ArrayList<>();
+            try (PooledConnection conn = source.read()) {
+                PreparedStatement pstmt = conn.prepare(Sql.RESERVATIONS_BY_GUEST);
+                pstmt.setInt(1, guestId);
+                try (ResultSet rs = Sql.RESERVATIONS_BY_GUEST.executeQuery(pstmt)) {
+                    while (rs.next()) {
+                        reservations.add(readReservation(rs));
+                    }
+                }
+            }
+            return reservations;
+        }
+        
+        private static Reservation readReservation(ResultSet rs) throws SQLException {
+            Reservation reservation = new Reservation(
+                rs.getInt("room_id"),
+                rs.getString("guest_name"),
+                rs.getString("guest_email"),
+                DatabaseManager.readDate(rs, "check_in_date"),
+                DatabaseManager.readDate(rs, "check_out_date"),
+                rs.getDouble("total_price"));
+            reservation.setReservationId(rs.getInt("reservation_id"));
+            reservation.setStatus(rs.getString("status"));
+            reservation.setGuestId(rs.getInt("guest_id"));
+            reservation.setRoomFlexible(rs.getBoolean("room_flexible"));
+            return reservation;
+        }
+        
+        @Override
+        public Payment insertPayment(Payment payment, Runnable afterCommit) throws SQLException {
+            Payment[] stored = {null};
+            write(new RepositoryWrite(afterCommit) {
+                @Override
+                Boolean apply(PooledConnection conn, WriteBatch batch) throws SQLException {
+                    // The writer is single-threaded, so nothing can slip in between these checks and the insert
+                    if (payment.getIdempotencyKey() != null) {
+                        PreparedStatement byKey = conn.prepare(Sql.PAYMENT_BY_KEY);
+                        byKey.setString(1, payment.getIdempotencyKey());
+                        try (ResultSet rs = Sql.PAYMENT_BY_KEY.executeQuery(byKey)) {
+                            if (rs.next()) {
+                                stored[0] = readPayment(rs);
+                                return false;
+                            }
+                        }
+                    }
+                    if (payment.isRefund()) {
+                        PreparedStatement balance = conn.prepare(Sql.PAYMENT_REFUNDABLE);
+                        balance.setInt(1, payment.getReservationId());
+                        try (ResultSet rs = Sql.PAYMENT_REFUNDABLE.executeQuery(balance)) {
+                            rs.next();
+                            if (Money.cents(rs.getDouble(1)) + payment.getAmountCents() < 0) return false;
+                        }
+                    }
+                    insertPaymentRow(conn, payment);
+                    stored[0] = payment;
+                    return true;
+                }
+            });
+            return stored[0];
+        }
+        
+        // Executed immediately rather than batched: the id is needed to settle the payment later
+        private static void insertPaymentRow(PooledConnection conn, Payment payment) throws SQLException {
+            PreparedStatement pstmt = conn.prepare(Sql.PAYMENT_INSERT);
+            pstmt.setInt(1, payment.getReservationId());
+            pstmt.setDouble(2, payment.getAmount());
+            DatabaseManager.bindDate(pstmt, 3, payment.getPaymentDate());
+            pstmt.setString(4, payment.getPaymentMethod());
+            pstmt.setString(5, payment.getStatus());
+            pstmt.setString(6, payment.getIdempotencyKey());
+            Sql.PAYMENT_INSERT.executeUpdate(pstmt);
+            try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
+                if (generatedKeys.next()) {
+                    payment.setPaymentId(generatedKeys.getInt(1));
+                }
+            }
+        }
+        
+        @Override
+        public List<Payment> findPayments(int reservationId) throws SQLException {
+            try (PooledConnection conn = source.read()) {
+                PreparedStatement pstmt = conn.prepare(Sql.PAYMENT_BY_RESERVATION);
+                pstmt.setInt(1, reservationId);
+                return readPayments(Sql.PAYMENT_BY_RESERVATION.executeQuery(pstmt));
+            }
+        }
+        
+        @Override
+        public List<Payment> findPendingPayments() throws SQLException {
+            try (PooledConnection conn = source.read()) {
+                return readPayments(conn.query(Sql.PAYMENTS_PENDING));
+            }
+        }
+        
+        @Override
+        public boolean settlePayment(int paymentId, String status, String gatewayReference, Runnable afterCommit)
+                throws SQLException {
+            return write(new RepositoryWrite(afterCommit) {
+                @Override
+                Boolean apply(PooledConnection conn, WriteBatch batch) throws SQLException {
+                    PreparedStatement pstmt = conn.prepare(Sql.PAYMENT_SETTLE);
+                    pstmt.setString(1, status);
+                    pstmt.setString(2, gatewayReference);
+                    pstmt.setInt(3, paymentId);
+                    return Sql.PAYMENT_SETTLE.executeUpdate(pstmt) > 0;
+                }
+            });
+        }
+        
+        private static List<Payment> readPayments(ResultSet rs) throws SQLException {
+            try (rs) {
+                List<Payment> payments = new ArrayList<>();
+                while (rs.next()) {
+                    payments.add(readPayment(rs));
+                }
+                return payments;
+            }
+        }
+        
+        private static Payment readPayment(ResultSet rs) throws SQLException {
+            Payment payment = new Payment(
+                rs.getInt("reservation_id"),
+                rs.getDouble("amount"),
+                rs.getString("payment_method"));
+            payment.setPaymentId(rs.getInt("payment_id"));
+            payment.setStatus(rs.getString("status"));
+            payment.setIdempotencyKey(rs.getString("idempotency_key"));
+            payment.setGatewayReference(rs.getString("gateway_reference"));
+            
+            // Safe date parsing with error handling
+            try {
+                LocalDate paymentDate = DatabaseManager.readDate(rs, "payment_date");
+                payment.setPaymentDate(paymentDate != null ? paymentDate : LocalDate.now());
+            } catch (DateTimeParseException e) {
+                System.out.println("Invalid payment date format, using current date");
+                payment.setPaymentDate(LocalDate.now());
+            }
+            return payment;
+        }
+        
+        // Per-operation failures come back from the pipeline through onError(); rethrow them here
+        private boolean write(RepositoryWrite op) throws SQLException {
+            Boolean result = source.writePipeline().execute(op);
+            if (op.failure != null) {
+                throw op.failure;
+            }
+            return result;
+        }
+        
+        @Override
+        public void close() {
+            // The pool and pipeline belong to DatabaseManager
+        }
+        
+        private abstract static class RepositoryWrite extends WriteOp<Boolean> {
+            private final Runnable afterCommit;
+            private SQLException failure;
+            
+            RepositoryWrite(Runnable afterCommit) {
+                this.afterCommit = afterCommit;
+            }
+            
+            @Override
+            Boolean onError(SQLException e) {
+                failure = e;
+                return false;
+            }
+            
+            @Override
+            void afterCommit(Boolean applied) {
+                if (applied) {
+                    afterCommit.run();
+                }
+            }
+        }
+    }
+
+    // One property's rooms, reservations and payments in its own SQLite file, with its own read pool, writer
+    // pipeline, caches and settlement queue, so properties never wait on each other's write lock. Opened on
+    // first use: migrated, given sample rooms if empty, and its caches loaded.
+    static class PropertyShard implements ConnectionSource, BookingContext, AutoCloseable {
+        private final String propertyId;
+        private final String city;
+        private final String url;
+        private final Path changeLog;
+        private final JdbcRepository repository = new JdbcRepository(this);
+        private final AvailabilityIndex availabilityIndex = new AvailabilityIndex();
+        private final RoomCatalog roomCatalog = new RoomCatalog(() -> repository);
+        private final GuestIndex guestIndex = new GuestIndex();
+        private final HoldRegistry holds = HoldRegistry.create(availabilityIndex);
+        private final RoomLocks roomLocks = RoomLocks.create();
+        private ConnectionPool pool;
+        private WritePipeline pipeline;
+        private SettlementQueue settlementQueue;
+        private ChangeFeed changes;
+        private volatile boolean open;
+        
+        PropertyShard(String propertyId, String city, String url) {
+            this.propertyId = propertyId;
+            this.city = city;
+            this.url = url;
+            this.changeLog = DatabaseManager.changeLogPath(url);
+        }
+        
+        public String getPropertyId() { return propertyId; }
+        public String getCity() { return city; }
+        public boolean isOpen() { return open; }
+        
+        synchronized void open() throws SQLException {
+            if (open) return;
+            ConnectionPool opened = DatabaseManager.newConnectionPool(url);
+            try (PooledConnection conn = opened.acquireWrite()) {
+                SchemaMigrations.migrate(conn);
+                // Dates are bound the same way for every database, so a shard follows the main one
+                boolean epochDays = SchemaMigrations.usesEpochDayDates(conn);
+                if (DatabaseManager.usesEpochDayDates() && !epochDays) {
+                    SchemaMigrations.convertToEpochDayDates(conn);
+                } else if (!DatabaseManager.usesEpochDayDates() && epochDays) {
+                    throw new SQLException("Shard " + propertyId + " stores epoch-day dates; run with " +
+                        "-Dhotel.db.epochDayDates=true");
+                }
+            } catch (SQLException | RuntimeException e) {
+                opened.close();
+                throw e;
+            }
+            try {
+                // Kept from an earlier attempt that failed later on, which still holds the log's lock
+                if (changes == null) {
+                    changes = ChangeFeed.open(changeLog);
+                }
+            } catch (IOException e) {
+                opened.close();
+                throw new SQLException("Cannot open change log " + changeLog + ": " + e.getMessage(), e);
+            }
+            pool = opened;
+            pipeline = DatabaseManager.newWritePipeline(pool, "write-pipeline-" + propertyId);
+            try {
+                DatabaseManager.insertSampleRooms(repository);
+                roomCatalog.load(repository);
+                availabilityIndex.rebuild(repository);
+                settlementQueue = SettlementQueue.create(repository, changes);
+                settlementQueue.recover();
+            } catch (SQLException | RuntimeException e) {
+                // As for a failed migration: the next open() starts from a new pool and pipeline
+                if (settlementQueue != null) {
+                    settlementQueue.close();
+                    settlementQueue = null;
+                }
+                pipeline.close();
+                pipeline = null;
+                pool.close();
+                pool = null;
+                throw e;
+            }
+            open = true;
+        }
+        
+        @Override
+        public PooledConnection read() throws SQLException {
+            return pool.acquireRead();
+        }
+        
+        @Override
+        public PooledConnection write() throws SQLException {
+            return pool.acquireWrite();
+        }
+        
+        @Override
+        public WritePipeline writePipeline() {
+            return pipeline;
+        }
+        
+        @Override
+        public HotelRepository repository() {
+            return repository;
+        }
+        
+        @Override
+        public AvailabilityIndex availabilityIndex() {
+            return availabilityIndex;
+        }
+        
+        @Override
+        public RoomCatalog roomCatalog() {
+            return roomCatalog;
+        }
+        
+        @Override
+        public SettlementQueue settlementQueue() {
+            return settlementQueue;
+        }
+        
+        @Override
+        public GuestIndex guestIndex() {
+            return guestIndex;
+        }
+        
+        @Override
+        public HoldRegistry holds() {
+            return holds;
+        }
+        
+        @Override
+        public ChangeFeed changes() {
+            return changes;
+        }
+        
+        @Override
+        public RoomLocks roomLocks() {
+            return roomLocks;
+        }
+        
+        @Override
+        public synchronized void reloadCaches() throws SQLException {
+            roomCatalog.load(repository);
+            availabilityIndex.rebuild(repository);
+            guestIndex.reset();
+        }
+        
+        // Free rooms of the type (any type if null) that hold the party, priced for the stay
+        List<PropertyRoom> search(String roomType, LocalDate checkIn, LocalDate checkOut, int guests)
+                throws SQLException {
+            open();
+            PricingEngine pricing = DatabaseManager.getPricingEngine();
+            List<PropertyRoom> result = new ArrayList<>();
+            for (String type : roomType != null ? Set.of(roomType) : roomCatalog.roomTypes()) {
+                for (int roomId : availabilityIndex.freeRooms(type, checkIn, checkOut)) {
+                    Room room = roomCatalog.findById(roomId);
+                    if (room == null || !room.isAvailable() || room.getCapacity() < guests) continue;
+                    result.add(new PropertyRoom(this, room, pricing.quote(type, room.getPriceCents(),
+                        (int) checkIn.toEpochDay(), (int) checkOut.toEpochDay())));
+                }
+            }
+            return result;
+        }
+        
+        public synchronized PipelineStats writeStats() {
+            return pipeline == null ? null : pipeline.stats();
+        }
+        
+        @Override
+        public void close() {
+            SettlementQueue queue;
+            synchronized (this) {
+                queue = settlementQueue;
+                settlementQueue = null;
+            }
+            // Outside the lock, like DatabaseManager.shutdown: settlements finishing now still write
+            if (queue != null) {
+                queue.close();
+            }
+            synchronized (this) {
+                open = false;
+                holds.close();
+                if (pipeline != null) {
+                    pipeline.close();
+                    pipeline = null;
+                }
+                if (pool != null) {
+                    pool.close();
+                    pool = null;
+                }
+                if (changes != null) {
+                    changes.close();
+                    changes = null;
+                }
+            }
+        }
+    }
+
+    static class PropertyRoom {
+        private final PropertyShard property;
+        private final Room room;
+        private final long totalCents;
+        
+        PropertyRoom(PropertyShard property, Room room, long totalCents) {
+            this.property = property;
+            this.room = room;
+            this.totalCents = totalCents;
+        }
+        
+        public PropertyShard getProperty() { return property; }
+        public Room getRoom() { return room; }
+        public long getTotalCents() { return totalCents; }
+    }
+
+    // The properties this system runs, from -Dhotel.properties=LIS:Lisbon,OPO:Porto (id:city), each with
+    // its shard at <hotel.shards.dir>/<id>.db. A search across properties runs one task per shard on a
+    // shared pool and merges the results by price.
+    static class PropertyShards implements AutoCloseable {
+        private final Map<String, PropertyShard> shards = new LinkedHashMap<>();
+        private final ExecutorService searchPool;
+        
+        PropertyShards(Path directory, String spec, int searchThreads) {
+            for (String entry : spec.split(",")) {
+                if (entry.isBlank()) continue;
+                String[] parts = entry.trim().split(":", 2);
+                String propertyId = parts[0].trim();
+                if (!propertyId.matches("[A-Za-z0-9_-]+") || parts.length < 2 || parts[1].isBlank()) {
+                    throw new IllegalArgumentException("Property \"" + entry.trim() + "\" must be id:city, " +
+                        "with an id of letters, digits, '_' or '-'");
+                }
+                if (shards.containsKey(propertyId)) {
+                    throw new IllegalArgumentException("Property " + propertyId + " is listed twice");
+                }
+                shards.put(propertyId, new PropertyShard(propertyId, parts[1].trim(),
+                    "jdbc:sqlite:" + directory.resolve(propertyId + ".db")));
+            }
+            AtomicInteger counter = new AtomicInteger();
+            this.searchPool = Executors.newFixedThreadPool(Math.max(1, searchThreads), r -> {
+                Thread thread = new Thread(r, "shard-search-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        
+        public static PropertyShards create() {
+            Path directory = Paths.get(System.getProperty("hotel.shards.dir", "shards"));
+            try {
+                Files.createDirectories(directory);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot create shard directory " + directory + ": " + e.getMessage(), e);
+            }
+            return new PropertyShards(directory, System.getProperty("hotel.properties", ""),
+                Integer.getInteger("hotel.shards.searchThreads", Runtime.getRuntime().availableProcessors() * 2));
+        }
+        
+        public Collection<PropertyShard> all() {
+            return shards.values();
+        }
+        
+        // Opened on first use; null for an unknown property
+        public PropertyShard shard(String propertyId) throws SQLException {
+            PropertyShard shard = shards.get(propertyId);
+            if (shard != null) {
+                shard.open();
+            }
+            return shard;
+        }
+        
+        // Free rooms across the city's properties (every property if city is null), cheapest stay first
+        public List<PropertyRoom> search(String city, String roomType, LocalDate checkIn, LocalDate checkOut,
+                                         int guests, int limit) throws SQLException {
+            if (limit < 1) {
+                throw new IllegalArgumentException("Limit must be at least 1");
+            }
+            List<CompletableFuture<List<PropertyRoom>>> parts = new ArrayList<>();
+            for (PropertyShard shard : shards.values()) {
+                if (city != null && !city.equalsIgnoreCase(shard.getCity())) continue;
+                parts.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return shard.search(roomType, checkIn, checkOut, guests);
+                    } catch (SQLException e) {
+                        throw new CompletionException(e);
+                    }
+                }, searchPool));
+            }
+            List<PropertyRoom> merged = new ArrayList<>();
+            try {
+                for (CompletableFuture<List<PropertyRoom>> part : parts) {
+                    merged.addAll(part.join());
+                }
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof SQLException sqlException) throw sqlException;
+                throw e;
+            }
+            merged.sort(Comparator.comparingLong(PropertyRoom::getTotalCents)
+                .thenComparing(r -> r.getProperty().getPropertyId())
+                .thenComparingInt(r -> r.getRoom().getRoomId()));
+            return merged.size() > limit ? new ArrayList<>(merged.subList(0, limit)) : merged;
+        }
+        
+        @Override
+        public void close() {
+            searchPool.shutdownNow();
+            for (PropertyShard shard : shards.values()) {
+                shard.close();
+            }
+        }
+    }
+
+    // Reservations as parallel primitive columns indexed by reservation id: room id, check-in and check-out
+    // epoch days, guest id, price in cents and a status byte, 25 bytes a row against several hundred for a
+    // Reservation object. Guests are interned in a dictionary. With offHeap the columns are direct buffers
+    // outside the Java heap. Not thread-safe; the owner guards it.
+    static class ReservationStore {
+        static final byte CONFIRMED = 1;
+        static final byte CANCELLED = 2;
+        static final int BYTES_PER_RESERVATION = 4 * Integer.BYTES + Long.BYTES + 1;
+        private static final String[] STATUS_LABELS = {null, "Confirmed", "Cancelled"};
+        
+        // Called for each matching stay; arguments are primitives so a scan allocates nothing
+        interface StayScan {
+            void visit(int reservationId, int roomId, int checkIn, int checkOut, long priceCents);
+        }
+        
+        private final boolean offHeap;
+        private final GuestDictionary guests = new GuestDictionary();
+        private int capacity;
+        private int maxId;
+        private int count;
+        // A room id of 0 marks an unused reservation id
+        private IntBuffer roomIds;
+        private IntBuffer checkIns;
+        private IntBuffer checkOuts;
+        private IntBuffer guestIds;
+        private LongBuffer prices;
+        private ByteBuffer statuses;
+        
+        ReservationStore(boolean offHeap, int initialCapacity) {
+            this.offHeap = offHeap;
+            this.capacity = Math.max(initialCapacity, 16);
+            roomIds = ints(capacity);
+            checkIns = ints(capacity);
+            checkOuts = ints(capacity);
+            guestIds = ints(capacity);
+            prices = longs(capacity);
+            statuses = bytes(capacity);
+        }
+        
+        static byte statusCode(String status) {
+            for (byte code = 1; code < STATUS_LABELS.length; code++) {
+                if (STATUS_LABELS[code].equals(status)) return code;
+            }
+            throw new IllegalArgumentException("Unknown reservation status: " + status);
+        }
+        
+        void put(int reservationId, int roomId, String guestName, String guestEmail, int checkIn, int checkOut,
+                 long priceCents, byte status) {
+            if (reservationId >= capacity) {
+                grow(Math.max(capacity * 2, reservationId + 1));
+            }
+            if (roomIds.get(reservationId) == 0) {
+                count++;
+            }
+            roomIds.put(reservationId, roomId);
+            checkIns.put(reservationId, checkIn);
+            checkOuts.put(reservationId, checkOut);
+            guestIds.put(reservationId, guests.intern(guestName, guestEmail));
+            prices.put(reservationId, priceCents);
+            statuses.put(reservationId, status);
+            maxId = Math.max(maxId, reservationId);
+        }
+        
+        void setStatus(int reservationId, byte status) {
+            statuses.put(reservationId, status);
+        }
+        
+        void setRoom(int reservationId, int roomId) {
+            roomIds.put(reservationId, roomId);
+        }
+        
+        boolean exists(int reservationId) {
+            return reservationId > 0 && reservationId <= maxId && roomIds.get(reservationId) != 0;
+        }
+        
+        int maxId() { return maxId; }
+        int size() { return count; }
+        int roomId(int reservationId) { return roomIds.get(reservationId); }
+        int checkIn(int reservationId) { return checkIns.get(reservationId); }
+        int checkOut(int reservationId) { return checkOuts.get(reservationId); }
+        long priceCents(int reservationId) { return prices.get(reservationId); }
+        byte status(int reservationId) { return statuses.get(reservationId); }
+        String statusLabel(int reservationId) { return STATUS_LABELS[statuses.get(reservationId)]; }
+        String guestName(int reservationId) { return guests.name(guestIds.get(reservationId)); }
+        String guestEmail(int reservationId) { return guests.email(guestIds.get(reservationId)); }
+        
+        // Confirmed stays overlapping [from, to), in reservation id order
+        void forEachConfirmed(int from, int to, StayScan scan) {
+            for (int id = 1; id <= maxId; id++) {
+                if (statuses.get(id) == CONFIRMED && checkIns.get(id) < to && checkOuts.get(id) > from) {
+                    scan.visit(id, roomIds.get(id), checkIns.get(id), checkOuts.get(id), prices.get(id));
+                }
+            }
+        }
+        
+        Reservation toReservation(int reservationId) {
+            Reservation reservation = new Reservation(roomId(reservationId), guestName(reservationId),
+                guestEmail(reservationId), LocalDate.ofEpochDay(checkIn(reservationId)),
+                LocalDate.ofEpochDay(checkOut(reservationId)), Money.decimal(priceCents(reservationId)));
+            reservation.setReservationId(reservationId);
+            reservation.setStatus(statusLabel(reservationId));
+            return reservation;
+        }
+        
+        // Column storage only; the guest dictionary is counted separately
+        long columnBytes() {
+            return (long) capacity * BYTES_PER_RESERVATION;
+        }
+        
+        int guestCount() {
+            return guests.size();
+        }
+        
+        boolean isOffHeap() {
+            return offHeap;
+        }
+        
+        private void grow(int newCapacity) {
+            roomIds = ints(newCapacity).put(roomIds.clear());
+            checkIns = ints(newCapacity).put(checkIns.clear());
+            checkOuts = ints(newCapacity).put(checkOuts.clear());
+            guestIds = ints(newCapacity).put(guestIds.clear());
+            prices = longs(newCapacity).put(prices.clear());
+            statuses = bytes(newCapacity).put(statuses.clear());
+            capacity = newCapacity;
+        }
+        
+        private IntBuffer ints(int size) {
+            return offHeap ? bytes(size * Integer.BYTES).asIntBuffer() : IntBuffer.allocate(size);
+        }
+        
+        private LongBuffer longs(int size) {
+            return offHeap ? bytes(size * Long.BYTES).asLongBuffer() : LongBuffer.allocate(size);
+        }
+        
+        private ByteBuffer bytes(int size) {
+            return (offHeap ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size)).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    // Stores each distinct guest name/email pair once as a single string and names it by an int
+    static class GuestDictionary {
+        private static final char SEPARATOR = '\u0000';
+        
+        private final Map<String, Integer> ids = new HashMap<>();
+        private String[] identities = new String[1024];
+        private int size;
+        
+        int intern(String name, String email) {
+            String identity = name + SEPARATOR + email;
+            Integer id = ids.get(identity);
+            if (id != null) return id;
+            if (size == identities.length) {
+                identities = Arrays.copyOf(identities, size * 2);
+            }
+            identities[size] = identity;
+            ids.put(identity, size);
+            return size++;
+        }
+        
+        String name(int id) {
+            String identity = identities[id];
+            return identity.substring(0, identity.lastIndexOf(SEPARATOR));
+        }
+        
+        String email(int id) {
+            String identity = identities[id];
+            return identity.substring(identity.lastIndexOf(SEPARATOR) + 1);
+        }
+        
+        int size() {
+            return size;
+        }
+    }
+
+    // In-memory backend. Reservations live in a ReservationStore and payments in per-column arrays, and
+    // every change is appended to a memory-mapped journal of CRC-checked records before it is applied.
+    // Startup loads the newest snapshot and replays the journal written after it. Once the journal passes
+    // compactBytes, the state is written to a new snapshot (the bulk binary format) and the journal restarts.
+    // Journal pages survive a process crash as soon as they are written; -Dhotel.memory.forceWrites=true
+    // also flushes them to disk on every write.
+    static class MemoryRepository implements HotelRepository {
+        private static final byte ROOM = 1;
+        private static final byte ROOM_AVAILABILITY = 2;
+        private static final byte ROOM_PRICE = 3;
+        private static final byte RESERVATION = 4;
+        private static final byte CANCEL = 5;
+        // Settled payment with a double amount, as written before asynchronous settlement; replay only
+        private static final byte PAYMENT = 6;
+        private static final byte PAYMENT_REQUEST = 7;
+        private static final byte SETTLEMENT = 8;
+        // Stays reassigned by the room optimizer, as one record so a plan is replayed whole or not at all
+        private static final byte MOVE = 9;
+        // Payment flag in a reservation record: 1 for the PAYMENT layout, 2 for the PAYMENT_REQUEST one
+        private static final byte LEGACY_PAYMENT_FOLLOWS = 1;
+        private static final byte PAYMENT_FOLLOWS = 2;
+        // Payment status codes index PAYMENT_STATUSES
+        private static final byte PAYMENT_PENDING = 0;
+        private static final byte PAYMENT_SETTLED = 1;
+        private static final String[] PAYMENT_STATUSES = {Payment.PENDING, Payment.SETTLED, Payment.FAILED};
+        // Record length and CRC-32 of the payload
+        private static final int RECORD_HEADER = 8;
+        
+        private final Path directory;
+        private final ReservationStore reservations;
+        private final long compactBytes;
+        private final int journalMapBytes;
+        private final boolean forceWrites;
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<String, String> interned = new HashMap<>();
+        
+        private Room[] rooms = new Room[64];
+        private RoomCalendar[] calendars = new RoomCalendar[64];
+        private final Map<String, Integer> roomIdsByNumber = new HashMap<>();
+        // Reservation ids booked by room type; a trailing byte of their reservation record
+        private final BitSet flexibleStays = new BitSet();
+        
+        // Index + 1 of the reservation's first and last payment, 0 if none; payments chain through nextPayments
+        private int[] firstPayments = new int[1024];
+        private int[] lastPayments = new int[1024];
+        
+        // A payment's id is its index + 1; keys and references are null when absent
+        private int paymentCount;
+        private int[] paymentReservations = new int[1024];
+        private long[] paymentAmounts = new long[1024];
+        private int[] paymentDates = new int[1024];
+        private String[] paymentMethods = new String[1024];
+        private byte[] paymentStatuses = new byte[1024];
+        private String[] paymentKeys = new String[1024];
+        private String[] paymentReferences = new String[1024];
+        private int[] nextPayments = new int[1024];
+        private final Map<String, Integer> paymentsByKey = new HashMap<>();
+        
+        // Guest profiles are derived from the reservations as they are applied, so the journal and snapshots
+        // need no records of their own. A guest's id is its index + 1; its stays chain through nextGuestStays.
+        private int guestCount;
+        private String[] guestNames = new String[1024];
+        private String[] guestEmails = new String[1024];
+        private int[] firstGuestStays = new int[1024];
+        private int[] lastGuestStays = new int[1024];
+        private final Map<String, Integer> guestsByEmail = new HashMap<>();
+        // Per reservation id: its guest, and the guest's next reservation id or 0
+        private int[] reservationGuests = new int[1024];
+        private int[] nextGuestStays = new int[1024];
+        
+        private long generation;
+        private FileChannel journalChannel;
+        private MappedByteBuffer journal;
+        private int journalPosition;
+        private final ByteBuffer record = ByteBuffer.allocate(1 << 22);
+        private final CRC32 crc = new CRC32();
+        
+        MemoryRepository(Path directory, boolean offHeap, long compactBytes, int journalMapBytes, boolean forceWrites) {
+            this.directory = directory;
+            this.reservations = new ReservationStore(offHeap, 1024);
+            this.compactBytes = compactBytes;
+            this.journalMapBytes = journalMapBytes;
+            this.forceWrites = forceWrites;
+        }
+        
+        public static MemoryRepository open(Path directory) throws IOException {
+            MemoryRepository repository = new MemoryRepository(directory, Boolean.getBoolean("hotel.memory.offHeap"),
+                Long.getLong("hotel.memory.compactBytes", 64L << 20),
+                Integer.getInteger("hotel.memory.journalMapBytes", 16 << 20),
+                Boolean.getBoolean("hotel.memory.forceWrites"));
+            repository.recover();
+            return repository;
+        }
+        
+        // Files are snapshot-<n>.bin and journal-<n>.log; journal n holds the changes made after snapshot n
+        private void recover() throws IOException {
+            Files.createDirectories(directory);
+            long started = System.nanoTime();
+            long newest = -1;
+            try (DirectoryStream<Path> snapshots = Files.newDirectoryStream(directory, "snapshot-*.bin")) {
+                for (Path path : snapshots) {
+                    newest = Math.max(newest, generationOf(path));
+                }
+            }
+            generation = Math.max(newest, 0);
+            if (newest >= 0) {
+                try (SnapshotRecordSource source = new SnapshotRecordSource(snapshotPath(generation))) {
+                    source.rooms(this::applyRoom);
+                    source.reservations(r -> applyReservation(r.getReservationId(), r.getRoomId(), r.getGuestName(),
+                        r.getGuestEmail(), (int) r.getCheckInDate().toEpochDay(), (int) r.getCheckOutDate().toEpochDay(),
+                        r.getTotalPrice(), r.getStatus(), r.isRoomFlexible()));
+                    source.payments(this::applyPayment);
+                } catch (SQLException e) {
+                    throw new IOException("Cannot load snapshot: " + e.getMessage(), e);
+                }
+            }
+            int replayed = openJournal(journalPath(generation));
+            
+            // Leftovers of an interrupted compaction, or files it had not yet removed
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "{snapshot,journal}-*")) {
+                for (Path path : files) {
+                    if (path.toString().endsWith(".tmp") || generationOf(path) != generation) {
+                        Files.deleteIfExists(path);
+                    }
+                }
+            }
+            System.out.printf("In-memory store: generation %d, %d reservations, %d journal records replayed in %.1fs%n",
+                generation, reservations.size(), replayed, (System.nanoTime() - started) / 1e9);
+        }
+        
+        // Maps the journal and replays its records; stops at the first torn or corrupt one
+        private int openJournal(Path path) throws IOException {
+            journalChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+            journal = journalChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                Math.max(journalChannel.size(), journalMapBytes));
+            int position = 0;
+            int records = 0;
+            while (position + RECORD_HEADER <= journal.capacity()) {
+                int length = journal.getInt(position);
+                if (length <= 0 || length > record.capacity() || position + RECORD_HEADER + length > journal.capacity()) {
+                    break;
+                }
+                ByteBuffer payload = journal.duplicate();
+                payload.limit(position + RECORD_HEADER + length).position(position + RECORD_HEADER);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != journal.getInt(position + 4)) {
+                    break;
+                }
+                replay(payload);
+                position += RECORD_HEADER + length;
+                records++;
+            }
+            // Clear a torn tail so no stale bytes ever follow a record appended later
+            int end = Math.min(journal.capacity(), position + RECORD_HEADER + record.capacity());
+            for (int i = position; i < end; i++) {
+                journal.put(i, (byte) 0);
+            }
+            journalPosition = position;
+            return records;
+        }
+        
+        private void replay(ByteBuffer payload) throws IOException {
+            try {
+                replayRecord(payload);
+            } catch (SQLException e) {
+                throw new IOException("Invalid journal record: " + e.getMessage(), e);
+            }
+        }
+        
+        private void replayRecord(ByteBuffer payload) throws IOException, SQLException {
+            byte type = payload.get();
+            switch (type) {
+                case ROOM -> applyRoom(new Room(payload.getInt(), getString(payload), getString(payload),
+                    payload.getDouble(), payload.get() == 1, payload.getInt()));
+                case ROOM_AVAILABILITY -> setAvailability(payload.getInt(), payload.get() == 1);
+                case ROOM_PRICE -> setPrice(payload.getInt(), payload.getDouble());
+                case RESERVATION -> {
+                    int reservationId = payload.getInt();
+                    int roomId = payload.getInt();
+                    String guestName = getString(payload);
+                    String guestEmail = getString(payload);
+                    int checkIn = payload.getInt();
+                    int checkOut = payload.getInt();
+                    double totalPrice = payload.getDouble();
+                    String status = getString(payload);
+                    applyBooking(reservationId, roomId, guestName, guestEmail, checkIn, checkOut, totalPrice, status,
+                        false);
+                    byte paymentFlag = payload.get();
+                    if (paymentFlag == LEGACY_PAYMENT_FOLLOWS) {
+                        applyPayment(legacyPayment(reservationId, payload));
+                    } else if (paymentFlag == PAYMENT_FOLLOWS) {
+                        applyPayment(paymentRequest(reservationId, payload));
+                    }
+                    // Records written before type-level booking end here
+                    flexibleStays.set(reservationId, payload.hasRemaining() && payload.get() == 1);
+                }
+                case CANCEL -> applyCancel(payload.getInt());
+                case PAYMENT -> applyPayment(legacyPayment(payload.getInt(), payload));
+                case PAYMENT_REQUEST -> applyPayment(paymentRequest(payload.getInt(), payload));
+                case SETTLEMENT -> {
+                    int index = payload.getInt();
+                    byte status = payload.get();
+                    applySettlement(index, status, nullIfEmpty(getString(payload)));
+                }
+                case MOVE -> {
+                    int count = payload.getInt();
+                    int[] reservationIds = new int[count];
+                    int[] toRooms = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        reservationIds[i] = payload.getInt();
+                        toRooms[i] = payload.getInt();
+                    }
+                    if (!applyMoves(reservationIds, toRooms)) {
+                        throw new IOException("Journaled room moves overlap a stay");
+                    }
+                }
+                default -> throw new IOException("Unknown journal record type " + type);
+            }
+        }
+        
+        @Override
+        public List<Room> loadRooms() {
+            lock.readLock().lock();
+            try {
+                List<Room> result = new ArrayList<>();
+                for (Room room : rooms) {
+                    if (room != null) result.add(room);
+                }
+                return result;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        @Override
+        public Room findRoom(int roomId) {
+            lock.readLock().lock();
+            try {
+                return room(roomId);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        @Override
+        public Room findRoomByNumber(String roomNumber) {
+            lock.readLock().lock();
+            try {
+                Integer roomId = roomIdsByNumber.get(roomNumber);
+                return roomId == null ? null : rooms[roomId];
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        @Override
+        public void insertRooms(List<Room> newRooms) throws SQLException {
+            lock.writeLock().lock();
+            try {
+                for (Room room : newRooms) {
+                    begin(ROOM).putInt(room.getRoomId());
+                    putString(room.getRoomNumber());
+                    putString(room.getRoomType());
+                    record.putDouble(room.getPricePerNight()).put((byte) (room.isAvailable() ? 1 : 0))
+                        .putInt(room.getCapacity());
+                    append();
+                    applyRoom(room);
+                }
+                compactIfNeeded();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        @Override
+        public boolean updateRoomAvailability(int roomId, boolean isAvailable, Runnable afterCommit) throws SQLException {
+            lock.writeLock().lock();
+            try {
+                if (room(roomId) == null) return false;
+                begin(ROOM_AVAILABILITY).putInt(roomId).put((byte) (isAvailable ? 1 : 0));
+                append();
+                setAvailability(roomId, isAvailable);
+                afterCommit.run();
+                compactIfNeeded();
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        @Override
+        public boolean updateRoomPrice(int roomId, double pricePerNight, Runnable afterCommit) throws SQLException {
+            lock.writeLock().lock();
+            try {
+                if (room(roomId) == null) return false;
+                begin(ROOM_PRICE).putInt(roomId).putDouble(pricePerNight);
+                append();
+                setPrice(roomId, pricePerNight);
+                afterCommit.run();
+                compactIfNeeded();
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        @Override
+        public void forEachConfirmedStay(StayRecordVisitor visitor) {
+            lock.readLock().lock();
+            try {
+                reservations.forEachConfirmed(Integer.MIN_VALUE, Integer.MAX_VALUE,
+                    (reservationId, roomId, checkIn, checkOut, priceCents) ->
+                        visitor.visit(reservationId, roomId, checkIn, checkOut));
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        @Override
+        public boolean insertReservation(Reservation reservation, Payment payment, Runnable afterCommit)
+                throws SQLException {
+            int roomId = reservation.getRoomId();
+            int checkIn = (int) reservation.getCheckInDate().toEpochDay();
+            int checkOut = (int) reservation.getCheckOutDate().toEpochDay();
+            byte status;
+            try {
+                status = ReservationStore.statusCode(reservation.getStatus());
+            } catch (IllegalArgumentException e) {
+                throw new SQLException(e.getMessage(), e);
+            }
+            lock.writeLock().lock();
+            try {
+                if (status == ReservationStore.CONFIRMED && calendar(roomId).overlaps(checkIn, checkOut)) {
+                    return false;
+                }
+                int reservationId = reservations.maxId() + 1;
+                begin(RESERVATION).putInt(reservationId).putInt(roomId);
+                putString(reservation.getGuestName());
+                putString(reservation.getGuestEmail());
+                record.putInt(checkIn).putInt(checkOut).putDouble(reservation.getTotalPrice());
+                putString(reservation.getStatus());
+                record.put(payment != null ? PAYMENT_FOLLOWS : 0);
+                if (payment != null) {
+                    if (payment.getIdempotencyKey() != null && paymentsByKey.containsKey(payment.getIdempotencyKey())) {
+                        throw new SQLException("Duplicate idempotency key " + payment.getIdempotencyKey());
+                    }
+                    putPaymentRequest(payment);
+                }
+                record.put((byte) (reservation.isRoomFlexible() ? 1 : 0));
+                append();
+                
+                applyBooking(reservationId, roomId, reservation.getGuestName(), reservation.getGuestEmail(),
+                    checkIn, checkOut, reservation.getTotalPrice(), reservation.getStatus(), reservation.isRoomFlexible());
+                reservation.setReservationId(reservationId);
+                reservation.setGuestId(reservationGuests[reservationId]);
+                if (payment != null) {
+                    payment.setReservationId(reservationId);
+                    applyPayment(payment);
+                    payment.setPaymentId(paymentCount);
+                }
+                afterCommit.run();
+                compactIfNeeded();
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        @Override
+        public boolean cancelReservation(int reservationId, IntConsumer afterCommit) throws SQLException {
+            lock.writeLock().lock();
+            try {
+                if (!reservations.exists(reservationId)
+                    || reservations.status(reservationId) != ReservationStore.CONFIRMED) return false;
+                int roomId = reservations.roomId(reservationId);
+                begin(CANCEL).putInt(reservationId);
+                append();
+                applyCancel(reservationId);
+                afterCommit.accept(roomId);
+                compactIfNeeded();
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        @Override
+        public Reservation findReservation(int reservationId) {
+            lock.readLock().lock();
+            try {
+                return reservations.exists(reservationId) ? reservation(reservationId) : null;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        @Override
+        public BitSet findFlexibleStays(LocalDate from) {
+            int fromDay = (int) from.toEpochDay();
+            lock.readLock().lock();
+            try {
+                BitSet stays = new BitSet();
+                for (int id = flexibleStays.nextSetBit(0); id >= 0; id = flexibleStays.nextSetBit(id + 1)) {
+                    if (reservations.status(id) == ReservationStore.CONFIRMED && reservations.checkIn(id) >= fromDay) {
+                        stays.set(id);
+                    }
+                }
+                return stays;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        @Override
+        public boolean moveReservations(RoomMoves moves, Runnable afterCommit) throws SQLException {
+            int count = moves.size();
+            if (5 + count * 2L * Integer.BYTES > record.capacity()) {
+                throw new SQLException("Too many room moves for one journal record: " + count);
+            }
+            int[] reservationIds = new int[count];
+            int[] fromRooms = new int[count];
+            int[] toRooms = new int[count];
+            lock.writeLock().lock();
+            try {
+                for (int i = 0; i < count; i++) {
+                    int id = moves.reservationId(i);
+                    if (!reservations.exists(id) || !flexibleStays.get(id)
+                            || reservations.status(id) != ReservationStore.CONFIRMED
+                            || reservations.roomId(id) != moves.fromRoom(i)) {
+                        return false;
+                    }
+                    reservationIds[i] = id;
+                    fromRooms[i] = moves.fromRoom(i);
+                    toRooms[i] = moves.toRoom(i);
+                }
+                if (!applyMoves(reservationIds, toRooms)) return false;
+                begin(MOVE).putInt(count);
+                for (int i = 0; i < count; i++) {
+                    record.putInt(reservationIds[i]).putInt(toRooms[i]);
+                }
+                try {
+                    append();
+                } catch (SQLException e) {
+                    applyMoves(reservationIds, fromRooms);
+                    throw e;
+                }
+                afterCommit.run();
+                compactIfNeeded();
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        @Override
+        public List<Guest> loadGuests() {
+            lock.readLock().lock();
+            try {
+                List<Guest> result = new ArrayList<>(guestCount);
+                for (int i = 0; i < guestCount; i++) {
+                    result.add(new Guest(i + 1, guestNames[i], guestEmails[i]));
+                }
+                return result;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        @Override
+        public List<Reservation> findGuestReservations(int guestId) {
+            lock.readLock().lock();
+            try {
+                List<Reservation> result = new ArrayList<>();
+                if (guestId < 1 || guestId > guestCount) return result;
+                for (int id = firstGuestStays[guestId - 1]; id != 0; id = nextGuestStays[id]) {
+                    result.add(reservation(id));
+                }
+                result.sort(Comparator.comparing(Reservation::getCheckInDate)
+                    .thenComparingInt(Reservation::getReservationId));
+                return result;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        private Reservation reservation(int reservationId) {
+            Reservation reservation = reservations.toReservation(reservationId);
+            reservation.setGuestId(reservationGuests[reservationId]);
+            reservation.setRoomFlexible(flexibleStays.get(reservationId));
+            return reservation;
+        }
+        
+        @Override
+        public Payment insertPayment(Payment payment, Runnable afterCommit) throws SQLException {
+            if (payment.getReservationId() < 1) {
+                throw new SQLException("Invalid reservation id " + payment.getReservationId());
+            }
+            lock.writeLock().lock();
+            try {
+                Integer existing = payment.getIdempotencyKey() == null ? null
+                    : paymentsByKey.get(payment.getIdempotencyKey());
+                if (existing != null) {
+                    return payment(existing);
+                }
+                if (payment.isRefund() && refundableCents(payment.getReservationId()) + payment.getAmountCents() < 0) {
+                    return null;
+                }
+                begin(PAYMENT_REQUEST).putInt(payment.getReservationId());
+                putPaymentRequest(payment);
+                append();
+                applyPayment(payment);
+                payment.setPaymentId(paymentCount);
+                afterCommit.run();
+                compactIfNeeded();
+                return payment;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        @Override
+        public List<Payment> findPayments(int reservationId) {
+            lock.readLock().lock();
+            try {
+                List<Payment> result = new ArrayList<>();
+                if (reservationId < 1 || reservationId >= firstPayments.length) return result;
+                for (int next = firstPayments[reservationId]; next != 0; next = nextPayments[next - 1]) {
+                    result.add(payment(next - 1));
+                }
+                return result;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        @Override
+        public List<Payment> findPendingPayments() {
+            lock.readLock().lock();
+            try {
+                List<Payment> result = new ArrayList<>();
+                for (int i = 0; i < paymentCount; i++) {
+                    if (paymentStatuses[i] == PAYMENT_PENDING) result.add(payment(i));
+                }
+                return result;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        @Override
+        public boolean settlePayment(int paymentId, String status, String gatewayReference, Runnable afterCommit)
+                throws SQLException {
+            byte code = paymentStatusCode(status);
+            lock.writeLock().lock();
+            try {
+                int index = paymentId - 1;
+                if (index < 0 || index >= paymentCount || paymentStatuses[index] != PAYMENT_PENDING) return false;
+                begin(SETTLEMENT).putInt(index).put(code);
+                putString(gatewayReference == null ? "" : gatewayReference);
+                append();
+                applySettlement(index, code, gatewayReference);
+                afterCommit.run();
+                compactIfNeeded();
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        // Settled charges less refunds that have not failed, as PAYMENT_REFUNDABLE computes it
+        private long refundableCents(int reservationId) {
+            long cents = 0;
+            if (reservationId >= firstPayments.length) return cents;
+            for (int next = firstPayments[reservationId]; next != 0; next = nextPayments[next - 1]) {
+                int i = next - 1;
+                byte status = paymentStatuses[i];
+                if (status == PAYMENT_SETTLED || (status == PAYMENT_PENDING && paymentAmounts[i] < 0)) {
+                    cents += paymentAmounts[i];
+                }
+            }
+            return cents;
+        }
+        
+        @Override
+        public void close() {
+            lock.writeLock().lock();
+            try {
+                if (journalChannel == null) return;
+                journal.force();
+                journalChannel.close();
+                journalChannel = null;
+            } catch (IOException e) {
+                System.out.println("Error closing journal: " + e.getMessage());
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        // Report inputs straight from the columns: confirmed stays overlapping the window, payments dated in it
+        public void collectReport(ReportTotals totals, int from, int to) {
+            lock.readLock().lock();
+            try {
+                reservations.forEachConfirmed(from, to, (reservationId, roomId, checkIn, checkOut, priceCents) ->
+                    totals.addStay(roomId, checkIn, checkOut, Money.decimal(priceCents)));
+                for (int i = 0; i < paymentCount; i++) {
+                    if (paymentStatuses[i] == PAYMENT_SETTLED && paymentDates[i] >= from && paymentDates[i] < to) {
+                        totals.addPayment(paymentMethods[i], Money.decimal(paymentAmounts[i]));
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        public long getJournalBytes() {
+            lock.readLock().lock();
+            try {
+                return journalPosition;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        // Writes the whole state to snapshot n+1, then switches to an empty journal n+1. The rename is the
+        // commit point: a crash before it recovers from snapshot n and journal n, after it from n+1.
+        public void compact() throws IOException {
+            lock.writeLock().lock();
+            try {
+                long next = generation + 1;
+                Path staging = directory.resolve("snapshot-" + next + ".tmp");
+                try (SnapshotRecordSink sink = new SnapshotRecordSink(staging)) {
+                    for (Room room : rooms) {
+                        if (room != null) sink.room(room);
+                    }
+                    for (int id = 1; id <= reservations.maxId(); id++) {
+                        if (reservations.exists(id)) sink.reservation(reservation(id));
+                    }
+                    for (int i = 0; i < paymentCount; i++) {
+                        sink.payment(payment(i));
+                    }
+                }
+                Files.move(staging, snapshotPath(next), StandardCopyOption.ATOMIC_MOVE);
+                
+                FileChannel previous = journalChannel;
+                long previousGeneration = generation;
+                generation = next;
+                openJournal(journalPath(next));
+                previous.close();
+                Files.deleteIfExists(journalPath(previousGeneration));
+                Files.deleteIfExists(snapshotPath(previousGeneration));
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        // The write that crossed the threshold has already committed, so a failed compaction is only reported
+        private void compactIfNeeded() {
+            if (journalPosition < compactBytes) return;
+            try {
+                compact();
+            } catch (IOException e) {
+                System.out.println("Error compacting journal: " + e.getMessage());
+            }
+        }
+        
+        private ByteBuffer begin(byte type) {
+            record.clear();
+            return record.put(type);
+        }
+        
+        // Length and checksum first, so a write torn anywhere fails the CRC on replay
+        private void append() throws SQLException {
+            record.flip();
+            int length = record.remaining();
+            crc.reset();
+            crc.update(record.array(), 0, length);
+            try {
+                ensureJournalCapacity(RECORD_HEADER + length);
+            } catch (IOException e) {
+                throw new SQLException("Journal write failed: " + e.getMessage(), e);
+            }
+            journal.position(journalPosition);
+            journal.putInt(length).putInt((int) crc.getValue()).put(record);
+            journalPosition += RECORD_HEADER + length;
+            if (forceWrites) {
+                journal.force();
+            }
+        }
+        
+        private void ensureJournalCapacity(int bytes) throws IOException {
+            if ((long) journalPosition + bytes <= journal.capacity()) return;
+            long size = Math.max((long) journal.capacity() * 2, (long) journalPosition + bytes);
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Journal is full; lower hotel.memory.compactBytes");
+            }
+            journal = journalChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        
+        private void putString(String value) throws SQLException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xffff) {
+                throw new SQLException("Value too long to store: " + bytes.length + " bytes");
+            }
+            record.putShort((short) bytes.length).put(bytes);
+        }
+        
+        private void putPaymentRequest(Payment payment) throws SQLException {
+            record.putLong(payment.getAmountCents()).putInt((int) payment.getPaymentDate().toEpochDay());
+            putString(payment.getPaymentMethod());
+            record.put(paymentStatusCode(payment.getStatus()));
+            putString(payment.getIdempotencyKey() == null ? "" : payment.getIdempotencyKey());
+        }
+        
+        private static Payment paymentRequest(int reservationId, ByteBuffer payload) {
+            long amountCents = payload.getLong();
+            int paymentDate = payload.getInt();
+            Payment payment = new Payment(reservationId, Money.decimal(amountCents), getString(payload));
+            payment.setPaymentDate(LocalDate.ofEpochDay(paymentDate));
+            payment.setStatus(PAYMENT_STATUSES[payload.get()]);
+            payment.setIdempotencyKey(nullIfEmpty(getString(payload)));
+            return payment;
+        }
+        
+        private static Payment legacyPayment(int reservationId, ByteBuffer payload) {
+            double amount = payload.getDouble();
+            int paymentDate = payload.getInt();
+            Payment payment = new Payment(reservationId, amount, getString(payload));
+            payment.setPaymentDate(LocalDate.ofEpochDay(paymentDate));
+            return payment;
+        }
+        
+        private static byte paymentStatusCode(String status) throws SQLException {
+            for (byte code = 0; code < PAYMENT_STATUSES.length; code++) {
+                if (PAYMENT_STATUSES[code].equals(status)) return code;
+            }
+            throw new SQLException("Unknown payment status " + status);
+        }
+        
+        private static String nullIfEmpty(String value) {
+            return value.isEmpty() ? null : value;
+        }
+        
+        private static String getString(ByteBuffer buffer) {
+            byte[] bytes = new byte[buffer.getShort() & 0xffff];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        
+        // State changes, shared by live writes, journal replay and snapshot loading
+        
+        private void applyRoom(Room room) {
+            int roomId = room.getRoomId();
+            if (roomId >= rooms.length) {
+                rooms = Arrays.copyOf(rooms, Math.max(rooms.length * 2, roomId + 1));
+                calendars = Arrays.copyOf(calendars, rooms.length);
+            }
+            if (rooms[roomId] != null) {
+                roomIdsByNumber.remove(rooms[roomId].getRoomNumber());
+            }
+            rooms[roomId] = new Room(roomId, room.getRoomNumber(), intern(room.getRoomType()), room.getPricePerNight(),
+                room.isAvailable(), room.getCapacity());
+            roomIdsByNumber.put(room.getRoomNumber(), roomId);
+        }
+        
+        private void setAvailability(int roomId, boolean isAvailable) {
+            Room room = room(roomId);
+            if (room != null) {
+                rooms[roomId] = new Room(roomId, room.getRoomNumber(), room.getRoomType(), room.getPricePerNight(),
+                    isAvailable, room.getCapacity());
+            }
+        }
+        
+        private void setPrice(int roomId, double pricePerNight) {
+            Room room = room(roomId);
+            if (room != null) {
+                rooms[roomId] = new Room(roomId, room.getRoomNumber(), room.getRoomType(), pricePerNight,
+                    room.isAvailable(), room.getCapacity());
+            }
+        }
+        
+        private void applyReservation(int reservationId, int roomId, String guestName, String guestEmail,
+                                      int checkIn, int checkOut, double totalPrice, String status,
+                                      boolean roomFlexible) {
+            byte code = ReservationStore.statusCode(status);
+            reservations.put(reservationId, roomId, guestName, guestEmail, checkIn, checkOut,
+                Money.cents(totalPrice), code);
+            flexibleStays.set(reservationId, roomFlexible);
+            if (code == ReservationStore.CONFIRMED) {
+                calendar(roomId).add(reservationId, checkIn, checkOut);
+            }
+            linkGuest(reservationId, guestName, guestEmail);
+        }
+        
+        // Reservations arrive in id order, so each guest's chain stays in id order too
+        private void linkGuest(int reservationId, String guestName, String guestEmail) {
+            String email = Guest.normalizeEmail(guestEmail);
+            Integer index = guestsByEmail.get(email);
+            if (index == null) {
+                if (guestCount == guestNames.length) {
+                    int size = guestCount * 2;
+                    guestNames = Arrays.copyOf(guestNames, size);
+                    guestEmails = Arrays.copyOf(guestEmails, size);
+                    firstGuestStays = Arrays.copyOf(firstGuestStays, size);
+                    lastGuestStays = Arrays.copyOf(lastGuestStays, size);
+                }
+                index = guestCount++;
+                guestEmails[index] = email;
+                guestsByEmail.put(email, index);
+            }
+            guestNames[index] = guestName;
+            if (reservationId >= reservationGuests.length) {
+                int size = Math.max(reservationGuests.length * 2, reservationId + 1);
+                reservationGuests = Arrays.copyOf(reservationGuests, size);
+                nextGuestStays = Arrays.copyOf(nextGuestStays, size);
+            }
+            reservationGuests[reservationId] = index + 1;
+            if (firstGuestStays[index] == 0) {
+                firstGuestStays[index] = reservationId;
+            } else {
+                nextGuestStays[lastGuestStays[index]] = reservationId;
+            }
+            lastGuestStays[index] = reservationId;
+        }
+        
+        // A booking also takes the room off sale, as the SQLite backend does
+        private void applyBooking(int reservationId, int roomId, String guestName, String guestEmail,
+                                  int checkIn, int checkOut, double totalPrice, String status, boolean roomFlexible) {
+            applyReservation(reservationId, roomId, guestName, guestEmail, checkIn, checkOut, totalPrice, status,
+                roomFlexible);
+            setAvailability(roomId, false);
+        }
+        
+        private void applyCancel(int reservationId) {
+            if (!reservations.exists(reservationId)) return;
+            int roomId = reservations.roomId(reservationId);
+            if (reservations.status(reservationId) == ReservationStore.CONFIRMED) {
+                calendar(roomId).remove(reservationId);
+            }
+            reservations.setStatus(reservationId, ReservationStore.CANCELLED);
+            setAvailability(roomId, true);
+        }
+        
+        // Takes every stay off its room before placing any, so stays may trade rooms; if one would overlap,
+        // all go back where they were. The legacy availability flags are left alone.
+        private boolean applyMoves(int[] reservationIds, int[] toRooms) {
+            for (int id : reservationIds) {
+                calendar(reservations.roomId(id)).remove(id);
+            }
+            int placed = 0;
+            while (placed < reservationIds.length) {
+                int id = reservationIds[placed];
+                RoomCalendar target = calendar(toRooms[placed]);
+                if (target.overlaps(reservations.checkIn(id), reservations.checkOut(id))) break;
+                target.add(id, reservations.checkIn(id), reservations.checkOut(id));
+                placed++;
+            }
+            if (placed == reservationIds.length) {
+                for (int i = 0; i < placed; i++) {
+                    reservations.setRoom(reservationIds[i], toRooms[i]);
+                }
+                return true;
+            }
+            for (int i = 0; i < placed; i++) {
+                calendar(toRooms[i]).remove(reservationIds[i]);
+            }
+            for (int id : reservationIds) {
+                calendar(reservations.roomId(id)).add(id, reservations.checkIn(id), reservations.checkOut(id));
+            }
+            return false;
+        }
+        
+        private void applyPayment(Payment payment) throws SQLException {
+            if (paymentCount == paymentReservations.length) {
+                int size = paymentCount * 2;
+                paymentReservations = Arrays.copyOf(paymentReservations, size);
+                paymentAmounts = Arrays.copyOf(paymentAmounts, size);
+                paymentDates = Arrays.copyOf(paymentDates, size);
+                paymentMethods = Arrays.copyOf(paymentMethods, size);
+                paymentStatuses = Arrays.copyOf(paymentStatuses, size);
+                paymentKeys = Arrays.copyOf(paymentKeys, size);
+                paymentReferences = Arrays.copyOf(paymentReferences, size);
+                nextPayments = Arrays.copyOf(nextPayments, size);
+            }
+            int reservationId = payment.getReservationId();
+            paymentReservations[paymentCount] = reservationId;
+            paymentAmounts[paymentCount] = payment.getAmountCents();
+            paymentDates[paymentCount] = (int) payment.getPaymentDate().toEpochDay();
+            paymentMethods[paymentCount] = intern(payment.getPaymentMethod());
+            paymentStatuses[paymentCount] = paymentStatusCode(payment.getStatus());
+            paymentKeys[paymentCount] = payment.getIdempotencyKey();
+            paymentReferences[paymentCount] = payment.getGatewayReference();
+            if (payment.getIdempotencyKey() != null) {
+                paymentsByKey.put(payment.getIdempotencyKey(), paymentCount);
+            }
+            paymentCount++;
+            if (reservationId >= firstPayments.length) {
+                int size = Math.max(firstPayments.length * 2, reservationId + 1);
+                firstPayments = Arrays.copyOf(firstPayments, size);
+                lastPayments = Arrays.copyOf(lastPayments, size);
+            }
+            if (firstPayments[reservationId] == 0) {
+                firstPayments[reservationId] = paymentCount;
+            } else {
+                nextPayments[lastPayments[reservationId] - 1] = paymentCount;
+            }
+            lastPayments[reservationId] = paymentCount;
+        }
+        
+        private void applySettlement(int index, byte status, String gatewayReference) {
+            if (index < 0 || index >= paymentCount) return;
+            paymentStatuses[index] = status;
+            paymentReferences[index] = gatewayReference;
+        }
+        
+        private Room room(int roomId) {
+            return roomId > 0 && roomId < rooms.length ? rooms[roomId] : null;
+        }
+        
+        private RoomCalendar calendar(int roomId) {
+            if (roomId >= calendars.length) {
+                rooms = Arrays.copyOf(rooms, Math.max(rooms.length * 2, roomId + 1));
+                calendars = Arrays.copyOf(calendars, rooms.length);
+            }
+            if (calendars[roomId] == null) {
+                calendars[roomId] = new RoomCalendar();
+            }
+            return calendars[roomId];
+        }
+        
+        private Payment payment(int index) {
+            Payment payment = new Payment(paymentReservations[index], Money.decimal(paymentAmounts[index]),
+                paymentMethods[index]);
+            payment.setPaymentId(index + 1);
+            payment.setPaymentDate(LocalDate.ofEpochDay(paymentDates[index]));
+            payment.setStatus(PAYMENT_STATUSES[paymentStatuses[index]]);
+            payment.setIdempotencyKey(paymentKeys[index]);
+            payment.setGatewayReference(paymentReferences[index]);
+            return payment;
+        }
+        
+        private String intern(String value) {
+            return interned.computeIfAbsent(value, v -> v);
+        }
+        
+        private Path snapshotPath(long n) {
+            return directory.resolve("snapshot-" + n + ".bin");
+        }
+        
+        private Path journalPath(long n) {
+            return directory.resolve("journal-" + n + ".log");
+        }
+        
+        private static long generationOf(Path path) {
+            String name = path.getFileName().toString();
+            try {
+                return Long.parseLong(name.substring(name.indexOf('-') + 1, name.indexOf('.')));
+            } catch (RuntimeException e) {
+                return -1;
+            }
+        }
+    }
+
+    // A room type's pricing rules, as basis points of the room's base rate (10000 = unchanged). Friday and
+    // Saturday nights get the weekend adjustment, nights inside a season its adjustment (the last matching
+    // season wins), and the two multiply. Stays of at least losNights[i] nights get losDiscountBps[i] off.
+    static class RatePlan {
+        private final String weekendPercent;
+        private final String seasons;
+        private final String losDiscounts;
+        final int weekendBps;
+        // Seasons recur yearly as inclusive MMDD ranges; a start after its end wraps the new year
+        final int[] seasonStarts;
+        final int[] seasonEnds;
+        final int[] seasonBps;
+        // Ascending
+        final int[] losNights;
+        final int[] losDiscountBps;
+        
+        // weekendPercent "15"; seasons "12-20..01-05:25,07-01..08-31:15"; losDiscounts "7:5,14:10" (nights:percent)
+        RatePlan(String weekendPercent, String seasons, String losDiscounts) {
+            this.weekendPercent = weekendPercent.trim();
+            this.seasons = seasons.trim();
+            this.losDiscounts = losDiscounts.trim();
+            try {
+                weekendBps = 10000 + Money.percentToBps(this.weekendPercent);
+                String[] seasonSpecs = this.seasons.isEmpty() ? new String[0] : this.seasons.split(",");
+                seasonStarts = new int[seasonSpecs.length];
+                seasonEnds = new int[seasonSpecs.length];
+                seasonBps = new int[seasonSpecs.length];
+                for (int i = 0; i < seasonSpecs.length; i++) {
+                    String[] parts = seasonSpecs[i].trim().split(":");
+                    String[] range = parts[0].split("\\.\\.");
+                    seasonStarts[i] = monthDay(range[0]);
+                    seasonEnds[i] = monthDay(range[1]);
+                    seasonBps[i] = 10000 + Money.percentToBps(parts[1]);
+                }
+                String[] losSpecs = this.losDiscounts.isEmpty() ? new String[0] : this.losDiscounts.split(",");
+                losNights = new int[losSpecs.length];
+                losDiscountBps = new int[losSpecs.length];
+                for (int i = 0; i < losSpecs.length; i++) {
+                    String[] parts = losSpecs[i].trim().split(":");
+                    losNights[i] = Integer.parseInt(parts[0].trim());
+                    losDiscountBps[i] = Money.percentToBps(parts[1]);
+                    if (i > 0 && losNights[i] <= losNights[i - 1]) {
+                        throw new IllegalArgumentException("length-of-stay discounts must be in ascending nights");
+                    }
+                    if (losDiscountBps[i] < 0 || losDiscountBps[i] > 10000) {
+                        throw new IllegalArgumentException("length-of-stay discounts must be 0 to 100 percent");
+                    }
+                }
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException | DateTimeException e) {
+                throw new IllegalArgumentException("Invalid rate plan (seasons are MM-DD..MM-DD:percent, discounts nights:percent): "
+                    + e.getMessage(), e);
+            }
+            if (weekendBps <= 0 || Arrays.stream(seasonBps).anyMatch(bps -> bps <= 0)) {
+                throw new IllegalArgumentException("Rate adjustments must leave a positive rate");
+            }
+        }
+        
+        // hotel.pricing.<type>.weekendPercent, .seasons and .losDiscounts, falling back to hotel.pricing.*
+        static RatePlan fromProperties(String roomType) {
+            return new RatePlan(pricingProperty(roomType, "weekendPercent", "0"),
+                pricingProperty(roomType, "seasons", ""), pricingProperty(roomType, "losDiscounts", ""));
+        }
+        
+        private static String pricingProperty(String roomType, String name, String defaultValue) {
+            return System.getProperty("hotel.pricing." + roomType + "." + name,
+                System.getProperty("hotel.pricing." + name, defaultValue));
+        }
+        
+        private static int monthDay(String value) {
+            MonthDay monthDay = MonthDay.parse("--" + value.trim());
+            return monthDay.getMonthValue() * 100 + monthDay.getDayOfMonth();
+        }
+        
+        int nightlyBps(int epochDay) {
+            LocalDate night = LocalDate.ofEpochDay(epochDay);
+            DayOfWeek dayOfWeek = night.getDayOfWeek();
+            int bps = dayOfWeek == DayOfWeek.FRIDAY || dayOfWeek == DayOfWeek.SATURDAY ? weekendBps : 10000;
+            int monthDay = night.getMonthValue() * 100 + night.getDayOfMonth();
+            for (int i = seasonStarts.length - 1; i >= 0; i--) {
+                boolean inSeason = seasonStarts[i] <= seasonEnds[i]
+                    ? monthDay >= seasonStarts[i] && monthDay <= seasonEnds[i]
+                    : monthDay >= seasonStarts[i] || monthDay <= seasonEnds[i];
+                if (inSeason) {
+                    return (int) Money.applyBps(bps, seasonBps[i]);
+                }
+            }
+            return bps;
+        }
+        
+        int losDiscountBps(int nights) {
+            for (int i = losNights.length - 1; i >= 0; i--) {
+                if (nights >= losNights[i]) return losDiscountBps[i];
+            }
+            return 0;
+        }
+        
+        public String getWeekendPercent() { return weekendPercent; }
+        public String getSeasons() { return seasons; }
+        public String getLosDiscounts() { return losDiscounts; }
+    }
+
+    // Prices stays in cents. Each room type's plan is expanded once into a table of nightly basis points
+    // over -Dhotel.pricing.tableDays (1100) from a month ago, so a quote is an array read, a multiply and
+    // an add per night and allocates nothing. A table remembers the plan it was built from and is rebuilt
+    // when that plan is replaced; nights outside it are priced from the plan directly.
+    static class PricingEngine {
+        private final ConcurrentHashMap<String, RatePlan> plans = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, RateTable> tables = new ConcurrentHashMap<>();
+        private final int tableDays = Integer.getInteger("hotel.pricing.tableDays", 1100);
+        
+        private static final class RateTable {
+            final RatePlan plan;
+            final int firstDay;
+            final int[] bps;
+            
+            RateTable(RatePlan plan, int firstDay, int days) {
+                this.plan = plan;
+                this.firstDay = firstDay;
+                this.bps = new int[days];
+                for (int i = 0; i < days; i++) {
+                    bps[i] = plan.nightlyBps(firstDay + i);
+                }
+            }
+        }
+        
+        public long quote(String roomType, long baseCents, int checkIn, int checkOut) {
+            if (checkOut <= checkIn) return 0;
+            RatePlan plan = ratePlan(roomType);
+            RateTable table = table(roomType, plan);
+            int[] bps = table.bps;
+            int tableEnd = table.firstDay + bps.length;
+            long total = 0;
+            for (int night = checkIn; night < checkOut; night++) {
+                int nightBps = night >= table.firstDay && night < tableEnd
+                    ? bps[night - table.firstDay]
+                    : plan.nightlyBps(night);
+                total += nightBps == 10000 ? baseCents : Money.applyBps(baseCents, nightBps);
+            }
+            int discount = plan.losDiscountBps(checkOut - checkIn);
+            return discount == 0 ? total : total - Money.applyBps(total, discount);
+        }
+        
+        public RatePlan ratePlan(String roomType) {
+            return plans.computeIfAbsent(roomType, RatePlan::fromProperties);
+        }
+        
+        // Quotes pick up the new plan at once; its table is built on the first quote that needs it
+        public void setRatePlan(String roomType, RatePlan plan) {
+            plans.put(roomType, plan);
+            tables.remove(roomType);
+        }
+        
+        private RateTable table(String roomType, RatePlan plan) {
+            RateTable table = tables.get(roomType);
+            if (table != null && table.plan == plan) {
+                return table;
+            }
+            return tables.compute(roomType, (type, current) -> current != null && current.plan == plan
+                ? current
+                : new RateTable(plan, (int) LocalDate.now().toEpochDay() - 31, tableDays));
+        }
+    }
+
+    // Service classes
+    static class RoomService {
+        public List<Room> getAllAvailableRooms() {
+            long started = System.nanoTime();
+            try {
+                List<Room> rooms = new ArrayList<>();
+                for (Room room : DatabaseManager.getRoomCatalog().findAll()) {
+                    if (room.isAvailable()) {
+                        rooms.add(room);
+                    }
+                }
+                return rooms;
+            } finally {
+                Metrics.record(Metrics.ServiceMethod.ROOM_LIST_AVAILABLE, started);
+            }
+        }
+        
+        public List<Room> searchAvailableRooms(String roomType, LocalDate checkIn, LocalDate checkOut) {
+            long started = System.nanoTime();
+            try {
+                List<Room> availableRooms = new ArrayList<>();
+                AvailabilityIndex index = DatabaseManager.getAvailabilityIndex();
+                
+                for (Room room : DatabaseManager.getRoomCatalog().findByType(roomType)) {
+                    if (room.isAvailable() && index.isFree(room.getRoomId(), checkIn, checkOut)) {
+                        availableRooms.add(room);
+                    }
+                }
+                return availableRooms;
+            } finally {
+                Metrics.record(Metrics.ServiceMethod.ROOM_SEARCH, started);
+            }
+        }
+        
+        // One pass over the catalog in price order: filters are checked cheapest first and the availability
+        // index last, and the walk stops at the price ceiling or once the page is full
+        public RoomSearchResult search(RoomSearchQuery query) {
+            return search(DatabaseManager.MAIN, query);
+        }
+        
+        public RoomSearchResult search(BookingContext context, RoomSearchQuery query) {
+            long started = System.nanoTime();
+            try {
+                RoomCatalog catalog = context.roomCatalog();
+                AvailabilityIndex index = context.availabilityIndex();
+                PriceOrder order = catalog.priceOrder();
+                int position = query.getCursor() == null ? 0
+                    : order.positionAfter(query.getCursor().getPriceCents(), query.getCursor().getRoomId());
+                
+                List<Room> rooms = new ArrayList<>(Math.min(query.getLimit(), 64));
+                for (; position < order.size() && rooms.size() < query.getLimit(); position++) {
+                    if (order.priceCents(position) > query.getMaxPriceCents()) {
+                        position = order.size();
+                        break;
+                    }
+                    Room room = catalog.findById(order.roomId(position));
+                    if (room != null && room.isAvailable()
+                        && room.getCapacity() >= query.getPartySize()
+                        && query.matchesType(room.getRoomType())
+                        && index.isFree(room.getRoomId(), query.getCheckIn(), query.getCheckOut())) {
+                        rooms.add(room);
+                    }
+                }
+                
+                // The page filled before the end: resume after the last room examined, not the last one returned
+                SearchCursor next = position < order.size()
+                    ? new SearchCursor(order.priceCents(position - 1), order.roomId(position - 1))
+                    : null;
+                return new RoomSearchResult(rooms, next);
+            } finally {
+                Metrics.record(Metrics.ServiceMethod.ROOM_SEARCH, started);
+            }
+        }
+        
+        public boolean updateRoomAvailability(int roomId, boolean isAvailable) {
+            long started = System.nanoTime();
+            try {
+                ChangeFeed changes = DatabaseManager.getChangeFeed();
+                return DatabaseManager.getRepository().updateRoomAvailability(roomId, isAvailable, () -> {
+                    DatabaseManager.getRoomCatalog().applyAvailability(roomId, isAvailable);
+                    changes.publish(ChangeEvent.roomAvailability(roomId, isAvailable));
+                });
+            } catch (SQLException e) {
+                Metrics.serviceError(Metrics.ServiceMethod.ROOM_UPDATE_AVAILABILITY);
+                System.out.println("Error updating room availability: " + e.getMessage());
+                return false;
+            } finally {
+                Metrics.record(Metrics.ServiceMethod.ROOM_UPDATE_AVAILABILITY, started);
+            }
+        }
+        
+        public boolean updateRoomPrice(int roomId, double pricePerNight) {
+            long started = System.nanoTime();
+            try {
+                ChangeFeed changes = DatabaseManager.getChangeFeed();
+                return DatabaseManager.getRepository().updateRoomPrice(roomId, pricePerNight, () -> {
+                    DatabaseManager.getRoomCatalog().invalidate(roomId);
+                    changes.publish(ChangeEvent.roomPrice(roomId, Money.cents(pricePerNight)));
+                });
+            } catch (SQLException e) {
+                Metrics.serviceError(Metrics.ServiceMethod.ROOM_UPDATE_PRICE);
+                System.out.println("Error updating room price: " + e.getMessage());
+                return false;
+            } finally {
+                Metrics.record(Metrics.ServiceMethod.ROOM_UPDATE_PRICE, started);
+            }
+        }
+        
+        public Room findRoomByNumber(String roomNumber) {
+            long started = System.nanoTime();
+            try {
+                Room room = DatabaseManager.getRoomCatalog().findByNumber(roomNumber);
+                return room != null && room.isAvailable() ? room : null;
+            } finally {
+                Metrics.record(Metrics.ServiceMethod.ROOM_FIND_BY_NUMBER, started);
+            }
+        }
+    }
+
+    // The stores a booking writes to and the caches kept in step with them: the main database's or a
+    // property shard's
+    interface BookingContext {
+        HotelRepository repository();
+        AvailabilityIndex availabilityIndex();
+        RoomCatalog roomCatalog();
+        SettlementQueue settlementQueue();
+        GuestIndex guestIndex();
+        HoldRegistry holds();
+        ChangeFeed changes();
+        RoomLocks roomLocks();
+        // After bulk loads, which write rooms, stays and guests behind the caches' back
+        void reloadCaches() throws SQLException;
+    }
+
+    // Serializes the bookings, holds and cancellations of one room, so an availability check and the write
+    // that relies on it are never split by another. Reentrant: a caller may hold a room's stripe around a
+    // service call that takes it again.
+    static class RoomLocks {
+        private final ReentrantLock[] stripes;
+        private final int stripeMask;
+        
+        RoomLocks(int stripeCount) {
+            // Round up to a power of two so the stripe is a mask, not a modulo
+            int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+            this.stripes = new ReentrantLock[size];
+            for (int i = 0; i < size; i++) {
+                stripes[i] = new ReentrantLock();
+            }
+            this.stripeMask = size - 1;
+        }
+        
+        public static RoomLocks create() {
+            return new RoomLocks(Integer.getInteger("hotel.engine.stripes", 256));
+        }
+        
+        ReentrantLock forRoom(int roomId) {
+            return stripes[stripeOf(roomId)];
+        }
+        
+        // The distinct stripes of these rooms in stripe order, the order to lock several in
+        List<ReentrantLock> forRooms(int[] roomIds) {
+            int[] indexes = new int[roomIds.length];
+            for (int i = 0; i < roomIds.length; i++) {
+                indexes[i] = stripeOf(roomIds[i]);
+            }
+            Arrays.sort(indexes);
+            List<ReentrantLock> locks = new ArrayList<>();
+            for (int i = 0; i < indexes.length; i++) {
+                if (i == 0 || indexes[i] != indexes[i - 1]) {
+                    locks.add(stripes[indexes[i]]);
+                }
+            }
+            return locks;
+        }
+        
+        private int stripeOf(int roomId) {
+            int h = roomId * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & stripeMask;
+        }
+    }
+
+    static class ReservationService {
+        private final RoomAssigner roomAssigner = RoomAssigner.create();
+        
+        public boolean isRoomAvailable(int roomId, LocalDate checkIn, LocalDate checkOut) {
+            long started = System.nanoTime();
+            try {
+                return DatabaseManager.getAvailabilityIndex().isFree(roomId, checkIn, checkOut);
+            } finally {
+                Metrics.record(Metrics.ServiceMethod.RESERVATION_IS_AVAILABLE, started);
+            }
+        }
+        
+        public double calculateTotalCost(int roomId, LocalDate checkIn, LocalDate checkOut) {
+            Room room = DatabaseManager.getRoomCatalog().findById(roomId);
+            return room != null ? Money.decimal(quoteCents(room, checkIn, checkOut)) : 0;
+        }
+        
+        // The stay's total from the room's base rate and its type's rate plan
+        public long quoteCents(Room room, LocalDate checkIn, LocalDate checkOut) {
+            return DatabaseManager.getPricingEngine().quote(room.getRoomType(), room.getPriceCents(),
+                (int) checkIn.toEpochDay(), (int) checkOut.toEpochDay());
+        }
+        
+        public void generateReceipt(Reservation reservation, Payment payment) {
+            System.out.println("\n=== BOOKING RECEIPT ===");
+            System.out.println("Reservation ID: " + reservation.getReservationId());
+            System.out.println("Guest Name: " + reservation.getGuestName());
+            System.out.println("Room ID: " + reservation.getRoomId());
+            System.out.println("Check-in: " + reservation.getCheckInDate());
+            System.out.println("Check-out: " + reservation.getCheckOutDate());
+            System.out.println("Total Nights: " + 
+                ChronoUnit.DAYS.between(reservation.getCheckInDate(), reservation.getCheckOutDate()));
+            System.out.printf("Total Cost: $%.2f%n", reservation.getTotalPrice());
+            System.out.println("Payment Method: " + payment.getPaymentMethod());
+            System.out.println("Payment Date: " + payment.getPaymentDate());
+            System.out.println("Status: " + reservation.getStatus());
+            System.out.println("=========================");
+        }
+        
+        // Checks, inserts and records payment atomically; the write joins the next group-commit batch
+        public BookingResult book(int roomId, String guestName, String guestEmail,
+                                  LocalDate checkIn, LocalDate checkOut, double pricePerNight, String paymentMethod) {
+            return book(DatabaseManager.MAIN, roomId, guestName, guestEmail, checkIn, checkOut, pricePerNight,
+                paymentMethod);
+        }
+        
+        public BookingResult book(BookingContext context, int roomId, String guestName, String guestEmail,
+                                  LocalDate checkIn, LocalDate checkOut, double pricePerNight, String paymentMethod) {
+            return book(context, roomId, guestName, guestEmail, checkIn, checkOut, pricePerNight, paymentMethod, false);
+        }
+        
+        // roomFlexible marks a stay sold by room type, which the room optimizer may later move within the type
+        public BookingResult book(BookingContext context, int roomId, String guestName, String guestEmail,
+                                  LocalDate checkIn, LocalDate checkOut, double pricePerNight, String paymentMethod,
+                                  boolean roomFlexible) {
+            long started = System.nanoTime();
+            BookingResult result = null;
+            try {
+                result = tryBook(context, roomId, guestName, guestEmail, checkIn, checkOut, pricePerNight,
+                    paymentMethod, 0, roomFlexible);
+                return result;
+            } finally {
+                Metrics.record(Metrics.ServiceMethod.RESERVATION_BOOK, started);
+                Metrics.booking(result != null ? result.getStatus() : BookingResult.Status.FAILED);
+                if (result != null && result.getPayment() != null) {
+                    Metrics.payment();
+                }
+            }
+        }
+        
+        // Holds the room for the stay, for the registry's default time if ttlMillis is 0, while the guest
+        // completes the booking; null if the dates are taken
+        public Hold placeHold(int roomId, LocalDate checkIn, LocalDate checkOut) {
+            return placeHold(DatabaseManager.MAIN, roomId, checkIn, checkOut, 0);
+        }
+        
+        public Hold placeHold(BookingContext context, int roomId, LocalDate checkIn, LocalDate checkOut,
+                              long ttlMillis) {
+            return placeHold(context, roomId, checkIn, checkOut, ttlMillis, false);
+        }
+        
+        public Hold placeHold(BookingContext context, int roomId, LocalDate checkIn, LocalDate checkOut,
+                              long ttlMillis, boolean roomFlexible) {
+            long started = System.nanoTime();
+            try {
+                if (!checkOut.isAfter(checkIn)) {
+                    throw new IllegalArgumentException("Check-out must be after check-in");
+                }
+                if (context.roomCatalog().findById(roomId) == null) {
+                    throw new IllegalArgumentException("Room " + roomId + " does not exist");
+                }
+                // Under the room's stripe, so a hold never lands between a booking's check and its commit
+                ReentrantLock lock = context.roomLocks().forRoom(roomId);
+                lock.lock();
+                try {
+                    return context.holds().place(roomId, checkIn, checkOut, ttlMillis, roomFlexible);
+                } finally {
+                    lock.unlock();
+                }
+            } finally {
+                Metrics.record(Metrics.ServiceMethod.HOLD_PLACE, started);
+            }
+        }
+        
+        public BookingResult confirmHold(int holdId, String guestName, String guestEmail, String paymentMethod) {
+            return confirmHold(DatabaseManager.MAIN, holdId, guestName, guestEmail, paymentMethod);
+        }
+        
+        // Books the held stay at the room's catalog rate. The hold comes off the wheel, the booking's
+        // availability check ignores it, and the committed stay replaces it in the index; a booking that
+        // fails hands the hold back if it has time left.
+        public BookingResult confirmHold(BookingContext context, int holdId, String guestName, String guestEmail,
+                                         String paymentMethod) {
+            long started = System.nanoTime();
+            BookingResult result = null;
+            try {
+                Hold hold = context.holds().take(holdId);
+                if (hold == null) {
+                    result = BookingResult.conflict("Hold " + holdId + " has expired or does not exist");
+                    return result;
+                }
+                ReentrantLock lock = context.roomLocks().forRoom(hold.getRoomId());
+                lock.lock();
+                try {
+                    Room room = context.roomCatalog().findById(hold.getRoomId());
+                    result = room == null ? BookingResult.invalid("Room " + hold.getRoomId() + " does not exist")
+                        : tryBook(context, room.getRoomId(), guestName, guestEmail, hold.getCheckInDate(),
+                            hold.getCheckOutDate(), room.getPricePerNight(), paymentMethod, holdId,
+                            hold.isRoomFlexible());
+                    if (result.isConfirmed()) {
+                        Metrics.hold(HoldRegistry.Outcome.CONFIRMED);
+                    } else {
+                        context.holds().restore(hold);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                return result;
+            } finally {
+                Metrics.record(Metrics.ServiceMethod.HOLD_CONFIRM, started);
+                Metrics.booking(result != null ? result.getStatus() : BookingResult.Status.FAILED);
+                if (result != null && result.getPayment() != null) {
+                    Metrics.payment();
+                }
+            }
+        }
+        
+        public boolean releaseHold(int holdId) {
+            return releaseHold(DatabaseManager.MAIN, holdId);
+        }
+        
+        public boolean releaseHold(BookingContext context, int holdId) {
+            return context.holds().release(holdId);
+        }
+        
+        // The free room of the type that leaves the tightest gaps around the stay; 0 if none is free
+        public int assignRoom(BookingContext context, String roomType, LocalDate checkIn, LocalDate checkOut) {
+            long started = System.nanoTime();
+            try {
+                return context.availabilityIndex().bestFitRoom(roomType, checkIn, checkOut, roomAssigner);
+            } finally {
+                Metrics.record(Metrics.ServiceMethod.ROOM_ASSIGN, started);
+            }
+        }
+        
+        // Re-places the future stays sold by room type and commits each type's plan that leaves fewer orphan
+        // nights. Bookings go on meanwhile; a type whose stays or holds changed after it was planned is skipped.
+        // A type's room stripes are held from that check until its moves are in the index.
+        public AssignmentReport optimizeRooms(BookingContext context) {
+            long started = System.nanoTime();
+            try {
+                // Guests arriving today may already have their keys
+                LocalDate from = LocalDate.now().plusDays(1);
+                AvailabilityIndex index = context.availabilityIndex();
+                ChangeFeed changes = context.changes();
+                BitSet flexibleStays = context.repository().findFlexibleStays(from);
+                AssignmentReport report = new AssignmentReport();
+                for (RoomAssigner.TypePlan plan : roomAssigner.plan(index, flexibleStays, (int) from.toEpochDay())) {
+                    report.roomTypes++;
+                    report.flexibleStays += plan.getFlexibleStays();
+                    report.orphanNightsBefore += plan.getOrphanNightsBefore();
+                    boolean moved = plan.getMoves() == 0;
+                    if (!moved) {
+                        List<ReentrantLock> locks = context.roomLocks().forRooms(index.roomsOfType(plan.getRoomType()));
+                        locks.forEach(ReentrantLock::lock);
+                        try {
+                            // The database only knows stays, so a hold on a new night is caught here
+                            moved = !index.holdsOverlap(plan.moves)
+                                && context.repository().moveReservations(plan.moves, () -> {
+                                    index.moveStays(plan.moves);
+                                    RoomMoves moves = plan.moves;
+                                    for (int i = 0; i < moves.size(); i++) {
+                                        changes.publish(ChangeEvent.moved(moves.reservationId(i), moves.fromRoom(i),
+                                            moves.toRoom(i), moves.checkIn(i), moves.checkOut(i)));
+                                    }
+                                });
+                        } catch (SQLException e) {
+                            Metrics.serviceError(Metrics.ServiceMethod.ROOM_OPTIMIZE);
+                            System.out.println("Error moving " + plan.getRoomType() + " stays: " + e.getMessage());
+                        } finally {
+                            for (int i = locks.size() - 1; i >= 0; i--) {
+                                locks.get(i).unlock();
+                            }
+                        }
+                    }
+                    if (moved) {
+                        report.moved += plan.getMoves();
+                        report.orphanNightsAfter += plan.getOrphanNightsAfter();
+                    } else {
+                        report.skippedTypes++;
+                        report.orphanNightsAfter += plan.getOrphanNightsBefore();
+                    }
+                }
+                report.elapsedNanos = System.nanoTime() - started;
+                return report;
+            } catch (SQLException e) {
+                Metrics.serviceError(Metrics.ServiceMethod.ROOM_OPTIMIZE);
+                System.out.println("Error optimizing room assignments: " + e.getMessage());
+                return null;
+            } finally {
+                Metrics.record(Metrics.ServiceMethod.ROOM_OPTIMIZE, started);
+            }
+        }
+        
+        // holdId, if not 0, is a hold on these dates that the booking replaces. The room's stripe is held from
+        // the availability check until the stay is in the index, so no hold or booking can slip in between.
+        private BookingResult tryBook(BookingContext context, int roomId, String guestName, String guestEmail,
+                                      LocalDate checkIn, LocalDate checkOut, double pricePerNight, String paymentMethod,
+                                      int holdId, boolean roomFlexible) {
+            if (!checkOut.isAfter(checkIn)) {
+                return BookingResult.invalid("Check-out must be after check-in");
+            }
+            ReentrantLock lock = context.roomLocks().forRoom(roomId);
+            lock.lock();
+            try {
+                return insertIfFree(context, roomId, guestName, guestEmail, checkIn, checkOut, pricePerNight,
+                    paymentMethod, holdId, roomFlexible);
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        private BookingResult insertIfFree(BookingContext context, int roomId, String guestName, String guestEmail,
+                                           LocalDate checkIn, LocalDate checkOut, double pricePerNight,
+                                           String paymentMethod, int holdId, boolean roomFlexible) {
+            // Cheap rejection before queuing for the writer; the repository re-checks as it inserts
+            if (!context.availabilityIndex().isFree(roomId, checkIn, checkOut, holdId)) {
+                return BookingResult.conflict("Room " + roomId + " is already booked or held for the selected dates");
+            }
+            
+            Room room = context.roomCatalog().findById(roomId);
+            if (room == null) {
+                return BookingResult.invalid("Room " + roomId + " does not exist");
+            }
+            // The caller's nightly rate is the base; the room type's rate plan prices each night from it
+            double totalPrice = Money.decimal(DatabaseManager.getPricingEngine().quote(room.getRoomType(),
+                Money.cents(pricePerNight), (int) checkIn.toEpochDay(), (int) checkOut.toEpochDay()));
+            Reservation reservation = new Reservation(roomId, guestName, guestEmail, checkIn, checkOut, totalPrice);
+            reservation.setRoomFlexible(roomFlexible);
+            // The charge settles with the gateway after the booking commits, so its latency is not the guest's
+            Payment payment = paymentMethod == null ? null
+                : PaymentService.newPending(0, totalPrice, paymentMethod, null);
+            ChangeFeed changes = context.changes();
+            try {
+                boolean inserted = context.repository().insertReservation(reservation, payment, () -> {
+                    if (holdId != 0) {
+                        context.availabilityIndex().convertHold(roomId, holdId, reservation.getReservationId(),
+                            checkIn, checkOut);
+                    } else {
+                        context.availabilityIndex().addStay(roomId, reservation.getReservationId(), checkIn, checkOut);
+                    }
+                    context.roomCatalog().applyAvailability(roomId, false);
+                    context.guestIndex().add(reservation.getGuestId(), guestName, guestEmail);
+                    changes.publish(ChangeEvent.booked(reservation));
+                    if (payment != null) {
+                        changes.publish(ChangeEvent.paymentRecorded(payment));
+                        context.settlementQueue().submit(payment);
+                    }
+                });
+                return inserted
+                    ? BookingResult.confirmed(reservation, payment)
+                    : BookingResult.conflict("Room " + roomId + " is already booked for the selected dates");
+            } catch (SQLException e) {
+                Metrics.serviceError(Metrics.ServiceMethod.RESERVATION_BOOK);
+                System.out.println("Error making reservation: " + e.getMessage());
+                return BookingResult.failed(e.getMessage());
+            }
+        }
+        
+        public Reservation makeReservation(int roomId, String guestName, String guestEmail, 
+                                         LocalDate checkIn, LocalDate checkOut, double pricePerNight) {
+            BookingResult result = book(roomId, guestName, guestEmail, checkIn, checkOut, pricePerNight, null);
+            return result.isConfirmed() ? result.getReservation() : null;
+        }
+        
+        public boolean cancelReservation(int reservationId) {
+            return cancelReservation(DatabaseManager.MAIN, reservationId);
+        }
+        
+        // Runs under the room's stripe, like a booking of it. The room optimizer may move the stay between the
+        // lookup and the lock, so the room is read again under the lock and the lock retaken if it changed.
+        public boolean cancelReservation(BookingContext context, int reservationId) {
+            long started = System.nanoTime();
+            try {
+                Reservation reservation = context.repository().findReservation(reservationId);
+                while (reservation != null) {
+                    int roomId = reservation.getRoomId();
+                    ReentrantLock lock = context.roomLocks().forRoom(roomId);
+                    lock.lock();
+                    try {
+                        reservation = context.repository().findReservation(reservationId);
+                        if (reservation != null && reservation.getRoomId() == roomId) {
+                            return cancelLocked(context, reservationId);
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                return false;
+            } catch (SQLException e) {
+                Metrics.serviceError(Metrics.ServiceMethod.RESERVATION_CANCEL);
+                System.out.println("Error cancelling reservation: " + e.getMessage());
+                return false;
+            } catch (DateTimeParseException e) {
+                Metrics.serviceError(Metrics.ServiceMethod.RESERVATION_CANCEL);
+                System.out.println("Error parsing reservation dates: " + e.getMessage());
+                return false;
+            } finally {
+                Metrics.record(Metrics.ServiceMethod.RESERVATION_CANCEL, started);
+            }
+        }
+        
+        private boolean cancelLocked(BookingContext context, int reservationId) throws SQLException {
+            ChangeFeed changes = context.changes();
+            boolean cancelled = context.repository().cancelReservation(reservationId, roomId -> {
+                context.availabilityIndex().removeStay(roomId, reservationId);
+                context.roomCatalog().applyAvailability(roomId, true);
+                changes.publish(ChangeEvent.cancelled(reservationId, roomId));
+            });
+            if (cancelled) {
+                Metrics.cancellation();
+            }
+            return cancelled;
+        }
+        
+        public Reservation getReservationDetails(int reservationId) {
+            return getReservationDetails(DatabaseManager.MAIN, reservationId);
+        }
+        
+        public Reservation getReservationDetails(BookingContext context, int reservationId) {
+            long started = System.nanoTime();
+            try {
+                return context.repository().findReservation(reservationId);
+            } catch (SQLException e) {
+                Metrics.serviceError(Metrics.ServiceMethod.RESERVATION_DETAILS);
+                System.out.println("Error fetching reservation: " + e.getMessage());
+            } catch (DateTimeParseException e) {
+                Metrics.serviceError(Metrics.ServiceMethod.RESERVATION_DETAILS);
+                System.out.println("Error parsing reservation dates: " + e.getMessage());
+            } finally {
+                Metrics.record(Metrics.ServiceMethod.RESERVATION_DETAILS, started);
+            }
+            return null;
+        }
+    }
+
+    // A card processor. Negative amounts are refunds. Transient failures (timeouts, unavailability) throw
+    // IOException and are retried with the same idempotency key, so an implementation must treat a repeated
+    // key as the same request and answer it as before. Plug one in with -Dhotel.payments.gateway=<class>;
+    // it needs a public no-argument constructor.
+    interface PaymentGateway {
+        GatewayResponse process(String idempotencyKey, long amountCents, String paymentMethod) throws IOException;
+    }
+
+    static class GatewayResponse {
+        private final boolean approved;
+        private final String reference;
+        
+        private GatewayResponse(boolean approved, String reference) {
+            this.approved = approved;
+            this.reference = reference;
+        }
+        
+        static GatewayResponse approved(String reference) {
+            return new GatewayResponse(true, reference);
+        }
+        
+        // The reason is kept as the payment's gateway reference
+        static GatewayResponse declined(String reason) {
+            return new GatewayResponse(false, reason);
+        }
+        
+        public boolean isApproved() { return approved; }
+        public String getReference() { return reference; }
+    }
+
+    // Local gateway for development and load tests: answers after latencyMs, declines declineRate of new
+    // requests, and fails failureRate of calls with an IOException. Half of those failures happen after
+    // the request was processed, like a response lost on the way back, so retries exercise idempotency.
+    static class StubPaymentGateway implements PaymentGateway {
+        private final long latencyMillis;
+        private final double failureRate;
+        private final double declineRate;
+        private final Map<String, GatewayResponse> processed = new ConcurrentHashMap<>();
+        private final AtomicLong references = new AtomicLong();
+        
+        StubPaymentGateway(long latencyMillis, double failureRate, double declineRate) {
+            this.latencyMillis = latencyMillis;
+            this.failureRate = failureRate;
+            this.declineRate = declineRate;
+        }
+        
+        public StubPaymentGateway() {
+            this(Long.getLong("hotel.payments.stub.latencyMs", 50),
+                Double.parseDouble(System.getProperty("hotel.payments.stub.failureRate", "0")),
+                Double.parseDouble(System.getProperty("hotel.payments.stub.declineRate", "0")));
+        }
+        
+        @Override
+        public GatewayResponse process(String idempotencyKey, long amountCents, String paymentMethod)
+                throws IOException {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for the gateway", e);
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            boolean fail = random.nextDouble() < failureRate;
+            if (fail && random.nextBoolean()) {
+                throw new IOException("Gateway unavailable (injected)");
+            }
+            GatewayResponse response = processed.computeIfAbsent(idempotencyKey, key ->
+                amountCents > 0 && random.nextDouble() < declineRate
+                    ? GatewayResponse.declined("Declined by issuer")
+                    : GatewayResponse.approved(String.format("stub-%08d", references.incrementAndGet())));
+            if (fail) {
+                throw new IOException("Gateway response lost (injected)");
+            }
+            return response;
+        }
+        
+        // Distinct requests processed, however often each was retried
+        public int processedCount() {
+            return processed.size();
+        }
+    }
+
+    // Settles pending payments with the gateway on a small scheduled pool, off the booking path. A transient
+    // failure is retried after backoffMs, doubling up to maxBackoffMs with jitter, until maxAttempts; a
+    // decline or the last failed attempt marks the payment Failed. Payments still pending at shutdown stay
+    // Pending in storage and are submitted again by recover() on the next start.
+    static class SettlementQueue implements AutoCloseable {
+        enum Outcome { SETTLED, DECLINED, RETRIED, ABANDONED }
+        
+        private final HotelRepository repository;
+        private final ChangeFeed changes;
+        private final PaymentGateway gateway;
+        private final ScheduledThreadPoolExecutor executor;
+        private final int maxAttempts;
+        private final long backoffMillis;
+        private final long maxBackoffMillis;
+        // Payment ids submitted and not yet settled, so recovery never queues one twice
+        private final Set<Integer> inFlight = ConcurrentHashMap.newKeySet();
+        
+        SettlementQueue(HotelRepository repository, ChangeFeed changes, PaymentGateway gateway, int threads,
+                        int maxAttempts, long backoffMillis, long maxBackoffMillis) {
+            this.repository = repository;
+            this.changes = changes;
+            this.gateway = gateway;
+            this.maxAttempts = maxAttempts;
+            this.backoffMillis = backoffMillis;
+            this.maxBackoffMillis = maxBackoffMillis;
+            AtomicInteger counter = new AtomicInteger();
+            this.executor = new ScheduledThreadPoolExecutor(threads, r -> {
+                Thread thread = new Thread(r, "settlement-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        }
+        
+        public static SettlementQueue create(HotelRepository repository, ChangeFeed changes) {
+            return new SettlementQueue(repository, changes, newGateway(System.getProperty("hotel.payments.gateway")),
+                Integer.getInteger("hotel.payments.settlement.threads", 8),
+                Integer.getInteger("hotel.payments.settlement.maxAttempts", 6),
+                Long.getLong("hotel.payments.settlement.backoffMs", 200),
+                Long.getLong("hotel.payments.settlement.maxBackoffMs", 30000));
+        }
+        
+        private static PaymentGateway newGateway(String className) {
+            if (className == null) return new StubPaymentGateway();
+            try {
+                return (PaymentGateway) Class.forName(className).getConstructor().newInstance();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new IllegalStateException("Cannot create payment gateway " + className + ": " + e, e);
+            }
+        }
+        
+        public void submit(Payment payment) {
+            if (!Payment.PENDING.equals(payment.getStatus()) || !inFlight.add(payment.getPaymentId())) return;
+            try {
+                executor.execute(() -> attempt(payment, 1));
+            } catch (RejectedExecutionException e) {
+                // Shutting down; the payment stays Pending for the next start
+                inFlight.remove(payment.getPaymentId());
+            }
+        }
+        
+        // Queues every payment left Pending by an earlier run
+        public int recover() throws SQLException {
+            List<Payment> pending = repository.findPendingPayments();
+            for (Payment payment : pending) {
+                submit(payment);
+            }
+            return pending.size();
+        }
+        
+        public int inFlight() {
+            return inFlight.size();
+        }
+        
+        public PaymentGateway gateway() {
+            return gateway;
+        }
+        
+        private void attempt(Payment payment, int attempt) {
+            long started = System.nanoTime();
+            try {
+                GatewayResponse response;
+                try {
+                    response = gateway.process(payment.getIdempotencyKey(), payment.getAmountCents(),
+                        payment.getPaymentMethod());
+                } catch (IOException e) {
+                    if (attempt >= maxAttempts) {
+                        finish(payment, Payment.FAILED, "Gateway failed after " + attempt + " attempts: " +
+                            e.getMessage(), Outcome.ABANDONED, attempt);
+                    } else {
+                        Metrics.settlement(Outcome.RETRIED);
+                        retry(payment, attempt + 1);
+                    }
+                    return;
+                }
+                finish(payment, response.isApproved() ? Payment.SETTLED : Payment.FAILED, response.getReference(),
+                    response.isApproved() ? Outcome.SETTLED : Outcome.DECLINED, attempt);
+            } finally {
+                Metrics.record(Metrics.ServiceMethod.PAYMENT_SETTLE, started);
+            }
+        }
+        
+        // A failed write is retried too; the gateway answers the same key with the same response
+        private void finish(Payment payment, String status, String reference, Outcome outcome, int attempt) {
+            try {
+                repository.settlePayment(payment.getPaymentId(), status, reference,
+                    () -> changes.publish(ChangeEvent.paymentSettled(payment, status)));
+                inFlight.remove(payment.getPaymentId());
+                Metrics.settlement(outcome);
+            } catch (SQLException e) {
+                Metrics.serviceError(Metrics.ServiceMethod.PAYMENT_SETTLE);
+                System.out.println("Error recording settlement of payment " + payment.getPaymentId() + ": " +
+                    e.getMessage());
+                retry(payment, attempt);
+            }
+        }
+        
+        private void retry(Payment payment, int attempt) {
+            long delay = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt - 2, 30));
+            try {
+                executor.schedule(() -> attempt(payment, attempt),
+                    delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                inFlight.remove(payment.getPaymentId());
+            }
+        }
+        
+        // Attempts in progress finish; queued ones and scheduled retries are dropped and recovered on the next start
+        @Override
+        public void close() {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // One committed change, numbered by its feed in commit order. Fields a type does not use are 0 or null;
+    // check-in and check-out are epoch days, amounts are cents.
+    static final class ChangeEvent {
+        enum Type {
+            RESERVATION_BOOKED, RESERVATION_CANCELLED, RESERVATION_MOVED, ROOM_AVAILABILITY, ROOM_PRICE,
+            PAYMENT_RECORDED, PAYMENT_SETTLED
+        }
+        
+        // Set by the feed as it publishes the event
+        private long sequence;
+        private long timestampMillis;
+        private final Type type;
+        private final int reservationId;
+        private final int roomId;
+        private final int previousRoomId;
+        private final int paymentId;
+        private final int checkIn;
+        private final int checkOut;
+        private final long amountCents;
+        private final String detail;
+        
+        ChangeEvent(long sequence, long timestampMillis, Type type, int reservationId, int roomId, int previousRoomId,
+                    int paymentId, int checkIn, int checkOut, long amountCents, String detail) {
+            this.sequence = sequence;
+            this.timestampMillis = timestampMillis;
+            this.type = type;
+            this.reservationId = reservationId;
+            this.roomId = roomId;
+            this.previousRoomId = previousRoomId;
+            this.paymentId = paymentId;
+            this.checkIn = checkIn;
+            this.checkOut = checkOut;
+            this.amountCents = amountCents;
+            this.detail = detail;
+        }
+        
+        private ChangeEvent(Type type, int reservationId, int roomId, int previousRoomId, int paymentId, int checkIn,
+                            int checkOut, long amountCents, String detail) {
+            this(0, 0, type, reservationId, roomId, previousRoomId, paymentId, checkIn, checkOut, amountCents, detail);
+        }
+        
+        static ChangeEvent booked(Reservation reservation) {
+            return new ChangeEvent(Type.RESERVATION_BOOKED, reservation.getReservationId(), reservation.getRoomId(), 0, 0,
+                (int) reservation.getCheckInDate().toEpochDay(), (int) reservation.getCheckOutDate().toEpochDay(),
+                reservation.getTotalCents(), null);
+        }
+        
+        static ChangeEvent cancelled(int reservationId, int roomId) {
+            return new ChangeEvent(Type.RESERVATION_CANCELLED, reservationId, roomId, 0, 0, 0, 0, 0, null);
+        }
+        
+        static ChangeEvent moved(int reservationId, int fromRoom, int toRoom, int checkIn, int checkOut) {
+            return new ChangeEvent(Type.RESERVATION_MOVED, reservationId, toRoom, fromRoom, 0, checkIn, checkOut, 0, null);
+        }
+        
+        static ChangeEvent roomAvailability(int roomId, boolean isAvailable) {
+            return new ChangeEvent(Type.ROOM_AVAILABILITY, 0, roomId, 0, 0, 0, 0, 0,
+                isAvailable ? "Available" : "Unavailable");
+        }
+        
+        static ChangeEvent roomPrice(int roomId, long priceCents) {
+            return new ChangeEvent(Type.ROOM_PRICE, 0, roomId, 0, 0, 0, 0, priceCents, null);
+        }
+        
+        // A charge or, with a negative amount, a refund; the detail is the payment method
+        static ChangeEvent paymentRecorded(Payment payment) {
+            return new ChangeEvent(Type.PAYMENT_RECORDED, payment.getReservationId(), 0, 0, payment.getPaymentId(), 0, 0,
+                payment.getAmountCents(), payment.getPaymentMethod());
+        }
+        
+        // The detail is the final status, Settled or Failed
+        static ChangeEvent paymentSettled(Payment payment, String status) {
+            return new ChangeEvent(Type.PAYMENT_SETTLED, payment.getReservationId(), 0, 0, payment.getPaymentId(), 0, 0,
+                payment.getAmountCents(), status);
+        }
+        
+        public long getSequence() { return sequence; }
+        public long getTimestampMillis() { return timestampMillis; }
+        public Type getType() { return type; }
+        public int getReservationId() { return reservationId; }
+        public int getRoomId() { return roomId; }
+        public int getPreviousRoomId() { return previousRoomId; }
+        public int getPaymentId() { return paymentId; }
+        public LocalDate getCheckInDate() { return checkIn == 0 ? null : LocalDate.ofEpochDay(checkIn); }
+        public LocalDate getCheckOutDate() { return checkOut == 0 ? null : LocalDate.ofEpochDay(checkOut); }
+        public long getAmountCents() { return amountCents; }
+        public String getDetail() { return detail; }
+        
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder().append('#').append(sequence).append(' ')
+                .append(Instant.ofEpochMilli(timestampMillis)).append(' ').append(type);
+            if (reservationId != 0) out.append(" reservation=").append(reservationId);
+            if (roomId != 0) out.append(" room=").append(roomId);
+            if (previousRoomId != 0) out.append(" from=").append(previousRoomId);
+            if (paymentId != 0) out.append(" payment=").append(paymentId);
+            if (checkIn != 0) out.append(' ').append(getCheckInDate()).append("..").append(getCheckOutDate());
+            if (amountCents != 0) out.append(" amount=").append(Money.decimal(amountCents));
+            if (detail != null) out.append(' ').append(detail);
+            return out.toString();
+        }
+    }
+
+    // The committed changes of one booking context, for consumers that would otherwise poll the tables.
+    // Services publish from their after-commit hooks, so events are numbered in commit order. Each event is
+    // appended to the log file and kept in a ring of the latest ringSize; every subscriber reads batches
+    // from the ring on its own thread, and one resuming from a sequence older than the ring catches up
+    // from the log. Publishers wait for a slow subscriber to free a slot, up to maxStallMs in all until it
+    // catches up, then leave it to catch up from the log. A crash between a commit and its append loses
+    // those events.
+    // The process that locks the log writes it; another one opening it, such as a console next to a running
+    // server, reads what was written so far and logs none of its own changes.
+    static class ChangeFeed implements AutoCloseable {
+        // Receives events in sequence order, one batch at a time, on the subscription's thread
+        interface Listener {
+            void onEvents(List<ChangeEvent> events) throws Exception;
+        }
+        
+        // Record length and CRC-32 of the payload, as in the memory store's journal
+        private static final int RECORD_HEADER = 8;
+        private static final int MAX_PAYLOAD = 64 + 0xffff;
+        private static final int READ_CHUNK = 1 << 18;
+        // The log offset of every INDEX_INTERVAL-th event, so a resume seeks close to its sequence
+        private static final int INDEX_INTERVAL = 1024;
+        private static final ChangeEvent.Type[] TYPES = ChangeEvent.Type.values();
+        
+        private final Path path;
+        private final FileChannel channel;
+        // Null when another process writes the log
+        private final FileLock fileLock;
+        private final boolean forceWrites;
+        private final ChangeEvent[] ring;
+        private final long maxStallNanos;
+        private final int maxBatch;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition published = lock.newCondition();
+        private final Condition consumed = lock.newCondition();
+        private final List<Subscription> subscriptions = new ArrayList<>();
+        private final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + MAX_PAYLOAD);
+        private final CRC32 crc = new CRC32();
+        private long[] indexOffsets = new long[64];
+        private long lastSequence;
+        // Events recovered from the log are not in the ring; it starts with the first one published
+        private long ringFirst;
+        private long logEnd;
+        private boolean closed;
+        private boolean droppedWarned;
+        private int stalledPublishers;
+        
+        ChangeFeed(Path path, int ringSize, long maxStallMillis, int maxBatch, boolean forceWrites) throws IOException {
+            this.path = path;
+            this.ring = new ChangeEvent[Integer.highestOneBit(Math.max(2, ringSize - 1)) << 1];
+            this.maxStallNanos = TimeUnit.MILLISECONDS.toNanos(maxStallMillis);
+            this.maxBatch = maxBatch;
+            this.forceWrites = forceWrites;
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+            try {
+                FileLock locked;
+                try {
+                    locked = channel.tryLock();
+                } catch (OverlappingFileLockException e) {
+                    locked = null;
+                }
+                this.fileLock = locked;
+                if (fileLock == null) {
+                    System.out.println("Change log " + path + " is written by another process; reading it only");
+                }
+                recover();
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+        
+        public static ChangeFeed open(Path path) throws IOException {
+            return new ChangeFeed(path, Integer.getInteger("hotel.events.ringSize", 65536),
+                Long.getLong("hotel.events.maxStallMs", 250),
+                Integer.getInteger("hotel.events.maxBatch", 1024),
+                Boolean.getBoolean("hotel.events.forceWrites"));
+        }
+        
+        // Scans the log for the last sequence and its index; a torn or corrupt tail is cut off
+        private void recover() throws IOException {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(READ_CHUNK);
+            long position = 0;
+            scan:
+            while (position < size) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), size - position));
+                channel.read(buffer, position);
+                buffer.flip();
+                int consumedBytes = 0;
+                while (buffer.remaining() >= RECORD_HEADER) {
+                    int start = buffer.position();
+                    int length = buffer.getInt(start);
+                    if (length <= 0 || length > MAX_PAYLOAD) break scan;
+                    if (buffer.remaining() < RECORD_HEADER + length) break;
+                    ByteBuffer payload = buffer.duplicate();
+                    payload.limit(start + RECORD_HEADER + length).position(start + RECORD_HEADER);
+                    crc.reset();
+                    crc.update(payload.duplicate());
+                    if ((int) crc.getValue() != buffer.getInt(start + 4)
+                        || payload.getLong(payload.position()) != lastSequence + 1) {
+                        break scan;
+                    }
+                    indexEvent(lastSequence + 1, position + start);
+                    lastSequence++;
+                    buffer.position(start + RECORD_HEADER + length);
+                    consumedBytes = buffer.position();
+                }
+                if (consumedBytes == 0) break;
+                position += consumedBytes;
+            }
+            // A reader leaves the tail alone: it may be the writer's append in progress
+            if (position < size && fileLock != null) {
+                System.out.println("Change log " + path + ": dropping " + (size - position) + " bytes of torn tail");
+                channel.truncate(position);
+            }
+            logEnd = position;
+            ringFirst = lastSequence + 1;
+        }
+        
+        private long oldestInRing() {
+            return Math.max(ringFirst, lastSequence + 1 - ring.length);
+        }
+        
+        private void indexEvent(long sequence, long offset) {
+            if ((sequence - 1) % INDEX_INTERVAL != 0) return;
+            int slot = (int) ((sequence - 1) / INDEX_INTERVAL);
+            if (slot == indexOffsets.length) {
+                indexOffsets = Arrays.copyOf(indexOffsets, slot * 2);
+            }
+            indexOffsets[slot] = offset;
+        }
+        
+        // Numbers the event, appends it to the log and hands it to the subscribers; the sequence, or 0 if
+        // the feed is closed or the append failed and the event was dropped
+        public long publish(ChangeEvent event) {
+            lock.lock();
+            try {
+                if (closed) return 0;
+                if (fileLock == null) {
+                    Metrics.changeEventDropped();
+                    if (!droppedWarned) {
+                        droppedWarned = true;
+                        System.out.println("Change log " + path + " is written by another process; this " +
+                            "process's changes are not logged");
+                    }
+                    return 0;
+                }
+                awaitCapacity();
+                long sequence = lastSequence + 1;
+                event.sequence = sequence;
+                event.timestampMillis = System.currentTimeMillis();
+                try {
+                    append(event);
+                } catch (IOException e) {
+                    // Dropped rather than numbered, so the log never has a gap
+                    Metrics.changeEventDropped();
+                    System.out.println("Error appending change event " + event.getType() + " to " + path + ": " +
+                        e.getMessage());
+                    return 0;
+                }
+                ring[(int) sequence & (ring.length - 1)] = event;
+                lastSequence = sequence;
+                Metrics.changeEvent(event.getType());
+                published.signalAll();
+                return sequence;
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        // Waits until every attached subscriber has consumed the event whose slot the next one takes. Each
+        // subscriber may keep publishers waiting for maxStallMs in all until it next catches up; past that it
+        // is detached and left to catch up from the log.
+        private void awaitCapacity() {
+            long floor = lastSequence + 1 - ring.length;
+            boolean stalled = false;
+            boolean interrupted = false;
+            List<Subscription> behind = null;
+            while (true) {
+                long wait = Long.MAX_VALUE;
+                if (behind != null) behind.clear();
+                for (Subscription subscription : subscriptions) {
+                    if (subscription.detached || subscription.cursor >= floor) continue;
+                    if (interrupted || subscription.stalledNanos >= maxStallNanos) {
+                        subscription.detached = true;
+                        Metrics.changeSubscriberDetached();
+                    } else {
+                        wait = Math.min(wait, maxStallNanos - subscription.stalledNanos);
+                        if (behind == null) behind = new ArrayList<>();
+                        behind.add(subscription);
+                    }
+                }
+                if (wait == Long.MAX_VALUE) break;
+                if (!stalled) {
+                    stalled = true;
+                    Metrics.changeFeedStall();
+                }
+                long started = System.nanoTime();
+                stalledPublishers++;
+                try {
+                    consumed.awaitNanos(wait);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } finally {
+                    stalledPublishers--;
+                }
+                // Charged to every subscriber the publisher waited for, including those that just freed the slot
+                long waited = System.nanoTime() - started;
+                for (Subscription subscription : behind) {
+                    subscription.stalledNanos += waited;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        private void append(ChangeEvent event) throws IOException {
+            record.clear();
+            record.position(RECORD_HEADER);
+            record.putLong(event.sequence).putLong(event.timestampMillis).put((byte) event.type.ordinal())
+                .putInt(event.reservationId).putInt(event.roomId).putInt(event.previousRoomId).putInt(event.paymentId)
+                .putInt(event.checkIn).putInt(event.checkOut).putLong(event.amountCents);
+            byte[] detail = event.detail == null ? null : event.detail.getBytes(StandardCharsets.UTF_8);
+            if (detail != null && detail.length >= 0xffff) {
+                throw new IOException("Detail too long to log: " + detail.length + " bytes");
+            }
+            // 0 marks a null detail, n + 1 one of n bytes
+            record.putShort((short) (detail == null ? 0 : detail.length + 1));
+            if (detail != null) record.put(detail);
+            int length = record.position() - RECORD_HEADER;
+            crc.reset();
+            crc.update(record.array(), RECORD_HEADER, length);
+            record.putInt(0, length).putInt(4, (int) crc.getValue());
+            record.flip();
+            long offset = logEnd;
+            while (record.hasRemaining()) {
+                offset += channel.write(record, offset);
+            }
+            if (forceWrites) {
+                channel.force(false);
+            }
+            indexEvent(event.sequence, logEnd);
+            logEnd = offset;
+        }
+        
+        private static ChangeEvent decode(ByteBuffer payload) {
+            long sequence = payload.getLong();
+            long timestampMillis = payload.getLong();
+            ChangeEvent.Type type = TYPES[payload.get()];
+            int reservationId = payload.getInt();
+            int roomId = payload.getInt();
+            int previousRoomId = payload.getInt();
+            int paymentId = payload.getInt();
+            int checkIn = payload.getInt();
+            int checkOut = payload.getInt();
+            long amountCents = payload.getLong();
+            int detailLength = payload.getShort() & 0xffff;
+            String detail = null;
+            if (detailLength > 0) {
+                byte[] bytes = new byte[detailLength - 1];
+                payload.get(bytes);
+                detail = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return new ChangeEvent(sequence, timestampMillis, type, reservationId, roomId, previousRoomId, paymentId,
+                checkIn, checkOut, amountCents, detail);
+        }
+        
+        public long lastSequence() {
+            lock.lock();
+            try {
+                return lastSequence;
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        public int subscribers() {
+            lock.lock();
+            try {
+                return subscriptions.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        public Path path() {
+            return path;
+        }
+        
+        // Up to max events after the sequence, waiting up to waitMillis for the first; empty if none came.
+        // Polling readers exert no backpressure: once the ring has moved past them they read the log.
+        public List<ChangeEvent> read(long afterSequence, int max, long waitMillis)
+                throws IOException, InterruptedException {
+            return next(null, Math.max(0, afterSequence), Math.min(max, maxBatch),
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis));
+        }
+        
+        // Delivers every event after the sequence to the listener on a new daemon thread: 0 replays the whole
+        // log, lastSequence() starts with the next event. A listener that throws is closed; the consumer
+        // resumes from the last sequence it processed with a new subscription.
+        public Subscription subscribe(String name, long afterSequence, Listener listener) {
+            Subscription subscription = new Subscription(this, name, listener, Math.max(0, afterSequence));
+            lock.lock();
+            try {
+                if (closed) {
+                    throw new IllegalStateException("Change feed " + path + " is closed");
+                }
+                // A subscriber starting behind the ring catches up from the log without holding publishers
+                subscription.detached = subscription.cursor + 1 < oldestInRing();
+                subscriptions.add(subscription);
+            } finally {
+                lock.unlock();
+            }
+            subscription.thread.start();
+            return subscription;
+        }
+        
+        private List<ChangeEvent> next(Subscription subscription, long after, int max, long deadline)
+                throws IOException, InterruptedException {
+            long start;
+            long end;
+            lock.lock();
+            try {
+                if (subscription != null) {
+                    subscription.cursor = after;
+                    consumed.signalAll();
+                }
+                while (lastSequence <= after && !closed && (subscription == null || !subscription.closed)) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) return List.of();
+                    published.awaitNanos(remaining);
+                }
+                if (closed || subscription != null && subscription.closed) return List.of();
+                if (after + 1 >= oldestInRing()) {
+                    int count = (int) Math.min(max, lastSequence - after);
+                    // Caught up with no publisher held back: publishers wait for it again, with a fresh
+                    // allowance. One that only keeps up while publishers wait for it runs its allowance down.
+                    if (subscription != null && after + count == lastSequence && stalledPublishers == 0) {
+                        subscription.detached = false;
+                        subscription.stalledNanos = 0;
+                    }
+                    List<ChangeEvent> batch = new ArrayList<>(count);
+                    for (long sequence = after + 1; sequence <= after + count; sequence++) {
+                        batch.add(ring[(int) sequence & (ring.length - 1)]);
+                    }
+                    return batch;
+                }
+                start = indexOffsets[(int) (after / INDEX_INTERVAL)];
+                end = logEnd;
+            } finally {
+                lock.unlock();
+            }
+            return readLog(after, max, start, end);
+        }
+        
+        // Positional reads, so they run alongside appends; end is a record boundary taken under the lock
+        private List<ChangeEvent> readLog(long after, int max, long position, long end) throws IOException {
+            List<ChangeEvent> events = new ArrayList<>(Math.min(max, 1024));
+            ByteBuffer buffer = ByteBuffer.allocate(READ_CHUNK);
+            while (position < end && events.size() < max) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        throw new IOException("Change log " + path + " ends before offset " + end);
+                    }
+                }
+                buffer.flip();
+                while (buffer.remaining() >= RECORD_HEADER && events.size() < max) {
+                    int length = buffer.getInt(buffer.position());
+                    if (buffer.remaining() < RECORD_HEADER + length) break;
+                    int next = buffer.position() + RECORD_HEADER + length;
+                    ByteBuffer payload = buffer.duplicate();
+                    payload.limit(next).position(buffer.position() + RECORD_HEADER);
+                    if (payload.getLong(payload.position()) > after) {
+                        events.add(decode(payload));
+                    }
+                    buffer.position(next);
+                }
+                position += buffer.position();
+            }
+            return events;
+        }
+        
+        private void remove(Subscription subscription) {
+            lock.lock();
+            try {
+                subscriptions.remove(subscription);
+                subscription.closed = true;
+                published.signalAll();
+                consumed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        // Ends every subscription after its current batch; events published from here on are dropped
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                if (closed) return;
+                closed = true;
+                for (Subscription subscription : subscriptions) {
+                    subscription.closed = true;
+                }
+                subscriptions.clear();
+                published.signalAll();
+                consumed.signalAll();
+                // Closing the channel releases the lock
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("Error closing change log " + path + ": " + e.getMessage());
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        static final class Subscription implements AutoCloseable {
+            private final ChangeFeed feed;
+            private final Listener listener;
+            private final Thread thread;
+            // Guarded by the feed's lock: the last sequence the listener finished with, whether publishers
+            // have stopped waiting for it, and how long they have waited since it last caught up
+            private long cursor;
+            private boolean detached;
+            private long stalledNanos;
+            private volatile boolean closed;
+            
+            private Subscription(ChangeFeed feed, String name, Listener listener, long afterSequence) {
+                this.feed = feed;
+                this.listener = listener;
+                this.cursor = afterSequence;
+                this.thread = new Thread(() -> deliver(afterSequence), "changes-" + name);
+                thread.setDaemon(true);
+            }
+            
+            private void deliver(long after) {
+                try {
+                    while (!closed) {
+                        List<ChangeEvent> batch = feed.next(this, after, feed.maxBatch, Long.MAX_VALUE);
+                        if (batch.isEmpty()) continue;
+                        listener.onEvents(batch);
+                        after = batch.get(batch.size() - 1).getSequence();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    if (!closed) {
+                        System.out.println("Change subscription " + thread.getName() + " stopped after sequence " +
+                            after + ": " + e);
+                    }
+                } finally {
+                    feed.remove(this);
+                }
+            }
+            
+            // The last sequence the listener has finished with
+            public long position() {
+                feed.lock.lock();
+                try {
+                    return cursor;
+                } finally {
+                    feed.lock.unlock();
+                }
+            }
+            
+            public boolean isClosed() {
+                return closed;
+            }
+            
+            @Override
+            public void close() {
+                feed.remove(this);
+            }
+        }
+    }
+
+    // Guest lookup: prefix search over names and emails from the guest index, loaded on first use, and
+    // each guest's stay history in one indexed query
+    static class GuestService {
+        public List<Guest> search(String prefix, int limit) {
+            return search(DatabaseManager.MAIN, prefix, limit);
+        }
+        
+        public List<Guest> search(BookingContext context, String prefix, int limit) {
+            long started = System.nanoTime();
+            try {
+                return index(context).search(prefix, limit);
+            } catch (SQLException e) {
+                Metrics.serviceError(Metrics.ServiceMethod.GUEST_SEARCH);
+                System.out.println("Error searching guests: " + e.getMessage());
+                return new ArrayList<>();
+            } finally {
+                Metrics.record(Metrics.ServiceMethod.GUEST_SEARCH, started);
+            }
+        }
+        
+        public Guest getGuest(int guestId) {
+            return getGuest(DatabaseManager.MAIN, guestId);
+        }
+        
+        public Guest getGuest(BookingContext context, int guestId) {
+            try {
+                return index(context).find(guestId);
+            } catch (SQLException e) {
+                System.out.println("Error loading guests: " + e.getMessage());
+                return null;
+            }
+        }
+        
+        public List<Reservation> getStays(int guestId) {
+            return getStays(DatabaseManager.MAIN, guestId);
+        }
+        
+        // Cancelled stays included, by check-in date
+        public List<Reservation> getStays(BookingContext context, int guestId) {
+            long started = System.nanoTime();
+            try {
+                return context.repository().findGuestReservations(guestId);
+            } catch (SQLException e) {
+                Metrics.serviceError(Metrics.ServiceMethod.GUEST_STAYS);
+                System.out.println("Error fetching guest stays: " + e.getMessage());
+                return new ArrayList<>();
+            } finally {
+                Metrics.record(Metrics.ServiceMethod.GUEST_STAYS, started);
+            }
+        }
+        
+        private static GuestIndex index(BookingContext context) throws SQLException {
+            GuestIndex index = context.guestIndex();
+            index.ensureLoaded(context.repository());
+            return index;
+        }
+    }
+
+    // Payments are recorded as Pending and answered straight away; the settlement queue takes them to the
+    // gateway afterwards. Requests carrying the same idempotency key are stored once, so clients can retry
+    // a submission whose response they never saw.
+    static class PaymentService {
+        private static final int MAX_KEY_LENGTH = 255;
+        
+        public boolean processPayment(int reservationId, double amount, String paymentMethod) {
+            return submitPayment(reservationId, amount, paymentMethod, null).isStored();
+        }
+        
+        public PaymentResult submitPayment(int reservationId, double amount, String paymentMethod, String idempotencyKey) {
+            return submitPayment(DatabaseManager.MAIN, reservationId, amount, paymentMethod, idempotencyKey);
+        }
+        
+        // A null key gets a fresh one, which makes the request safe to settle but not to resubmit
+        public PaymentResult submitPayment(BookingContext context, int reservationId, double amount, String paymentMethod,
+                                           String idempotencyKey) {
+            if (!(amount > 0)) {
+                return PaymentResult.rejected("Amount must be positive");
+            }
+            return store(context, Metrics.ServiceMethod.PAYMENT_PROCESS, reservationId, amount, paymentMethod,
+                idempotencyKey);
+        }
+        
+        public PaymentResult refund(int reservationId, double amount, String paymentMethod, String idempotencyKey) {
+            return refund(DatabaseManager.MAIN, reservationId, amount, paymentMethod, idempotencyKey);
+        }
+        
+        // Refunds may return up to what has been settled, less earlier refunds
+        public PaymentResult refund(BookingContext context, int reservationId, double amount, String paymentMethod,
+                                    String idempotencyKey) {
+            if (!(amount > 0)) {
+                return PaymentResult.rejected("Refund amount must be positive");
+            }
+            return store(context, Metrics.ServiceMethod.PAYMENT_REFUND, reservationId, -amount, paymentMethod,
+                idempotencyKey);
+        }
+        
+        private PaymentResult store(BookingContext context, Metrics.ServiceMethod method, int reservationId,
+                                    double amount, String paymentMethod, String idempotencyKey) {
+            long started = System.nanoTime();
+            try {
+                if (idempotencyKey != null && (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_KEY_LENGTH)) {
+                    return PaymentResult.rejected("Idempotency key must be 1-" + MAX_KEY_LENGTH + " characters");
+                }
+                Payment payment = newPending(reservationId, amount, paymentMethod, idempotencyKey);
+                ChangeFeed changes = context.changes();
+                SettlementQueue settlements = context.settlementQueue();
+                Payment stored = context.repository().insertPayment(payment, () -> {
+                    Metrics.payment();
+                    changes.publish(ChangeEvent.paymentRecorded(payment));
+                    settlements.submit(payment);
+                });
+                if (stored == null) {
+                    return PaymentResult.rejected("Refund exceeds the settled balance of reservation " + reservationId);
+                }
+                if (stored != payment) {
+                    // Same key, different request: replaying it would hide a client bug
+                    if (stored.getReservationId() != reservationId || stored.getAmountCents() != payment.getAmountCents()) {
+                        return PaymentResult.rejected("Idempotency key " + idempotencyKey + " was used for another payment");
+                    }
+                    return PaymentResult.replayed(stored);
+                }
+                return PaymentResult.accepted(stored);
+            } catch (SQLException e) {
+                Metrics.serviceError(method);
+                System.out.println("Error processing payment: " + e.getMessage());
+                return PaymentResult.failed(e.getMessage());
+            } finally {
+                Metrics.record(method, started);
+            }
+        }
+        
+        static Payment newPending(int reservationId, double amount, String paymentMethod, String idempotencyKey) {
+            Payment payment = new Payment(reservationId, amount, paymentMethod);
+            payment.setStatus(Payment.PENDING);
+            payment.setIdempotencyKey(idempotencyKey != null ? idempotencyKey : UUID.randomUUID().toString());
+            return payment;
+        }
+        
+        static boolean isStatus(String status) {
+            return Payment.PENDING.equals(status) || Payment.SETTLED.equals(status) || Payment.FAILED.equals(status);
+        }
+        
+        // The reservation's payments and refunds in id order, empty if none or on error
+        public List<Payment> getPayments(int reservationId) {
+            long started = System.nanoTime();
+            try {
+                return DatabaseManager.getRepository().findPayments(reservationId);
+            } catch (SQLException e) {
+                Metrics.serviceError(Metrics.ServiceMethod.PAYMENT_DETAILS);
+                System.out.println("Error fetching payment: " + e.getMessage());
+            } finally {
+                Metrics.record(Metrics.ServiceMethod.PAYMENT_DETAILS, started);
+            }
+            return List.of();
+        }
+        
+        public Payment getPaymentDetails(int reservationId) {
+            List<Payment> payments = getPayments(reservationId);
+            return payments.isEmpty() ? null : payments.get(0);
+        }
+        
+        // Settled charges less settled refunds
+        static long settledCents(List<Payment> payments) {
+            long cents = 0;
+            for (Payment payment : payments) {
+                if (Payment.SETTLED.equals(payment.getStatus())) cents += payment.getAmountCents();
+            }
+            return cents;
+        }
+    }
+
+    // Occupancy, ADR, RevPAR and payment-method reports. Reservations and payments are streamed through
+    // forward-only cursors, one date partition per fork/join leaf, into fixed-size per-night totals, so
+    // memory grows with the window length and the number of room types, never with the row count
+    static class ReportService {
+        public static final int MAX_DAYS = 7320;
+        
+        // Leaves block on the read pool, so there is no point running more of them than there are readers
+        private static final ForkJoinPool WORKERS = new ForkJoinPool(
+            Integer.getInteger("hotel.report.parallelism", Integer.getInteger("hotel.db.pool.size", 4)));
+        
+        private final int partitionDays;
+        private final int fetchSize;
+        
+        public ReportService() {
+            this(Integer.getInteger("hotel.report.partitionDays", 31), Integer.getInteger("hotel.report.fetchSize", 1000));
+        }
+        
+        ReportService(int partitionDays, int fetchSize) {
+            this.partitionDays = partitionDays;
+            this.fetchSize = fetchSize;
+        }
+        
+        public OccupancyReport generate(LocalDate from, LocalDate to) {
+            return generate(DatabaseManager.MAIN, from, to);
+        }
+        
+        <D extends ConnectionSource & BookingContext> OccupancyReport generate(D database, LocalDate from, LocalDate to) {
+            long started = System.nanoTime();
+            try {
+                int fromDay = (int) from.toEpochDay();
+                int days = (int) (to.toEpochDay() - fromDay);
+                if (days < 1 || days > MAX_DAYS) {
+                    throw new IllegalArgumentException("Report window must cover 1 to " + MAX_DAYS + " days");
+                }
+                
+                Map<String, Integer> typeIndex = new LinkedHashMap<>();
+                Map<Integer, Integer> roomTypes = new HashMap<>();
+                for (Room room : database.roomCatalog().findAll()) {
+                    roomTypes.put(room.getRoomId(), typeIndex.computeIfAbsent(room.getRoomType(), t -> typeIndex.size()));
+                }
+                int[] roomsPerType = new int[typeIndex.size()];
+                for (int type : roomTypes.values()) {
+                    roomsPerType[type]++;
+                }
+                
+                ReportWindow window = new ReportWindow(fromDay, days, roomTypes, typeIndex.size());
+                if (database.repository() instanceof MemoryRepository memory) {
+                    ReportTotals totals = new ReportTotals(window);
+                    memory.collectReport(totals, fromDay, fromDay + days);
+                    return new OccupancyReport(fromDay, days, typeIndex.keySet().toArray(new String[0]), roomsPerType, totals);
+                }
+                ReportTotals totals = WORKERS.invoke(new RecursiveTask<ReportTotals>() {
+                    @Override
+                    protected ReportTotals compute() {
+                        // Stays that began before the window are read once, apart from the check-in partitions
+                        ReportPartition carriedIn = new ReportPartition(database, window, fromDay, fromDay, true);
+                        carriedIn.fork();
+                        ReportTotals inWindow = new ReportPartition(database, window, fromDay, fromDay + days, false)
+                            .compute();
+                        return inWindow.merge(carriedIn.join());
+                    }
+                });
+                return new OccupancyReport(fromDay, days, typeIndex.keySet().toArray(new String[0]), roomsPerType, totals);
+            } catch (RuntimeException e) {
+                if (e instanceof IllegalArgumentException) throw e;
+                Metrics.serviceError(Metrics.ServiceMethod.REPORT_GENERATE);
+                System.out.println("Error generating report: " + e.getMessage());
+                return null;
+            } finally {
+                Metrics.record(Metrics.ServiceMethod.REPORT_GENERATE, started);
+            }
+        }
+        
+        // Splits [start, end) down to partitionDays and streams each piece on its own read connection
+        private final class ReportPartition extends RecursiveTask<ReportTotals> {
+            private static final long serialVersionUID = 1L;
+            
+            private final ConnectionSource database;
+            private final ReportWindow window;
+            private final int start;
+            private final int end;
+            private final boolean carriedIn;
+            
+            ReportPartition(ConnectionSource database, ReportWindow window, int start, int end, boolean carriedIn) {
+                this.database = database;
+                this.window = window;
+                this.start = start;
+                this.end = end;
+                this.carriedIn = carriedIn;
+            }
+            
+            @Override
+            protected ReportTotals compute() {
+                if (!carriedIn && end - start > partitionDays) {
+                    int middle = start + (end - start) / 2;
+                    ReportPartition left = new ReportPartition(database, window, start, middle, false);
+                    left.fork();
+                    ReportTotals right = new ReportPartition(database, window, middle, end, false).compute();
+                    return right.merge(left.join());
+                }
+                ReportTotals totals = new ReportTotals(window);
+                try (PooledConnection conn = database.read()) {
+                    if (carriedIn) {
+                        PreparedStatement pstmt = conn.prepare(Sql.REPORT_STAYS_CARRIED_IN);
+                        DatabaseManager.bindDate(pstmt, 1, LocalDate.ofEpochDay(start));
+                        DatabaseManager.bindDate(pstmt, 2, LocalDate.ofEpochDay(start));
+                        streamStays(Sql.REPORT_STAYS_CARRIED_IN, pstmt, totals);
+                        return totals;
+                    }
+                    PreparedStatement pstmt = conn.prepare(Sql.REPORT_STAYS);
+                    DatabaseManager.bindDate(pstmt, 1, LocalDate.ofEpochDay(start));
+                    DatabaseManager.bindDate(pstmt, 2, LocalDate.ofEpochDay(end));
+                    streamStays(Sql.REPORT_STAYS, pstmt, totals);
+                    
+                    pstmt = conn.prepare(Sql.REPORT_PAYMENTS);
+                    DatabaseManager.bindDate(pstmt, 1, LocalDate.ofEpochDay(start));
+                    DatabaseManager.bindDate(pstmt, 2, LocalDate.ofEpochDay(end));
+                    pstmt.setFetchSize(fetchSize);
+                    try (ResultSet rs = Sql.REPORT_PAYMENTS.executeQuery(pstmt)) {
+                        while (rs.next()) {
+                            totals.addPayment(rs.getString(1), rs.getDouble(2));
+                        }
+                    }
+                    return totals;
+                } catch (SQLException e) {
+                    throw new IllegalStateException("Report partition " + LocalDate.ofEpochDay(start) + " failed: " +
+                        e.getMessage(), e);
+                }
+            }
+            
+            private void streamStays(Sql sql, PreparedStatement pstmt, ReportTotals totals) throws SQLException {
+                pstmt.setFetchSize(fetchSize);
+                try (ResultSet rs = sql.executeQuery(pstmt)) {
+                    while (rs.next()) {
+                        totals.addStay(rs.getInt("room_id"), DatabaseManager.readEpochDay(rs, "check_in_date"),
+                            DatabaseManager.readEpochDay(rs, "check_out_date"), rs.getDouble("total_price"));
+                    }
+                }
+            }
+        }
+    }
+
+    // The report's shape, shared read-only by every partition
+    static class ReportWindow {
+        final int fromDay;
+        final int days;
+        final Map<Integer, Integer> roomTypes;
+        final int typeCount;
+        
+        ReportWindow(int fromDay, int days, Map<Integer, Integer> roomTypes, int typeCount) {
+            this.fromDay = fromDay;
+            this.days = days;
+            this.roomTypes = roomTypes;
+            this.typeCount = typeCount;
+        }
+    }
+
+    // Sold room-nights and revenue per type and night, plus payment totals per method; revenue is
+    // spread evenly over a stay's nights and only nights inside the window are counted
+    static class ReportTotals {
+        private final ReportWindow window;
+        final int[] soldNights;
+        final double[] revenue;
+        final Map<String, double[]> payments = new HashMap<>();
+        
+        ReportTotals(ReportWindow window) {
+            this.window = window;
+            this.soldNights = new int[window.typeCount * window.days];
+            this.revenue = new double[window.typeCount * window.days];
+        }
+        
+        void addStay(int roomId, int checkIn, int checkOut, double totalPrice) {
+            Integer type = window.roomTypes.get(roomId);
+            if (type == null || checkOut <= checkIn) return;
+            double perNight = totalPrice / (checkOut - checkIn);
+            int first = Math.max(checkIn, window.fromDay) - window.fromDay;
+            int last = Math.min(checkOut, window.fromDay + window.days) - window.fromDay;
+            int base = type * window.days;
+            for (int night = first; night < last; night++) {
+                soldNights[base + night]++;
+                revenue[base + night] += perNight;
+            }
+        }
+        
+        void addPayment(String method, double amount) {
+            double[] total = payments.computeIfAbsent(method, m -> new double[2]);
+            total[0]++;
+            total[1] += amount;
+        }
+        
+        ReportTotals merge(ReportTotals other) {
+            for (int i = 0; i < soldNights.length; i++) {
+                soldNights[i] += other.soldNights[i];
+                revenue[i] += other.revenue[i];
+            }
+            for (Map.Entry<String, double[]> entry : other.payments.entrySet()) {
+                double[] total = payments.computeIfAbsent(entry.getKey(), m -> new double[2]);
+                total[0] += entry.getValue()[0];
+                total[1] += entry.getValue()[1];
+            }
+            return this;
+        }
+    }
+
+    static class OccupancyReport {
+        enum Granularity { DAILY, MONTHLY, TOTAL }
+        
+        public static final String ALL_TYPES = "All";
+        
+        private final int fromDay;
+        private final int days;
+        private final String[] types;
+        private final int[] roomsPerType;
+        private final ReportTotals totals;
+        
+        OccupancyReport(int fromDay, int days, String[] types, int[] roomsPerType, ReportTotals totals) {
+            this.fromDay = fromDay;
+            this.days = days;
+            this.types = types;
+            this.roomsPerType = roomsPerType;
+            this.totals = totals;
+        }
+        
+        // One row per period and room type, followed by the period's all-types row
+        public List<ReportRow> rows(Granularity granularity) {
+            List<ReportRow> rows = new ArrayList<>();
+            int start = 0;
+            while (start < days) {
+                LocalDate periodStart = LocalDate.ofEpochDay(fromDay + start);
+                int end = switch (granularity) {
+                    case DAILY -> start + 1;
+                    case MONTHLY -> (int) Math.min(days, periodStart.withDayOfMonth(1).plusMonths(1).toEpochDay() - fromDay);
+                    case TOTAL -> days;
+                };
+                long allAvailable = 0, allSold = 0;
+                double allRevenue = 0;
+                for (int type = 0; type < types.length; type++) {
+                    long sold = 0;
+                    double revenue = 0;
+                    for (int night = start; night < end; night++) {
+                        sold += totals.soldNights[type * days + night];
+                        revenue += totals.revenue[type * days + night];
+                    }
+                    long available = (long) roomsPerType[type] * (end - start);
+                    rows.add(new ReportRow(periodStart, types[type], available, sold, revenue));
+                    allAvailable += available;
+                    allSold += sold;
+                    allRevenue += revenue;
+                }
+                rows.add(new ReportRow(periodStart, ALL_TYPES, allAvailable, allSold, allRevenue));
+                start = end;
+            }
+            return rows;
+        }
+        
+        public Map<String, PaymentMethodTotal> paymentMethods() {
+            Map<String, PaymentMethodTotal> methods = new TreeMap<>();
+            for (Map.Entry<String, double[]> entry : totals.payments.entrySet()) {
+                methods.put(entry.getKey(), new PaymentMethodTotal(entry.getKey(),
+                    (long) entry.getValue()[0], entry.getValue()[1]));
+            }
+            return methods;
+        }
+        
+        public LocalDate getFrom() { return LocalDate.ofEpochDay(fromDay); }
+        public LocalDate getTo() { return LocalDate.ofEpochDay(fromDay + days); }
+    }
+
+    static class ReportRow {
+        private final LocalDate periodStart;
+        private final String roomType;
+        private final long availableRoomNights;
+        private final long soldRoomNights;
+        private final double revenue;
+        
+        ReportRow(LocalDate periodStart, String roomType, long availableRoomNights, long soldRoomNights, double revenue) {
+            this.periodStart = periodStart;
+            this.roomType = roomType;
+            this.availableRoomNights = availableRoomNights;
+            this.soldRoomNights = soldRoomNights;
+            this.revenue = revenue;
+        }
+        
+        public LocalDate getPeriodStart() { return periodStart; }
+        public String getRoomType() { return roomType; }
+        public long getAvailableRoomNights() { return availableRoomNights; }
+        public long getSoldRoomNights() { return soldRoomNights; }
+        public double getRevenue() { return revenue; }
+        public double getOccupancy() { return availableRoomNights == 0 ? 0 : (double) soldRoomNights / availableRoomNights; }
+        // Average daily rate: revenue per sold room-night
+        public double getAdr() { return soldRoomNights == 0 ? 0 : revenue / soldRoomNights; }
+        // Revenue per available room-night
+        public double getRevPar() { return availableRoomNights == 0 ? 0 : revenue / availableRoomNights; }
+    }
+
+    static class PaymentMethodTotal {
+        private final String method;
+        private final long count;
+        private final double amount;
+        
+        PaymentMethodTotal(String method, long count, double amount) {
+            this.method = method;
+            this.count = count;
+            this.amount = amount;
+        }
+        
+        public String getMethod() { return method; }
+        public long getCount() { return count; }
+        public double getAmount() { return amount; }
+    }
+
+    // A date-range search; an empty type set means every type, and the limit caps one page of results
+    static class RoomSearchQuery {
+        public static final int MAX_LIMIT = 500;
+        
+        private final LocalDate checkIn;
+        private final LocalDate checkOut;
+        private final Set<String> roomTypes;
+        private final double maxPrice;
+        private final long maxPriceCents;
+        private final int partySize;
+        private final int limit;
+        private final SearchCursor cursor;
+        
+        public RoomSearchQuery(LocalDate checkIn, LocalDate checkOut, Set<String> roomTypes, double maxPrice,
+                               int partySize, int limit, SearchCursor cursor) {
+            if (!checkOut.isAfter(checkIn)) {
+                throw new IllegalArgumentException("Check-out must be after check-in");
+            }
+            if (limit < 1) {
+                throw new IllegalArgumentException("Limit must be at least 1");
+            }
+            this.checkIn = checkIn;
+            this.checkOut = checkOut;
+            this.roomTypes = roomTypes;
+            this.maxPrice = maxPrice;
+            // Math.round takes an unbounded ceiling to Long.MAX_VALUE
+            this.maxPriceCents = Money.cents(maxPrice);
+            this.partySize = partySize;
+            this.limit = limit;
+            this.cursor = cursor;
+        }
+        
+        public boolean matchesType(String roomType) {
+            return roomTypes.isEmpty() || roomTypes.contains(roomType);
+        }
+
+        // Getters
+        public LocalDate getCheckIn() { return checkIn; }
+        public LocalDate getCheckOut() { return checkOut; }
+        public Set<String> getRoomTypes() { return roomTypes; }
+        public double getMaxPrice() { return maxPrice; }
+        public long getMaxPriceCents() { return maxPriceCents; }
+        public int getPartySize() { return partySize; }
+        public int getLimit() { return limit; }
+        public SearchCursor getCursor() { return cursor; }
+    }
+
+    // Keyset position in the (nightly price in cents, room id) order; the token is opaque to clients
+    static class SearchCursor {
+        private final long priceCents;
+        private final int roomId;
+        
+        SearchCursor(long priceCents, int roomId) {
+            this.priceCents = priceCents;
+            this.roomId = roomId;
+        }
+        
+        public static SearchCursor decode(String token) {
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(":");
+                return new SearchCursor(Long.parseLong(parts[0]), Integer.parseInt(parts[1]));
+            } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+        }
+        
+        public String encode() {
+            return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((priceCents + ":" + roomId).getBytes(StandardCharsets.UTF_8));
+        }
+
+        // Getters
+        public long getPriceCents() { return priceCents; }
+        public int getRoomId() { return roomId; }
+    }
+
+    static class RoomSearchResult {
+        private final List<Room> rooms;
+        private final SearchCursor nextCursor;
+        
+        RoomSearchResult(List<Room> rooms, SearchCursor nextCursor) {
+            this.rooms = rooms;
+            this.nextCursor = nextCursor;
+        }
+
+        // Getters
+        public List<Room> getRooms() { return rooms; }
+        public SearchCursor getNextCursor() { return nextCursor; }
+        public boolean hasMore() { return nextCursor != null; }
+    }
+
+    static class BookingRequest {
+        private final int roomId;
+        private final String roomType;
+        private final String guestName;
+        private final String guestEmail;
+        private final LocalDate checkInDate;
+        private final LocalDate checkOutDate;
+        private final double pricePerNight;
+        private final String paymentMethod;
+        
+        public BookingRequest(int roomId, String guestName, String guestEmail, LocalDate checkInDate,
+                              LocalDate checkOutDate, double pricePerNight, String paymentMethod) {
+            this(roomId, null, guestName, guestEmail, checkInDate, checkOutDate, pricePerNight, paymentMethod);
+        }
+        
+        // Any room of the type; the engine assigns one and prices the stay at its rate
+        public BookingRequest(String roomType, String guestName, String guestEmail, LocalDate checkInDate,
+                              LocalDate checkOutDate, String paymentMethod) {
+            this(0, roomType, guestName, guestEmail, checkInDate, checkOutDate, 0, paymentMethod);
+        }
+        
+        private BookingRequest(int roomId, String roomType, String guestName, String guestEmail, LocalDate checkInDate,
+                               LocalDate checkOutDate, double pricePerNight, String paymentMethod) {
+            this.roomId = roomId;
+            this.roomType = roomType;
+            this.guestName = guestName;
+            this.guestEmail = guestEmail;
+            this.checkInDate = checkInDate;
+            this.checkOutDate = checkOutDate;
+            this.pricePerNight = pricePerNight;
+            this.paymentMethod = paymentMethod;
+        }
+
+        // Getters
+        public int getRoomId() { return roomId; }
+        public String getRoomType() { return roomType; }
+        public String getGuestName() { return guestName; }
+        public String getGuestEmail() { return guestEmail; }
+        public LocalDate getCheckInDate() { return checkInDate; }
+        public LocalDate getCheckOutDate() { return checkOutDate; }
+        public double getPricePerNight() { return pricePerNight; }
+        public String getPaymentMethod() { return paymentMethod; }
+    }
+
+    // Accepts bookings, holds, cancellations and searches from many threads. Operations on the same room are
+    // serialized by the context's RoomLocks, which the reservation service takes itself; different rooms only
+    // meet at the SQLite writer. A booking or hold by room type is assigned a room first and then locks that
+    // room like any other.
+    static class BookingEngine implements AutoCloseable {
+        // Another booking can take the assigned room before its stripe is locked; assign again this many times
+        private static final int ASSIGN_ATTEMPTS = 3;
+        
+        private final ReservationService reservationService;
+        private final RoomService roomService;
+        private final ExecutorService executor;
+        private final Semaphore capacity;
+        private final int maxInFlight;
+        
+        private final LongAdder submitted = new LongAdder();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder cancelled = new LongAdder();
+        
+        BookingEngine(ReservationService reservationService, RoomService roomService,
+                      ExecutorService executor, int maxInFlight) {
+            this.reservationService = reservationService;
+            this.roomService = roomService;
+            this.executor = executor;
+            this.maxInFlight = maxInFlight;
+            this.capacity = new Semaphore(maxInFlight);
+        }
+        
+        public static BookingEngine create(ReservationService reservationService, RoomService roomService) {
+            return new BookingEngine(reservationService, roomService,
+                newExecutor(Boolean.getBoolean("hotel.engine.virtualThreads"),
+                    Integer.getInteger("hotel.engine.threads", Runtime.getRuntime().availableProcessors() * 2)),
+                Integer.getInteger("hotel.engine.maxInFlight", 10000));
+        }
+        
+        // Virtual threads need Java 21; on older runtimes this falls back to a fixed platform pool
+        static ExecutorService newExecutor(boolean virtualThreads, int threads) {
+            if (virtualThreads) {
+                try {
+                    return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    System.out.println("Virtual threads unavailable on this JVM, using " + threads + " platform threads");
+                }
+            }
+            AtomicInteger counter = new AtomicInteger();
+            return Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "booking-engine-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        
+        public CompletableFuture<BookingResult> submitBooking(BookingRequest request) {
+            return submit(() -> book(request));
+        }
+        
+        public CompletableFuture<Boolean> submitCancel(int reservationId) {
+            return submit(() -> cancel(reservationId));
+        }
+        
+        public CompletableFuture<BookingResult> submitBooking(BookingContext context, BookingRequest request) {
+            return submit(() -> book(context, request));
+        }
+        
+        public CompletableFuture<Boolean> submitCancel(BookingContext context, int reservationId) {
+            return submit(() -> cancel(context, reservationId));
+        }
+        
+        public CompletableFuture<Hold> submitHold(BookingContext context, int roomId, LocalDate checkIn,
+                                                  LocalDate checkOut, long ttlMillis) {
+            return submit(() -> hold(context, roomId, checkIn, checkOut, ttlMillis));
+        }
+        
+        public CompletableFuture<Hold> submitHold(BookingContext context, String roomType, LocalDate checkIn,
+                                                  LocalDate checkOut, long ttlMillis) {
+            return submit(() -> hold(context, roomType, checkIn, checkOut, ttlMillis));
+        }
+        
+        public CompletableFuture<BookingResult> submitConfirmHold(BookingContext context, int holdId, String guestName,
+                                                                  String guestEmail, String paymentMethod) {
+            return submit(() -> confirmHold(context, holdId, guestName, guestEmail, paymentMethod));
+        }
+        
+        public CompletableFuture<List<Room>> submitSearch(String roomType, LocalDate checkIn, LocalDate checkOut) {
+            return submit(() -> roomService.searchAvailableRooms(roomType, checkIn, checkOut));
+        }
+        
+        public CompletableFuture<RoomSearchResult> submitSearch(RoomSearchQuery query) {
+            return submit(() -> roomService.search(query));
+        }
+        
+        public BookingResult book(BookingRequest request) {
+            return book(DatabaseManager.MAIN, request);
+        }
+        
+        public BookingResult book(BookingContext context, BookingRequest request) {
+            if (request.getRoomType() != null) {
+                return bookType(context, request);
+            }
+            return reservationService.book(context, request.getRoomId(), request.getGuestName(),
+                request.getGuestEmail(), request.getCheckInDate(), request.getCheckOutDate(),
+                request.getPricePerNight(), request.getPaymentMethod());
+        }
+        
+        public Hold hold(BookingContext context, int roomId, LocalDate checkIn, LocalDate checkOut, long ttlMillis) {
+            return reservationService.placeHold(context, roomId, checkIn, checkOut, ttlMillis);
+        }
+        
+        private BookingResult bookType(BookingContext context, BookingRequest request) {
+            String roomType = request.getRoomType();
+            if (context.availabilityIndex().roomsOfType(roomType).length == 0) {
+                return BookingResult.invalid("Unknown room type " + roomType);
+            }
+            if (!request.getCheckOutDate().isAfter(request.getCheckInDate())) {
+                return BookingResult.invalid("Check-out must be after check-in");
+            }
+            BookingResult result = null;
+            for (int attempt = 0; attempt < ASSIGN_ATTEMPTS; attempt++) {
+                Room room = context.roomCatalog().findById(reservationService.assignRoom(context, roomType,
+                    request.getCheckInDate(), request.getCheckOutDate()));
+                if (room == null) break;
+                result = reservationService.book(context, room.getRoomId(), request.getGuestName(),
+                    request.getGuestEmail(), request.getCheckInDate(), request.getCheckOutDate(),
+                    room.getPricePerNight(), request.getPaymentMethod(), true);
+                if (result.getStatus() != BookingResult.Status.CONFLICT) return result;
+            }
+            return result != null ? result
+                : BookingResult.conflict("No " + roomType + " room is free for the selected dates");
+        }
+        
+        // As bookType, for a hold; null if no room of the type is free
+        public Hold hold(BookingContext context, String roomType, LocalDate checkIn, LocalDate checkOut,
+                         long ttlMillis) {
+            if (context.availabilityIndex().roomsOfType(roomType).length == 0) {
+                throw new IllegalArgumentException("Unknown room type " + roomType);
+            }
+            for (int attempt = 0; attempt < ASSIGN_ATTEMPTS; attempt++) {
+                int roomId = reservationService.assignRoom(context, roomType, checkIn, checkOut);
+                if (roomId == 0) return null;
+                Hold hold = reservationService.placeHold(context, roomId, checkIn, checkOut, ttlMillis, true);
+                if (hold != null) return hold;
+            }
+            return null;
+        }
+        
+        public BookingResult confirmHold(BookingContext context, int holdId, String guestName, String guestEmail,
+                                         String paymentMethod) {
+            return reservationService.confirmHold(context, holdId, guestName, guestEmail, paymentMethod);
+        }
+        
+        public boolean cancel(int reservationId) {
+            return cancel(DatabaseManager.MAIN, reservationId);
+        }
+        
+        public boolean cancel(BookingContext context, int reservationId) {
+            return reservationService.cancelReservation(context, reservationId);
+        }
+        
+        public EngineStats stats() {
+            return new EngineStats(submitted.sum(), completed.sum(), rejected.sum(), cancelled.sum(),
+                maxInFlight - capacity.availablePermits());
+        }
+        
+        @Override
+        public void close() {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        // Bounded in-flight work: callers get a RejectedExecutionException instead of an unbounded queue
+        private <T> CompletableFuture<T> submit(Supplier<T> task) {
+            if (!capacity.tryAcquire()) {
+                rejected.increment();
+                CompletableFuture<T> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new RejectedExecutionException("Booking engine saturated"));
+                return failed;
+            }
+            submitted.increment();
+            CompletableFuture<T> future = new CompletableFuture<>();
+            try {
+                executor.execute(() -> {
+                    try {
+                        // A caller that gave up while the task was queued has nothing written on its behalf
+                        if (future.isCancelled()) {
+                            cancelled.increment();
+                            return;
+                        }
+                        future.complete(task.get());
+                        completed.increment();
+                    } catch (Throwable e) {
+                        future.completeExceptionally(e);
+                        completed.increment();
+                    } finally {
+                        capacity.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                capacity.release();
+                rejected.increment();
+                throw e;
+            }
+            return future;
+        }
+
+    }
+
+    static class EngineStats {
+        private final long submitted;
+        private final long completed;
+        private final long rejected;
+        // Cancelled by their caller before they started, and dropped unrun
+        private final long cancelled;
+        private final int inFlight;
+        
+        EngineStats(long submitted, long completed, long rejected, long cancelled, int inFlight) {
+            this.submitted = submitted;
+            this.completed = completed;
+            this.rejected = rejected;
+            this.cancelled = cancelled;
+            this.inFlight = inFlight;
+        }
+
+        // Getters
+        public long getSubmitted() { return submitted; }
+        public long getCompleted() { return completed; }
+        public long getRejected() { return rejected; }
+        public long getCancelled() { return cancelled; }
+        public int getInFlight() { return inFlight; }
+        
+        @Override
+        public String toString() {
+            return String.format("submitted=%d completed=%d rejected=%d cancelled=%d inFlight=%d",
+                submitted, completed, rejected, cancelled, inFlight);
+        }
+    }
+
+    // Log-linear latency histogram: 128 exact buckets, then 64 sub-buckets per power of two (under 1.6% error).
+    // Recording is a couple of atomic increments, so many threads can share one instance.
+    static class LatencyHistogram {
+        private static final int LINEAR_BUCKETS = 128;
+        private static final int SUB_BUCKETS = 64;
+        private static final int BUCKET_COUNT = LINEAR_BUCKETS + 56 * SUB_BUCKETS;
+        
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+        
+        public void record(long value) {
+            if (value < 0) value = 0;
+            counts.incrementAndGet(indexOf(value));
+            count.increment();
+            sum.add(value);
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+        
+        public long count() { return count.sum(); }
+        public long sum() { return sum.sum(); }
+        public long max() { return max.get(); }
+        
+        public double mean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+        
+        // Upper bound of the bucket holding the given percentile, capped at the largest recorded value
+        public long percentile(double percentile) {
+            long total = count.sum();
+            if (total == 0) return 0;
+            long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += counts.get(i);
+                if (seen >= target) {
+                    return Math.min(highestValueIn(i), max.get());
+                }
+            }
+            return max.get();
+        }
+        
+        static int indexOf(long value) {
+            if (value < LINEAR_BUCKETS) return (int) value;
+            int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+            return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+        }
+        
+        static long highestValueIn(int index) {
+            if (index < LINEAR_BUCKETS) return index;
+            int offset = index - LINEAR_BUCKETS;
+            int shift = offset / SUB_BUCKETS + 1;
+            long subBucket = offset % SUB_BUCKETS + SUB_BUCKETS;
+            return ((subBucket + 1) << shift) - 1;
+        }
+    }
+
+    // Process-wide instrumentation. Instruments are preallocated per service method, statement and outcome,
+    // so recording is a few atomic adds with no allocation; reading (JMX, Prometheus text) does the work.
+    static final class Metrics {
+        enum ServiceMethod {
+            ROOM_LIST_AVAILABLE, ROOM_SEARCH, ROOM_FIND_BY_NUMBER, ROOM_UPDATE_AVAILABILITY, ROOM_UPDATE_PRICE,
+            RESERVATION_IS_AVAILABLE, RESERVATION_BOOK, RESERVATION_CANCEL, RESERVATION_DETAILS,
+            PAYMENT_PROCESS, PAYMENT_REFUND, PAYMENT_DETAILS, PAYMENT_SETTLE, GUEST_SEARCH, GUEST_STAYS,
+            HOLD_PLACE, HOLD_CONFIRM, ROOM_ASSIGN, ROOM_OPTIMIZE, CALENDAR_GRID, REPORT_GENERATE
+        }
+        
+        static final String OBJECT_NAME = "hotel:type=Metrics";
+        
+        private static final LatencyHistogram[] SERVICE_LATENCY = newHistograms(ServiceMethod.values().length);
+        private static final LongAdder[] SERVICE_ERRORS = newCounters(ServiceMethod.values().length);
+        private static final LatencyHistogram[] SQL_LATENCY = newHistograms(Sql.values().length);
+        private static final LongAdder[] SQL_ERRORS = newCounters(Sql.values().length);
+        private static final LongAdder[] BOOKINGS = newCounters(BookingResult.Status.values().length);
+        private static final LongAdder CANCELLATIONS = new LongAdder();
+        private static final LongAdder PAYMENTS = new LongAdder();
+        private static final LongAdder[] SETTLEMENTS = newCounters(SettlementQueue.Outcome.values().length);
+        private static final LongAdder[] HOLDS = newCounters(HoldRegistry.Outcome.values().length);
+        private static final LongAdder[] CHANGE_EVENTS = newCounters(ChangeEvent.Type.values().length);
+        private static final LongAdder CHANGE_EVENTS_DROPPED = new LongAdder();
+        private static final LongAdder CHANGE_FEED_STALLS = new LongAdder();
+        private static final LongAdder CHANGE_SUBSCRIBERS_DETACHED = new LongAdder();
+        private static final LatencyHistogram READ_CONNECTION_WAIT = new LatencyHistogram();
+        private static final LatencyHistogram WRITE_CONNECTION_WAIT = new LatencyHistogram();
+        private static final LongAdder CONNECTION_TIMEOUTS = new LongAdder();
+        private static final double[] QUANTILES = {50, 90, 99, 99.9};
+        private static final String[] QUANTILE_LABELS = {"0.5", "0.9", "0.99", "0.999"};
+        
+        private Metrics() {}
+        
+        static void record(ServiceMethod method, long startedNanos) {
+            SERVICE_LATENCY[method.ordinal()].record(System.nanoTime() - startedNanos);
+        }
+        
+        static void serviceError(ServiceMethod method) { SERVICE_ERRORS[method.ordinal()].increment(); }
+        
+        static void recordSql(Sql sql, long startedNanos) {
+            SQL_LATENCY[sql.ordinal()].record(System.nanoTime() - startedNanos);
+        }
+        
+        static void sqlError(Sql sql) { SQL_ERRORS[sql.ordinal()].increment(); }
+        static void booking(BookingResult.Status status) { BOOKINGS[status.ordinal()].increment(); }
+        static void cancellation() { CANCELLATIONS.increment(); }
+        static void payment() { PAYMENTS.increment(); }
+        static void settlement(SettlementQueue.Outcome outcome) { SETTLEMENTS[outcome.ordinal()].increment(); }
+        static long settlements(SettlementQueue.Outcome outcome) { return SETTLEMENTS[outcome.ordinal()].sum(); }
+        static void hold(HoldRegistry.Outcome outcome) { HOLDS[outcome.ordinal()].increment(); }
+        static long holds(HoldRegistry.Outcome outcome) { return HOLDS[outcome.ordinal()].sum(); }
+        static void changeEvent(ChangeEvent.Type type) { CHANGE_EVENTS[type.ordinal()].increment(); }
+        static long changeEvents(ChangeEvent.Type type) { return CHANGE_EVENTS[type.ordinal()].sum(); }
+        static void changeEventDropped() { CHANGE_EVENTS_DROPPED.increment(); }
+        static void changeFeedStall() { CHANGE_FEED_STALLS.increment(); }
+        static void changeSubscriberDetached() { CHANGE_SUBSCRIBERS_DETACHED.increment(); }
+        static void connectionTimeout() { CONNECTION_TIMEOUTS.increment(); }
+        
+        static void connectionWait(boolean writer, long waitedNanos) {
+            (writer ? WRITE_CONNECTION_WAIT : READ_CONNECTION_WAIT).record(waitedNanos);
+        }
+        
+        static LatencyHistogram serviceLatency(ServiceMethod method) { return SERVICE_LATENCY[method.ordinal()]; }
+        static LatencyHistogram sqlLatency(Sql sql) { return SQL_LATENCY[sql.ordinal()]; }
+        static long serviceErrors(ServiceMethod method) { return SERVICE_ERRORS[method.ordinal()].sum(); }
+        static long sqlErrors(Sql sql) { return SQL_ERRORS[sql.ordinal()].sum(); }
+        static long bookings(BookingResult.Status status) { return BOOKINGS[status.ordinal()].sum(); }
+        
+        // Prometheus text exposition format, version 0.0.4
+        static String prometheus() {
+            StringBuilder out = new StringBuilder(16384);
+            out.append("# HELP hotel_service_latency_seconds Service method latency\n");
+            out.append("# TYPE hotel_service_latency_seconds summary\n");
+            for (ServiceMethod method : ServiceMethod.values()) {
+                summary(out, "hotel_service_latency_seconds", "method", name(method), serviceLatency(method));
+            }
+            counterHeader(out, "hotel_service_errors_total", "Service calls that failed and returned a fallback");
+            for (ServiceMethod method : ServiceMethod.values()) {
+                sample(out, "hotel_service_errors_total", "method", name(method), serviceErrors(method));
+            }
+            out.append("# HELP hotel_sql_latency_seconds Statement execution latency\n");
+            out.append("# TYPE hotel_sql_latency_seconds summary\n");
+            for (Sql sql : Sql.values()) {
+                summary(out, "hotel_sql_latency_seconds", "statement", name(sql), sqlLatency(sql));
+            }
+            counterHeader(out, "hotel_sql_errors_total", "Statement executions that threw SQLException");
+            for (Sql sql : Sql.values()) {
+                sample(out, "hotel_sql_errors_total", "statement", name(sql), sqlErrors(sql));
+            }
+            counterHeader(out, "hotel_bookings_total", "Booking attempts by result");
+            for (BookingResult.Status status : BookingResult.Status.values()) {
+                sample(out, "hotel_bookings_total", "result", name(status), bookings(status));
+            }
+            counterHeader(out, "hotel_cancellations_total", "Reservations cancelled");
+            out.append("hotel_cancellations_total ").append(CANCELLATIONS.sum()).append('\n');
+            counterHeader(out, "hotel_payments_total", "Payments recorded");
+            out.append("hotel_payments_total ").append(PAYMENTS.sum()).append('\n');
+            counterHeader(out, "hotel_settlements_total", "Gateway settlement attempts by outcome");
+            for (SettlementQueue.Outcome outcome : SettlementQueue.Outcome.values()) {
+                sample(out, "hotel_settlements_total", "outcome", name(outcome), settlements(outcome));
+            }
+            counterHeader(out, "hotel_holds_total", "Room holds by outcome");
+            for (HoldRegistry.Outcome outcome : HoldRegistry.Outcome.values()) {
+                sample(out, "hotel_holds_total", "outcome", name(outcome), holds(outcome));
+            }
+            counterHeader(out, "hotel_change_events_total", "Change events published by type");
+            for (ChangeEvent.Type type : ChangeEvent.Type.values()) {
+                sample(out, "hotel_change_events_total", "type", name(type), changeEvents(type));
+            }
+            counterHeader(out, "hotel_change_events_dropped_total",
+                "Change events not logged: an append failed or another process writes the log");
+            out.append("hotel_change_events_dropped_total ").append(CHANGE_EVENTS_DROPPED.sum()).append('\n');
+            counterHeader(out, "hotel_change_feed_stalls_total", "Publishes that waited for a slow subscriber");
+            out.append("hotel_change_feed_stalls_total ").append(CHANGE_FEED_STALLS.sum()).append('\n');
+            counterHeader(out, "hotel_change_subscribers_detached_total",
+                "Subscribers left to catch up from the log after a stall timed out");
+            out.append("hotel_change_subscribers_detached_total ").append(CHANGE_SUBSCRIBERS_DETACHED.sum()).append('\n');
+            out.append("# HELP hotel_connection_wait_seconds Time spent acquiring a pooled connection\n");
+            out.append("# TYPE hotel_connection_wait_seconds summary\n");
+            summary(out, "hotel_connection_wait_seconds", "kind", "read", READ_CONNECTION_WAIT);
+            summary(out, "hotel_connection_wait_seconds", "kind", "write", WRITE_CONNECTION_WAIT);
+            counterHeader(out, "hotel_connection_timeouts_total", "Connection acquisitions that timed out");
+            out.append("hotel_connection_timeouts_total ").append(CONNECTION_TIMEOUTS.sum()).append('\n');
+            return out.toString();
+        }
+        
+        private static void summary(StringBuilder out, String metric, String label, String value,
+                                    LatencyHistogram histogram) {
+            for (int i = 0; i < QUANTILES.length; i++) {
+                out.append(metric).append('{').append(label).append("=\"").append(value)
+                    .append("\",quantile=\"").append(QUANTILE_LABELS[i]).append("\"} ")
+                    .append(histogram.percentile(QUANTILES[i]) / 1e9).append('\n');
+            }
+            out.append(metric).append("_sum{").append(label).append("=\"").append(value).append("\"} ")
+                .append(histogram.sum() / 1e9).append('\n');
+            sample(out, metric + "_count", label, value, histogram.count());
+        }
+        
+        private static void counterHeader(StringBuilder out, String metric, String help) {
+            out.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(metric).append(" counter\n");
+        }
+        
+        private static void sample(StringBuilder out, String metric, String label, String value, long sample) {
+            out.append(metric).append('{').append(label).append("=\"").append(value).append("\"} ")
+                .append(sample).append('\n');
+        }
+        
+        private static String name(Enum<?> value) {
+            return value.name().toLowerCase();
+        }
+        
+        // Registers the read-only MBean once per JVM; later calls are no-ops
+        static synchronized void registerMBean() {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName objectName = new ObjectName(OBJECT_NAME);
+                if (!server.isRegistered(objectName)) {
+                    server.registerMBean(new MetricsMBean(), objectName);
+                }
+            } catch (JMException e) {
+                System.out.println("Error registering metrics MBean: " + e.getMessage());
+            }
+        }
+        
+        private static LatencyHistogram[] newHistograms(int size) {
+            LatencyHistogram[] histograms = new LatencyHistogram[size];
+            for (int i = 0; i < size; i++) {
+                histograms[i] = new LatencyHistogram();
+            }
+            return histograms;
+        }
+        
+        private static LongAdder[] newCounters(int size) {
+            LongAdder[] counters = new LongAdder[size];
+            for (int i = 0; i < size; i++) {
+                counters[i] = new LongAdder();
+            }
+            return counters;
+        }
+    }
+
+    // Read-only JMX view of Metrics: one long attribute per counter and per histogram statistic (nanoseconds)
+    static class MetricsMBean implements DynamicMBean {
+        private final Map<String, LongSupplier> attributes = new LinkedHashMap<>();
+        private final MBeanInfo info;
+        
+        MetricsMBean() {
+            for (Metrics.ServiceMethod method : Metrics.ServiceMethod.values()) {
+                addHistogram("service." + Metrics.name(method), Metrics.serviceLatency(method));
+                attributes.put("service." + Metrics.name(method) + ".errors", () -> Metrics.serviceErrors(method));
+            }
+            for (Sql sql : Sql.values()) {
+                addHistogram("sql." + Metrics.name(sql), Metrics.sqlLatency(sql));
+                attributes.put("sql." + Metrics.name(sql) + ".errors", () -> Metrics.sqlErrors(sql));
+            }
+            for (BookingResult.Status status : BookingResult.Status.values()) {
+                attributes.put("bookings." + Metrics.name(status), () -> Metrics.bookings(status));
+            }
+            attributes.put("cancellations", Metrics.CANCELLATIONS::sum);
+            attributes.put("payments", Metrics.PAYMENTS::sum);
+            for (SettlementQueue.Outcome outcome : SettlementQueue.Outcome.values()) {
+                attributes.put("settlements." + Metrics.name(outcome), () -> Metrics.settlements(outcome));
+            }
+            for (HoldRegistry.Outcome outcome : HoldRegistry.Outcome.values()) {
+                attributes.put("holds." + Metrics.name(outcome), () -> Metrics.holds(outcome));
+            }
+            for (ChangeEvent.Type type : ChangeEvent.Type.values()) {
+                attributes.put("changeEvents." + Metrics.name(type), () -> Metrics.changeEvents(type));
+            }
+            attributes.put("changeEventsDropped", Metrics.CHANGE_EVENTS_DROPPED::sum);
+            attributes.put("changeFeedStalls", Metrics.CHANGE_FEED_STALLS::sum);
+            attributes.put("changeSubscribersDetached", Metrics.CHANGE_SUBSCRIBERS_DETACHED::sum);
+            addHistogram("connectionWait.read", Metrics.READ_CONNECTION_WAIT);
+            addHistogram("connectionWait.write", Metrics.WRITE_CONNECTION_WAIT);
+            attributes.put("connectionTimeouts", Metrics.CONNECTION_TIMEOUTS::sum);
+            
+            List<MBeanAttributeInfo> infos = new ArrayList<>();
+            for (String name : attributes.keySet()) {
+                infos.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+            }
+            info = new MBeanInfo(MetricsMBean.class.getName(), "Hotel reservation system metrics",
+                infos.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+        
+        private void addHistogram(String prefix, LatencyHistogram histogram) {
+            attributes.put(prefix + ".count", histogram::count);
+            attributes.put(prefix + ".p50", () -> histogram.percentile(50));
+            attributes.put(prefix + ".p99", () -> histogram.percentile(99));
+            attributes.put(prefix + ".p999", () -> histogram.percentile(99.9));
+            attributes.put(prefix + ".max", histogram::max);
+        }
+        
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            LongSupplier supplier = attributes.get(attribute);
+            if (supplier == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return supplier.getAsLong();
+        }
+        
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            AttributeList list = new AttributeList();
+            for (String name : names) {
+                LongSupplier supplier = attributes.get(name);
+                if (supplier != null) {
+                    list.add(new Attribute(name, supplier.getAsLong()));
+                }
+            }
+            return list;
+        }
+        
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+        
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+        
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException {
+            throw new MBeanException(new UnsupportedOperationException(actionName));
+        }
+        
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            return info;
+        }
+    }
+
+    // Bulk-loads a synthetic hotel: rooms spread over types and price tiers, then years of stays and payments
+    // drawn from seasonal occupancy, stay-length and lead-time distributions. Rows go through batched
+    // prepared statements and commit every batchSize rows. Guest profiles are linked in one pass at the end.
+    static class DataSeeder {
+        static final String ROOM_INSERT =
+            "INSERT INTO rooms (room_id, room_number, room_type, price_per_night, capacity) VALUES (?, ?, ?, ?, ?)";
+        static final String RESERVATION_INSERT =
+            "INSERT INTO reservations (reservation_id, room_id, guest_name, guest_email, check_in_date, " +
+            "check_out_date, total_price, status) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+        static final String PAYMENT_INSERT =
+            "INSERT INTO payments (reservation_id, amount, payment_date, payment_method) VALUES (?, ?, ?, ?)";
+        
+        private static final String[] ROOM_TYPES = {"Standard", "Deluxe", "Suite"};
+        private static final double[] ROOM_TYPE_SHARES = {0.6, 0.3, 0.1};
+        private static final double[] BASE_PRICES = {100.0, 150.0, 250.0};
+        static final int[] CAPACITIES = {2, 3, 4};
+        // Higher floors are priced up: floors split into three bands of equal height
+        private static final double[] TIER_MULTIPLIERS = {1.0, 1.15, 1.35};
+        private static final int ROOMS_PER_FLOOR = 50;
+        // Nights 1..7; short stays dominate, with a bump at a full week
+        private static final double[] STAY_LENGTH_SHARES = {0.30, 0.25, 0.17, 0.10, 0.06, 0.04, 0.08};
+        private static final String[] PAYMENT_METHODS = {"Credit Card", "Debit Card", "Cash"};
+        private static final double[] PAYMENT_METHOD_SHARES = {0.65, 0.25, 0.10};
+        private static final double LAST_MINUTE_SHARE = 0.3;
+        private static final double LAST_MINUTE_MEAN_DAYS = 3;
+        private static final int MAX_LEAD_DAYS = 365;
+        private static final String[] FIRST_NAMES = {"Ana", "Ben", "Chen", "Dana", "Emeka", "Farah", "Goran", "Hana",
+            "Ivan", "Jia", "Kofi", "Lena", "Mateo", "Nadia", "Omar", "Priya", "Quinn", "Rosa", "Sven", "Tara"};
+        private static final String[] LAST_NAMES = {"Almeida", "Brown", "Costa", "Dubois", "Eriksen", "Fischer",
+            "Garcia", "Haddad", "Ito", "Jensen", "Kowalski", "Lee", "Moreau", "Novak", "Okafor", "Patel"};
+        
+        private final int rooms;
+        private final int years;
+        private final double occupancy;
+        private final double cancellationRate;
+        private final double meanLeadDays;
+        private final int batchSize;
+        private final long seed;
+        
+        DataSeeder(int rooms, int years, double occupancy, double cancellationRate, double meanLeadDays,
+                   int batchSize, long seed) {
+            this.rooms = rooms;
+            this.years = years;
+            this.occupancy = occupancy;
+            this.cancellationRate = cancellationRate;
+            this.meanLeadDays = meanLeadDays;
+            this.batchSize = batchSize;
+            this.seed = seed;
+        }
+        
+        public static DataSeeder create(int rooms, int years) {
+            return new DataSeeder(rooms, years,
+                Double.parseDouble(System.getProperty("hotel.seed.occupancy", "0.72")),
+                Double.parseDouble(System.getProperty("hotel.seed.cancellationRate", "0.08")),
+                Double.parseDouble(System.getProperty("hotel.seed.meanLeadDays", "30")),
+                Integer.getInteger("hotel.seed.batchSize", 50000),
+                Long.getLong("hotel.seed.seed", 42));
+        }
+        
+        // Appends to whatever is already in the database; ids continue after the current maximum
+        public SeedResult seed() throws SQLException {
+            long started = System.nanoTime();
+            SplittableRandom random = new SplittableRandom(seed);
+            int[] roomIds = new int[rooms];
+            double[] roomPrices = new double[rooms];
+            long reservations = 0;
+            
+            try (PooledConnection conn = DatabaseManager.getWriteConnection()) {
+                int firstRoomId = maxId(conn, "SELECT MAX(room_id) FROM rooms") + 1;
+                int firstReservationId = maxId(conn, "SELECT MAX(reservation_id) FROM reservations") + 1;
+                insertRooms(conn, random, firstRoomId, roomIds, roomPrices);
+                reservations = insertStays(conn, random, firstReservationId, roomIds, roomPrices);
+                SchemaMigrations.linkGuests(conn);
+            }
+            DatabaseManager.reloadCaches();
+            return new SeedResult(rooms, reservations, System.nanoTime() - started);
+        }
+        
+        private void insertRooms(PooledConnection conn, SplittableRandom random, int firstRoomId,
+                                 int[] roomIds, double[] roomPrices) throws SQLException {
+            Set<String> taken = new HashSet<>();
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT room_number FROM rooms")) {
+                while (rs.next()) {
+                    taken.add(rs.getString(1));
+                }
+            }
+            int floors = Math.max(1, (rooms + ROOMS_PER_FLOOR - 1) / ROOMS_PER_FLOOR);
+            
+            try (PreparedStatement insert = conn.prepareStatement(ROOM_INSERT)) {
+                conn.beginImmediate();
+                int slot = 0;
+                for (int i = 0; i < rooms; i++) {
+                    String roomNumber;
+                    do {
+                        roomNumber = Integer.toString((slot / ROOMS_PER_FLOOR + 1) * 100 + slot % ROOMS_PER_FLOOR + 1);
+                        slot++;
+                    } while (taken.contains(roomNumber));
+                    
+                    int floor = (slot - 1) / ROOMS_PER_FLOOR;
+                    int type = pick(random, ROOM_TYPE_SHARES);
+                    int tier = Math.min(TIER_MULTIPLIERS.length - 1, floor * TIER_MULTIPLIERS.length / floors);
+                    roomIds[i] = firstRoomId + i;
+                    roomPrices[i] = Math.round(BASE_PRICES[type] * TIER_MULTIPLIERS[tier]);
+                    
+                    insert.setInt(1, roomIds[i]);
+                    insert.setString(2, roomNumber);
+                    insert.setString(3, ROOM_TYPES[type]);
+                    insert.setDouble(4, roomPrices[i]);
+                    insert.setInt(5, CAPACITIES[type]);
+                    insert.addBatch();
+                    if ((i + 1) % batchSize == 0) {
+                        insert.executeBatch();
+                        conn.commit();
+                        conn.beginImmediate();
+                    }
+                }
+                insert.executeBatch();
+                conn.commit();
+            }
+        }
+        
+        // Walks each room's timeline from `years` ago to a year ahead. Gaps between stays follow the
+        // seasonal occupancy target; stays whose booking date would still be in the future are dropped,
+        // which thins out forward occupancy the way real lead times do.
+        private long insertStays(PooledConnection conn, SplittableRandom random, int firstReservationId,
+                                 int[] roomIds, double[] roomPrices) throws SQLException {
+            long today = LocalDate.now().toEpochDay();
+            long start = LocalDate.now().minusYears(years).toEpochDay();
+            long end = today + 365;
+            int reservationId = firstReservationId;
+            int pending = 0;
+            
+            try (PreparedStatement reservation = conn.prepareStatement(RESERVATION_INSERT);
+                 PreparedStatement payment = conn.prepareStatement(PAYMENT_INSERT)) {
+                conn.beginImmediate();
+                for (int r = 0; r < roomIds.length; r++) {
+                    long day = start + random.nextInt(7);
+                    while (day < end) {
+                        int nights = pick(random, STAY_LENGTH_SHARES) + 1;
+                        long leadDays = leadTime(random);
+                        long booked = day - leadDays;
+                        
+                        if (booked <= today) {
+                            LocalDate checkIn = LocalDate.ofEpochDay(day);
+                            double total = nights * roomPrices[r];
+                            String first = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+                            String last = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+                            
+                            reservation.setInt(1, reservationId);
+                            reservation.setInt(2, roomIds[r]);
+                            reservation.setString(3, first + " " + last);
+                            reservation.setString(4, (first + "." + last + reservationId + "@example.com").toLowerCase());
+                            DatabaseManager.bindDate(reservation, 5, checkIn);
+                            DatabaseManager.bindDate(reservation, 6, checkIn.plusDays(nights));
+                            reservation.setDouble(7, total);
+                            reservation.setString(8, random.nextDouble() < cancellationRate ? "Cancelled" : "Confirmed");
+                            reservation.addBatch();
+                            
+                            payment.setInt(1, reservationId);
+                            payment.setDouble(2, total);
+                            DatabaseManager.bindDate(payment, 3, LocalDate.ofEpochDay(booked));
+                            payment.setString(4, PAYMENT_METHODS[pick(random, PAYMENT_METHOD_SHARES)]);
+                            payment.addBatch();
+                            
+                            reservationId++;
+                            if (++pending == batchSize) {
+                                reservation.executeBatch();
+                                payment.executeBatch();
+                                conn.commit();
+                                conn.beginImmediate();
+                                pending = 0;
+                            }
+                        }
+                        day += nights + gapAfter(random, nights, LocalDate.ofEpochDay(day));
+                    }
+                }
+                reservation.executeBatch();
+                payment.executeBatch();
+                conn.commit();
+            }
+            return reservationId - firstReservationId;
+        }
+        
+        // Idle days after a stay: exponential with the mean that yields the day's occupancy target.
+        // Occupancy peaks in mid-July and bottoms out in mid-January.
+        private long gapAfter(SplittableRandom random, int nights, LocalDate day) {
+            double season = Math.cos(2 * Math.PI * (day.getDayOfYear() - 196) / 365.25);
+            double target = Math.min(0.98, Math.max(0.05, occupancy + 0.15 * season));
+            double meanGap = nights * (1 - target) / target;
+            return (long) (-Math.log(1 - random.nextDouble()) * meanGap);
+        }
+        
+        // A mix of last-minute bookings and planned ones with a longer exponential lead time
+        private long leadTime(SplittableRandom random) {
+            double mean = random.nextDouble() < LAST_MINUTE_SHARE ? LAST_MINUTE_MEAN_DAYS : meanLeadDays;
+            return Math.min(MAX_LEAD_DAYS, (long) (-Math.log(1 - random.nextDouble()) * mean));
+        }
+        
+        private static int pick(SplittableRandom random, double[] shares) {
+            double u = random.nextDouble();
+            for (int i = 0; i < shares.length - 1; i++) {
+                u -= shares[i];
+                if (u < 0) return i;
+            }
+            return shares.length - 1;
+        }
+        
+        private static int maxId(PooledConnection conn, String sql) throws SQLException {
+            try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    static class SeedResult {
+        private final int rooms;
+        private final long reservations;
+        private final long elapsedNanos;
+        
+        SeedResult(int rooms, long reservations, long elapsedNanos) {
+            this.rooms = rooms;
+            this.reservations = reservations;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        // Getters
+        public int getRooms() { return rooms; }
+        public long getReservations() { return reservations; }
+        public long getElapsedNanos() { return elapsedNanos; }
+        
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            return String.format("rooms=%d reservations=%d payments=%d elapsed=%.1fs rows/s=%.0f",
+                rooms, reservations, reservations, seconds, (rooms + 2.0 * reservations) / seconds);
+        }
+    }
+
+    // Bulk import and export of rooms, reservations and payments, as three CSV files in a directory or as
+    // one binary snapshot. Rows stream through NIO channels in both directions. Imports run on the write
+    // connection and commit every batchSize rows, so a failed import keeps the batches before it.
+    static class BulkTransfer {
+        enum Format { CSV, BINARY }
+        
+        static final String ROOMS_CSV = "rooms.csv";
+        static final String RESERVATIONS_CSV = "reservations.csv";
+        static final String PAYMENTS_CSV = "payments.csv";
+        static final String[] ROOM_COLUMNS =
+            {"room_id", "room_number", "room_type", "price_per_night", "is_available", "capacity"};
+        static final String[] RESERVATION_COLUMNS = {"reservation_id", "room_id", "guest_name", "guest_email",
+            "check_in_date", "check_out_date", "total_price", "status", "room_flexible"};
+        // Files written before type-level booking lack room_flexible; those stays keep their rooms
+        static final int LEGACY_RESERVATION_COLUMNS = 8;
+        static final String[] PAYMENT_COLUMNS = {"reservation_id", "amount", "payment_date", "payment_method",
+            "status", "idempotency_key", "gateway_reference"};
+        // Files written before asynchronous settlement have only the first four; those payments were settled
+        static final int LEGACY_PAYMENT_COLUMNS = 4;
+        
+        private static final String RESERVATIONS_BY_ID = "SELECT * FROM reservations ORDER BY reservation_id";
+        private static final String PAYMENTS_BY_ID = "SELECT * FROM payments ORDER BY payment_id";
+        private static final String ROOM_INSERT =
+            "INSERT INTO rooms (room_id, room_number, room_type, price_per_night, is_available, capacity) " +
+            "VALUES (?, ?, ?, ?, ?, ?)";
+        private static final String RESERVATION_INSERT =
+            "INSERT INTO reservations (reservation_id, room_id, guest_name, guest_email, check_in_date, " +
+            "check_out_date, total_price, status, room_flexible) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        private static final String PAYMENT_INSERT =
+            "INSERT INTO payments (reservation_id, amount, payment_date, payment_method, status, idempotency_key, " +
+            "gateway_reference) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        
+        private final int batchSize;
+        private final int fetchSize;
+        
+        BulkTransfer(int batchSize, int fetchSize) {
+            this.batchSize = batchSize;
+            this.fetchSize = fetchSize;
+        }
+        
+        public static BulkTransfer create() {
+            return new BulkTransfer(Integer.getInteger("hotel.bulk.batchSize", 50000),
+                Integer.getInteger("hotel.bulk.fetchSize", 1000));
+        }
+        
+        public TransferResult exportTo(Format format, Path target) throws IOException, SQLException {
+            return exportTo(DatabaseManager.MAIN, format, target);
+        }
+        
+        // One read transaction, so the three tables come from the same snapshot
+        public TransferResult exportTo(ConnectionSource database, Format format, Path target)
+                throws IOException, SQLException {
+            long started = System.nanoTime();
+            TransferResult result = new TransferResult();
+            try (PooledConnection conn = database.read();
+                 RecordSink sink = format == Format.CSV ? new CsvRecordSink(target) : new SnapshotRecordSink(target)) {
+                Connection connection = conn.getConnection();
+                connection.setAutoCommit(false);
+                try {
+                    try (ResultSet rs = conn.query(Sql.ROOMS_ALL)) {
+                        while (rs.next()) {
+                            sink.room(RoomCatalog.readRoom(rs));
+                            result.rooms++;
+                        }
+                    }
+                    try (PreparedStatement pstmt = conn.prepareStatement(RESERVATIONS_BY_ID)) {
+                        pstmt.setFetchSize(fetchSize);
+                        try (ResultSet rs = pstmt.executeQuery()) {
+                            while (rs.next()) {
+                                Reservation reservation = new Reservation(rs.getInt("room_id"),
+                                    rs.getString("guest_name"), rs.getString("guest_email"),
+                                    LocalDate.ofEpochDay(DatabaseManager.readEpochDay(rs, "check_in_date")),
+                                    LocalDate.ofEpochDay(DatabaseManager.readEpochDay(rs, "check_out_date")),
+                                    rs.getDouble("total_price"));
+                                reservation.setReservationId(rs.getInt("reservation_id"));
+                                reservation.setStatus(rs.getString("status"));
+                                reservation.setRoomFlexible(rs.getBoolean("room_flexible"));
+                                sink.reservation(reservation);
+                                result.reservations++;
+                            }
+                        }
+                    }
+                    try (PreparedStatement pstmt = conn.prepareStatement(PAYMENTS_BY_ID)) {
+                        pstmt.setFetchSize(fetchSize);
+                        try (ResultSet rs = pstmt.executeQuery()) {
+                            while (rs.next()) {
+                                Payment payment = new Payment(rs.getInt("reservation_id"), rs.getDouble("amount"),
+                                    rs.getString("payment_method"));
+                                payment.setPaymentDate(LocalDate.ofEpochDay(DatabaseManager.readEpochDay(rs, "payment_date")));
+                                payment.setStatus(rs.getString("status"));
+                                payment.setIdempotencyKey(rs.getString("idempotency_key"));
+                                payment.setGatewayReference(rs.getString("gateway_reference"));
+                                sink.payment(payment);
+                                result.payments++;
+                            }
+                        }
+                    }
+                } finally {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+            }
+            result.elapsedNanos = System.nanoTime() - started;
+            return result;
+        }
+        
+        // Rooms are matched by number, so imported room ids are remapped onto existing or new rooms.
+        // Reservation ids are kept, since guests and payments refer to them; a row whose id is taken is
+        // rejected. Overlaps are checked in the same pass against the availability index, which already
+        // holds every confirmed stay and takes each accepted one as it goes, so later rows see earlier ones.
+        // Payments are kept only for reservations accepted by this import; pending ones are picked up by the
+        // settlement queue when the system next starts. Imported reservations are linked to guest profiles last.
+        public TransferResult importFrom(Format format, Path source) throws IOException, SQLException {
+            return importFrom(DatabaseManager.MAIN, format, source);
+        }
+        
+        <D extends ConnectionSource & BookingContext> TransferResult importFrom(D database, Format format, Path source)
+                throws IOException, SQLException {
+            long started = System.nanoTime();
+            TransferResult result = new TransferResult();
+            AvailabilityIndex index = database.availabilityIndex();
+            try (PooledConnection conn = database.write();
+                 RecordSource records = format == Format.CSV ? new CsvRecordSource(source) : new SnapshotRecordSource(source)) {
+                Map<Integer, Integer> roomIds = importRooms(conn, records, result);
+                BitSet imported = importReservations(conn, records, index, roomIds, result);
+                importPayments(conn, records, imported, result);
+                SchemaMigrations.linkGuests(conn);
+            } finally {
+                // Rejected batches may have reached the index, and new rooms must reach the catalog
+                database.reloadCaches();
+            }
+            result.elapsedNanos = System.nanoTime() - started;
+            return result;
+        }
+        
+        private Map<Integer, Integer> importRooms(PooledConnection conn, RecordSource records, TransferResult result)
+                throws IOException, SQLException {
+            Map<String, Integer> byNumber = new HashMap<>();
+            int[] nextId = {1};
+            try (ResultSet rs = conn.query(Sql.ROOMS_ALL)) {
+                while (rs.next()) {
+                    byNumber.put(rs.getString("room_number"), rs.getInt("room_id"));
+                    nextId[0] = Math.max(nextId[0], rs.getInt("room_id") + 1);
+                }
+            }
+            Map<Integer, Integer> roomIds = new HashMap<>();
+            try (PreparedStatement insert = conn.prepareStatement(ROOM_INSERT)) {
+                conn.beginImmediate();
+                records.rooms(room -> {
+                    Integer existing = byNumber.get(room.getRoomNumber());
+                    if (existing != null) {
+                        roomIds.put(room.getRoomId(), existing);
+                        result.matchedRooms++;
+                        return;
+                    }
+                    int roomId = nextId[0]++;
+                    insert.setInt(1, roomId);
+                    insert.setString(2, room.getRoomNumber());
+                    insert.setString(3, room.getRoomType());
+                    insert.setDouble(4, room.getPricePerNight());
+                    insert.setBoolean(5, room.isAvailable());
+                    insert.setInt(6, room.getCapacity());
+                    insert.addBatch();
+                    byNumber.put(room.getRoomNumber(), roomId);
+                    roomIds.put(room.getRoomId(), roomId);
+                    result.rooms++;
+                });
+                insert.executeBatch();
+                conn.commit();
+            }
+            return roomIds;
+        }
+        
+        private BitSet importReservations(PooledConnection conn, RecordSource records, AvailabilityIndex index,
+                                          Map<Integer, Integer> roomIds, TransferResult result)
+                throws IOException, SQLException {
+            BitSet taken = new BitSet();
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT reservation_id FROM reservations")) {
+                while (rs.next()) {
+                    taken.set(rs.getInt(1));
+                }
+            }
+            BitSet imported = new BitSet();
+            int[] pending = {0};
+            try (PreparedStatement insert = conn.prepareStatement(RESERVATION_INSERT)) {
+                conn.beginImmediate();
+                records.reservations(reservation -> {
+                    int reservationId = reservation.getReservationId();
+                    Integer roomId = roomIds.get(reservation.getRoomId());
+                    LocalDate checkIn = reservation.getCheckInDate();
+                    LocalDate checkOut = reservation.getCheckOutDate();
+                    boolean confirmed = "Confirmed".equals(reservation.getStatus());
+                    if (roomId == null) {
+                        result.unknownRoom++;
+                        return;
+                    }
+                    if (!checkOut.isAfter(checkIn)) {
+                        result.invalid++;
+                        return;
+                    }
+                    if (reservationId < 1 || taken.get(reservationId)) {
+                        result.duplicateId++;
+                        return;
+                    }
+                    if (confirmed && !index.isFree(roomId, checkIn, checkOut)) {
+                        result.overlapping++;
+                        return;
+                    }
+                    if (confirmed) {
+                        index.addStay(roomId, reservationId, checkIn, checkOut);
+                    }
+                    taken.set(reservationId);
+                    imported.set(reservationId);
+                    
+                    insert.setInt(1, reservationId);
+                    insert.setInt(2, roomId);
+                    insert.setString(3, reservation.getGuestName());
+                    insert.setString(4, reservation.getGuestEmail());
+                    DatabaseManager.bindDate(insert, 5, checkIn);
+                    DatabaseManager.bindDate(insert, 6, checkOut);
+                    insert.setDouble(7, reservation.getTotalPrice());
+                    insert.setString(8, reservation.getStatus());
+                    insert.setBoolean(9, reservation.isRoomFlexible());
+                    insert.addBatch();
+                    result.reservations++;
+                    if (++pending[0] == batchSize) {
+                        insert.executeBatch();
+                        conn.commit();
+                        conn.beginImmediate();
+                        pending[0] = 0;
+                    }
+                });
+                insert.executeBatch();
+                conn.commit();
+            }
+            return imported;
+        }
+        
+        private void importPayments(PooledConnection conn, RecordSource records, BitSet imported, TransferResult result)
+                throws IOException, SQLException {
+            int[] pending = {0};
+            try (PreparedStatement insert = conn.prepareStatement(PAYMENT_INSERT)) {
+                conn.beginImmediate();
+                records.payments(payment -> {
+                    if (payment.getReservationId() < 1 || !imported.get(payment.getReservationId())) {
+                        result.orphanPayments++;
+                        return;
+                    }
+                    insert.setInt(1, payment.getReservationId());
+                    insert.setDouble(2, payment.getAmount());
+                    DatabaseManager.bindDate(insert, 3, payment.getPaymentDate());
+                    insert.setString(4, payment.getPaymentMethod());
+                    insert.setString(5, payment.getStatus());
+                    insert.setString(6, payment.getIdempotencyKey());
+                    insert.setString(7, payment.getGatewayReference());
+                    insert.addBatch();
+                    result.payments++;
+                    if (++pending[0] == batchSize) {
+                        insert.executeBatch();
+                        conn.commit();
+                        conn.beginImmediate();
+                        pending[0] = 0;
+                    }
+                });
+                insert.executeBatch();
+                conn.commit();
+            }
+        }
+        
+        interface RecordHandler<T> {
+            void accept(T record) throws SQLException;
+        }
+        
+        // Sections are read in this order, once each
+        interface RecordSource extends AutoCloseable {
+            void rooms(RecordHandler<Room> handler) throws IOException, SQLException;
+            void reservations(RecordHandler<Reservation> handler) throws IOException, SQLException;
+            void payments(RecordHandler<Payment> handler) throws IOException, SQLException;
+            
+            @Override
+            void close() throws IOException;
+        }
+        
+        interface RecordSink extends AutoCloseable {
+            void room(Room room) throws IOException;
+            void reservation(Reservation reservation) throws IOException;
+            void payment(Payment payment) throws IOException;
+            
+            @Override
+            void close() throws IOException;
+        }
+    }
+
+    static class TransferResult {
+        long rooms;
+        long matchedRooms;
+        long reservations;
+        long payments;
+        long unknownRoom;
+        long invalid;
+        long duplicateId;
+        long overlapping;
+        long orphanPayments;
+        long elapsedNanos;
+
+        // Getters
+        public long getRooms() { return rooms; }
+        public long getReservations() { return reservations; }
+        public long getPayments() { return payments; }
+        public long getRejected() { return unknownRoom + invalid + duplicateId + overlapping + orphanPayments; }
+        public long getElapsedNanos() { return elapsedNanos; }
+        
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            String summary = String.format("rooms=%d reservations=%d payments=%d elapsed=%.1fs rows/s=%.0f",
+                rooms, reservations, payments, seconds, (rooms + reservations + payments) / seconds);
+            if (matchedRooms + getRejected() == 0) return summary;
+            return summary + String.format(" matchedRooms=%d rejected: unknownRoom=%d invalid=%d duplicateId=%d " +
+                "overlapping=%d orphanPayments=%d", matchedRooms, unknownRoom, invalid, duplicateId, overlapping,
+                orphanPayments);
+        }
+    }
+
+    // RFC 4180 CSV: fields holding a comma, quote or line break are quoted, with quotes doubled
+    static class CsvRecordSink implements BulkTransfer.RecordSink {
+        private final Writer rooms;
+        private final Writer reservations;
+        private final Writer payments;
+        
+        CsvRecordSink(Path directory) throws IOException {
+            Files.createDirectories(directory);
+            this.rooms = open(directory.resolve(BulkTransfer.ROOMS_CSV), BulkTransfer.ROOM_COLUMNS);
+            this.reservations = open(directory.resolve(BulkTransfer.RESERVATIONS_CSV), BulkTransfer.RESERVATION_COLUMNS);
+            this.payments = open(directory.resolve(BulkTransfer.PAYMENTS_CSV), BulkTransfer.PAYMENT_COLUMNS);
+        }
+        
+        private static Writer open(Path path, String[] columns) throws IOException {
+            Writer writer = new BufferedWriter(Channels.newWriter(FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), StandardCharsets.UTF_8), 1 << 16);
+            writer.write(String.join(",", columns));
+            writer.write('\n');
+            return writer;
+        }
+        
+        @Override
+        public void room(Room room) throws IOException {
+            rooms.write(Integer.toString(room.getRoomId()));
+            field(rooms, room.getRoomNumber());
+            field(rooms, room.getRoomType());
+            field(rooms, Double.toString(room.getPricePerNight()));
+            field(rooms, room.isAvailable() ? "1" : "0");
+            field(rooms, Integer.toString(room.getCapacity()));
+            rooms.write('\n');
+        }
+        
+        @Override
+        public void reservation(Reservation reservation) throws IOException {
+            reservations.write(Integer.toString(reservation.getReservationId()));
+            field(reservations, Integer.toString(reservation.getRoomId()));
+            field(reservations, reservation.getGuestName());
+            field(reservations, reservation.getGuestEmail());
+            field(reservations, reservation.getCheckInDate().toString());
+            field(reservations, reservation.getCheckOutDate().toString());
+            field(reservations, Double.toString(reservation.getTotalPrice()));
+            field(reservations, reservation.getStatus());
+            field(reservations, reservation.isRoomFlexible() ? "1" : "0");
+            reservations.write('\n');
+        }
+        
+        @Override
+        public void payment(Payment payment) throws IOException {
+            payments.write(Integer.toString(payment.getReservationId()));
+            field(payments, Double.toString(payment.getAmount()));
+            field(payments, payment.getPaymentDate().toString());
+            field(payments, payment.getPaymentMethod());
+            field(payments, payment.getStatus());
+            field(payments, Objects.toString(payment.getIdempotencyKey(), ""));
+            field(payments, Objects.toString(payment.getGatewayReference(), ""));
+            payments.write('\n');
+        }
+        
+        private static void field(Writer writer, String value) throws IOException {
+            writer.write(',');
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+        
+        @Override
+        public void close() throws IOException {
+            try (rooms; reservations; payments) {
+                // closes all three, keeping the first failure
+            }
+        }
+    }
+
+    static class CsvRecordSource implements BulkTransfer.RecordSource {
+        private final Path directory;
+        
+        CsvRecordSource(Path directory) throws IOException {
+            if (!Files.isDirectory(directory)) {
+                throw new IOException("Not a directory: " + directory);
+            }
+            this.directory = directory;
+        }
+        
+        @Override
+        public void rooms(BulkTransfer.RecordHandler<Room> handler) throws IOException, SQLException {
+            read(BulkTransfer.ROOMS_CSV, BulkTransfer.ROOM_COLUMNS, fields -> handler.accept(new Room(
+                Integer.parseInt(fields.get(0)), fields.get(1), fields.get(2), Double.parseDouble(fields.get(3)),
+                "1".equals(fields.get(4)) || "true".equalsIgnoreCase(fields.get(4)), Integer.parseInt(fields.get(5)))));
+        }
+        
+        @Override
+        public void reservations(BulkTransfer.RecordHandler<Reservation> handler) throws IOException, SQLException {
+            read(BulkTransfer.RESERVATIONS_CSV, BulkTransfer.RESERVATION_COLUMNS,
+                    BulkTransfer.LEGACY_RESERVATION_COLUMNS, fields -> {
+                Reservation reservation = new Reservation(Integer.parseInt(fields.get(1)), fields.get(2), fields.get(3),
+                    LocalDate.ofEpochDay(DatabaseManager.parseEpochDay(fields.get(4))),
+                    LocalDate.ofEpochDay(DatabaseManager.parseEpochDay(fields.get(5))),
+                    Double.parseDouble(fields.get(6)));
+                reservation.setReservationId(Integer.parseInt(fields.get(0)));
+                reservation.setStatus(fields.get(7));
+                if (fields.size() > BulkTransfer.LEGACY_RESERVATION_COLUMNS) {
+                    reservation.setRoomFlexible("1".equals(fields.get(8)) || "true".equalsIgnoreCase(fields.get(8)));
+                }
+                handler.accept(reservation);
+            });
+        }
+        
+        @Override
+        public void payments(BulkTransfer.RecordHandler<Payment> handler) throws IOException, SQLException {
+            read(BulkTransfer.PAYMENTS_CSV, BulkTransfer.PAYMENT_COLUMNS, BulkTransfer.LEGACY_PAYMENT_COLUMNS, fields -> {
+                Payment payment = new Payment(Integer.parseInt(fields.get(0)), Double.parseDouble(fields.get(1)),
+                    fields.get(3));
+                payment.setPaymentDate(LocalDate.ofEpochDay(DatabaseManager.parseEpochDay(fields.get(2))));
+                if (fields.size() > BulkTransfer.LEGACY_PAYMENT_COLUMNS) {
+                    if (!PaymentService.isStatus(fields.get(4))) {
+                        throw new NumberFormatException("unknown payment status " + fields.get(4));
+                    }
+                    payment.setStatus(fields.get(4));
+                    payment.setIdempotencyKey(fields.get(5).isEmpty() ? null : fields.get(5));
+                    payment.setGatewayReference(fields.get(6).isEmpty() ? null : fields.get(6));
+                }
+                handler.accept(payment);
+            });
+        }
+        
+        private void read(String name, String[] columns, BulkTransfer.RecordHandler<List<String>> handler)
+                throws IOException, SQLException {
+            read(name, columns, columns.length, handler);
+        }
+        
+        // A missing file is an empty section. Older files may carry only the first legacyColumns columns.
+        private void read(String name, String[] allColumns, int legacyColumns,
+                          BulkTransfer.RecordHandler<List<String>> handler) throws IOException, SQLException {
+            Path path = directory.resolve(name);
+            if (!Files.exists(path)) return;
+            try (Reader reader = new BufferedReader(Channels.newReader(FileChannel.open(path, StandardOpenOption.READ),
+                    StandardCharsets.UTF_8), 1 << 16)) {
+                CsvParser parser = new CsvParser(reader);
+                List<String> header = parser.next();
+                List<String> expected = Arrays.asList(allColumns);
+                if (header == null || !(header.equals(expected)
+                        || header.equals(expected.subList(0, legacyColumns)))) {
+                    throw new IOException(name + ": expected header " + String.join(",", allColumns));
+                }
+                List<String> columns = new ArrayList<>(header);
+                List<String> fields;
+                while ((fields = parser.next()) != null) {
+                    if (fields.size() != columns.size()) {
+                        throw new IOException(name + " line " + parser.line() + ": expected " + columns.size() +
+                            " fields, found " + fields.size());
+                    }
+                    try {
+                        handler.accept(fields);
+                    } catch (NumberFormatException | DateTimeParseException e) {
+                        throw new IOException(name + " line " + parser.line() + ": " + e.getMessage(), e);
+                    }
+                }
+            }
+        }
+        
+        @Override
+        public void close() {
+        }
+    }
+
+    // Streaming RFC 4180 reader; returns the same list for every record
+    static class CsvParser {
+        private final Reader reader;
+        private final List<String> fields = new ArrayList<>();
+        private final StringBuilder field = new StringBuilder();
+        private int line;
+        
+        CsvParser(Reader reader) {
+            this.reader = reader;
+        }
+        
+        List<String> next() throws IOException {
+            fields.clear();
+            field.setLength(0);
+            int c = reader.read();
+            if (c == -1) return null;
+            line++;
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c == -1) throw new IOException("Unterminated quote at line " + line);
+                    if (c == '"') {
+                        c = reader.read();
+                        if (c != '"') {
+                            quoted = false;
+                            continue;
+                        }
+                    } else if (c == '\n') {
+                        line++;
+                    }
+                    field.append((char) c);
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n' || c == -1) {
+                    break;
+                } else if (c != '\r') {
+                    field.append((char) c);
+                }
+                c = reader.read();
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+        
+        int line() { return line; }
+    }
+
+    // Binary snapshot: a magic number and version, then the room, reservation and payment sections in
+    // that order. Each record is preceded by a 1 byte and each section ends with a 0 byte. Strings are a
+    // u16 length plus UTF-8 bytes, and dates are epoch-day ints. Version 3, written now, ends each
+    // reservation with a room_flexible byte. Version 2 added status, idempotency key and gateway reference
+    // to each payment, absent values as empty strings. Versions 1 to 3 all load: version 1 payments come in
+    // settled and stays from before version 3 keep their rooms.
+    static class SnapshotRecordSink implements BulkTransfer.RecordSink {
+        static final int MAGIC = 0x484f544c;
+        static final short VERSION = 3;
+        
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        private int section;
+        
+        SnapshotRecordSink(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+            buffer.putInt(MAGIC).putShort(VERSION);
+        }
+        
+        @Override
+        public void room(Room room) throws IOException {
+            record(1);
+            buffer.putInt(room.getRoomId());
+            putString(room.getRoomNumber());
+            putString(room.getRoomType());
+            buffer.putDouble(room.getPricePerNight()).put((byte) (room.isAvailable() ? 1 : 0)).putInt(room.getCapacity());
+        }
+        
+        @Override
+        public void reservation(Reservation reservation) throws IOException {
+            record(2);
+            buffer.putInt(reservation.getReservationId()).putInt(reservation.getRoomId());
+            putString(reservation.getGuestName());
+            putString(reservation.getGuestEmail());
+            buffer.putInt((int) reservation.getCheckInDate().toEpochDay())
+                .putInt((int) reservation.getCheckOutDate().toEpochDay())
+                .putDouble(reservation.getTotalPrice());
+            putString(reservation.getStatus());
+            buffer.put((byte) (reservation.isRoomFlexible() ? 1 : 0));
+        }
+        
+        @Override
+        public void payment(Payment payment) throws IOException {
+            record(3);
+            buffer.putInt(payment.getReservationId()).putDouble(payment.getAmount())
+                .putInt((int) payment.getPaymentDate().toEpochDay());
+            putString(payment.getPaymentMethod());
+            putString(payment.getStatus());
+            putString(Objects.toString(payment.getIdempotencyKey(), ""));
+            putString(Objects.toString(payment.getGatewayReference(), ""));
+        }
+        
+        // Closes the sections before this one; every record is far smaller than the buffer
+        private void record(int target) throws IOException {
+            if (buffer.remaining() < 64 * 1024) {
+                flush();
+            }
+            while (section < target) {
+                if (section > 0) buffer.put((byte) 0);
+                section++;
+            }
+            buffer.put((byte) 1);
+        }
+        
+        private void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xffff) {
+                throw new IOException("String too long for snapshot: " + bytes.length + " bytes");
+            }
+            if (buffer.remaining() < bytes.length + 2) {
+                flush();
+            }
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+        
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            try (channel) {
+                while (section < 3) {
+                    if (section > 0) buffer.put((byte) 0);
+                    section++;
+                }
+                buffer.put((byte) 0);
+                flush();
+                channel.force(false);
+            }
+        }
+    }
+
+    static class SnapshotRecordSource implements BulkTransfer.RecordSource {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        private final short version;
+        
+        SnapshotRecordSource(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            buffer.flip();
+            require(6);
+            if (buffer.getInt() != SnapshotRecordSink.MAGIC) {
+                channel.close();
+                throw new IOException("Not a hotel snapshot: " + path);
+            }
+            version = buffer.getShort();
+            if (version < 1 || version > SnapshotRecordSink.VERSION) {
+                channel.close();
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+        }
+        
+        @Override
+        public void rooms(BulkTransfer.RecordHandler<Room> handler) throws IOException, SQLException {
+            while (nextRecord()) {
+                int roomId = buffer.getInt();
+                String number = getString();
+                String type = getString();
+                require(13);
+                handler.accept(new Room(roomId, number, type, buffer.getDouble(), buffer.get() == 1, buffer.getInt()));
+            }
+        }
+        
+        @Override
+        public void reservations(BulkTransfer.RecordHandler<Reservation> handler) throws IOException, SQLException {
+            while (nextRecord()) {
+                int reservationId = buffer.getInt();
+                require(4);
+                int roomId = buffer.getInt();
+                String name = getString();
+                String email = getString();
+                require(16);
+                Reservation reservation = new Reservation(roomId, name, email, LocalDate.ofEpochDay(buffer.getInt()),
+                    LocalDate.ofEpochDay(buffer.getInt()), buffer.getDouble());
+                reservation.setReservationId(reservationId);
+                reservation.setStatus(getString());
+                if (version >= 3) {
+                    require(1);
+                    reservation.setRoomFlexible(buffer.get() == 1);
+                }
+                handler.accept(reservation);
+            }
+        }
+        
+        @Override
+        public void payments(BulkTransfer.RecordHandler<Payment> handler) throws IOException, SQLException {
+            while (nextRecord()) {
+                int reservationId = buffer.getInt();
+                require(12);
+                double amount = buffer.getDouble();
+                LocalDate date = LocalDate.ofEpochDay(buffer.getInt());
+                Payment payment = new Payment(reservationId, amount, getString());
+                payment.setPaymentDate(date);
+                if (version >= 2) {
+                    String status = getString();
+                    if (!PaymentService.isStatus(status)) {
+                        throw new IOException("Unknown payment status in snapshot: " + status);
+                    }
+                    payment.setStatus(status);
+                    String key = getString();
+                    String reference = getString();
+                    payment.setIdempotencyKey(key.isEmpty() ? null : key);
+                    payment.setGatewayReference(reference.isEmpty() ? null : reference);
+                }
+                handler.accept(payment);
+            }
+        }
+        
+        // Consumes the record marker and makes the record's leading int readable
+        private boolean nextRecord() throws IOException {
+            require(1);
+            if (buffer.get() == 0) return false;
+            require(4);
+            return true;
+        }
+        
+        private String getString() throws IOException {
+            require(2);
+            int length = buffer.getShort() & 0xffff;
+            require(length);
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        
+        private void require(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) return;
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Truncated snapshot");
+                }
+            }
+            buffer.flip();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Closed-loop workload: each worker issues its next operation as soon as the previous one returns,
+    // so throughput is what the services sustain at that concurrency. Cancels target the worker's own bookings.
+    static class LoadGenerator {
+        enum Operation { SEARCH, BOOK, CANCEL }
+        
+        private final BookingEngine engine;
+        private final RoomService roomService;
+        private final int threads;
+        private final long warmupNanos;
+        private final long durationNanos;
+        private final int searchPercent;
+        private final int bookPercent;
+        private final PropertyShards properties;
+        
+        private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+        private final LongAdder[] outcomes = new LongAdder[BookingResult.Status.values().length];
+        private final LongAdder errors = new LongAdder();
+        
+        // With properties, bookings spread across every property shard and searches fan out across them;
+        // otherwise the workload runs against the main database
+        LoadGenerator(BookingEngine engine, RoomService roomService, int threads, long warmupNanos,
+                      long durationNanos, int searchPercent, int bookPercent, PropertyShards properties) {
+            this.engine = engine;
+            this.roomService = roomService;
+            this.threads = threads;
+            this.warmupNanos = warmupNanos;
+            this.durationNanos = durationNanos;
+            this.searchPercent = searchPercent;
+            this.bookPercent = bookPercent;
+            this.properties = properties;
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new LatencyHistogram();
+            }
+            for (int i = 0; i < outcomes.length; i++) {
+                outcomes[i] = new LongAdder();
+            }
+        }
+        
+        public static LoadGenerator create(BookingEngine engine, RoomService roomService, int threads, int seconds) {
+            return create(engine, roomService, threads, seconds, null);
+        }
+        
+        public static LoadGenerator create(BookingEngine engine, RoomService roomService, int threads, int seconds,
+                                           PropertyShards properties) {
+            return new LoadGenerator(engine, roomService, threads,
+                TimeUnit.SECONDS.toNanos(Integer.getInteger("hotel.load.warmupSeconds", 5)),
+                TimeUnit.SECONDS.toNanos(seconds),
+                Integer.getInteger("hotel.load.searchPercent", 80),
+                Integer.getInteger("hotel.load.bookPercent", 15),
+                properties);
+        }
+        
+        public LoadReport run() throws InterruptedException {
+            List<BookingContext> contexts = new ArrayList<>();
+            if (properties == null) {
+                contexts.add(DatabaseManager.MAIN);
+            } else {
+                for (PropertyShard shard : properties.all()) {
+                    try {
+                        shard.open();
+                    } catch (SQLException e) {
+                        throw new IllegalStateException("Cannot open property " + shard.getPropertyId() + ": " +
+                            e.getMessage(), e);
+                    }
+                    contexts.add(shard);
+                }
+            }
+            List<List<Room>> rooms = new ArrayList<>();
+            for (BookingContext context : contexts) {
+                if (context.roomCatalog().findAll().isEmpty()) {
+                    throw new IllegalStateException("No rooms to run the workload against");
+                }
+                rooms.add(context.roomCatalog().findAll());
+            }
+            long measureFrom = System.nanoTime() + warmupNanos;
+            long stopAt = measureFrom + durationNanos;
+            
+            Thread[] workers = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                workers[i] = new Thread(() -> work(contexts, rooms, measureFrom, stopAt), "load-" + i);
+                workers[i].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            return new LoadReport(threads, durationNanos, latencies, outcomes, errors.sum());
+        }
+        
+        private void work(List<BookingContext> contexts, List<List<Room>> rooms, long measureFrom, long stopAt) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            ArrayDeque<Integer> booked = new ArrayDeque<>();
+            ArrayDeque<BookingContext> bookedIn = new ArrayDeque<>();
+            String[] roomTypes = {"Standard", "Deluxe", "Suite"};
+            LocalDate today = LocalDate.now();
+            
+            long now;
+            while ((now = System.nanoTime()) < stopAt) {
+                int roll = random.nextInt(100);
+                Operation operation = roll < searchPercent ? Operation.SEARCH
+                    : roll < searchPercent + bookPercent || booked.isEmpty() ? Operation.BOOK
+                    : Operation.CANCEL;
+                LocalDate checkIn = today.plusDays(1 + random.nextInt(180));
+                
+                try {
+                    switch (operation) {
+                        case SEARCH -> {
+                            String roomType = random.nextBoolean() ? null : roomTypes[random.nextInt(roomTypes.length)];
+                            LocalDate checkOut = checkIn.plusDays(1 + random.nextInt(5));
+                            if (properties == null) {
+                                roomService.search(new RoomSearchQuery(checkIn, checkOut,
+                                    roomType == null ? Set.of() : Set.of(roomType),
+                                    Double.POSITIVE_INFINITY, 1 + random.nextInt(4), 20, null));
+                            } else {
+                                properties.search(null, roomType, checkIn, checkOut, 1 + random.nextInt(4), 20);
+                            }
+                        }
+                        case BOOK -> {
+                            int target = random.nextInt(contexts.size());
+                            List<Room> candidates = rooms.get(target);
+                            Room room = candidates.get(random.nextInt(candidates.size()));
+                            BookingResult result = engine.book(contexts.get(target), new BookingRequest(
+                                room.getRoomId(), "Load Test", "load@example.com", checkIn,
+                                checkIn.plusDays(1 + random.nextInt(5)), room.getPricePerNight(), "Credit Card"));
+                            if (result.isConfirmed()) {
+                                booked.push(result.getReservation().getReservationId());
+                                bookedIn.push(contexts.get(target));
+                            }
+                            if (now >= measureFrom) outcomes[result.getStatus().ordinal()].increment();
+                        }
+                        case CANCEL -> engine.cancel(bookedIn.pop(), booked.pop());
+                    }
+                } catch (SQLException | RuntimeException e) {
+                    if (now >= measureFrom) errors.increment();
+                    continue;
+                }
+                if (now >= measureFrom) {
+                    latencies[operation.ordinal()].record(System.nanoTime() - now);
+                }
+            }
+        }
+    }
+
+    static class LoadReport {
+        private final int threads;
+        private final long durationNanos;
+        private final LatencyHistogram[] latencies;
+        private final LongAdder[] outcomes;
+        private final long errors;
+        
+        LoadReport(int threads, long durationNanos, LatencyHistogram[] latencies, LongAdder[] outcomes, long errors) {
+            this.threads = threads;
+            this.durationNanos = durationNanos;
+            this.latencies = latencies;
+            this.outcomes = outcomes;
+            this.errors = errors;
+        }
+        
+        public LatencyHistogram latency(LoadGenerator.Operation operation) {
+            return latencies[operation.ordinal()];
+        }
+        
+        public long outcomes(BookingResult.Status status) {
+            return outcomes[status.ordinal()].sum();
+        }
+        
+        public double throughput() {
+            long total = 0;
+            for (LatencyHistogram histogram : latencies) {
+                total += histogram.count();
+            }
+            return total / (durationNanos / 1e9);
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("threads=%d duration=%.0fs throughput=%.0f ops/s errors=%d%n",
+                threads, durationNanos / 1e9, throughput(), errors));
+            report.append(String.format("%-8s %10s %10s %10s %10s %10s %10s%n",
+                "op", "count", "ops/s", "p50(ms)", "p99(ms)", "p999(ms)", "max(ms)"));
+            for (LoadGenerator.Operation operation : LoadGenerator.Operation.values()) {
+                LatencyHistogram histogram = latency(operation);
+                report.append(String.format("%-8s %10d %10.0f %10.3f %10.3f %10.3f %10.3f%n",
+                    operation, histogram.count(), histogram.count() / (durationNanos / 1e9),
+                    histogram.percentile(50) / 1e6, histogram.percentile(99) / 1e6,
+                    histogram.percentile(99.9) / 1e6, histogram.max() / 1e6));
+            }
+            report.append("bookings:");
+            for (BookingResult.Status status : BookingResult.Status.values()) {
+                report.append(' ').append(status).append('=').append(outcomes(status));
+            }
+            return report.toString();
+        }
+    }
+
+    // Embedded HTTP/JSON API. Handlers run on the server executor (virtual threads when available) and hand
+    // searches, bookings and cancellations to the BookingEngine: a saturated engine answers 503 instead of
+    // queuing, and a request that outlives its timeout answers 504 and is dropped if the engine has not started it.
+    static class HttpApi implements AutoCloseable {
+        private static final String JSON = "application/json; charset=utf-8";
+        private static final int MAX_BODY_BYTES = 64 * 1024;
+        private static final long MAX_EVENT_WAIT_MS = 25000;
+        // Far above any real charge, and far below where an amount in cents stops being exact
+        private static final double MAX_AMOUNT = 1e9;
+        
+        private final HttpServer server;
+        private final ExecutorService executor;
+        private final BookingEngine engine;
+        private final RoomService roomService;
+        private final ReservationService reservationService;
+        private final PaymentService paymentService;
+        private final ReportService reportService = new ReportService();
+        private final GuestService guestService = new GuestService();
+        private final long requestTimeoutMillis;
+        
+        HttpApi(InetSocketAddress address, int backlog, ExecutorService executor, BookingEngine engine,
+                RoomService roomService, ReservationService reservationService, PaymentService paymentService,
+                long requestTimeoutMillis) throws IOException {
+            this.server = HttpServer.create(address, backlog);
+            this.executor = executor;
+            this.engine = engine;
+            this.roomService = roomService;
+            this.reservationService = reservationService;
+            this.paymentService = paymentService;
+            this.requestTimeoutMillis = requestTimeoutMillis;
+            
+            server.setExecutor(executor);
+            server.createContext("/rooms/search", exchange -> handle(exchange, this::searchRooms));
+            server.createContext("/reservations", exchange -> handle(exchange, this::reservations));
+            server.createContext("/holds", exchange -> handle(exchange, this::holds));
+            server.createContext("/assignments/optimize", exchange -> handle(exchange, this::optimizeRooms));
+            server.createContext("/events", exchange -> handle(exchange, this::events));
+            server.createContext("/payments", exchange -> handle(exchange, this::payments));
+            server.createContext("/refunds", exchange -> handle(exchange, this::refunds));
+            server.createContext("/guests", exchange -> handle(exchange, this::guests));
+            server.createContext("/calendar", exchange -> handle(exchange, this::calendar));
+            server.createContext("/rates", exchange -> handle(exchange, this::rates));
+            server.createContext("/reports/occupancy", exchange -> handle(exchange, this::occupancyReport));
+            server.createContext("/properties/search", exchange -> handle(exchange, this::searchProperties));
+            server.createContext("/properties", exchange -> handle(exchange, this::properties));
+            server.createContext("/metrics", this::metrics);
+            server.createContext("/health", exchange -> handle(exchange, (ex, response) -> {
+                requireMethod(ex, "GET");
+                response.json(200).beginObject().name("status").value("UP").endObject();
+            }));
+        }
+        
+        public static HttpApi start(int port, BookingEngine engine, RoomService roomService,
+                                    ReservationService reservationService, PaymentService paymentService)
+                throws IOException {
+            // The JDK server reads these once; bound how long a client may take to send a request or read a response
+            System.setProperty("sun.net.httpserver.maxReqTime",
+                System.getProperty("sun.net.httpserver.maxReqTime", "30"));
+            System.setProperty("sun.net.httpserver.maxRspTime",
+                System.getProperty("sun.net.httpserver.maxRspTime", "30"));
+            
+            HttpApi api = new HttpApi(new InetSocketAddress(port), Integer.getInteger("hotel.http.backlog", 1024),
+                BookingEngine.newExecutor(!"false".equals(System.getProperty("hotel.http.virtualThreads")),
+                    Integer.getInteger("hotel.http.threads", 64)),
+                engine, roomService, reservationService, paymentService,
+                Long.getLong("hotel.http.requestTimeoutMs", 5000));
+            api.server.start();
+            return api;
+        }
+        
+        public int port() {
+            return server.getAddress().getPort();
+        }
+        
+        @Override
+        public void close() {
+            server.stop(1);
+            executor.shutdown();
+        }
+        
+        // GET /rooms/search?checkIn=2030-01-01&checkOut=2030-01-03[&types=Deluxe,Suite][&maxPrice=200]
+        //     [&guests=3][&limit=50][&cursor=...]
+        private void searchRooms(HttpExchange exchange, Response response) throws Exception {
+            requireMethod(exchange, "GET");
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            Set<String> roomTypes = new HashSet<>();
+            for (String type : query.getOrDefault("types", query.getOrDefault("type", "")).split(",")) {
+                if (!type.isBlank()) roomTypes.add(type.trim());
+            }
+            String maxPrice = query.get("maxPrice");
+            String guests = query.get("guests");
+            String limit = query.get("limit");
+            String cursor = query.get("cursor");
+            RoomSearchQuery search = new RoomSearchQuery(
+                parseDate(required(query, "checkIn")), parseDate(required(query, "checkOut")), roomTypes,
+                maxPrice == null ? Double.POSITIVE_INFINITY : parseDouble(maxPrice, "maxPrice"),
+                guests == null ? 0 : parseInt(guests, "guests"),
+                limit == null ? 50 : Math.min(parseInt(limit, "limit"), RoomSearchQuery.MAX_LIMIT),
+                cursor == null ? null : SearchCursor.decode(cursor));
+            
+            RoomSearchResult result = await(engine.submitSearch(search));
+            JsonWriter json = response.json(200);
+            json.beginObject().name("rooms").beginArray();
+            for (Room room : result.getRooms()) {
+                writeRoom(json, room, reservationService.quoteCents(room, search.getCheckIn(), search.getCheckOut()));
+            }
+            json.endArray().name("nextCursor").value(result.hasMore() ? result.getNextCursor().encode() : null);
+            json.endObject();
+        }
+        
+        // GET /rates/{roomType}, PUT /rates/{roomType} {"weekendPercent":"15","seasons":"07-01..08-31:20",
+        //     "losDiscounts":"7:5,14:10"}; omitted fields keep their current value
+        private void rates(HttpExchange exchange, Response response) throws Exception {
+            String roomType = pathId(exchange, "/rates");
+            if (roomType == null) {
+                throw new ApiException(404, "Room type required");
+            }
+            PricingEngine pricing = DatabaseManager.getPricingEngine();
+            RatePlan plan = pricing.ratePlan(roomType);
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                requireMethod(exchange, "PUT");
+                if (!DatabaseManager.getRoomCatalog().roomTypes().contains(roomType)) {
+                    throw new ApiException(404, "Unknown room type " + roomType);
+                }
+                Map<String, String> body = readBody(exchange);
+                plan = new RatePlan(body.getOrDefault("weekendPercent", plan.getWeekendPercent()),
+                    body.getOrDefault("seasons", plan.getSeasons()),
+                    body.getOrDefault("losDiscounts", plan.getLosDiscounts()));
+                pricing.setRatePlan(roomType, plan);
+            }
+            response.json(200).beginObject().name("roomType").value(roomType)
+                .name("weekendPercent").value(plan.getWeekendPercent())
+                .name("seasons").value(plan.getSeasons())
+                .name("losDiscounts").value(plan.getLosDiscounts())
+                .endObject();
+        }
+        
+        // GET /calendar?from=2030-01-01&to=2031-01-01[&view=types|rooms]
+        // types: available rooms per type and night; rooms: a base64 booked-night bitmap per room
+        private void calendar(HttpExchange exchange, Response response) throws Exception {
+            requireMethod(exchange, "GET");
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            OccupancyGrid grid = DatabaseManager.getOccupancyCalendar().grid(
+                parseDate(required(query, "from")), parseDate(required(query, "to")));
+            String view = query.getOrDefault("view", "types");
+            
+            JsonWriter json = response.json(200);
+            json.beginObject().name("from").value(grid.getFrom().toString())
+                .name("to").value(grid.getTo().toString()).name("nights").value(grid.getNights());
+            if ("rooms".equals(view)) {
+                Base64.Encoder encoder = Base64.getEncoder();
+                json.name("rooms").beginArray();
+                for (int room = 0; room < grid.getRoomCount(); room++) {
+                    json.beginObject().name("roomId").value(grid.getRoomId(room))
+                        .name("roomNumber").value(grid.getRoomNumber(room))
+                        .name("booked").value(encoder.encodeToString(grid.roomBitmap(room)))
+                        .endObject();
+                }
+                json.endArray();
+            } else {
+                json.name("types").beginArray();
+                for (int type = 0; type < grid.getTypeCount(); type++) {
+                    json.beginObject().name("type").value(grid.getType(type))
+                        .name("rooms").value(grid.getRoomsOfType(type)).name("available").beginArray();
+                    for (int available : grid.availableByType(type)) {
+                        json.value(available);
+                    }
+                    json.endArray().endObject();
+                }
+                json.endArray();
+            }
+            json.endObject();
+        }
+        
+        // GET /reports/occupancy?from=2030-01-01&to=2031-01-01[&granularity=daily|monthly|total]
+        private void occupancyReport(HttpExchange exchange, Response response) throws Exception {
+            requireMethod(exchange, "GET");
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            OccupancyReport.Granularity granularity;
+            try {
+                granularity = OccupancyReport.Granularity.valueOf(
+                    query.getOrDefault("granularity", "monthly").toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new ApiException(400, "granularity must be daily, monthly or total");
+            }
+            OccupancyReport report = reportService.generate(
+                parseDate(required(query, "from")), parseDate(required(query, "to")));
+            if (report == null) {
+                throw new ApiException(500, "Report could not be generated");
+            }
+            
+            JsonWriter json = response.json(200);
+            json.beginObject().name("from").value(report.getFrom().toString())
+                .name("to").value(report.getTo().toString()).name("rows").beginArray();
+            for (ReportRow row : report.rows(granularity)) {
+                json.beginObject().name("periodStart").value(row.getPeriodStart().toString())
+                    .name("roomType").value(row.getRoomType())
+                    .name("availableRoomNights").value(row.getAvailableRoomNights())
+                    .name("soldRoomNights").value(row.getSoldRoomNights())
+                    .name("revenue").value(row.getRevenue())
+                    .name("occupancy").value(row.getOccupancy())
+                    .name("adr").value(row.getAdr())
+                    .name("revPar").value(row.getRevPar())
+                    .endObject();
+            }
+            json.endArray().name("paymentMethods").beginArray();
+            for (PaymentMethodTotal total : report.paymentMethods().values()) {
+                json.beginObject().name("method").value(total.getMethod())
+                    .name("count").value(total.getCount()).name("amount").value(total.getAmount()).endObject();
+            }
+            json.endArray().endObject();
+        }
+        
+        // POST /reservations, GET /reservations/{id}, DELETE /reservations/{id}
+        private void reservations(HttpExchange exchange, Response response) throws Exception {
+            String id = pathId(exchange, "/reservations");
+            String method = exchange.getRequestMethod();
+            if (id == null) {
+                requireMethod(exchange, "POST");
+                book(readBody(exchange), response);
+                return;
+            }
+            int reservationId = parseInt(id, "reservation id");
+            if ("GET".equals(method)) {
+                Reservation reservation = reservationService.getReservationDetails(reservationId);
+                if (reservation == null) {
+                    throw new ApiException(404, "Reservation " + reservationId + " not found");
+                }
+                writeReservation(response.json(200), reservation);
+                return;
+            }
+            requireMethod(exchange, "DELETE");
+            if (!await(engine.submitCancel(reservationId))) {
+                throw new ApiException(404, "Reservation " + reservationId + " not found or already cancelled");
+            }
+            response.json(200).beginObject()
+                .name("reservationId").value(reservationId).name("status").value("Cancelled").endObject();
+        }
+        
+        // GET /properties/search?checkIn=2030-01-01&checkOut=2030-01-03[&city=Lisbon][&type=Suite][&guests=2]
+        //     [&limit=50]; every matching property is searched in parallel, cheapest stay first
+        private void searchProperties(HttpExchange exchange, Response response) throws Exception {
+            requireMethod(exchange, "GET");
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            LocalDate checkIn = parseDate(required(query, "checkIn"));
+            LocalDate checkOut = parseDate(required(query, "checkOut"));
+            if (!checkOut.isAfter(checkIn)) {
+                throw new IllegalArgumentException("checkOut must be after checkIn");
+            }
+            String guests = query.get("guests");
+            String limit = query.get("limit");
+            List<PropertyRoom> rooms = DatabaseManager.getPropertyShards().search(query.get("city"), query.get("type"),
+                checkIn, checkOut, guests == null ? 0 : parseInt(guests, "guests"),
+                limit == null ? 50 : Math.min(parseInt(limit, "limit"), RoomSearchQuery.MAX_LIMIT));
+            JsonWriter json = response.json(200);
+            json.beginObject().name("rooms").beginArray();
+            for (PropertyRoom room : rooms) {
+                json.beginObject().name("propertyId").value(room.getProperty().getPropertyId())
+                    .name("city").value(room.getProperty().getCity()).name("room");
+                writeRoom(json, room.getRoom(), room.getTotalCents());
+                json.endObject();
+            }
+            json.endArray().endObject();
+        }
+        
+        // GET /properties, POST /properties/{id}/reservations, GET|DELETE /properties/{id}/reservations/{rid}
+        private void properties(HttpExchange exchange, Response response) throws Exception {
+            String path = exchange.getRequestURI().getPath();
+            String[] segments = path.substring("/properties".length()).split("/", -1);
+            if (segments.length <= 1 || segments[1].isEmpty()) {
+                requireMethod(exchange, "GET");
+                JsonWriter json = response.json(200);
+                json.beginObject().name("properties").beginArray();
+                for (PropertyShard shard : DatabaseManager.getPropertyShards().all()) {
+                    json.beginObject().name("propertyId").value(shard.getPropertyId())
+                        .name("city").value(shard.getCity()).name("open").value(shard.isOpen()).endObject();
+                }
+                json.endArray().endObject();
+                return;
+            }
+            if (segments.length < 3 || segments.length > 4 || !"reservations".equals(segments[2])) {
+                throw new ApiException(404, "Unknown path " + path);
+            }
+            PropertyShard shard = DatabaseManager.getPropertyShards().shard(segments[1]);
+            if (shard == null) {
+                throw new ApiException(404, "Property " + segments[1] + " not found");
+            }
+            if (segments.length == 3 || segments[3].isEmpty()) {
+                requireMethod(exchange, "POST");
+                book(shard, readBody(exchange), response);
+                return;
+            }
+            int reservationId = parseInt(segments[3], "reservation id");
+            if ("GET".equals(exchange.getRequestMethod())) {
+                Reservation reservation = reservationService.getReservationDetails(shard, reservationId);
+                if (reservation == null) {
+                    throw new ApiException(404, "Reservation " + reservationId + " not found");
+                }
+                writeReservation(response.json(200), reservation);
+                return;
+            }
+            requireMethod(exchange, "DELETE");
+            if (!await(engine.submitCancel(shard, reservationId))) {
+                throw new ApiException(404, "Reservation " + reservationId + " not found or already cancelled");
+            }
+            response.json(200).beginObject()
+                .name("reservationId").value(reservationId).name("status").value("Cancelled").endObject();
+        }
+        
+        // POST /holds {"roomNumber":"101" or "roomType":"Deluxe","checkIn":"2030-01-01","checkOut":"2030-01-03"
+        //     [,"minutes":"15"]}, GET /holds/{id}, DELETE /holds/{id}, POST /holds/{id}/confirm {"guestName":..,"guestEmail":..
+        //     [,"paymentMethod":..]} books the held stay and answers like POST /reservations
+        private void holds(HttpExchange exchange, Response response) throws Exception {
+            String path = exchange.getRequestURI().getPath();
+            String[] segments = path.substring("/holds".length()).split("/", -1);
+            if (segments.length <= 1 || segments[1].isEmpty()) {
+                requireMethod(exchange, "POST");
+                Map<String, String> body = readBody(exchange);
+                String roomType = body.get("roomType");
+                Room room = roomType == null ? findRoom(DatabaseManager.MAIN, body) : null;
+                LocalDate checkIn = parseDate(required(body, "checkIn"));
+                LocalDate checkOut = parseDate(required(body, "checkOut"));
+                String minutes = body.get("minutes");
+                long ttlMillis = minutes == null ? 0 : TimeUnit.MINUTES.toMillis(parseInt(minutes, "minutes"));
+                Hold hold = await(room == null
+                    ? engine.submitHold(DatabaseManager.MAIN, roomType, checkIn, checkOut, ttlMillis)
+                    : engine.submitHold(DatabaseManager.MAIN, room.getRoomId(), checkIn, checkOut, ttlMillis));
+                if (hold == null) {
+                    throw new ApiException(409, room == null
+                        ? "No " + roomType + " room is free for the selected dates"
+                        : "Room " + room.getRoomId() + " is already booked or held for the selected dates");
+                }
+                writeHold(response.json(201), hold);
+                return;
+            }
+            int holdId = parseInt(segments[1], "hold id");
+            if (segments.length == 3 && "confirm".equals(segments[2])) {
+                requireMethod(exchange, "POST");
+                Map<String, String> body = readBody(exchange);
+                writeBooking(response, await(engine.submitConfirmHold(DatabaseManager.MAIN, holdId,
+                    required(body, "guestName"), required(body, "guestEmail"), body.get("paymentMethod"))));
+                return;
+            }
+            if (segments.length > 2) {
+                throw new ApiException(404, "Unknown path " + path);
+            }
+            if ("GET".equals(exchange.getRequestMethod())) {
+                Hold hold = DatabaseManager.MAIN.holds().find(holdId);
+                if (hold == null) {
+                    throw new ApiException(404, "Hold " + holdId + " not found or expired");
+                }
+                writeHold(response.json(200), hold);
+                return;
+            }
+            requireMethod(exchange, "DELETE");
+            if (!reservationService.releaseHold(holdId)) {
+                throw new ApiException(404, "Hold " + holdId + " not found or expired");
+            }
+            response.json(200).beginObject().name("holdId").value(holdId).name("status").value("Released").endObject();
+        }
+        
+        private void book(Map<String, String> body, Response response) throws Exception {
+            book(DatabaseManager.MAIN, body, response);
+        }
+        
+        // A roomType books any room of that type; roomId or roomNumber books that room
+        private void book(BookingContext context, Map<String, String> body, Response response) throws Exception {
+            String roomType = body.get("roomType");
+            if (roomType != null) {
+                writeBooking(response, await(engine.submitBooking(context, new BookingRequest(roomType,
+                    required(body, "guestName"), required(body, "guestEmail"), parseDate(required(body, "checkIn")),
+                    parseDate(required(body, "checkOut")), body.get("paymentMethod")))));
+                return;
+            }
+            Room room = findRoom(context, body);
+            // Priced from the catalog; a client-supplied price is never trusted
+            BookingRequest request = new BookingRequest(room.getRoomId(), required(body, "guestName"),
+                required(body, "guestEmail"), parseDate(required(body, "checkIn")),
+                parseDate(required(body, "checkOut")), room.getPricePerNight(), body.get("paymentMethod"));
+            writeBooking(response, await(engine.submitBooking(context, request)));
+        }
+        
+        // POST /assignments/optimize re-packs future stays sold by room type and reports what moved
+        private void optimizeRooms(HttpExchange exchange, Response response) throws Exception {
+            requireMethod(exchange, "POST");
+            AssignmentReport report = reservationService.optimizeRooms(DatabaseManager.MAIN);
+            if (report == null) {
+                throw new ApiException(500, "Room optimization failed");
+            }
+            response.json(200).beginObject()
+                .name("roomTypes").value(report.getRoomTypes())
+                .name("flexibleStays").value(report.getFlexibleStays())
+                .name("moved").value(report.getMoved())
+                .name("orphanNightsBefore").value(report.getOrphanNightsBefore())
+                .name("orphanNightsAfter").value(report.getOrphanNightsAfter())
+                .name("skippedTypes").value(report.getSkippedTypes())
+                .name("elapsedMillis").value(report.getElapsedMillis())
+                .endObject();
+        }
+        
+        // GET /events?after=120[&limit=500][&waitMs=20000][&property=LIS] returns the change events after a
+        // sequence, oldest first; with waitMs an empty poll waits for the next event. Resume from lastSequence.
+        private void events(HttpExchange exchange, Response response) throws Exception {
+            requireMethod(exchange, "GET");
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            BookingContext context = DatabaseManager.MAIN;
+            String propertyId = query.get("property");
+            if (propertyId != null) {
+                PropertyShard shard = DatabaseManager.getPropertyShards().shard(propertyId);
+                if (shard == null) {
+                    throw new ApiException(404, "Property " + propertyId + " not found");
+                }
+                shard.open();
+                context = shard;
+            }
+            String after = query.get("after");
+            String limit = query.get("limit");
+            String waitMs = query.get("waitMs");
+            long afterSequence = after == null ? 0 : parseLong(after, "after");
+            List<ChangeEvent> events = context.changes().read(afterSequence,
+                limit == null ? 500 : Math.max(1, parseInt(limit, "limit")),
+                waitMs == null ? 0 : Math.min(Math.max(0, parseLong(waitMs, "waitMs")), MAX_EVENT_WAIT_MS));
+            JsonWriter json = response.json(200);
+            json.beginObject().name("events").beginArray();
+            for (ChangeEvent event : events) {
+                writeEvent(json, event);
+            }
+            json.endArray().name("lastSequence")
+                .value(events.isEmpty() ? afterSequence : events.get(events.size() - 1).getSequence())
+                .endObject();
+        }
+        
+        private static void writeEvent(JsonWriter json, ChangeEvent event) throws IOException {
+            json.beginObject()
+                .name("sequence").value(event.getSequence())
+                .name("timestamp").value(Instant.ofEpochMilli(event.getTimestampMillis()).toString())
+                .name("type").value(event.getType().name());
+            if (event.getReservationId() != 0) json.name("reservationId").value(event.getReservationId());
+            if (event.getRoomId() != 0) json.name("roomId").value(event.getRoomId());
+            if (event.getPreviousRoomId() != 0) json.name("previousRoomId").value(event.getPreviousRoomId());
+            if (event.getPaymentId() != 0) json.name("paymentId").value(event.getPaymentId());
+            if (event.getCheckInDate() != null) {
+                json.name("checkIn").value(event.getCheckInDate().toString())
+                    .name("checkOut").value(event.getCheckOutDate().toString());
+            }
+            if (event.getAmountCents() != 0) json.name("amount").value(Money.decimal(event.getAmountCents()));
+            if (event.getDetail() != null) json.name("detail").value(event.getDetail());
+            json.endObject();
+        }
+        
+        private static Room findRoom(BookingContext context, Map<String, String> body) {
+            Room room = body.containsKey("roomId")
+                ? context.roomCatalog().findById(parseInt(body.get("roomId"), "roomId"))
+                : context.roomCatalog().findByNumber(required(body, "roomNumber"));
+            if (room == null) {
+                throw new ApiException(404, "Room not found");
+            }
+            return room;
+        }
+        
+        private static void writeBooking(Response response, BookingResult result) throws IOException {
+            int status = switch (result.getStatus()) {
+                case CONFIRMED -> 201;
+                case CONFLICT -> 409;
+                case INVALID -> 400;
+                case FAILED -> 500;
+            };
+            
+            JsonWriter json = response.json(status);
+            json.beginObject().name("status").value(result.getStatus().name());
+            if (result.isConfirmed()) {
+                json.name("reservation");
+                writeReservation(json, result.getReservation());
+                if (result.getPayment() != null) {
+                    json.name("payment");
+                    writePayment(json, result.getPayment());
+                }
+            } else {
+                json.name("message").value(result.getMessage());
+            }
+            json.endObject();
+        }
+        
+        // GET /guests?q=smi[&limit=20] finds guests by the start of a name, a word of it or an email;
+        // GET /guests/{id} returns the guest with every stay, cancelled ones included
+        private void guests(HttpExchange exchange, Response response) throws Exception {
+            requireMethod(exchange, "GET");
+            String id = pathId(exchange, "/guests");
+            if (id == null) {
+                Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+                String limit = query.get("limit");
+                List<Guest> guests = guestService.search(required(query, "q"),
+                    limit == null ? 20 : Math.min(parseInt(limit, "limit"), RoomSearchQuery.MAX_LIMIT));
+                JsonWriter json = response.json(200);
+                json.beginObject().name("guests").beginArray();
+                for (Guest guest : guests) {
+                    writeGuest(json, guest);
+                }
+                json.endArray().endObject();
+                return;
+            }
+            int guestId = parseInt(id, "guest id");
+            Guest guest = guestService.getGuest(guestId);
+            if (guest == null) {
+                throw new ApiException(404, "Guest " + guestId + " not found");
+            }
+            JsonWriter json = response.json(200);
+            json.beginObject().name("guest");
+            writeGuest(json, guest);
+            json.name("reservations").beginArray();
+            for (Reservation reservation : guestService.getStays(guestId)) {
+                writeReservation(json, reservation);
+            }
+            json.endArray().endObject();
+        }
+        
+        // POST /payments {"reservationId":"12","amount":"250.00","paymentMethod":"Credit Card"} with an optional
+        // Idempotency-Key header; GET /payments/{reservationId} lists payments and refunds with the settled balance
+        private void payments(HttpExchange exchange, Response response) throws Exception {
+            String id = pathId(exchange, "/payments");
+            if (id == null) {
+                requireMethod(exchange, "POST");
+                Map<String, String> body = readBody(exchange);
+                int reservationId = parseInt(required(body, "reservationId"), "reservationId");
+                double amount = parseAmount(required(body, "amount"));
+                requireReservation(reservationId);
+                writePaymentResult(response, paymentService.submitPayment(reservationId, amount,
+                    required(body, "paymentMethod"), exchange.getRequestHeaders().getFirst("Idempotency-Key")));
+                return;
+            }
+            requireMethod(exchange, "GET");
+            int reservationId = parseInt(id, "reservation id");
+            List<Payment> payments = paymentService.getPayments(reservationId);
+            if (payments.isEmpty()) {
+                throw new ApiException(404, "No payment for reservation " + reservationId);
+            }
+            JsonWriter json = response.json(200);
+            json.beginObject().name("reservationId").value(reservationId)
+                .name("settledBalance").value(Money.decimal(PaymentService.settledCents(payments)))
+                .name("payments").beginArray();
+            for (Payment payment : payments) {
+                writePayment(json, payment);
+            }
+            json.endArray().endObject();
+        }
+        
+        // POST /refunds {"reservationId":"12","amount":"80.00","paymentMethod":"Credit Card"}, optional
+        // Idempotency-Key header; 409 if the refund exceeds what has been settled
+        private void refunds(HttpExchange exchange, Response response) throws Exception {
+            requireMethod(exchange, "POST");
+            Map<String, String> body = readBody(exchange);
+            int reservationId = parseInt(required(body, "reservationId"), "reservationId");
+            double amount = parseAmount(required(body, "amount"));
+            requireReservation(reservationId);
+            writePaymentResult(response, paymentService.refund(reservationId, amount,
+                required(body, "paymentMethod"), exchange.getRequestHeaders().getFirst("Idempotency-Key")));
+        }
+        
+        private void requireReservation(int reservationId) {
+            if (reservationService.getReservationDetails(reservationId) == null) {
+                throw new ApiException(404, "Reservation " + reservationId + " not found");
+            }
+        }
+        
+        // 202 while the gateway has yet to answer; a replay returns the stored payment as it stands now
+        private static void writePaymentResult(Response response, PaymentResult result) throws IOException {
+            int status = switch (result.getStatus()) {
+                case ACCEPTED -> 202;
+                case REPLAYED -> 200;
+                case REJECTED -> 409;
+                case FAILED -> 500;
+            };
+            if (!result.isStored()) {
+                throw new ApiException(status, result.getMessage());
+            }
+            writePayment(response.json(status), result.getPayment());
+        }
+        
+        private static double parseAmount(String value) {
+            double amount = parseDouble(value, "amount");
+            if (!(amount > 0) || amount > MAX_AMOUNT) {
+                throw new IllegalArgumentException("amount must be positive and at most " + (long) MAX_AMOUNT);
+            }
+            return amount;
+        }
+        
+        // Prometheus scrape endpoint; plain text rather than JSON
+        private void metrics(HttpExchange exchange) throws IOException {
+            try (exchange) {
+                byte[] body = Metrics.prometheus().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+        }
+        
+        interface Route {
+            void handle(HttpExchange exchange, Response response) throws Exception;
+        }
+        
+        // Headers go out when a route first asks for its writer and the body then streams chunked, so errors
+        // raised before that point become clean error responses and later ones can only abort the response
+        static class Response {
+            private final HttpExchange exchange;
+            private JsonWriter writer;
+            
+            Response(HttpExchange exchange) {
+                this.exchange = exchange;
+            }
+            
+            JsonWriter json(int status) throws IOException {
+                if (writer != null) {
+                    throw new IllegalStateException("Response already started");
+                }
+                exchange.getResponseHeaders().set("Content-Type", JSON);
+                exchange.sendResponseHeaders(status, 0);
+                writer = new JsonWriter(new BufferedWriter(
+                    new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 8192));
+                return writer;
+            }
+            
+            boolean isStarted() {
+                return writer != null;
+            }
+        }
+        
+        private void handle(HttpExchange exchange, Route route) {
+            Response response = new Response(exchange);
+            try (exchange) {
+                try {
+                    route.handle(exchange, response);
+                } catch (ApiException e) {
+                    error(response, e.status, e.getMessage());
+                } catch (IllegalArgumentException | DateTimeParseException e) {
+                    error(response, 400, e.getMessage());
+                } catch (RejectedExecutionException e) {
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    error(response, 503, "Server is saturated, retry later");
+                } catch (TimeoutException e) {
+                    error(response, 504, "Request timed out after " + requestTimeoutMillis + " ms");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    error(response, 503, "Server is shutting down");
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    System.out.println("Error handling " + exchange.getRequestURI() + ": " + e);
+                    error(response, 500, "Internal error");
+                }
+                if (response.isStarted()) {
+                    response.writer.flush();
+                }
+            } catch (IOException e) {
+                System.out.println("Error writing response: " + e.getMessage());
+            }
+        }
+        
+        private static void error(Response response, int status, String message) throws IOException {
+            if (response.isStarted()) {
+                // Too late for a status code; the client sees a truncated body
+                throw new IOException("Failed after response started: " + message);
+            }
+            response.json(status).beginObject().name("error").value(message).endObject();
+        }
+        
+        private <T> T await(CompletableFuture<T> future) throws InterruptedException, TimeoutException {
+            try {
+                return future.get(requestTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // Still queued, it is dropped; already running, it finishes and the client's 504 means unknown
+                future.cancel(false);
+                throw e;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                throw new IllegalStateException(cause);
+            }
+        }
+        
+        private static void requireMethod(HttpExchange exchange, String method) {
+            if (!method.equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", method);
+                throw new ApiException(405, exchange.getRequestMethod() + " not allowed");
+            }
+        }
+        
+        // The id segment after the context path, or null when the path is exactly the context
+        private static String pathId(HttpExchange exchange, String context) {
+            String path = exchange.getRequestURI().getPath();
+            if (path.length() <= context.length() + 1) return null;
+            String id = path.substring(context.length() + 1);
+            if (id.indexOf('/') >= 0) {
+                throw new ApiException(404, "Unknown path " + path);
+            }
+            return id;
+        }
+        
+        private static Map<String, String> readBody(HttpExchange exchange) throws IOException {
+            byte[] body = exchange.getRequestBody().readNBytes(MAX_BODY_BYTES + 1);
+            if (body.length > MAX_BODY_BYTES) {
+                throw new ApiException(413, "Request body exceeds " + MAX_BODY_BYTES + " bytes");
+            }
+            return JsonReader.parseObject(new String(body, StandardCharsets.UTF_8));
+        }
+        
+        private static Map<String, String> parseQuery(String rawQuery) {
+            Map<String, String> params = new HashMap<>();
+            if (rawQuery == null || rawQuery.isEmpty()) return params;
+            for (String pair : rawQuery.split("&")) {
+                int eq = pair.indexOf('=');
+                String key = eq < 0 ? pair : pair.substring(0, eq);
+                String value = eq < 0 ? "" : pair.substring(eq + 1);
+                params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+            }
+            return params;
+        }
+        
+        private static String required(Map<String, String> values, String name) {
+            String value = values.get(name);
+            if (value == null || value.isEmpty()) {
+                throw new IllegalArgumentException("Missing " + name);
+            }
+            return value;
+        }
+        
+        private static LocalDate parseDate(String value) {
+            return LocalDate.parse(value, DATE_FORMATTER);
+        }
+        
+        private static int parseInt(String value, String name) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid " + name + ": " + value);
+            }
+        }
+        
+        private static long parseLong(String value, String name) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid " + name + ": " + value);
+            }
+        }
+        
+        // Finite numbers only, whether they came as JSON numbers, strings or query parameters
+        private static double parseDouble(String value, String name) {
+            double parsed;
+            try {
+                parsed = Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid " + name + ": " + value);
+            }
+            if (!Double.isFinite(parsed)) {
+                throw new IllegalArgumentException("Invalid " + name + ": " + value);
+            }
+            return parsed;
+        }
+        
+        private static void writeRoom(JsonWriter json, Room room, long totalCents) throws IOException {
+            json.beginObject()
+                .name("roomId").value(room.getRoomId())
+                .name("roomNumber").value(room.getRoomNumber())
+                .name("roomType").value(room.getRoomType())
+                .name("pricePerNight").value(room.getPricePerNight())
+                .name("totalPrice").value(Money.decimal(totalCents))
+                .name("capacity").value(room.getCapacity())
+                .name("available").value(room.isAvailable())
+                .endObject();
+        }
+        
+        private static void writeReservation(JsonWriter json, Reservation reservation) throws IOException {
+            json.beginObject()
+                .name("reservationId").value(reservation.getReservationId())
+                .name("roomId").value(reservation.getRoomId())
+                .name("guestName").value(reservation.getGuestName())
+                .name("guestEmail").value(reservation.getGuestEmail())
+                .name("guestId").value(reservation.getGuestId())
+                .name("checkIn").value(reservation.getCheckInDate().toString())
+                .name("checkOut").value(reservation.getCheckOutDate().toString())
+                .name("totalPrice").value(reservation.getTotalPrice())
+                .name("status").value(reservation.getStatus())
+                .name("roomFlexible").value(reservation.isRoomFlexible())
+                .endObject();
+        }
+        
+        private static void writeHold(JsonWriter json, Hold hold) throws IOException {
+            json.beginObject()
+                .name("holdId").value(hold.getHoldId())
+                .name("roomId").value(hold.getRoomId())
+                .name("roomFlexible").value(hold.isRoomFlexible())
+                .name("checkIn").value(hold.getCheckInDate().toString())
+                .name("checkOut").value(hold.getCheckOutDate().toString())
+                .name("expiresAt").value(Instant.ofEpochMilli(hold.getExpiresAt()).toString())
+                .endObject();
+        }
+        
+        private static void writeGuest(JsonWriter json, Guest guest) throws IOException {
+            json.beginObject()
+                .name("guestId").value(guest.getGuestId())
+                .name("name").value(guest.getName())
+                .name("email").value(guest.getEmail())
+                .endObject();
+        }
+        
+        private static void writePayment(JsonWriter json, Payment payment) throws IOException {
+            json.beginObject()
+                .name("paymentId").value(payment.getPaymentId())
+                .name("reservationId").value(payment.getReservationId())
+                .name("amount").value(payment.getAmount())
+                .name("paymentDate").value(payment.getPaymentDate() == null ? null : payment.getPaymentDate().toString())
+                .name("paymentMethod").value(payment.getPaymentMethod())
+                .name("status").value(payment.getStatus())
+                .name("idempotencyKey").value(payment.getIdempotencyKey())
+                .name("gatewayReference").value(payment.getGatewayReference())
+                .endObject();
+        }
+        
+        private static class ApiException extends RuntimeException {
+            private static final long serialVersionUID = 1L;
+            
+            private final int status;
+            
+            ApiException(int status, String message) {
+                super(message);
+                this.status = status;
+            }
+        }
+    }
+
+    // Streaming JSON writer: tokens go straight to the Writer, with only a comma flag for state
+    static class JsonWriter {
+        private final Writer out;
+        private boolean first = true;
+        private boolean afterName;
+        
+        JsonWriter(Writer out) {
+            this.out = out;
+        }
+        
+        public JsonWriter beginObject() throws IOException { return open('{'); }
+        public JsonWriter endObject() throws IOException { return close('}'); }
+        public JsonWriter beginArray() throws IOException { return open('['); }
+        public JsonWriter endArray() throws IOException { return close(']'); }
+        
+        public JsonWriter name(String name) throws IOException {
+            separate();
+            string(name);
+            out.write(':');
+            afterName = true;
+            return this;
+        }
+        
+        public JsonWriter value(String value) throws IOException {
+            separate();
+            if (value == null) {
+                out.write("null");
+            } else {
+                string(value);
+            }
+            return this;
+        }
+        
+        public JsonWriter value(long value) throws IOException {
+            separate();
+            out.write(Long.toString(value));
+            return this;
+        }
+        
+        public JsonWriter value(double value) throws IOException {
+            separate();
+            out.write(Double.isFinite(value) ? Double.toString(value) : "null");
+            return this;
+        }
+        
+        public JsonWriter value(boolean value) throws IOException {
+            separate();
+            out.write(value ? "true" : "false");
+            return this;
+        }
+        
+        public void flush() throws IOException {
+            out.flush();
+        }
+        
+        private JsonWriter open(char bracket) throws IOException {
+            separate();
+            out.write(bracket);
+            first = true;
+            return this;
+        }
+        
+        private JsonWriter close(char bracket) throws IOException {
+            out.write(bracket);
+            first = false;
+            return this;
+        }
+        
+        private void separate() throws IOException {
+            if (afterName) {
+                afterName = false;
+            } else if (!first) {
+                out.write(',');
+            }
+            first = false;
+        }
+        
+        private void string(String value) throws IOException {
+            out.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"' -> out.write("\\\"");
+                    case '\\' -> out.write("\\\\");
+                    case '\n' -> out.write("\\n");
+                    case '\r' -> out.write("\\r");
+                    case '\t' -> out.write("\\t");
+                    default -> {
+                        if (c < 0x20) {
+                            out.write(String.format("\\u%04x", (int) c));
+                        } else {
+                            out.write(c);
+                        }
+                    }
+                }
+            }
+            out.write('"');
+        }
+    }
+
+    // Parses a flat JSON object of strings, numbers, booleans and nulls; numbers and booleans keep their text
+    static class JsonReader {
+        // RFC 8259 numbers only: no NaN, Infinity, hex, leading '+' or zeros, or Java's 'd'/'f' suffixes
+        private static final Pattern NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+        
+        private final String text;
+        private int pos;
+        
+        private JsonReader(String text) {
+            this.text = text;
+        }
+        
+        static Map<String, String> parseObject(String text) {
+            JsonReader reader = new JsonReader(text);
+            Map<String, String> values = new HashMap<>();
+            reader.expect('{');
+            if (reader.peek() == '}') {
+                reader.pos++;
+            } else {
+                do {
+                    String name = reader.string();
+                    reader.expect(':');
+                    values.put(name, reader.scalar());
+                } while (reader.next() == ',');
+                reader.pos--;
+                reader.expect('}');
+            }
+            if (reader.peek() != 0) {
+                throw reader.error("Trailing content");
+            }
+            return values;
+        }
+        
+        private String scalar() {
+            char c = peek();
+            if (c == '"') return string();
+            if (c == '{' || c == '[') throw error("Nested values are not supported");
+            int start = pos;
+            while (pos < text.length() && ",}] \t\r\n".indexOf(text.charAt(pos)) < 0) {
+                pos++;
+            }
+            String literal = text.substring(start, pos);
+            if (literal.equals("null")) return null;
+            if (literal.equals("true") || literal.equals("false")) return literal;
+            if (!NUMBER.matcher(literal).matches() || Double.isInfinite(Double.parseDouble(literal))) {
+                throw error("Invalid value '" + literal + "'");
+            }
+            return literal;
+        }
+        
+        private String string() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                if (pos >= text.length()) throw error("Unterminated string");
+                char c = text.charAt(pos++);
+                if (c == '"') return value.toString();
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (pos >= text.length()) throw error("Unterminated escape");
+                char escaped = text.charAt(pos++);
+                switch (escaped) {
+                    case '"', '\\', '/' -> value.append(escaped);
+                    case 'b' -> value.append('\b');
+                    case 'f' -> value.append('\f');
+                    case 'n' -> value.append('\n');
+                    case 'r' -> value.append('\r');
+                    case 't' -> value.append('\t');
+                    case 'u' -> {
+                        if (pos + 4 > text.length()) throw error("Invalid unicode escape");
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Invalid unicode escape");
+                        }
+                        pos += 4;
+                    }
+                    default -> throw error("Invalid escape \\" + escaped);
+                }
+            }
+        }
+        
+        private void expect(char expected) {
+            if (next() != expected) {
+                throw error("Expected '" + expected + "'");
+            }
+        }
+        
+        private char next() {
+            char c = peek();
+            if (c != 0) pos++;
+            return c;
+        }
+        
+        // Next non-whitespace character without consuming it; 0 at end of input
+        private char peek() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+            return pos < text.length() ? text.charAt(pos) : 0;
+        }
+        
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Malformed JSON at offset " + pos + ": " + message);
+        }
+    }
+
+    // Main application
+    private static Scanner scanner = new Scanner(System.in);
+    private static RoomService roomService = new RoomService();
+    private static ReservationService reservationService = new ReservationService();
+    private static PaymentService paymentService = new PaymentService();
+    private static GuestService guestService = new GuestService();
+    
+    // No arguments starts the console menu; "seed <rooms> <years>" bulk-loads data,
+    // "load <threads> <seconds>" runs the closed-loop workload and prints its latency report,
+    // "shard-load <threads> <seconds>" runs it across the -Dhotel.properties shards,
+    // "report <from> <to> [daily|monthly|total]" prints occupancy and revenue figures,
+    // "export|import <csv|binary> <path>" moves all rooms, reservations and payments in bulk,
+    // "optimize-rooms" re-packs future stays sold by room type onto fewer fragments,
+    // "events [after]" prints the logged change events after a sequence,
+    // and "serve [port]" runs the HTTP API until the process is stopped
+    public static void main(String[] args) {
+        DatabaseManager.initializeDatabase();
+        try {
+            String command = args.length > 0 ? args[0] : "menu";
+            if (DatabaseManager.inMemoryStorage() && Set.of("seed", "export", "import").contains(command)) {
+                System.out.println("The " + command + " command needs the SQLite backend; run without -Dhotel.storage=memory");
+                return;
+            }
+            switch (command) {
+                case "seed" -> seedDatabase(intArg(args, 1, 1000), intArg(args, 2, 3));
+                case "load" -> runLoad(intArg(args, 1, Runtime.getRuntime().availableProcessors()), intArg(args, 2, 60));
+                case "shard-load" -> runShardLoad(intArg(args, 1, Runtime.getRuntime().availableProcessors()),
+                    intArg(args, 2, 60));
+                case "report" -> printReport(args);
+                case "export", "import" -> transfer(args);
+                case "serve" -> serve(intArg(args, 1, 8080));
+                case "optimize-rooms" -> optimizeRooms();
+                case "events" -> printEvents(args.length > 1 ? Long.parseLong(args[1]) : 0);
+                default -> showMainMenu();
+            }
+        } finally {
+            DatabaseManager.shutdown();
+        }
+    }
+    
+    private static int intArg(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+    
+    private static void seedDatabase(int rooms, int years) {
+        System.out.println("Seeding " + rooms + " rooms with " + years + " years of reservations...");
+        try {
+            System.out.println("Seeded: " + DataSeeder.create(rooms, years).seed());
+        } catch (SQLException e) {
+            System.out.println("Error seeding database: " + e.getMessage());
+        }
+    }
+    
+    private static void optimizeRooms() {
+        AssignmentReport report = reservationService.optimizeRooms(DatabaseManager.MAIN);
+        if (report != null) {
+            System.out.println("Room assignment: " + report);
+        }
+    }
+    
+    // Reads the log as far as it was written when this process opened it; a running server's
+    // newer events are served by GET /events
+    private static void printEvents(long after) {
+        ChangeFeed changes = DatabaseManager.getChangeFeed();
+        try {
+            for (List<ChangeEvent> batch = changes.read(after, 1024, 0); !batch.isEmpty();
+                    batch = changes.read(batch.get(batch.size() - 1).getSequence(), 1024, 0)) {
+                batch.forEach(System.out::println);
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading change log: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static void printReport(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: report <from YYYY-MM-DD> <to YYYY-MM-DD> [daily|monthly|total]");
+            return;
+        }
+        OccupancyReport report;
+        OccupancyReport.Granularity granularity;
+        try {
+            granularity = OccupancyReport.Granularity.valueOf(
+                (args.length > 3 ? args[3] : "monthly").toUpperCase(Locale.ROOT));
+            report = new ReportService().generate(LocalDate.parse(args[1], DATE_FORMATTER),
+                LocalDate.parse(args[2], DATE_FORMATTER));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            System.out.println("Invalid report arguments: " + e.getMessage());
+            return;
+        }
+        if (report == null) return;
+        
+        System.out.printf("%-12s %-10s %12s %12s %14s %10s %10s %10s%n",
+            "Period", "Type", "Available", "Sold", "Revenue", "Occupancy", "ADR", "RevPAR");
+        for (ReportRow row : report.rows(granularity)) {
+            System.out.printf("%-12s %-10s %12d %12d %14.2f %9.1f%% %10.2f %10.2f%n",
+                row.getPeriodStart(), row.getRoomType(), row.getAvailableRoomNights(), row.getSoldRoomNights(),
+                row.getRevenue(), row.getOccupancy() * 100, row.getAdr(), row.getRevPar());
+        }
+        System.out.printf("%n%-15s %10s %14s%n", "Payment method", "Count", "Amount");
+        for (PaymentMethodTotal total : report.paymentMethods().values()) {
+            System.out.printf("%-15s %10d %14.2f%n", total.getMethod(), total.getCount(), total.getAmount());
+        }
+    }
+    
+    private static void transfer(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: " + args[0] + " <csv|binary> <path>  (csv: a directory, binary: a file)");
+            return;
+        }
+        BulkTransfer.Format format;
+        try {
+            format = BulkTransfer.Format.valueOf(args[1].toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown format: " + args[1]);
+            return;
+        }
+        Path path = Paths.get(args[2]);
+        try {
+            BulkTransfer transfer = BulkTransfer.create();
+            TransferResult result = "export".equals(args[0])
+                ? transfer.exportTo(format, path) : transfer.importFrom(format, path);
+            System.out.println(("export".equals(args[0]) ? "Exported: " : "Imported: ") + result);
+        } catch (IOException e) {
+            System.out.println("Error transferring " + path + ": " + e.getMessage());
+        } catch (SQLException e) {
+            System.out.println("Database error during " + args[0] + ": " + e.getMessage());
+        }
+    }
+    
+    private static void serve(int port) {
+        BookingEngine engine = BookingEngine.create(reservationService, roomService);
+        try {
+            HttpApi api = HttpApi.start(port, engine, roomService, reservationService, paymentService);
+            CountDownLatch stopped = new CountDownLatch(1);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                api.close();
+                engine.close();
+                DatabaseManager.shutdown();
+                stopped.countDown();
+            }, "http-shutdown"));
+            System.out.println("HTTP API listening on port " + api.port());
+            stopped.await();
+        } catch (IOException e) {
+            System.out.println("Error starting HTTP server: " + e.getMessage());
+            engine.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static void runLoad(int threads, int seconds) {
+        System.out.println("Running load with " + threads + " threads for " + seconds + "s...");
+        try (BookingEngine engine = BookingEngine.create(reservationService, roomService)) {
+            System.out.println(LoadGenerator.create(engine, roomService, threads, seconds).run());
+            if (!DatabaseManager.inMemoryStorage()) {
+                System.out.println("Pool: " + DatabaseManager.getPoolStats());
+                System.out.println("Writes: " + DatabaseManager.getWritePipeline().stats());
+            }
+            System.out.printf("Settlements: settled=%d declined=%d retried=%d abandoned=%d inFlight=%d%n",
+                Metrics.settlements(SettlementQueue.Outcome.SETTLED), Metrics.settlements(SettlementQueue.Outcome.DECLINED),
+                Metrics.settlements(SettlementQueue.Outcome.RETRIED), Metrics.settlements(SettlementQueue.Outcome.ABANDONED),
+                DatabaseManager.getSettlementQueue().inFlight());
+            if (Boolean.getBoolean("hotel.load.printMetrics")) {
+                System.out.print(Metrics.prometheus());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static void runShardLoad(int threads, int seconds) {
+        PropertyShards properties = DatabaseManager.getPropertyShards();
+        if (properties.all().isEmpty()) {
+            System.out.println("No properties configured; run with -Dhotel.properties=LIS:Lisbon,OPO:Porto");
+            return;
+        }
+        System.out.println("Running load across " + properties.all().size() + " properties with " + threads +
+            " threads for " + seconds + "s...");
+        try (BookingEngine engine = BookingEngine.create(reservationService, roomService)) {
+            System.out.println(LoadGenerator.create(engine, roomService, threads, seconds, properties).run());
+            for (PropertyShard shard : properties.all()) {
+                System.out.println("Writes " + shard.getPropertyId() + ": " + shard.writeStats());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IllegalStateException e) {
+            System.out.println("Error running shard load: " + e.getMessage());
+        }
+    }
+    
+    private static void showMainMenu() {
+        while (true) {
+            System.out.println("\n=== Hotel Reservation System ===");
+            System.out.println("1. Search Available Rooms");
+            System.out.println("2. Make a Reservation");
+            System.out.println("3. View/Cancel Reservation");
+            System.out.println("4. Find Guest");
+            System.out.println("5. Exit");
+            System.out.print("Enter your choice: ");
+            
+            int choice = scanner.nextInt();
+            scanner.nextLine(); // consume newline
+            
+            switch (choice) {
+                case 1: searchRooms(); break;
+                case 2: makeReservation(); break;
+                case 3: manageReservation(); break;
+                case 4: findGuest(); break;
+                case 5: 
+                    System.out.println("Thank you for using our system. Goodbye!");
+                    return;
+                default:
+                    System.out.println("Invalid choice. Please try again.");
+            }
+        }
+    }
+    
+    private static void searchRooms() {
+        System.out.println("\n=== Search Available Rooms ===");
+        System.out.print("Enter room types, comma separated (Standard/Deluxe/Suite or leave blank for all): ");
+        Set<String> roomTypes = new HashSet<>();
+        for (String type : scanner.nextLine().split(",")) {
+            if (!type.isBlank()) roomTypes.add(type.trim());
+        }
+        
+        LocalDate checkIn = getDateInput("Enter check-in date (YYYY-MM-DD): ");
+        LocalDate checkOut = getDateInput("Enter check-out date (YYYY-MM-DD): ");
+        if (!checkOut.isAfter(checkIn)) {
+            System.out.println("Error: Minimum stay is 1 night");
+            return;
+        }
+        System.out.print("Enter number of guests (leave blank for any): ");
+        String guests = scanner.nextLine().trim();
+        System.out.print("Enter maximum price per night (leave blank for any): ");
+        String maxPrice = scanner.nextLine().trim();
+        
+        RoomSearchResult result;
+        try {
+            result = roomService.search(new RoomSearchQuery(checkIn, checkOut, roomTypes,
+                maxPrice.isEmpty() ? Double.POSITIVE_INFINITY : Double.parseDouble(maxPrice),
+                guests.isEmpty() ? 0 : Integer.parseInt(guests), Integer.MAX_VALUE, null));
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number: " + e.getMessage());
+            return;
+        }
+        List<Room> availableRooms = result.getRooms();
+        
+        if (availableRooms.isEmpty()) {
+            System.out.println("No available rooms found for your criteria.");
+        } else {
+            System.out.println("\nAvailable Rooms (cheapest first):");
+            System.out.printf("%-10s %-10s %-15s %-10s%n", 
+                "Room No.", "Type", "Price/Night", "Guests");
+            for (Room room : availableRooms) {
+                System.out.printf("%-10s %-10s %-15.2f %-10d%n",
+                    room.getRoomNumber(),
+                    room.getRoomType(),
+                    room.getPricePerNight(),
+                    room.getCapacity());
+            }
+        }
+    }
+    
+    private static void makeReservation() {
+        System.out.println("\n=== Make a Reservation ===");
+        System.out.print("Enter room number, or a room type for any room of it: ");
+        String roomNumber = scanner.nextLine().trim();
+        
+        Room room = roomService.findRoomByNumber(roomNumber);
+        boolean byType = room == null && DatabaseManager.getAvailabilityIndex().roomsOfType(roomNumber).length > 0;
+        if (room == null && !byType) {
+            System.out.println("Room not found or not available.");
+            return;
+        }
+        
+        LocalDate checkIn = getDateInput("Enter check-in date (YYYY-MM-DD): ");
+        LocalDate checkOut = getDateInput("Enter check-out date (YYYY-MM-DD): ");
+        
+        // Validate dates
+        if (checkOut.isBefore(checkIn.plusDays(1))) {
+            System.out.println("Error: Minimum stay is 1 night");
+            return;
+        }
+        
+        if (byType) {
+            room = DatabaseManager.getRoomCatalog().findById(
+                reservationService.assignRoom(DatabaseManager.MAIN, roomNumber, checkIn, checkOut));
+            if (room == null) {
+                System.out.println("No " + roomNumber + " room is free for the selected dates");
+                return;
+            }
+        }
+        
+        // Hold the room while the guest details and payment are collected
+        Hold hold = reservationService.placeHold(DatabaseManager.MAIN, room.getRoomId(), checkIn, checkOut, 0, byType);
+        if (hold == null) {
+            System.out.println("Room not available for selected dates");
+            return;
+        }
+        System.out.printf("Room held for %d minutes%n",
+            TimeUnit.MILLISECONDS.toMinutes(hold.getExpiresAt() - System.currentTimeMillis() + 59999));
+        
+        // Get guest info
+        System.out.print("Enter guest name: ");
+        String guestName = scanner.nextLine();
+        System.out.print("Enter guest email: ");
+        String guestEmail = scanner.nextLine();
+        
+        // Calculate total price
+        double totalPrice = reservationService.calculateTotalCost(room.getRoomId(), checkIn, checkOut);
+        
+        // Confirm reservation
+        System.out.printf("\nReservation Summary:%n");
+        System.out.printf("Room: %s (%s)%n", room.getRoomNumber(), room.getRoomType());
+        System.out.printf("Dates: %s to %s (%d nights)%n", checkIn, checkOut, 
+            ChronoUnit.DAYS.between(checkIn, checkOut));
+        System.out.printf("Total Price: $%.2f%n", totalPrice);
+        System.out.print("Confirm reservation? (Y/N): ");
+        String confirm = scanner.nextLine();
+        
+        if (confirm.equalsIgnoreCase("Y")) {
+            String paymentMethod = selectPaymentMethod(totalPrice);
+            
+            // Book the held stay and record payment in one transaction
+            BookingResult result = reservationService.confirmHold(hold.getHoldId(), guestName, guestEmail,
+                paymentMethod);
+            
+            switch (result.getStatus()) {
+                case CONFIRMED:
+                    Reservation reservation = result.getReservation();
+                    System.out.println("Reservation created successfully!");
+                    System.out.println("Your reservation ID is: " + reservation.getReservationId());
+                    reservationService.generateReceipt(reservation, result.getPayment());
+                    System.out.println("Payment processed successfully!");
+                    break;
+                case CONFLICT:
+                    System.out.println("Room not available for selected dates: " + result.getMessage());
+                    break;
+                default:
+                    System.out.println("Failed to create reservation: " + result.getMessage());
+            }
+            if (!result.isConfirmed()) {
+                reservationService.releaseHold(hold.getHoldId());
+            }
+        } else {
+            reservationService.releaseHold(hold.getHoldId());
+            System.out.println("Reservation cancelled.");
+        }
+    }
+    
+    private static String selectPaymentMethod(double amountDue) {
+        System.out.println("\n=== Payment Processing ===");
+        System.out.printf("Total amount due: $%.2f%n", amountDue);
+        
+        System.out.println("Select payment method:");
+        System.out.println("1. Credit Card");
+        System.out.println("2. Debit Card");
+        System.out.println("3. Cash");
+        System.out.print("Enter your choice: ");
+        int choice = scanner.nextInt();
+        scanner.nextLine();
+        
+        return switch (choice) {
+            case 1 -> "Credit Card";
+            case 2 -> "Debit Card";
+            case 3 -> "Cash";
+            default -> {
+                System.out.println("Invalid choice. Defaulting to Credit Card.");
+                yield "Credit Card";
+            }
+        };
+    }
+    
+    private static void manageReservation() {
+        System.out.println("\n=== Manage Reservation ===");
+        System.out.print("Enter your reservation ID: ");
+        int reservationId = scanner.nextInt();
+        scanner.nextLine();
+        
+        Reservation reservation = reservationService.getReservationDetails(reservationId);
+        if (reservation == null) {
+            System.out.println("Reservation not found.");
+            return;
+        }
+        
+        System.out.println("\nReservation Details:");
+        System.out.println("ID: " + reservationId);
+        System.out.println("Guest: " + reservation.getGuestName());
+        System.out.println("Email: " + reservation.getGuestEmail());
+        System.out.println("Dates: " + reservation.getCheckInDate() + " to " + reservation.getCheckOutDate());
+        System.out.printf("Total Price: $%.2f%n", reservation.getTotalPrice());
+        System.out.println("Status: " + reservation.getStatus());
+        
+        List<Payment> payments = paymentService.getPayments(reservationId);
+        if (!payments.isEmpty()) {
+            System.out.println("\nPayment Details:");
+            for (Payment payment : payments) {
+                System.out.printf("%s $%.2f by %s on %s (%s)%n", payment.isRefund() ? "Refund" : "Charge",
+                    Math.abs(payment.getAmount()), payment.getPaymentMethod(), payment.getPaymentDate(),
+                    payment.getStatus());
+            }
+        }
+        
+        if (reservation.getStatus().equals("Confirmed")) {
+            System.out.print("\nDo you want to cancel this reservation? (Y/N): ");
+            String choice = scanner.nextLine();
+            
+            if (choice.equalsIgnoreCase("Y")) {
+                boolean cancelled = reservationService.cancelReservation(reservationId);
+                System.out.println(cancelled ? 
+                    "Reservation cancelled successfully." : 
+                    "Failed to cancel reservation.");
+            }
+        }
+    }
+    
+    private static void findGuest() {
+        System.out.println("\n=== Find Guest ===");
+        System.out.print("Enter the start of a name or email: ");
+        List<Guest> guests = guestService.search(scanner.nextLine(), 20);
+        if (guests.isEmpty()) {
+            System.out.println("No matching guests found.");
+            return;
+        }
+        System.out.printf("%-10s %-25s %-30s%n", "Guest ID", "Name", "Email");
+        for (Guest guest : guests) {
+            System.out.printf("%-10d %-25s %-30s%n", guest.getGuestId(), guest.getName(), guest.getEmail());
+        }
+        
+        System.out.print("Enter guest ID to list stays (leave blank to return): ");
+        String input = scanner.nextLine().trim();
+        if (input.isEmpty()) return;
+        int guestId;
+        try {
+            guestId = Integer.parseInt(input);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid guest ID.");
+            return;
+        }
+        List<Reservation> stays = guestService.getStays(guestId);
+        if (stays.isEmpty()) {
+            System.out.println("No stays found for guest " + guestId + ".");
+            return;
+        }
+        System.out.printf("%-10s %-8s %-12s %-12s %-12s %-10s%n",
+            "Res. ID", "Room", "Check-in", "Check-out", "Total", "Status");
+        for (Reservation stay : stays) {
+            System.out.printf("%-10d %-8d %-12s %-12s %-12.2f %-10s%n", stay.getReservationId(), stay.getRoomId(),
+                stay.getCheckInDate(), stay.getCheckOutDate(), stay.getTotalPrice(), stay.getStatus());
+        }
+    }
+    
+    private static LocalDate getDateInput(String prompt) {
+        while (true) {
+            System.out.print(prompt);
+            String dateStr = scanner.nextLine();
+            
+            try {
+                LocalDate date = LocalDate.parse(dateStr, DATE_FORMATTER);
+                if (date.isBefore(LocalDate.now())) {
+                    System.out.println("Error: Date cannot be in the past");
+                    continue;
+                }
+                return date;
+            } catch (DateTimeParseException e) {
+                System.out.println("Invalid date format. Please use YYYY-MM-DD.");
+            }
+        }
+    }
 }
\ No newline at end of file
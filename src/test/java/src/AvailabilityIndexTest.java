@@ -0,0 +1,149 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import src.HotelReservationSystem.AvailabilityIndex;
+import src.HotelReservationSystem.BookingResult;
+import src.HotelReservationSystem.DatabaseManager;
+import src.HotelReservationSystem.PooledConnection;
+import src.HotelReservationSystem.PropertyShard;
+import src.HotelReservationSystem.ReservationService;
+import src.HotelReservationSystem.RoomCalendar;
+import src.HotelReservationSystem.Sql;
+
+class AvailabilityIndexTest {
+    private static final LocalDate FIRST_NIGHT = LocalDate.of(2040, 3, 1);
+    private static final int DAYS = 60;
+    private static final int ROOMS = 10;
+
+    @TempDir
+    Path directory;
+
+    private PropertyShard shard;
+    private final ReservationService reservations = new ReservationService();
+
+    @BeforeEach
+    void openShard() throws SQLException {
+        shard = TestShards.open(directory);
+    }
+
+    @AfterEach
+    void closeShard() {
+        shard.close();
+    }
+
+    @Test
+    void randomBookingsAndCancellationsMatchTheOverlapQuery() throws SQLException {
+        Random random = new Random(42);
+        List<Integer> confirmed = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            if (!confirmed.isEmpty() && random.nextInt(4) == 0) {
+                int reservationId = confirmed.remove(random.nextInt(confirmed.size()));
+                assertTrue(reservations.cancelReservation(shard, reservationId));
+            } else {
+                LocalDate checkIn = FIRST_NIGHT.plusDays(random.nextInt(DAYS));
+                BookingResult result = reservations.book(shard, 1 + random.nextInt(ROOMS), "Guest " + i,
+                    "guest" + i + "@example.com", checkIn, checkIn.plusDays(1 + random.nextInt(5)), 100, null);
+                if (result.isConfirmed()) {
+                    confirmed.add(result.getReservation().getReservationId());
+                }
+            }
+        }
+
+        assertIndexMatchesDatabase();
+        // A rebuild from the tables gives the same answers
+        shard.availabilityIndex().rebuild(shard.repository());
+        assertIndexMatchesDatabase();
+    }
+
+    @Test
+    void doubleBookedStaysLoadedByARebuildStillBlockTheirRoom() throws SQLException {
+        int first = book(1, 10, 15);
+        int second = book(2, 12, 20);
+        try (PooledConnection conn = shard.write();
+             PreparedStatement move = conn.prepareStatement("UPDATE reservations SET room_id = 1 WHERE reservation_id = ?")) {
+            move.setInt(1, second);
+            move.executeUpdate();
+        }
+
+        AvailabilityIndex index = shard.availabilityIndex();
+        assertEquals(2, index.rebuild(shard.repository()));
+        assertFalse(index.isFree(1, night(16), night(18)));
+        assertFalse(index.isFree(1, night(11), night(12)));
+        assertTrue(index.isFree(1, night(20), night(22)));
+
+        assertTrue(reservations.cancelReservation(shard, second));
+        assertTrue(index.isFree(1, night(16), night(18)));
+        assertTrue(reservations.cancelReservation(shard, first));
+        assertTrue(index.isFree(1, night(10), night(20)));
+    }
+
+    @Test
+    void calendarChecksConflictsOneByOne() {
+        RoomCalendar calendar = new RoomCalendar();
+        calendar.add(1, 10, 15);
+        calendar.add(2, 20, 25);
+        calendar.addConflict(3, 12, 22);
+
+        assertTrue(calendar.overlaps(16, 18));
+        assertTrue(calendar.overlapsBooked(16, 18));
+        assertTrue(calendar.overlapsExcept(16, 18, -7));
+        assertFalse(calendar.overlaps(25, 30));
+
+        RoomCalendar copy = calendar.copy();
+        calendar.remove(3);
+        assertFalse(calendar.overlaps(16, 18));
+        assertTrue(copy.overlaps(16, 18));
+    }
+
+    private int book(int roomId, int checkIn, int checkOut) {
+        BookingResult result = reservations.book(shard, roomId, "Ann Lee", "ann@example.com", night(checkIn),
+            night(checkOut), 100, null);
+        assertTrue(result.isConfirmed(), result.getMessage());
+        return result.getReservation().getReservationId();
+    }
+
+    private static LocalDate night(int day) {
+        return FIRST_NIGHT.plusDays(day);
+    }
+
+    private void assertIndexMatchesDatabase() throws SQLException {
+        AvailabilityIndex index = shard.availabilityIndex();
+        try (PooledConnection conn = shard.read()) {
+            PreparedStatement check = conn.prepare(Sql.RESERVATION_OVERLAP_COUNT);
+            for (int roomId = 1; roomId <= ROOMS; roomId++) {
+                for (int day = 0; day < DAYS; day++) {
+                    for (int nights = 1; nights <= 4; nights++) {
+                        LocalDate checkIn = night(day);
+                        LocalDate checkOut = checkIn.plusDays(nights);
+                        check.setInt(1, roomId);
+                        DatabaseManager.bindDate(check, 2, checkOut);
+                        DatabaseManager.bindDate(check, 3, checkIn);
+                        boolean free;
+                        try (ResultSet rs = Sql.RESERVATION_OVERLAP_COUNT.executeQuery(check)) {
+                            free = !rs.next() || rs.getInt(1) == 0;
+                        }
+                        assertEquals(free, index.isFree(roomId, checkIn, checkOut),
+                            "room " + roomId + " " + checkIn + ".." + checkOut);
+                    }
+                }
+            }
+        }
+    }
+}
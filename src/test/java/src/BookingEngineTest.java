@@ -0,0 +1,85 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import src.HotelReservationSystem.BookingEngine;
+import src.HotelReservationSystem.BookingRequest;
+import src.HotelReservationSystem.BookingResult;
+import src.HotelReservationSystem.PropertyShard;
+import src.HotelReservationSystem.ReservationService;
+import src.HotelReservationSystem.RoomService;
+
+class BookingEngineTest {
+    private static final LocalDate CHECK_IN = LocalDate.of(2040, 9, 1);
+
+    @TempDir
+    Path directory;
+
+    private PropertyShard shard;
+    // One thread, so the engine's tasks can be held in its queue behind a blocked one
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private BookingEngine engine;
+
+    @BeforeEach
+    void open() throws SQLException {
+        shard = TestShards.open(directory);
+        engine = new BookingEngine(new ReservationService(), new RoomService(), executor, 16);
+    }
+
+    @AfterEach
+    void close() {
+        engine.close();
+        shard.close();
+    }
+
+    @Test
+    void bookingCancelledWhileQueuedIsNeverWritten() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        CompletableFuture<BookingResult> cancelled = engine.submitBooking(shard, new BookingRequest(1, "Ann Lee",
+            "ann@example.com", CHECK_IN, CHECK_IN.plusDays(1), 100, null));
+        CompletableFuture<BookingResult> kept = engine.submitBooking(shard, new BookingRequest(2, "Bo Chan",
+            "bo@example.com", CHECK_IN, CHECK_IN.plusDays(1), 100, null));
+
+        assertTrue(cancelled.cancel(false));
+        release.countDown();
+        assertTrue(kept.get(10, TimeUnit.SECONDS).isConfirmed());
+
+        assertTrue(shard.availabilityIndex().isFree(1, CHECK_IN, CHECK_IN.plusDays(1)));
+        assertEquals(1, engine.stats().getCancelled());
+    }
+
+    @Test
+    void cancelFreesTheStayOnce() throws Exception {
+        BookingResult booked = engine.submitBooking(shard, new BookingRequest(6, "Ann Lee", "ann@example.com",
+            CHECK_IN, CHECK_IN.plusDays(2), 100, null)).get(10, TimeUnit.SECONDS);
+        int reservationId = booked.getReservation().getReservationId();
+
+        assertTrue(engine.cancel(shard, reservationId));
+        assertFalse(engine.cancel(shard, reservationId));
+        assertFalse(engine.cancel(shard, 999_999));
+        assertTrue(shard.availabilityIndex().isFree(6, CHECK_IN, CHECK_IN.plusDays(2)));
+    }
+}
@@ -0,0 +1,276 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import src.HotelReservationSystem.BulkTransfer;
+import src.HotelReservationSystem.CsvParser;
+import src.HotelReservationSystem.Payment;
+import src.HotelReservationSystem.PropertyShard;
+import src.HotelReservationSystem.Reservation;
+import src.HotelReservationSystem.ReservationService;
+import src.HotelReservationSystem.SnapshotRecordSink;
+import src.HotelReservationSystem.TransferResult;
+
+class BulkTransferTest {
+    private static final LocalDate CHECK_IN = LocalDate.of(2040, 6, 1);
+    private static final String GUEST = "O'Hara, \"Kit\"\nJr";
+
+    @TempDir
+    Path directory;
+
+    private final BulkTransfer transfer = new BulkTransfer(2, 10);
+    private final ReservationService reservations = new ReservationService();
+    private final List<PropertyShard> shards = new ArrayList<>();
+
+    @AfterEach
+    void closeShards() {
+        shards.forEach(PropertyShard::close);
+    }
+
+    private PropertyShard shard(String name) throws IOException, SQLException {
+        PropertyShard shard = TestShards.open(Files.createDirectories(directory.resolve(name)));
+        shards.add(shard);
+        return shard;
+    }
+
+    private Path csv(String name, String rooms, String stays, String payments) throws IOException {
+        Path csv = Files.createDirectories(directory.resolve(name));
+        Files.writeString(csv.resolve(BulkTransfer.ROOMS_CSV), rooms);
+        Files.writeString(csv.resolve(BulkTransfer.RESERVATIONS_CSV), stays);
+        Files.writeString(csv.resolve(BulkTransfer.PAYMENTS_CSV), payments);
+        return csv;
+    }
+
+    private static String csvFiles(Path csv) throws IOException {
+        return Files.readString(csv.resolve(BulkTransfer.ROOMS_CSV)) +
+            Files.readString(csv.resolve(BulkTransfer.RESERVATIONS_CSV)) +
+            Files.readString(csv.resolve(BulkTransfer.PAYMENTS_CSV));
+    }
+
+    @Test
+    void csvAndBinaryRoundTripsKeepEveryField() throws Exception {
+        Path source = csv("source",
+            "room_id,room_number,room_type,price_per_night,is_available,capacity\n" +
+            "1,1,Deluxe,150.0,1,3\n" +
+            "7,\"Garden, North\",\"The \"\"Loft\"\"\",320.5,0,5\n",
+            "reservation_id,room_id,guest_name,guest_email,check_in_date,check_out_date,total_price,status," +
+                "room_flexible\r\n" +
+            "40,7,\"O'Hara, \"\"Kit\"\"\nJr\",kit@example.com,2040-06-01,2040-06-04,961.5,Confirmed,1\r\n" +
+            "41,1,Ann Lee,ann@example.com,2040-06-01,2040-06-03,300.0,Cancelled,0\r\n" +
+            "42,1,Bo Chen,bo@example.com,2040-06-02,2040-06-05,450.0,Confirmed,0\r\n",
+            "reservation_id,amount,payment_date,payment_method,status,idempotency_key,gateway_reference\n" +
+            "40,961.5,2040-05-01,Card,Settled,order-40,gw-1\n" +
+            "40,-100.0,2040-05-02,Card,Failed,,\n" +
+            "42,450.0,2040-05-03,\"Cash, desk\",Settled,,\n");
+        PropertyShard original = shard("original");
+        TransferResult imported = transfer.importFrom(original, BulkTransfer.Format.CSV, source);
+        assertEquals(1, imported.matchedRooms);
+        assertEquals(0, imported.getRejected());
+        assertEquals(3, imported.getReservations());
+        assertEquals(3, imported.getPayments());
+
+        Reservation kit = reservations.getReservationDetails(original, 40);
+        assertEquals(GUEST, kit.getGuestName());
+        assertTrue(kit.isRoomFlexible());
+        assertEquals("The \"Loft\"", original.roomCatalog().findById(kit.getRoomId()).getRoomType());
+        assertFalse(original.availabilityIndex().isFree(kit.getRoomId(), CHECK_IN, CHECK_IN.plusDays(3)));
+        List<Payment> payments = original.repository().findPayments(40);
+        assertEquals("order-40", payments.get(0).getIdempotencyKey());
+        assertEquals("gw-1", payments.get(0).getGatewayReference());
+        assertEquals(Payment.FAILED, payments.get(1).getStatus());
+        assertNull(payments.get(1).getIdempotencyKey());
+
+        Path exported = directory.resolve("exported");
+        Path snapshot = directory.resolve("hotel.snapshot");
+        assertEquals(3, transfer.exportTo(original, BulkTransfer.Format.CSV, exported).getReservations());
+        assertEquals(3, transfer.exportTo(original, BulkTransfer.Format.BINARY, snapshot).getReservations());
+
+        // Both formats load into a fresh property as the same rows
+        for (BulkTransfer.Format format : BulkTransfer.Format.values()) {
+            PropertyShard copy = shard("copy-" + format);
+            transfer.importFrom(copy, format, format == BulkTransfer.Format.CSV ? exported : snapshot);
+            Path again = directory.resolve("again-" + format);
+            transfer.exportTo(copy, BulkTransfer.Format.CSV, again);
+            assertEquals(csvFiles(exported), csvFiles(again), format.toString());
+            assertFalse(copy.availabilityIndex().isFree(kit.getRoomId(), CHECK_IN, CHECK_IN.plusDays(3)));
+        }
+    }
+
+    @Test
+    void parserHandlesQuotedCommasQuotesAndLineBreaks() throws IOException {
+        CsvParser parser = new CsvParser(new StringReader(
+            "a,\"b,c\",\"say \"\"hi\"\"\",\"two\r\nlines\"\r\n,,\n\"\"\nlast"));
+        assertEquals(List.of("a", "b,c", "say \"hi\"", "two\r\nlines"), parser.next());
+        assertEquals(2, parser.line());
+        assertEquals(List.of("", "", ""), parser.next());
+        assertEquals(List.of(""), parser.next());
+        assertEquals(List.of("last"), parser.next());
+        assertEquals(5, parser.line());
+        assertNull(parser.next());
+
+        assertThrows(IOException.class, () -> new CsvParser(new StringReader("a,\"open\n")).next());
+    }
+
+    @Test
+    void legacyHeadersLoadWithDefaults() throws Exception {
+        PropertyShard shard = shard("shard");
+        Path legacy = csv("legacy",
+            "room_id,room_number,room_type,price_per_night,is_available,capacity\n" +
+            "1,1,Deluxe,150.0,true,3\n",
+            "reservation_id,room_id,guest_name,guest_email,check_in_date,check_out_date,total_price,status\n" +
+            "5,1,Ann Lee,ann@example.com,2040-06-01,2040-06-03,300.0,Confirmed\n",
+            "reservation_id,amount,payment_date,payment_method\n" +
+            "5,300.0,2040-05-01,Card\n");
+        TransferResult result = transfer.importFrom(shard, BulkTransfer.Format.CSV, legacy);
+        assertEquals(1, result.getReservations());
+        assertEquals(1, result.getPayments());
+
+        assertFalse(reservations.getReservationDetails(shard, 5).isRoomFlexible());
+        Payment payment = shard.repository().findPayments(5).get(0);
+        assertEquals(Payment.SETTLED, payment.getStatus());
+        assertNull(payment.getIdempotencyKey());
+        assertNull(payment.getGatewayReference());
+
+        // Any other header, or a row of the wrong width, stops the import
+        Files.writeString(legacy.resolve(BulkTransfer.PAYMENTS_CSV), "reservation_id,amount,payment_date\n");
+        assertThrows(IOException.class, () -> transfer.importFrom(shard, BulkTransfer.Format.CSV, legacy));
+        Files.writeString(legacy.resolve(BulkTransfer.PAYMENTS_CSV),
+            "reservation_id,amount,payment_date,payment_method\n5,300.0,2040-05-01\n");
+        assertThrows(IOException.class, () -> transfer.importFrom(shard, BulkTransfer.Format.CSV, legacy));
+    }
+
+    // Writes a snapshot as older versions did: one room, one stay in it and one payment for the stay
+    private Path oldSnapshot(int version) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(SnapshotRecordSink.MAGIC);
+        out.writeShort(version);
+        out.writeByte(1);
+        out.writeInt(3);
+        string(out, "3");
+        string(out, "Standard");
+        out.writeDouble(100.0);
+        out.writeByte(1);
+        out.writeInt(2);
+        out.writeByte(0);
+        out.writeByte(1);
+        out.writeInt(9);
+        out.writeInt(3);
+        string(out, GUEST);
+        string(out, "kit@example.com");
+        out.writeInt((int) CHECK_IN.toEpochDay());
+        out.writeInt((int) CHECK_IN.plusDays(2).toEpochDay());
+        out.writeDouble(200.0);
+        string(out, "Confirmed");
+        out.writeByte(0);
+        out.writeByte(1);
+        out.writeInt(9);
+        out.writeDouble(200.0);
+        out.writeInt((int) CHECK_IN.minusDays(30).toEpochDay());
+        string(out, "Card");
+        if (version >= 2) {
+            string(out, Payment.PENDING);
+            string(out, "order-9");
+            string(out, "");
+        }
+        out.writeByte(0);
+        Path path = directory.resolve("v" + version + ".snapshot");
+        Files.write(path, bytes.toByteArray());
+        return path;
+    }
+
+    private static void string(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    @Test
+    void versionOneAndTwoSnapshotsStillLoad() throws Exception {
+        PropertyShard v1 = shard("v1");
+        assertEquals(1, transfer.importFrom(v1, BulkTransfer.Format.BINARY, oldSnapshot(1)).getReservations());
+        Reservation stay = reservations.getReservationDetails(v1, 9);
+        assertEquals(GUEST, stay.getGuestName());
+        assertFalse(stay.isRoomFlexible());
+        assertFalse(v1.availabilityIndex().isFree(3, CHECK_IN, CHECK_IN.plusDays(2)));
+        Payment settled = v1.repository().findPayments(9).get(0);
+        assertEquals(Payment.SETTLED, settled.getStatus());
+        assertNull(settled.getIdempotencyKey());
+
+        PropertyShard v2 = shard("v2");
+        assertEquals(1, transfer.importFrom(v2, BulkTransfer.Format.BINARY, oldSnapshot(2)).getPayments());
+        Payment pending = v2.repository().findPayments(9).get(0);
+        assertEquals(Payment.PENDING, pending.getStatus());
+        assertEquals("order-9", pending.getIdempotencyKey());
+        assertNull(pending.getGatewayReference());
+
+        Path future = directory.resolve("v4.snapshot");
+        byte[] v1Bytes = Files.readAllBytes(oldSnapshot(1));
+        v1Bytes[5] = (byte) (SnapshotRecordSink.VERSION + 1);
+        Files.write(future, v1Bytes);
+        assertThrows(IOException.class, () -> transfer.importFrom(v2, BulkTransfer.Format.BINARY, future));
+    }
+
+    @Test
+    void importRejectsOverlapsDuplicatesUnknownRoomsAndOrphanPayments() throws Exception {
+        PropertyShard shard = shard("shard");
+        int booked = reservations.book(shard, 1, "Ann Lee", "ann@example.com", CHECK_IN, CHECK_IN.plusDays(3), 100,
+            null).getReservation().getReservationId();
+        Path rows = csv("rows",
+            "room_id,room_number,room_type,price_per_night,is_available,capacity\n" +
+            "1,1,Deluxe,150.0,1,3\n",
+            "reservation_id,room_id,guest_name,guest_email,check_in_date,check_out_date,total_price,status," +
+                "room_flexible\n" +
+            booked + ",1,Bo Chen,bo@example.com,2040-07-01,2040-07-03,300.0,Confirmed,0\n" +
+            "20,99,Bo Chen,bo@example.com,2040-07-01,2040-07-03,300.0,Confirmed,0\n" +
+            "21,1,Bo Chen,bo@example.com,2040-06-02,2040-06-04,300.0,Confirmed,0\n" +
+            "22,1,Bo Chen,bo@example.com,2040-06-10,2040-06-12,300.0,Confirmed,0\n" +
+            "23,1,Cy Diaz,cy@example.com,2040-06-11,2040-06-13,300.0,Confirmed,0\n" +
+            "22,1,Cy Diaz,cy@example.com,2040-08-01,2040-08-03,300.0,Confirmed,0\n" +
+            "24,1,Cy Diaz,cy@example.com,2040-08-01,2040-08-01,0.0,Confirmed,0\n" +
+            "25,1,Cy Diaz,cy@example.com,2040-06-01,2040-06-03,300.0,Cancelled,0\n",
+            "reservation_id,amount,payment_date,payment_method,status,idempotency_key,gateway_reference\n" +
+            "22,300.0,2040-05-01,Card,Settled,,\n" +
+            "21,300.0,2040-05-01,Card,Settled,,\n" +
+            booked + ",300.0,2040-05-01,Card,Settled,,\n" +
+            "0,300.0,2040-05-01,Card,Settled,,\n");
+        TransferResult result = transfer.importFrom(shard, BulkTransfer.Format.CSV, rows);
+
+        assertEquals(2, result.getReservations());
+        assertEquals(2, result.duplicateId);
+        assertEquals(1, result.unknownRoom);
+        // One over the booked stay, and one over a row accepted earlier in the same file
+        assertEquals(2, result.overlapping);
+        assertEquals(1, result.invalid);
+        assertEquals(1, result.getPayments());
+        assertEquals(3, result.orphanPayments);
+
+        assertEquals("Ann Lee", reservations.getReservationDetails(shard, booked).getGuestName());
+        assertNull(reservations.getReservationDetails(shard, 21));
+        assertNull(reservations.getReservationDetails(shard, 23));
+        assertEquals("Cancelled", reservations.getReservationDetails(shard, 25).getStatus());
+        assertFalse(shard.availabilityIndex().isFree(1, CHECK_IN.plusDays(9), CHECK_IN.plusDays(11)));
+        assertEquals(1, shard.repository().findPayments(22).size());
+        assertTrue(shard.repository().findPayments(booked).isEmpty());
+    }
+}
@@ -0,0 +1,106 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import src.HotelReservationSystem.ChangeEvent;
+import src.HotelReservationSystem.ChangeFeed;
+
+class ChangeFeedTest {
+    @TempDir
+    Path directory;
+
+    // A ring of eight, so most of these events are only in the log
+    private ChangeFeed open(Path log) throws Exception {
+        return new ChangeFeed(log, 8, 50, 64, false);
+    }
+
+    private static void assertSequences(List<ChangeEvent> events, long first, long last) {
+        assertEquals(last - first + 1, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(first + i, events.get(i).getSequence());
+            assertEquals(first + i, events.get(i).getRoomId());
+        }
+    }
+
+    @Test
+    void readsFromTheRingAndTheLogInOrder() throws Exception {
+        try (ChangeFeed feed = open(directory.resolve("events.log"))) {
+            for (int i = 1; i <= 100; i++) {
+                assertEquals(i, feed.publish(ChangeEvent.roomAvailability(i, i % 2 == 0)));
+            }
+            assertEquals(100, feed.lastSequence());
+            assertSequences(feed.read(0, 64, 0), 1, 64);
+            assertSequences(feed.read(64, 64, 0), 65, 100);
+            assertSequences(feed.read(95, 64, 0), 96, 100);
+            assertSequences(feed.read(100, 64, 0), 101, 100);
+        }
+    }
+
+    @Test
+    void recoveryResumesNumberingAndCutsATornTail() throws Exception {
+        Path log = directory.resolve("events.log");
+        try (ChangeFeed feed = open(log)) {
+            for (int i = 1; i <= 20; i++) {
+                feed.publish(ChangeEvent.roomAvailability(i, true));
+            }
+        }
+        // A crash mid-append leaves part of a record behind
+        Files.write(log, new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (ChangeFeed feed = open(log)) {
+            assertEquals(20, feed.lastSequence());
+            assertEquals(21, feed.publish(ChangeEvent.roomAvailability(21, true)));
+            assertSequences(feed.read(0, 64, 0), 1, 21);
+        }
+    }
+
+    @Test
+    void subscriberReplaysTheLogThenFollowsNewEvents() throws Exception {
+        try (ChangeFeed feed = open(directory.resolve("events.log"))) {
+            for (int i = 1; i <= 30; i++) {
+                feed.publish(ChangeEvent.roomAvailability(i, true));
+            }
+            List<ChangeEvent> received = new CopyOnWriteArrayList<>();
+            CountDownLatch done = new CountDownLatch(1);
+            try (ChangeFeed.Subscription subscription = feed.subscribe("test", 0, events -> {
+                received.addAll(events);
+                if (received.size() >= 60) done.countDown();
+            })) {
+                for (int i = 31; i <= 60; i++) {
+                    feed.publish(ChangeEvent.roomAvailability(i, true));
+                }
+                assertTrue(done.await(10, TimeUnit.SECONDS));
+            }
+            assertSequences(received, 1, 60);
+        }
+    }
+
+    @Test
+    void longPollWakesOnPublish() throws Exception {
+        try (ChangeFeed feed = open(directory.resolve("events.log"))) {
+            Thread publisher = new Thread(() -> {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                feed.publish(ChangeEvent.roomAvailability(1, true));
+            });
+            publisher.start();
+            assertSequences(feed.read(0, 10, 10_000), 1, 1);
+            publisher.join();
+        }
+    }
+}
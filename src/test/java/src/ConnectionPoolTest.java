@@ -0,0 +1,254 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import src.HotelReservationSystem.ConnectionPool;
+import src.HotelReservationSystem.PooledConnection;
+import src.HotelReservationSystem.SchemaMigrations;
+import src.HotelReservationSystem.Sql;
+import src.HotelReservationSystem.StatementCacheStats;
+
+class ConnectionPoolTest {
+    @TempDir
+    Path directory;
+
+    private ConnectionPool pool;
+
+    @AfterEach
+    void closePool() {
+        if (pool != null) pool.close();
+    }
+
+    private ConnectionPool pool(int readers, long acquireTimeoutMs, long validationIntervalMs) {
+        return pool(readers, acquireTimeoutMs, validationIntervalMs, 8);
+    }
+
+    private ConnectionPool pool(int readers, long acquireTimeoutMs, long validationIntervalMs, int statementCacheSize) {
+        pool = new ConnectionPool("jdbc:sqlite:" + directory.resolve("pool.db"), readers, acquireTimeoutMs,
+            validationIntervalMs, statementCacheSize, List.of("PRAGMA journal_mode = WAL"));
+        return pool;
+    }
+
+    // The cached statements need the tables to prepare against
+    private ConnectionPool migratedPool(int readers, int statementCacheSize) throws SQLException {
+        ConnectionPool pool = pool(readers, 1000, 30000, statementCacheSize);
+        try (PooledConnection writer = pool.acquireWrite()) {
+            SchemaMigrations.migrate(writer);
+        }
+        return pool;
+    }
+
+    private static int selectOne(PooledConnection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT 1")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    @Test
+    void exhaustedReadPoolTimesOut() throws Exception {
+        ConnectionPool pool = pool(2, 100, 30000);
+        PooledConnection first = pool.acquireRead();
+        PooledConnection second = pool.acquireRead();
+        assertNotSame(first, second);
+        assertEquals(2, pool.stats().getActive());
+
+        long start = System.nanoTime();
+        SQLException timedOut = assertThrows(SQLException.class, pool::acquireRead);
+        assertTrue(timedOut.getMessage().startsWith("Timed out waiting for a read connection"));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+        assertEquals(1, pool.stats().getTimeouts());
+        first.close();
+        second.close();
+        assertEquals(0, pool.stats().getActive());
+        assertEquals(2, pool.stats().getIdle());
+    }
+
+    @Test
+    void releasedReaderGoesToTheWaitingCaller() throws Exception {
+        ConnectionPool pool = pool(2, 5000, 30000);
+        PooledConnection held = pool.acquireRead();
+        PooledConnection other = pool.acquireRead();
+        CompletableFuture<PooledConnection> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.acquireRead();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(50);
+        assertFalse(waiting.isDone());
+        // No third connection is opened; the waiter gets the one just returned
+        held.close();
+        assertSame(held, waiting.get(5, TimeUnit.SECONDS));
+        assertEquals(1, selectOne(held));
+        assertEquals(0, pool.stats().getTimeouts());
+        held.close();
+        other.close();
+    }
+
+    @Test
+    void heldWriterMakesOtherWritersTimeOut() throws Exception {
+        ConnectionPool pool = pool(2, 100, 30000);
+        try (PooledConnection writer = pool.acquireWrite()) {
+            assertTrue(writer.isWriter());
+            // The write lock is reentrant, so the competing writer has to be another thread
+            SQLException timedOut = CompletableFuture.supplyAsync(() -> {
+                try (PooledConnection other = pool.acquireWrite()) {
+                    return null;
+                } catch (SQLException e) {
+                    return e;
+                }
+            }).get(5, TimeUnit.SECONDS);
+            assertTrue(timedOut.getMessage().startsWith("Timed out waiting for the write connection"));
+            // Readers are not held up by the writer
+            try (PooledConnection reader = pool.acquireRead()) {
+                assertEquals(1, selectOne(reader));
+            }
+        }
+        assertEquals(1, pool.stats().getTimeouts());
+        CompletableFuture.runAsync(() -> {
+            try (PooledConnection writer = pool.acquireWrite()) {
+                assertTrue(writer.isWriter());
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void brokenConnectionsAreReplacedOnAcquire() throws Exception {
+        // A zero validation interval probes the connection on every acquire
+        ConnectionPool pool = pool(1, 1000, 0);
+        PooledConnection writer = pool.acquireWrite();
+        writer.close();
+        assertSame(writer, pool.acquireWrite());
+        writer.close();
+        writer.getConnection().close();
+        PooledConnection newWriter = pool.acquireWrite();
+        assertNotSame(writer, newWriter);
+        assertEquals(1, selectOne(newWriter));
+        newWriter.close();
+
+        PooledConnection reader = pool.acquireRead();
+        reader.close();
+        reader.getConnection().close();
+        PooledConnection newReader = pool.acquireRead();
+        assertNotSame(reader, newReader);
+        assertEquals(1, selectOne(newReader));
+        newReader.close();
+        assertEquals(2, pool.stats().getReplacedConnections());
+        // The replacement took the broken reader's slot rather than a new one
+        assertSame(newReader, pool.acquireRead());
+        newReader.close();
+    }
+
+    @Test
+    void connectionsUsedRecentlyAreNotProbed() throws Exception {
+        ConnectionPool pool = pool(1, 1000, 60000);
+        PooledConnection reader = pool.acquireRead();
+        reader.close();
+        reader.getConnection().close();
+        // Within the validation interval the pool trusts the connection, so the failure reaches the caller
+        PooledConnection same = pool.acquireRead();
+        assertSame(reader, same);
+        assertThrows(SQLException.class, () -> selectOne(same));
+        same.close();
+        assertEquals(0, pool.stats().getReplacedConnections());
+    }
+
+    @Test
+    void closedPoolRefusesConnections() throws Exception {
+        ConnectionPool pool = pool(2, 100, 30000);
+        PooledConnection reader = pool.acquireRead();
+        pool.close();
+        assertThrows(SQLException.class, pool::acquireRead);
+        assertThrows(SQLException.class, pool::acquireWrite);
+        // Returned after the close, it is closed rather than kept idle
+        reader.close();
+        assertTrue(reader.getConnection().isClosed());
+        assertEquals(0, pool.stats().getIdle());
+    }
+
+    @Test
+    void statementCacheEvictsTheLeastRecentlyUsed() throws Exception {
+        ConnectionPool pool = migratedPool(1, 2);
+        try (PooledConnection reader = pool.acquireRead()) {
+            PreparedStatement rooms = reader.prepare(Sql.ROOMS_ALL);
+            PreparedStatement byId = reader.prepare(Sql.ROOM_BY_ID);
+            assertSame(rooms, reader.prepare(Sql.ROOMS_ALL));
+            // ROOM_BY_ID is now the eldest entry, so the third statement pushes it out
+            PreparedStatement byNumber = reader.prepare(Sql.ROOM_BY_NUMBER);
+            assertTrue(byId.isClosed());
+            assertFalse(rooms.isClosed());
+            assertSame(rooms, reader.prepare(Sql.ROOMS_ALL));
+
+            PreparedStatement byIdAgain = reader.prepare(Sql.ROOM_BY_ID);
+            assertNotSame(byId, byIdAgain);
+            assertTrue(byNumber.isClosed());
+            byIdAgain.setInt(1, 1);
+            try (ResultSet rs = byIdAgain.executeQuery()) {
+                assertFalse(rs.next());
+            }
+        }
+
+        StatementCacheStats stats = pool.statementStats();
+        assertEquals(2, stats.getHits(Sql.ROOMS_ALL));
+        assertEquals(1, stats.getMisses(Sql.ROOMS_ALL));
+        assertEquals(0, stats.getEvictions(Sql.ROOMS_ALL));
+        assertEquals(2, stats.getMisses(Sql.ROOM_BY_ID));
+        assertEquals(1, stats.getEvictions(Sql.ROOM_BY_ID));
+        assertEquals(1, stats.getEvictions(Sql.ROOM_BY_NUMBER));
+        assertEquals(2, stats.getTotalHits());
+        assertEquals(4, stats.getTotalMisses());
+    }
+
+    @Test
+    void statementCountersAddUpAcrossConnections() throws Exception {
+        ConnectionPool pool = migratedPool(2, 8);
+        // The writer's own statements are counted too
+        long writerMisses = pool.statementStats().getTotalMisses();
+        PooledConnection first = pool.acquireRead();
+        PooledConnection second = pool.acquireRead();
+        for (int i = 0; i < 3; i++) {
+            try (ResultSet rs = first.query(Sql.ROOMS_ALL)) {
+                assertFalse(rs.next());
+            }
+        }
+        try (ResultSet rs = second.query(Sql.ROOMS_ALL)) {
+            assertFalse(rs.next());
+        }
+        // Each connection keeps its own cache, so the second one starts with a miss
+        assertEquals(2, pool.statementStats().getMisses(Sql.ROOMS_ALL));
+        assertEquals(2, pool.statementStats().getHits(Sql.ROOMS_ALL));
+
+        // A statement closed behind the cache's back is prepared again rather than handed out
+        first.prepare(Sql.ROOMS_ALL).close();
+        assertFalse(first.prepare(Sql.ROOMS_ALL).isClosed());
+        first.close();
+        second.close();
+
+        StatementCacheStats stats = pool.statementStats();
+        assertEquals(3, stats.getMisses(Sql.ROOMS_ALL));
+        assertEquals(3, stats.getHits(Sql.ROOMS_ALL));
+        assertEquals(writerMisses + 3, stats.getTotalMisses());
+        assertTrue(stats.toString().contains("ROOMS_ALL"));
+    }
+}
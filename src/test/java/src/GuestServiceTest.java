@@ -0,0 +1,173 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import src.HotelReservationSystem.ConnectionPool;
+import src.HotelReservationSystem.DatabaseManager;
+import src.HotelReservationSystem.Guest;
+import src.HotelReservationSystem.GuestIndex;
+import src.HotelReservationSystem.GuestService;
+import src.HotelReservationSystem.PooledConnection;
+import src.HotelReservationSystem.PropertyShard;
+import src.HotelReservationSystem.Reservation;
+import src.HotelReservationSystem.ReservationService;
+import src.HotelReservationSystem.SchemaMigrations;
+
+class GuestServiceTest {
+    private static final LocalDate CHECK_IN = LocalDate.of(2040, 5, 1);
+
+    @TempDir
+    Path directory;
+
+    private PropertyShard shard;
+    private final ReservationService reservations = new ReservationService();
+    private final GuestService guests = new GuestService();
+    private int nextRoom;
+
+    @BeforeEach
+    void openShard() throws SQLException {
+        shard = TestShards.open(directory);
+    }
+
+    @AfterEach
+    void closeShard() {
+        shard.close();
+    }
+
+    // Each stay in a room of its own, so none of them overlap
+    private Reservation book(String name, String email, int fromDay) {
+        int roomId = nextRoom++ % 10 + 1;
+        return reservations.book(shard, roomId, name, email, CHECK_IN.plusDays(fromDay), CHECK_IN.plusDays(fromDay + 2),
+            100, null).getReservation();
+    }
+
+    private static List<String> names(List<Guest> found) {
+        return found.stream().map(Guest::getName).toList();
+    }
+
+    @Test
+    void emailsAreNormalizedIntoOneProfile() {
+        Reservation first = book("Ann Lee", " Ann@Example.COM", 10);
+        Reservation second = book("Ann Lee-Smith", "ann@example.com ", 0);
+        Reservation other = book("Ann Lee", "ann@example.org", 20);
+        assertEquals(first.getGuestId(), second.getGuestId());
+        assertNotEquals(first.getGuestId(), other.getGuestId());
+        assertTrue(reservations.cancelReservation(shard, first.getReservationId()));
+
+        // Named as on the latest booking, with every stay listed by check-in date
+        Guest guest = guests.getGuest(shard, first.getGuestId());
+        assertEquals("Ann Lee-Smith", guest.getName());
+        assertEquals("ann@example.com", guest.getEmail());
+        List<Reservation> stays = guests.getStays(shard, guest.getGuestId());
+        assertEquals(List.of(second.getReservationId(), first.getReservationId()),
+            stays.stream().map(Reservation::getReservationId).toList());
+        assertEquals("Cancelled", stays.get(1).getStatus());
+
+        // ASCII only, as SQLite's lower() does
+        assertEquals("Änn@example.com", Guest.normalizeEmail("  ÄNN@Example.com "));
+    }
+
+    @Test
+    void prefixSearchMatchesEmailsNamesAndEachWord() {
+        book("Mary Ann Lee", "mary@example.com", 0);
+        book("Ann Lee", "lee@example.com", 0);
+        book("Anna Brown", "brown@example.com", 0);
+        book("Bo Chen", "annie@example.com", 0);
+
+        assertEquals(List.of("Mary Ann Lee", "Ann Lee", "Anna Brown", "Bo Chen"), names(guests.search(shard, "ann", 10)));
+        assertEquals(List.of("Mary Ann Lee", "Ann Lee"), names(guests.search(shard, " ANN", 2)));
+        assertEquals(List.of("Mary Ann Lee", "Ann Lee"), names(guests.search(shard, "lee", 10)));
+        assertEquals(List.of("Mary Ann Lee"), names(guests.search(shard, "mary ann", 10)));
+        assertEquals(List.of("Anna Brown"), names(guests.search(shard, "brown@", 10)));
+        assertTrue(guests.search(shard, "  ", 10).isEmpty());
+        assertTrue(guests.search(shard, "zed", 10).isEmpty());
+
+        // A renamed guest is no longer found under the old name
+        assertEquals(List.of("Ann Lee"), names(guests.search(shard, "ann lee", 10)));
+        book("Ann Park", "lee@example.com", 10);
+        assertTrue(guests.search(shard, "ann lee", 10).isEmpty());
+        assertEquals(List.of("Ann Park"), names(guests.search(shard, "lee@", 10)));
+        assertEquals(List.of("Ann Park"), names(guests.search(shard, "park", 10)));
+    }
+
+    @Test
+    void deltaMergesIntoTheSortedEntries() throws SQLException {
+        GuestIndex index = new GuestIndex();
+        index.ensureLoaded(shard.repository());
+        // Four keys each, so the delta passes its merge threshold several times over
+        int count = 3000;
+        for (int id = 1; id <= count; id++) {
+            index.add(id, "Guest " + id, "g" + id + "@example.com");
+        }
+        assertEquals(4 * count, index.size());
+
+        List<Integer> ids = new ArrayList<>();
+        for (Guest guest : index.search("guest", count)) {
+            ids.add(guest.getGuestId());
+        }
+        assertEquals(count, ids.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i + 1, ids.get(i));
+        }
+        assertEquals(List.of("Guest 2999"), names(index.search("g2999@", 10)));
+        assertEquals(List.of("Guest 1234"), names(index.search("1234", 10)));
+
+        index.reset();
+        assertNull(index.find(1));
+        index.ensureLoaded(shard.repository());
+        assertTrue(index.search("guest", 10).isEmpty());
+    }
+
+    @Test
+    void migrationSixBackfillsProfilesFromExistingReservations() throws SQLException {
+        String url = "jdbc:sqlite:" + directory.resolve("v5.db");
+        ConnectionPool pool = DatabaseManager.newConnectionPool(url);
+        try (PooledConnection conn = pool.acquireWrite(); Statement stmt = conn.getConnection().createStatement()) {
+            SchemaMigrations.migrate(conn, 5);
+            stmt.executeUpdate("INSERT INTO rooms (room_id, room_number, room_type, price_per_night) " +
+                "VALUES (1, '1', 'Deluxe', 150)");
+            String insert = "INSERT INTO reservations (room_id, guest_name, guest_email, check_in_date, " +
+                "check_out_date, total_price, status) VALUES (1, '%s', '%s', '%s', '%s', 300, 'Confirmed')";
+            stmt.executeUpdate(String.format(insert, "Bo Chen", "bo@example.com", "2040-05-01", "2040-05-03"));
+            stmt.executeUpdate(String.format(insert, "Ann Lee", " Ann@Example.com", "2040-05-03", "2040-05-05"));
+            stmt.executeUpdate(String.format(insert, "Ann Lee-Smith", "ann@example.com", "2040-05-05", "2040-05-07"));
+        } finally {
+            pool.close();
+        }
+
+        PropertyShard upgraded = new PropertyShard("OLD", "Old", url);
+        upgraded.open();
+        try {
+            // Profiles are numbered by their latest reservation and named as on it
+            assertEquals(List.of("Bo Chen", "Ann Lee-Smith"), upgraded.repository().loadGuests().stream()
+                .map(Guest::getName).toList());
+            for (int id = 1; id <= 3; id++) {
+                assertTrue(upgraded.repository().findReservation(id).getGuestId() > 0);
+            }
+            Guest ann = guests.search(upgraded, "ann", 10).get(0);
+            assertEquals("ann@example.com", ann.getEmail());
+            assertEquals(2, guests.getStays(upgraded, ann.getGuestId()).size());
+            // New bookings join the backfilled profile
+            Reservation later = reservations.book(upgraded, 1, "Ann Lee", "ANN@example.com", LocalDate.of(2040, 6, 1),
+                LocalDate.of(2040, 6, 3), 100, null).getReservation();
+            assertEquals(ann.getGuestId(), later.getGuestId());
+        } finally {
+            upgraded.close();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import src.HotelReservationSystem.AvailabilityIndex;
+import src.HotelReservationSystem.Hold;
+import src.HotelReservationSystem.HoldRegistry;
+
+class HoldRegistryTest {
+    private static final LocalDate CHECK_IN = LocalDate.of(2040, 7, 1);
+    private static final LocalDate CHECK_OUT = CHECK_IN.plusDays(2);
+
+    private final AvailabilityIndex index = new AvailabilityIndex();
+    // Eight 10 ms slots, so a hold of more than 80 ms waits out several turns of the wheel
+    private final HoldRegistry holds = new HoldRegistry(index, 8, 10, 50, 1000, 3);
+
+    @AfterEach
+    void close() {
+        holds.close();
+    }
+
+    @Test
+    void holdBlocksItsDatesUntilItExpires() throws InterruptedException {
+        Hold hold = holds.place(1, CHECK_IN, CHECK_OUT, 600);
+        assertNotNull(hold);
+        assertFalse(index.isFree(1, CHECK_IN.plusDays(1), CHECK_OUT));
+        assertTrue(index.isFree(1, CHECK_IN, CHECK_OUT, hold.getHoldId()));
+        assertNull(holds.place(1, CHECK_IN.plusDays(1), CHECK_OUT.plusDays(1), 0));
+
+        Thread.sleep(100);
+        assertSame(hold, holds.find(hold.getHoldId()));
+        awaitExpiry(hold);
+    }
+
+    @Test
+    void releasedHoldFreesItsDatesAtOnce() {
+        Hold hold = holds.place(1, CHECK_IN, CHECK_OUT, 0);
+        assertTrue(holds.release(hold.getHoldId()));
+        assertFalse(holds.release(hold.getHoldId()));
+        assertTrue(index.isFree(1, CHECK_IN, CHECK_OUT));
+        assertNotNull(holds.place(1, CHECK_IN, CHECK_OUT, 0));
+    }
+
+    @Test
+    void takenHoldKeepsItsDatesAndCanBeRestored() throws InterruptedException {
+        Hold hold = holds.place(2, CHECK_IN, CHECK_OUT, 500);
+        assertSame(hold, holds.take(hold.getHoldId()));
+        assertNull(holds.take(hold.getHoldId()));
+        assertFalse(index.isFree(2, CHECK_IN, CHECK_OUT));
+
+        holds.restore(hold);
+        assertSame(hold, holds.find(hold.getHoldId()));
+        awaitExpiry(hold);
+    }
+
+    @Test
+    void liveHoldsAreCapped() {
+        Hold first = holds.place(1, CHECK_IN, CHECK_OUT, 0);
+        for (int roomId = 2; roomId <= 3; roomId++) {
+            assertNotNull(holds.place(roomId, CHECK_IN, CHECK_OUT, 0));
+        }
+        assertThrows(RejectedExecutionException.class, () -> holds.place(4, CHECK_IN, CHECK_OUT, 0));
+        assertTrue(index.isFree(4, CHECK_IN, CHECK_OUT));
+
+        // A released hold gives its slot back, and so does a place() that finds the dates taken
+        assertTrue(holds.release(first.getHoldId()));
+        assertNull(holds.place(2, CHECK_IN, CHECK_OUT, 0));
+        assertNotNull(holds.place(4, CHECK_IN, CHECK_OUT, 0));
+    }
+
+    @Test
+    void concurrentPlacesNeverExceedTheCap() throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<CompletableFuture<Boolean>> attempts = new ArrayList<>();
+            for (int roomId = 1; roomId <= 64; roomId++) {
+                int room = roomId;
+                attempts.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return holds.place(room, CHECK_IN, CHECK_OUT, 0) != null;
+                    } catch (RejectedExecutionException e) {
+                        return false;
+                    }
+                }, threads));
+            }
+            int placed = 0;
+            for (CompletableFuture<Boolean> attempt : attempts) {
+                if (attempt.get()) placed++;
+            }
+            assertEquals(3, placed);
+            assertEquals(3, holds.size());
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+    // The ticker drops the hold from the registry first and then from the index
+    private void awaitExpiry(Hold hold) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((holds.find(hold.getHoldId()) != null
+                || !index.isFree(hold.getRoomId(), hold.getCheckInDate(), hold.getCheckOutDate()))
+               && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNull(holds.find(hold.getHoldId()));
+        assertTrue(index.isFree(hold.getRoomId(), hold.getCheckInDate(), hold.getCheckOutDate()));
+        // Never a tick early; the wall clock may lag the ticker's clock by a millisecond or so
+        assertTrue(System.currentTimeMillis() >= hold.getExpiresAt() - 5, "expired early");
+    }
+}
@@ -0,0 +1,33 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import src.HotelReservationSystem.JsonReader;
+
+class JsonReaderTest {
+    @Test
+    void readsScalarsAsText() {
+        Map<String, String> values = JsonReader.parseObject(
+            "{\"name\": \"Ann \\u00e9\", \"amount\": -12.50e1, \"count\": 0, \"ok\": true, \"note\": null}");
+        assertEquals("Ann \u00e9", values.get("name"));
+        assertEquals("-12.50e1", values.get("amount"));
+        assertEquals("0", values.get("count"));
+        assertEquals("true", values.get("ok"));
+        assertNull(values.get("note"));
+    }
+
+    @Test
+    void rejectsNumbersOutsideTheJsonGrammar() {
+        for (String literal : new String[] {"NaN", "Infinity", "-Infinity", "0x1p3", "1d", "1f", "+1", "01", ".5",
+                                            "5.", "1e", "1e999"}) {
+            assertThrows(IllegalArgumentException.class, () -> JsonReader.parseObject("{\"amount\": " + literal + "}"),
+                literal);
+        }
+    }
+}
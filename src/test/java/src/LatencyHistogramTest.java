@@ -0,0 +1,114 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+import src.HotelReservationSystem.LatencyHistogram;
+import src.HotelReservationSystem.Metrics;
+
+class LatencyHistogramTest {
+    private static final Pattern HELP = Pattern.compile("# HELP [a-zA-Z_:][a-zA-Z0-9_:]* \\S.*");
+    private static final Pattern TYPE = Pattern.compile("# TYPE [a-zA-Z_:][a-zA-Z0-9_:]* (counter|gauge|summary|histogram|untyped)");
+    private static final Pattern SAMPLE = Pattern.compile(
+        "([a-zA-Z_:][a-zA-Z0-9_:]*)(\\{[a-zA-Z_][a-zA-Z0-9_]*=\"[^\"\\\\\\n]*\"(,[a-zA-Z_][a-zA-Z0-9_]*=\"[^\"\\\\\\n]*\")*\\})? " +
+        "(-?[0-9]+(\\.[0-9]+)?([eE]-?[0-9]+)?|NaN|[+-]Inf)");
+
+    // Every power of two, its neighbours, and a spread of random values up to Long.MAX_VALUE
+    private static List<Long> probes() {
+        List<Long> values = new ArrayList<>();
+        for (long v = 0; v < 1024; v++) values.add(v);
+        for (int bit = 7; bit < 63; bit++) {
+            long power = 1L << bit;
+            values.add(power - 1);
+            values.add(power);
+            values.add(power + 1);
+            values.add(power + power / 2);
+        }
+        values.add(Long.MAX_VALUE);
+        Random random = new Random(11);
+        for (int i = 0; i < 100000; i++) {
+            values.add((random.nextLong() >>> 1) >>> random.nextInt(63));
+        }
+        return values;
+    }
+
+    @Test
+    void bucketUpperBoundHoldsTheValue() {
+        for (long value : probes()) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(LatencyHistogram.highestValueIn(index) >= value, "value " + value);
+            // Buckets are contiguous: the one below ends before the value
+            if (index > 0) {
+                assertTrue(LatencyHistogram.highestValueIn(index - 1) < value, "value " + value);
+            }
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueIn(LatencyHistogram.indexOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    void relativeErrorStaysUnderOnePointSixPercent() {
+        for (long value : probes()) {
+            long upper = LatencyHistogram.highestValueIn(LatencyHistogram.indexOf(value));
+            if (value < 128) {
+                assertEquals(value, upper);
+                continue;
+            }
+            // Divided first so values near Long.MAX_VALUE do not overflow
+            double error = (double) (upper - value) / value;
+            assertTrue(error < 0.016, "value " + value + " reported as " + upper);
+        }
+    }
+
+    @Test
+    void percentilesAreCappedAtTheLargestValue() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(99));
+        assertEquals(0, histogram.mean());
+        for (long v = 1; v <= 1000; v++) {
+            histogram.record(v * 1000);
+        }
+        histogram.record(-5);
+        assertEquals(1001, histogram.count());
+        assertEquals(500500000L, histogram.sum());
+        assertEquals(1000000L, histogram.max());
+        assertEquals(500500000.0 / 1001, histogram.mean(), 1e-6);
+
+        long median = histogram.percentile(50);
+        assertTrue(median >= 500000 && median < 500000 * 1.016, "median " + median);
+        assertEquals(1000000L, histogram.percentile(100));
+        assertEquals(0, histogram.percentile(0.01));
+    }
+
+    @Test
+    void prometheusOutputIsValidExposition() {
+        LatencyHistogram histogram = Metrics.serviceLatency(Metrics.ServiceMethod.ROOM_SEARCH);
+        histogram.record(1234567);
+        String text = Metrics.prometheus();
+        assertTrue(text.endsWith("\n"));
+
+        String typed = null;
+        for (String line : text.split("\n")) {
+            if (line.startsWith("# HELP ")) {
+                assertTrue(HELP.matcher(line).matches(), line);
+            } else if (line.startsWith("# TYPE ")) {
+                assertTrue(TYPE.matcher(line).matches(), line);
+                typed = line.split(" ")[2];
+            } else {
+                var sample = SAMPLE.matcher(line);
+                assertTrue(sample.matches(), line);
+                // Every sample belongs to the family declared above it
+                String name = sample.group(1);
+                assertTrue(name.equals(typed) || name.equals(typed + "_sum") || name.equals(typed + "_count"), line);
+            }
+        }
+        assertTrue(text.contains("hotel_service_latency_seconds{method=\"room_search\",quantile=\"0.99\"} "));
+        assertTrue(text.contains("# TYPE hotel_connection_timeouts_total counter\n"));
+    }
+}
@@ -0,0 +1,223 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import src.HotelReservationSystem.Guest;
+import src.HotelReservationSystem.MemoryRepository;
+import src.HotelReservationSystem.Payment;
+import src.HotelReservationSystem.Reservation;
+import src.HotelReservationSystem.Room;
+import src.HotelReservationSystem.RoomMoves;
+
+class MemoryRepositoryTest {
+    private static final LocalDate CHECK_IN = LocalDate.of(2040, 9, 1);
+
+    @TempDir
+    Path directory;
+
+    private MemoryRepository repository;
+
+    @AfterEach
+    void close() {
+        if (repository != null) repository.close();
+    }
+
+    private MemoryRepository reopen() throws IOException {
+        if (repository != null) repository.close();
+        repository = MemoryRepository.open(directory);
+        return repository;
+    }
+
+    private Reservation book(int roomId, String name, String email, int fromDay, int toDay, boolean roomFlexible,
+                             Payment payment) throws Exception {
+        Reservation reservation = new Reservation(roomId, name, email, CHECK_IN.plusDays(fromDay),
+            CHECK_IN.plusDays(toDay), 100.0 * (toDay - fromDay));
+        reservation.setRoomFlexible(roomFlexible);
+        assertTrue(repository.insertReservation(reservation, payment, () -> {}));
+        return reservation;
+    }
+
+    private static Payment payment(double amount, String key) {
+        Payment payment = new Payment(0, amount, "Card");
+        payment.setPaymentDate(CHECK_IN.minusDays(10));
+        payment.setStatus(Payment.PENDING);
+        payment.setIdempotencyKey(key);
+        return payment;
+    }
+
+    // One of every journal record type
+    private void populate() throws Exception {
+        repository.insertRooms(List.of(new Room(1, "101", "Deluxe", 150.0, true, 3),
+            new Room(2, "102", "Deluxe", 150.0, true, 3), new Room(3, "Garden, North", "Suite", 250.0, true, 4)));
+        Payment deposit = payment(300.0, "order-1");
+        Reservation flexible = book(1, "Ann Lee", "ann@example.com", 0, 3, true, deposit);
+        book(2, "Bo Chen", "bo@example.com", 0, 2, false, null);
+        Reservation cancelled = book(1, "Ann Lee", "ANN@example.com ", 5, 7, false, null);
+        assertTrue(repository.cancelReservation(cancelled.getReservationId(), roomId -> {}));
+        assertTrue(repository.settlePayment(deposit.getPaymentId(), Payment.SETTLED, "gw-1", () -> {}));
+        Payment refund = payment(-50.0, "refund-1");
+        refund.setReservationId(flexible.getReservationId());
+        repository.insertPayment(refund, () -> {});
+        assertTrue(repository.updateRoomPrice(2, 180.0, () -> {}));
+        assertTrue(repository.updateRoomAvailability(3, false, () -> {}));
+        RoomMoves moves = new RoomMoves();
+        moves.add(flexible.getReservationId(), 1, 2, (int) CHECK_IN.toEpochDay(), (int) CHECK_IN.plusDays(3).toEpochDay());
+        assertFalse(repository.moveReservations(moves, () -> {}));
+        moves = new RoomMoves();
+        moves.add(flexible.getReservationId(), 1, 3, (int) CHECK_IN.toEpochDay(), (int) CHECK_IN.plusDays(3).toEpochDay());
+        assertTrue(repository.moveReservations(moves, () -> {}));
+    }
+
+    // Everything a reader can see, field by field
+    private List<String> state() throws Exception {
+        List<String> state = new ArrayList<>();
+        for (Room room : repository.loadRooms()) {
+            state.add(room.getRoomId() + "|" + room.getRoomNumber() + "|" + room.getRoomType() + "|" +
+                room.getPricePerNight() + "|" + room.isAvailable() + "|" + room.getCapacity());
+        }
+        for (int id = 1; id <= 10; id++) {
+            Reservation r = repository.findReservation(id);
+            if (r == null) continue;
+            state.add(id + "|" + r.getRoomId() + "|" + r.getGuestName() + "|" + r.getGuestEmail() + "|" +
+                r.getCheckInDate() + "|" + r.getCheckOutDate() + "|" + r.getTotalCents() + "|" + r.getStatus() + "|" +
+                r.isRoomFlexible() + "|" + r.getGuestId());
+            for (Payment p : repository.findPayments(id)) {
+                state.add(p.getPaymentId() + "|" + p.getReservationId() + "|" + p.getAmountCents() + "|" +
+                    p.getPaymentDate() + "|" + p.getPaymentMethod() + "|" + p.getStatus() + "|" +
+                    p.getIdempotencyKey() + "|" + p.getGatewayReference());
+            }
+        }
+        for (Guest guest : repository.loadGuests()) {
+            state.add(guest.getGuestId() + "|" + guest.getName() + "|" + guest.getEmail());
+        }
+        state.add("pending " + repository.findPendingPayments().size());
+        state.add("flexible " + repository.findFlexibleStays(CHECK_IN.minusDays(1)));
+        return state;
+    }
+
+    @Test
+    void stateSurvivesReopening() throws Exception {
+        reopen();
+        populate();
+        List<String> written = state();
+        assertEquals(2, repository.loadGuests().size());
+
+        reopen();
+        assertEquals(written, state());
+        // Appends after a replay land after the replayed records
+        book(1, "Cy Diaz", "cy@example.com", 10, 12, false, null);
+        List<String> appended = state();
+        reopen();
+        assertEquals(appended, state());
+    }
+
+    private void assertReplayStopsAtTheLastGoodRecord(boolean truncate) throws Exception {
+        reopen();
+        populate();
+        List<String> good = state();
+        long goodBytes = repository.getJournalBytes();
+        book(2, "Cy Diaz", "cy@example.com", 10, 12, false, payment(200.0, "order-9"));
+        long endBytes = repository.getJournalBytes();
+        repository.close();
+        repository = null;
+
+        try (FileChannel journal = FileChannel.open(directory.resolve("journal-0.log"), StandardOpenOption.WRITE)) {
+            if (truncate) {
+                journal.truncate((goodBytes + endBytes) / 2);
+            } else {
+                journal.write(ByteBuffer.wrap(new byte[] {0x55}), (goodBytes + endBytes) / 2);
+            }
+        }
+        reopen();
+        assertEquals(good, state());
+        assertEquals(goodBytes, repository.getJournalBytes());
+
+        // The damaged tail was cleared, so the next record replays after the good ones
+        book(2, "Di Park", "di@example.com", 20, 22, false, null);
+        List<String> appended = state();
+        reopen();
+        assertEquals(appended, state());
+    }
+
+    @Test
+    void replayStopsAtACorruptRecord() throws Exception {
+        assertReplayStopsAtTheLastGoodRecord(false);
+    }
+
+    @Test
+    void replayStopsAtATornTail() throws Exception {
+        assertReplayStopsAtTheLastGoodRecord(true);
+    }
+
+    @Test
+    void compactionKeepsEveryField() throws Exception {
+        reopen();
+        populate();
+        List<String> written = state();
+        repository.compact();
+        assertEquals(written, state());
+        assertTrue(Files.exists(directory.resolve("snapshot-1.bin")));
+        assertFalse(Files.exists(directory.resolve("journal-0.log")));
+        assertEquals(0, repository.getJournalBytes());
+
+        reopen();
+        assertEquals(written, state());
+        // The key still dedupes and the refund cap still counts the settled deposit
+        Payment replayed = payment(300.0, "order-1");
+        replayed.setReservationId(1);
+        assertEquals(1, repository.insertPayment(replayed, () -> {}).getPaymentId());
+        Payment refund = payment(-300.0, "refund-2");
+        refund.setReservationId(1);
+        assertNull(repository.insertPayment(refund, () -> {}));
+        assertEquals(written, state());
+    }
+
+    @Test
+    void crashBetweenSnapshotRenameAndJournalSwitchRecoversTheSnapshot() throws Exception {
+        reopen();
+        populate();
+        List<String> written = state();
+        repository.close();
+        Path journal = directory.resolve("journal-0.log");
+        byte[] journalBytes = Files.readAllBytes(journal);
+
+        reopen();
+        repository.compact();
+        repository.close();
+        repository = null;
+        // As left by a crash after the rename: snapshot 1 committed, journal 0 not yet replaced
+        Files.delete(directory.resolve("journal-1.log"));
+        Files.write(journal, journalBytes);
+        Files.write(directory.resolve("snapshot-2.tmp"), new byte[] {1, 2, 3});
+
+        reopen();
+        assertEquals(written, state());
+        assertFalse(Files.exists(journal));
+        assertFalse(Files.exists(directory.resolve("snapshot-2.tmp")));
+        assertTrue(Files.exists(directory.resolve("journal-1.log")));
+
+        book(2, "Cy Diaz", "cy@example.com", 10, 12, false, null);
+        List<String> appended = state();
+        assertNotEquals(written, appended);
+        reopen();
+        assertEquals(appended, state());
+    }
+}
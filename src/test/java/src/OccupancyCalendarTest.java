@@ -0,0 +1,109 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import src.HotelReservationSystem.BookingResult;
+import src.HotelReservationSystem.OccupancyCalendar;
+import src.HotelReservationSystem.OccupancyGrid;
+import src.HotelReservationSystem.PropertyShard;
+import src.HotelReservationSystem.ReservationService;
+
+class OccupancyCalendarTest {
+    private static final LocalDate FROM = LocalDate.of(2040, 1, 1);
+    private static final LocalDate TO = FROM.plusDays(90);
+
+    @TempDir
+    Path directory;
+
+    private PropertyShard shard;
+    private OccupancyCalendar calendar;
+    private final ReservationService reservations = new ReservationService();
+
+    @BeforeEach
+    void openShard() throws SQLException {
+        shard = TestShards.open(directory);
+        calendar = newCalendar();
+    }
+
+    @AfterEach
+    void closeShard() {
+        shard.close();
+    }
+
+    private OccupancyCalendar newCalendar() {
+        return new OccupancyCalendar(shard.availabilityIndex(), () -> shard.roomCatalog().findAll(), 4);
+    }
+
+    private BookingResult book(int roomId, LocalDate checkIn, LocalDate checkOut) {
+        return reservations.book(shard, roomId, "Ann Lee", "ann@example.com", checkIn, checkOut, 100, null);
+    }
+
+    private static void assertSameGrid(OccupancyGrid expected, OccupancyGrid actual) {
+        assertEquals(expected.getRoomCount(), actual.getRoomCount());
+        for (int room = 0; room < expected.getRoomCount(); room++) {
+            assertArrayEquals(expected.roomBitmap(room), actual.roomBitmap(room), "room " + expected.getRoomId(room));
+        }
+        for (int type = 0; type < expected.getTypeCount(); type++) {
+            assertArrayEquals(expected.availableByType(type), actual.availableByType(type), expected.getType(type));
+        }
+    }
+
+    @Test
+    void patchedGridMatchesAFreshSweep() {
+        calendar.grid(FROM, TO);
+        // Stays reaching in from before the window and out past its end, booked and then partly cancelled
+        Random random = new Random(14);
+        List<Integer> booked = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            LocalDate checkIn = FROM.plusDays(random.nextInt(110) - 10);
+            BookingResult result = book(1 + random.nextInt(10), checkIn, checkIn.plusDays(1 + random.nextInt(6)));
+            if (result.isConfirmed()) {
+                booked.add(result.getReservation().getReservationId());
+            }
+        }
+        for (int i = 0; i < booked.size(); i += 3) {
+            assertTrue(reservations.cancelReservation(shard, booked.get(i)));
+        }
+
+        long hits = calendar.stats().getHits();
+        OccupancyGrid patched = calendar.grid(FROM, TO);
+        assertEquals(hits + 1, calendar.stats().getHits());
+        assertSameGrid(newCalendar().grid(FROM, TO), patched);
+    }
+
+    @Test
+    void returnedGridIsASnapshot() {
+        OccupancyGrid before = calendar.grid(FROM, TO);
+        assertTrue(book(4, FROM.plusDays(5), FROM.plusDays(8)).isConfirmed());
+
+        int room = 0;
+        while (before.getRoomId(room) != 4) room++;
+        assertFalse(before.isBooked(room, 5));
+        OccupancyGrid after = calendar.grid(FROM, TO);
+        assertTrue(after.isBooked(room, 5) && after.isBooked(room, 7));
+        assertFalse(after.isBooked(room, 8));
+    }
+
+    @Test
+    void windowIsBounded() {
+        assertThrows(IllegalArgumentException.class, () -> calendar.grid(FROM, FROM));
+        assertThrows(IllegalArgumentException.class,
+            () -> calendar.grid(FROM, FROM.plusDays(OccupancyCalendar.MAX_NIGHTS + 1)));
+    }
+}
@@ -0,0 +1,102 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import src.HotelReservationSystem.Payment;
+import src.HotelReservationSystem.PaymentResult;
+import src.HotelReservationSystem.PaymentService;
+import src.HotelReservationSystem.PropertyShard;
+import src.HotelReservationSystem.ReservationService;
+
+class PaymentServiceTest {
+    private static final LocalDate CHECK_IN = LocalDate.of(2040, 4, 1);
+
+    @TempDir
+    Path directory;
+
+    private PropertyShard shard;
+    private final PaymentService payments = new PaymentService();
+    private int first;
+    private int second;
+
+    @BeforeEach
+    void openShard() throws SQLException {
+        shard = TestShards.open(directory);
+        ReservationService reservations = new ReservationService();
+        first = reservations.book(shard, 1, "Ann Lee", "ann@example.com", CHECK_IN, CHECK_IN.plusDays(2), 100, null)
+            .getReservation().getReservationId();
+        second = reservations.book(shard, 2, "Bo Chen", "bo@example.com", CHECK_IN, CHECK_IN.plusDays(2), 100, null)
+            .getReservation().getReservationId();
+    }
+
+    @AfterEach
+    void closeShard() {
+        shard.close();
+    }
+
+    // The shard's own queue settles with the stub gateway, which approves everything by default
+    private void awaitSettled(int reservationId) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (shard.repository().findPayments(reservationId).stream()
+                .anyMatch(p -> Payment.PENDING.equals(p.getStatus()))) {
+            if (System.nanoTime() > deadline) throw new AssertionError("Payments still pending");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void sameKeyReplaysTheStoredPayment() throws Exception {
+        PaymentResult accepted = payments.submitPayment(shard, first, 200, "Card", "order-1");
+        assertEquals(PaymentResult.Status.ACCEPTED, accepted.getStatus());
+        PaymentResult replayed = payments.submitPayment(shard, first, 200, "Card", "order-1");
+        assertEquals(PaymentResult.Status.REPLAYED, replayed.getStatus());
+        assertEquals(accepted.getPayment().getPaymentId(), replayed.getPayment().getPaymentId());
+
+        awaitSettled(first);
+        assertEquals(PaymentResult.Status.REPLAYED, payments.submitPayment(shard, first, 200, "Card", "order-1")
+            .getStatus());
+        assertEquals(1, shard.repository().findPayments(first).size());
+    }
+
+    @Test
+    void sameKeyForAnotherPaymentIsRejected() throws Exception {
+        assertEquals(PaymentResult.Status.ACCEPTED, payments.submitPayment(shard, first, 200, "Card", "order-1")
+            .getStatus());
+        assertEquals(PaymentResult.Status.REJECTED, payments.submitPayment(shard, first, 250, "Card", "order-1")
+            .getStatus());
+        assertEquals(PaymentResult.Status.REJECTED, payments.submitPayment(shard, second, 200, "Card", "order-1")
+            .getStatus());
+        assertEquals(PaymentResult.Status.REJECTED, payments.refund(shard, first, 200, "Card", "order-1").getStatus());
+        assertEquals(PaymentResult.Status.REJECTED, payments.submitPayment(shard, first, 200, "Card", " ").getStatus());
+        assertEquals(PaymentResult.Status.REJECTED, payments.submitPayment(shard, first, 0, "Card", null).getStatus());
+        assertEquals(1, shard.repository().findPayments(first).size());
+        assertEquals(0, shard.repository().findPayments(second).size());
+    }
+
+    @Test
+    void refundIsCappedAtTheSettledBalance() throws Exception {
+        payments.submitPayment(shard, first, 100, "Card", "order-1");
+        // Nothing is refundable until the charge settles
+        assertEquals(PaymentResult.Status.REJECTED, payments.refund(shard, first, 10, "Card", null).getStatus());
+        awaitSettled(first);
+
+        assertEquals(PaymentResult.Status.ACCEPTED, payments.refund(shard, first, 60, "Card", "refund-1").getStatus());
+        // A pending refund already counts against the balance
+        assertEquals(PaymentResult.Status.REJECTED, payments.refund(shard, first, 50, "Card", "refund-2").getStatus());
+        assertEquals(PaymentResult.Status.ACCEPTED, payments.refund(shard, first, 40, "Card", "refund-3").getStatus());
+        awaitSettled(first);
+        assertEquals(PaymentResult.Status.REJECTED, payments.refund(shard, first, 0.01, "Card", null).getStatus());
+        assertEquals(0, PaymentService.settledCents(shard.repository().findPayments(first)));
+        assertEquals(PaymentResult.Status.REJECTED, payments.refund(shard, second, 1, "Card", null).getStatus());
+    }
+}
@@ -0,0 +1,91 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import src.HotelReservationSystem.Money;
+import src.HotelReservationSystem.PricingEngine;
+import src.HotelReservationSystem.RatePlan;
+
+class PricingEngineTest {
+    private final PricingEngine pricing = new PricingEngine();
+
+    private static int day(LocalDate date) {
+        return (int) date.toEpochDay();
+    }
+
+    @Test
+    void flatPlanChargesTheBaseRateEveryNight() {
+        pricing.setRatePlan("Standard", new RatePlan("0", "", ""));
+        LocalDate checkIn = LocalDate.now().plusDays(10);
+        assertEquals(3 * 12_345, pricing.quote("Standard", 12_345, day(checkIn), day(checkIn.plusDays(3))));
+        assertEquals(0, pricing.quote("Standard", 12_345, day(checkIn), day(checkIn)));
+    }
+
+    @Test
+    void weekendSeasonAndLengthOfStayCompound() {
+        pricing.setRatePlan("Suite", new RatePlan("20", "12-20..01-05:50", "7:10"));
+        LocalDate friday = LocalDate.of(2041, 3, 1);
+        while (friday.getDayOfWeek() != DayOfWeek.FRIDAY) {
+            friday = friday.plusDays(1);
+        }
+        // Friday and Saturday at 120%, Sunday at 100%
+        assertEquals(12_000 + 12_000 + 10_000, pricing.quote("Suite", 10_000, day(friday), day(friday.plusDays(3))));
+
+        // The season wraps the new year; a Friday in it is 150% of 120%
+        LocalDate newYear = LocalDate.of(2041, 12, 31);
+        RatePlan plan = pricing.ratePlan("Suite");
+        int expected = newYear.getDayOfWeek() == DayOfWeek.FRIDAY || newYear.getDayOfWeek() == DayOfWeek.SATURDAY
+            ? 18_000 : 15_000;
+        assertEquals(expected, Money.applyBps(10_000, plan.nightlyBps(day(newYear))));
+
+        // Seven nights or more take 10% off the total
+        LocalDate monday = friday.plusDays(3);
+        long week = 5 * 10_000 + 2 * 12_000;
+        assertEquals(week - Money.applyBps(week, 1000), pricing.quote("Suite", 10_000, day(monday), day(monday.plusDays(7))));
+    }
+
+    @Test
+    void tableQuotesMatchThePlanNightByNight() {
+        RatePlan plan = new RatePlan("15", "07-01..08-31:25,12-20..01-05:40", "3:5,7:12.5");
+        pricing.setRatePlan("Deluxe", plan);
+        Random random = new Random(7);
+        int today = day(LocalDate.now());
+        for (int i = 0; i < 2000; i++) {
+            // Some stays start before or run past the table and are priced from the plan
+            int checkIn = today - 60 + random.nextInt(1300);
+            int nights = 1 + random.nextInt(20);
+            long base = 1 + random.nextInt(100_000);
+            long total = 0;
+            for (int night = checkIn; night < checkIn + nights; night++) {
+                total += Money.applyBps(base, plan.nightlyBps(night));
+            }
+            total -= Money.applyBps(total, plan.losDiscountBps(nights));
+            assertEquals(total, pricing.quote("Deluxe", base, checkIn, checkIn + nights));
+        }
+    }
+
+    @Test
+    void replacedPlanTakesEffectAtOnce() {
+        LocalDate checkIn = LocalDate.now().plusDays(30);
+        pricing.setRatePlan("Standard", new RatePlan("0", "", ""));
+        assertEquals(10_000, pricing.quote("Standard", 10_000, day(checkIn), day(checkIn.plusDays(1))));
+        pricing.setRatePlan("Standard", new RatePlan("0", "01-01..12-31:10", ""));
+        assertEquals(11_000, pricing.quote("Standard", 10_000, day(checkIn), day(checkIn.plusDays(1))));
+    }
+
+    @Test
+    void moneyRoundsHalfUpInCents() {
+        assertEquals(1999, Money.cents(19.99));
+        assertEquals(5, Money.applyBps(9, 5000));
+        assertEquals(1250, Money.percentToBps("12.5"));
+        assertThrows(IllegalArgumentException.class, () -> new RatePlan("0", "", "7:5,3:10"));
+        assertThrows(IllegalArgumentException.class, () -> new RatePlan("-100", "", ""));
+    }
+}
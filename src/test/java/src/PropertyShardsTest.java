@@ -0,0 +1,119 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import src.HotelReservationSystem.PropertyRoom;
+import src.HotelReservationSystem.PropertyShard;
+import src.HotelReservationSystem.PropertyShards;
+import src.HotelReservationSystem.ReservationService;
+
+class PropertyShardsTest {
+    private static final LocalDate CHECK_IN = LocalDate.of(2040, 3, 1);
+    private static final LocalDate CHECK_OUT = CHECK_IN.plusDays(2);
+
+    @TempDir
+    Path directory;
+
+    private PropertyShards shards;
+
+    @BeforeEach
+    void create() {
+        shards = new PropertyShards(directory, "LIS:Lisbon, OPO:Porto,FAO:Faro", 2);
+    }
+
+    @AfterEach
+    void close() {
+        shards.close();
+    }
+
+    @Test
+    void propertiesAreRoutedByIdAndOpenedOnFirstUse() throws Exception {
+        for (PropertyShard shard : shards.all()) {
+            assertFalse(shard.isOpen());
+        }
+        PropertyShard porto = shards.shard("OPO");
+        assertEquals("Porto", porto.getCity());
+        assertTrue(porto.isOpen());
+        assertSame(porto, shards.shard("OPO"));
+        assertEquals(3, shards.all().size());
+        assertNull(shards.shard("NYC"));
+
+        // Each property books into its own database
+        ReservationService reservations = new ReservationService();
+        assertTrue(reservations.book(porto, 1, "Ann Lee", "ann@example.com", CHECK_IN, CHECK_OUT, 100, null)
+            .isConfirmed());
+        assertFalse(porto.availabilityIndex().isFree(1, CHECK_IN, CHECK_OUT));
+        assertTrue(shards.shard("LIS").availabilityIndex().isFree(1, CHECK_IN, CHECK_OUT));
+    }
+
+    @Test
+    void searchMergesEveryPropertyCheapestFirst() throws Exception {
+        ReservationService reservations = new ReservationService();
+        assertTrue(reservations.book(shards.shard("LIS"), 3, "Ann Lee", "ann@example.com", CHECK_IN, CHECK_OUT,
+            100, null).isConfirmed());
+
+        List<PropertyRoom> rooms = shards.search(null, null, CHECK_IN, CHECK_OUT, 1, 100);
+        // Ten rooms in each of three properties, less the one booked
+        assertEquals(29, rooms.size());
+        for (int i = 1; i < rooms.size(); i++) {
+            assertTrue(rooms.get(i - 1).getTotalCents() <= rooms.get(i).getTotalCents());
+        }
+        assertFalse(rooms.stream().anyMatch(r -> r.getProperty().getPropertyId().equals("LIS")
+            && r.getRoom().getRoomId() == 3));
+
+        List<PropertyRoom> faro = shards.search("faro", "Suite", CHECK_IN, CHECK_OUT, 4, 100);
+        assertEquals(3, faro.size());
+        assertTrue(faro.stream().allMatch(r -> r.getProperty().getPropertyId().equals("FAO")
+            && r.getRoom().getRoomType().equals("Suite")));
+
+        assertEquals(keys(rooms.subList(0, 5)), keys(shards.search(null, null, CHECK_IN, CHECK_OUT, 1, 5)));
+        assertThrows(IllegalArgumentException.class, () -> shards.search(null, null, CHECK_IN, CHECK_OUT, 1, 0));
+        assertThrows(IllegalArgumentException.class, () -> shards.search(null, null, CHECK_IN, CHECK_OUT, 1, -1));
+    }
+
+    private static List<String> keys(List<PropertyRoom> rooms) {
+        return rooms.stream().map(r -> r.getProperty().getPropertyId() + "/" + r.getRoom().getRoomId()).toList();
+    }
+
+    @Test
+    void propertyListIsValidated() {
+        assertThrows(IllegalArgumentException.class, () -> new PropertyShards(directory, "LIS:Lisbon,LIS:Porto", 1));
+        assertThrows(IllegalArgumentException.class, () -> new PropertyShards(directory, "L/S:Lisbon", 1));
+        assertThrows(IllegalArgumentException.class, () -> new PropertyShards(directory, "LIS", 1));
+    }
+
+    @Test
+    void failedOpenLeavesNoPipelineBehind() throws Exception {
+        PropertyShard lisbon = shards.shard("LIS");
+        lisbon.close();
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + directory.resolve("LIS.db"));
+             Statement statement = conn.createStatement()) {
+            statement.executeUpdate("INSERT INTO reservations (room_id, guest_name, guest_email, check_in_date, " +
+                "check_out_date, total_price, status) VALUES (1, 'Ann Lee', 'ann@example.com', 'not a date', " +
+                "'2040-03-03', 100, 'Confirmed')");
+        }
+        for (int attempt = 0; attempt < 3; attempt++) {
+            assertThrows(RuntimeException.class, () -> shards.shard("LIS"));
+            assertFalse(lisbon.isOpen());
+        }
+        assertEquals(0, Thread.getAllStackTraces().keySet().stream()
+            .filter(t -> t.isAlive() && t.getName().equals("write-pipeline-LIS")).count());
+    }
+}
@@ -0,0 +1,222 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import src.HotelReservationSystem.MemoryRepository;
+import src.HotelReservationSystem.OccupancyReport;
+import src.HotelReservationSystem.Payment;
+import src.HotelReservationSystem.PaymentMethodTotal;
+import src.HotelReservationSystem.PropertyShard;
+import src.HotelReservationSystem.ReportRow;
+import src.HotelReservationSystem.ReportService;
+import src.HotelReservationSystem.ReportTotals;
+import src.HotelReservationSystem.ReportWindow;
+import src.HotelReservationSystem.Reservation;
+import src.HotelReservationSystem.Room;
+
+class ReportServiceTest {
+    // 50 nights: 12 in January, 29 in February 2040, 9 in March
+    private static final LocalDate FROM = LocalDate.of(2040, 1, 20);
+    private static final LocalDate TO = LocalDate.of(2040, 3, 10);
+    private static final double DELTA = 1e-6;
+
+    @TempDir
+    Path directory;
+
+    private PropertyShard shard;
+    private MemoryRepository memory;
+
+    @BeforeEach
+    void open() throws Exception {
+        shard = TestShards.open(directory);
+        memory = MemoryRepository.open(directory.resolve("memory"));
+        memory.insertRooms(shard.repository().loadRooms());
+
+        // Deluxe: rooms 1, 4, 7, 10. Standard: 3, 6, 9. Suite: 2, 5, 8.
+        stay(1, "2040-01-15", "2040-01-25", 1000, true);   // carried in: 5 nights, 500
+        stay(4, "2040-03-05", "2040-03-15", 2000, true);   // runs past the end: 5 nights, 1000
+        stay(3, "2040-01-10", "2040-03-20", 7000, true);   // spans the window: 50 nights, 5000
+        stay(2, "2040-02-10", "2040-02-13", 900, true);    // inside: 3 nights, 900
+        stay(5, "2040-02-01", "2040-02-05", 800, false);   // cancelled
+        stay(6, "2040-04-01", "2040-04-03", 200, true);    // after the window
+        stay(7, "2040-01-01", "2040-01-20", 1900, true);   // checks out as the window opens
+
+        payment(1, 500, "2040-02-01", "Card", Payment.SETTLED);
+        payment(1, 250, "2040-03-09", "Card", Payment.SETTLED);
+        payment(2, 100, "2040-01-20", "Cash", Payment.SETTLED);
+        payment(2, 999, "2040-03-10", "Card", Payment.SETTLED);
+        payment(3, 77, "2040-02-01", "Card", Payment.PENDING);
+        payment(3, 66, "2040-02-02", "Card", Payment.FAILED);
+    }
+
+    @AfterEach
+    void close() {
+        memory.close();
+        shard.close();
+    }
+
+    // The same stay in SQLite and in the in-memory store, ids assigned alike
+    private void stay(int roomId, String checkIn, String checkOut, double total, boolean confirmed) throws Exception {
+        for (var repository : List.of(shard.repository(), memory)) {
+            Reservation reservation = new Reservation(roomId, "Ann Lee", "ann@example.com", LocalDate.parse(checkIn),
+                LocalDate.parse(checkOut), total);
+            assertTrue(repository.insertReservation(reservation, null, () -> {}));
+            if (!confirmed) {
+                assertTrue(repository.cancelReservation(reservation.getReservationId(), room -> {}));
+            }
+        }
+    }
+
+    private void payment(int reservationId, double amount, String date, String method, String status)
+            throws Exception {
+        for (var repository : List.of(shard.repository(), memory)) {
+            Payment payment = new Payment(reservationId, amount, method);
+            payment.setPaymentDate(LocalDate.parse(date));
+            payment.setStatus(status);
+            repository.insertPayment(payment, () -> {});
+        }
+    }
+
+    private static ReportRow row(List<ReportRow> rows, String periodStart, String type) {
+        return rows.stream().filter(r -> r.getPeriodStart().equals(LocalDate.parse(periodStart))
+            && r.getRoomType().equals(type)).findFirst().orElseThrow();
+    }
+
+    private static void assertRow(ReportRow row, long available, long sold, double revenue) {
+        assertEquals(available, row.getAvailableRoomNights(), row.getRoomType());
+        assertEquals(sold, row.getSoldRoomNights(), row.getRoomType());
+        assertEquals(revenue, row.getRevenue(), DELTA, row.getRoomType());
+    }
+
+    @Test
+    void totalsMatchAHandComputedFixture() {
+        OccupancyReport report = new ReportService(7, 2).generate(shard, FROM, TO);
+        List<ReportRow> rows = report.rows(OccupancyReport.Granularity.TOTAL);
+        assertEquals(4, rows.size());
+
+        assertRow(row(rows, "2040-01-20", "Deluxe"), 200, 10, 1500);
+        assertRow(row(rows, "2040-01-20", "Standard"), 150, 50, 5000);
+        assertRow(row(rows, "2040-01-20", "Suite"), 150, 3, 900);
+        ReportRow all = row(rows, "2040-01-20", OccupancyReport.ALL_TYPES);
+        assertRow(all, 500, 63, 7400);
+        assertEquals(63 / 500.0, all.getOccupancy(), DELTA);
+        assertEquals(7400 / 63.0, all.getAdr(), DELTA);
+        assertEquals(14.8, all.getRevPar(), DELTA);
+        assertEquals(150, row(rows, "2040-01-20", "Deluxe").getAdr(), DELTA);
+        assertEquals(7.5, row(rows, "2040-01-20", "Deluxe").getRevPar(), DELTA);
+
+        // Settled payments dated inside the window only
+        Map<String, PaymentMethodTotal> methods = report.paymentMethods();
+        assertEquals(2, methods.size());
+        assertEquals(2, methods.get("Card").getCount());
+        assertEquals(750, methods.get("Card").getAmount(), DELTA);
+        assertEquals(1, methods.get("Cash").getCount());
+        assertEquals(100, methods.get("Cash").getAmount(), DELTA);
+    }
+
+    @Test
+    void monthlyPeriodsFollowTheCalendar() {
+        List<ReportRow> rows = new ReportService(7, 2).generate(shard, FROM, TO)
+            .rows(OccupancyReport.Granularity.MONTHLY);
+        assertEquals(12, rows.size());
+
+        assertRow(row(rows, "2040-01-20", "Deluxe"), 48, 5, 500);
+        assertRow(row(rows, "2040-02-01", "Deluxe"), 116, 0, 0);
+        assertRow(row(rows, "2040-03-01", "Deluxe"), 36, 5, 1000);
+        assertRow(row(rows, "2040-01-20", "Standard"), 36, 12, 1200);
+        assertRow(row(rows, "2040-02-01", "Standard"), 87, 29, 2900);
+        assertRow(row(rows, "2040-03-01", "Standard"), 27, 9, 900);
+        assertRow(row(rows, "2040-02-01", "Suite"), 87, 3, 900);
+        assertRow(row(rows, "2040-02-01", OccupancyReport.ALL_TYPES), 290, 32, 3800);
+    }
+
+    @Test
+    void partitionsMergeToTheSingleScan() {
+        List<ReportRow> single = new ReportService(10000, 1000).generate(shard, FROM, TO)
+            .rows(OccupancyReport.Granularity.DAILY);
+        for (int partitionDays : new int[] {1, 3, 7}) {
+            List<ReportRow> split = new ReportService(partitionDays, 1).generate(shard, FROM, TO)
+                .rows(OccupancyReport.Granularity.DAILY);
+            assertSameRows(single, split);
+        }
+    }
+
+    @Test
+    void mergeAddsNightsRevenueAndPayments() {
+        Map<Integer, Integer> roomTypes = Map.of(1, 0, 2, 1);
+        ReportWindow window = new ReportWindow(100, 10, roomTypes, 2);
+        ReportTotals left = new ReportTotals(window);
+        left.addStay(1, 95, 102, 700);
+        left.addPayment("Card", 50);
+        ReportTotals right = new ReportTotals(window);
+        right.addStay(1, 101, 104, 300);
+        right.addStay(2, 108, 112, 400);
+        right.addStay(99, 100, 102, 1000);
+        right.addPayment("Card", 25);
+        right.addPayment("Cash", 10);
+
+        ReportTotals merged = left.merge(right);
+        assertEquals(1, merged.soldNights[0]);
+        assertEquals(2, merged.soldNights[1]);
+        assertEquals(200, merged.revenue[1], DELTA);
+        assertEquals(1, merged.soldNights[3]);
+        assertEquals(0, merged.soldNights[4]);
+        assertEquals(1, merged.soldNights[10 + 8]);
+        assertEquals(1, merged.soldNights[10 + 9]);
+        assertEquals(200, merged.revenue[10 + 8] + merged.revenue[10 + 9], DELTA);
+        assertEquals(2, merged.payments.get("Card")[0], DELTA);
+        assertEquals(75, merged.payments.get("Card")[1], DELTA);
+        assertEquals(10, merged.payments.get("Cash")[1], DELTA);
+    }
+
+    @Test
+    void inMemoryStoreAgreesWithSqlite() {
+        OccupancyReport sqlite = new ReportService(7, 2).generate(shard, FROM, TO);
+
+        // As generate() does for the in-memory backend
+        Map<String, Integer> typeIndex = new LinkedHashMap<>();
+        Map<Integer, Integer> roomTypes = new HashMap<>();
+        for (Room room : shard.roomCatalog().findAll()) {
+            roomTypes.put(room.getRoomId(), typeIndex.computeIfAbsent(room.getRoomType(), t -> typeIndex.size()));
+        }
+        int[] roomsPerType = new int[typeIndex.size()];
+        roomTypes.values().forEach(type -> roomsPerType[type]++);
+        int fromDay = (int) FROM.toEpochDay();
+        int days = (int) (TO.toEpochDay() - fromDay);
+        ReportTotals totals = new ReportTotals(new ReportWindow(fromDay, days, roomTypes, typeIndex.size()));
+        memory.collectReport(totals, fromDay, fromDay + days);
+        OccupancyReport inMemory = new OccupancyReport(fromDay, days, typeIndex.keySet().toArray(new String[0]),
+            roomsPerType, totals);
+
+        assertSameRows(sqlite.rows(OccupancyReport.Granularity.DAILY), inMemory.rows(OccupancyReport.Granularity.DAILY));
+        assertEquals(sqlite.paymentMethods().keySet(), inMemory.paymentMethods().keySet());
+        for (PaymentMethodTotal method : sqlite.paymentMethods().values()) {
+            PaymentMethodTotal other = inMemory.paymentMethods().get(method.getMethod());
+            assertEquals(method.getCount(), other.getCount());
+            assertEquals(method.getAmount(), other.getAmount(), DELTA);
+        }
+    }
+
+    private static void assertSameRows(List<ReportRow> expected, List<ReportRow> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            ReportRow row = expected.get(i);
+            assertEquals(row.getPeriodStart(), actual.get(i).getPeriodStart());
+            assertEquals(row.getRoomType(), actual.get(i).getRoomType());
+            assertRow(actual.get(i), row.getAvailableRoomNights(), row.getSoldRoomNights(), row.getRevenue());
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import src.HotelReservationSystem.BookingResult;
+import src.HotelReservationSystem.Hold;
+import src.HotelReservationSystem.PropertyShard;
+import src.HotelReservationSystem.ReservationService;
+
+class ReservationServiceTest {
+    private static final LocalDate CHECK_IN = LocalDate.of(2040, 5, 1);
+
+    @TempDir
+    Path directory;
+
+    private PropertyShard shard;
+    private final ReservationService reservations = new ReservationService();
+
+    @BeforeEach
+    void openShard() throws SQLException {
+        shard = TestShards.open(directory);
+    }
+
+    @AfterEach
+    void closeShard() {
+        shard.close();
+    }
+
+    private BookingResult book(int roomId, LocalDate checkIn, LocalDate checkOut) {
+        return reservations.book(shard, roomId, "Ann Lee", "ann@example.com", checkIn, checkOut, 100, null);
+    }
+
+    @Test
+    void overlappingStayIsAConflictAndAdjacentOneIsNot() {
+        assertTrue(book(1, CHECK_IN, CHECK_IN.plusDays(3)).isConfirmed());
+        assertEquals(BookingResult.Status.CONFLICT, book(1, CHECK_IN.plusDays(2), CHECK_IN.plusDays(4)).getStatus());
+        assertTrue(book(1, CHECK_IN.plusDays(3), CHECK_IN.plusDays(4)).isConfirmed());
+        assertEquals(BookingResult.Status.INVALID, book(1, CHECK_IN, CHECK_IN).getStatus());
+        assertEquals(BookingResult.Status.INVALID, book(999, CHECK_IN, CHECK_IN.plusDays(1)).getStatus());
+    }
+
+    @Test
+    void cancellingTwiceTakesEffectOnce() throws Exception {
+        BookingResult booked = book(4, CHECK_IN, CHECK_IN.plusDays(2));
+        int reservationId = booked.getReservation().getReservationId();
+        long before = shard.changes().lastSequence();
+
+        assertTrue(reservations.cancelReservation(shard, reservationId));
+        assertFalse(reservations.cancelReservation(shard, reservationId));
+        assertEquals(before + 1, shard.changes().lastSequence());
+        assertTrue(shard.repository().findRoom(4).isAvailable());
+
+        // A later booking of the room is not undone by another attempt to cancel the old one
+        assertTrue(book(4, CHECK_IN, CHECK_IN.plusDays(2)).isConfirmed());
+        assertFalse(reservations.cancelReservation(shard, reservationId));
+        assertFalse(shard.repository().findRoom(4).isAvailable());
+    }
+
+    @Test
+    void concurrentBookingsOfOneRoomCommitOnce() throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<CompletableFuture<BookingResult>> attempts = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                LocalDate checkIn = CHECK_IN.plusDays(i % 2);
+                attempts.add(CompletableFuture.supplyAsync(() -> book(3, checkIn, CHECK_IN.plusDays(3)), threads));
+            }
+            int confirmed = 0;
+            for (CompletableFuture<BookingResult> attempt : attempts) {
+                if (attempt.get().isConfirmed()) confirmed++;
+            }
+            assertEquals(1, confirmed);
+            assertFalse(shard.repository().findRoom(3).isAvailable());
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+    @Test
+    void concurrentBookAndCancelLeaveTheCatalogInStepWithTheDatabase() throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<CompletableFuture<Void>> loops = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                LocalDate checkIn = CHECK_IN.plusDays(t * 2L);
+                loops.add(CompletableFuture.runAsync(() -> {
+                    for (int i = 0; i < 20; i++) {
+                        BookingResult booked = book(8, checkIn, checkIn.plusDays(1));
+                        assertTrue(booked.isConfirmed(), booked.getMessage());
+                        assertTrue(reservations.cancelReservation(shard, booked.getReservation().getReservationId()));
+                    }
+                }, threads));
+            }
+            for (CompletableFuture<Void> loop : loops) {
+                loop.get();
+            }
+            assertTrue(shard.repository().findRoom(8).isAvailable());
+            assertTrue(shard.roomCatalog().findById(8).isAvailable());
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+    @Test
+    void holdBlocksBookingsUntilConfirmed() {
+        Hold hold = reservations.placeHold(shard, 2, CHECK_IN, CHECK_IN.plusDays(2), 60_000);
+        assertNotNull(hold);
+        assertNull(reservations.placeHold(shard, 2, CHECK_IN.plusDays(1), CHECK_IN.plusDays(3), 60_000));
+        assertEquals(BookingResult.Status.CONFLICT, book(2, CHECK_IN.plusDays(1), CHECK_IN.plusDays(2)).getStatus());
+
+        BookingResult confirmed = reservations.confirmHold(shard, hold.getHoldId(), "Bo Chan", "bo@example.com", null);
+        assertTrue(confirmed.isConfirmed(), confirmed.getMessage());
+        assertNull(shard.holds().find(hold.getHoldId()));
+        assertFalse(shard.availabilityIndex().isFree(2, CHECK_IN, CHECK_IN.plusDays(1)));
+        assertEquals(BookingResult.Status.CONFLICT,
+            reservations.confirmHold(shard, hold.getHoldId(), "Bo Chan", "bo@example.com", null).getStatus());
+    }
+
+    @Test
+    void holdsAndBookingsRacingForOneRoomNeverOverlap() throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<CompletableFuture<Boolean>> attempts = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                LocalDate checkIn = CHECK_IN.plusDays(i % 5);
+                boolean hold = i % 2 == 0;
+                attempts.add(CompletableFuture.supplyAsync(() -> hold
+                    ? reservations.placeHold(shard, 5, checkIn, checkIn.plusDays(2), 60_000) != null
+                    : book(5, checkIn, checkIn.plusDays(2)).isConfirmed(), threads));
+            }
+            int taken = 0;
+            for (CompletableFuture<Boolean> attempt : attempts) {
+                if (attempt.get()) taken++;
+            }
+            // Two-night stays from five start days: at most three fit without overlapping
+            assertTrue(taken >= 1 && taken <= 3, "taken " + taken);
+            int busyNights = 0;
+            for (int day = 0; day < 6; day++) {
+                if (!shard.availabilityIndex().isFree(5, CHECK_IN.plusDays(day), CHECK_IN.plusDays(day + 1))) {
+                    busyNights++;
+                }
+            }
+            assertEquals(2 * taken, busyNights);
+        } finally {
+            threads.shutdown();
+        }
+    }
+}
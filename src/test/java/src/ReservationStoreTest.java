@@ -0,0 +1,160 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import src.HotelReservationSystem.GuestDictionary;
+import src.HotelReservationSystem.ReservationStore;
+
+class ReservationStoreTest {
+    private static List<String> scan(ReservationStore store, int from, int to) {
+        List<String> stays = new ArrayList<>();
+        store.forEachConfirmed(from, to, (reservationId, roomId, checkIn, checkOut, priceCents) ->
+            stays.add(reservationId + "|" + roomId + "|" + checkIn + "|" + checkOut + "|" + priceCents));
+        return stays;
+    }
+
+    @Test
+    void heapAndOffHeapColumnsHoldTheSameRows() {
+        ReservationStore heap = new ReservationStore(false, 16);
+        ReservationStore offHeap = new ReservationStore(true, 16);
+        assertFalse(heap.isOffHeap());
+        assertTrue(offHeap.isOffHeap());
+
+        Random random = new Random(18);
+        for (int i = 0; i < 5000; i++) {
+            int id = 1 + random.nextInt(3000);
+            int checkIn = 20000 + random.nextInt(400);
+            int roomId = 1 + random.nextInt(50);
+            String name = "Guest " + random.nextInt(200);
+            byte status = random.nextInt(4) == 0 ? ReservationStore.CANCELLED : ReservationStore.CONFIRMED;
+            long price = random.nextInt(100000);
+            int nights = 1 + random.nextInt(14);
+            for (ReservationStore store : List.of(heap, offHeap)) {
+                store.put(id, roomId, name, name.replace(' ', '.') + "@example.com", checkIn, checkIn + nights,
+                    price, status);
+            }
+            if (random.nextInt(10) == 0) {
+                int moved = 1 + random.nextInt(50);
+                heap.setRoom(id, moved);
+                offHeap.setRoom(id, moved);
+                heap.setStatus(id, ReservationStore.CANCELLED);
+                offHeap.setStatus(id, ReservationStore.CANCELLED);
+            }
+        }
+
+        assertEquals(heap.size(), offHeap.size());
+        assertEquals(heap.maxId(), offHeap.maxId());
+        assertEquals(heap.columnBytes(), offHeap.columnBytes());
+        assertEquals(heap.guestCount(), offHeap.guestCount());
+        for (int id = 0; id <= heap.maxId() + 1; id++) {
+            assertEquals(heap.exists(id), offHeap.exists(id));
+            if (!heap.exists(id)) continue;
+            assertEquals(heap.roomId(id), offHeap.roomId(id));
+            assertEquals(heap.checkIn(id), offHeap.checkIn(id));
+            assertEquals(heap.checkOut(id), offHeap.checkOut(id));
+            assertEquals(heap.priceCents(id), offHeap.priceCents(id));
+            assertEquals(heap.statusLabel(id), offHeap.statusLabel(id));
+            assertEquals(heap.guestName(id), offHeap.guestName(id));
+            assertEquals(heap.guestEmail(id), offHeap.guestEmail(id));
+        }
+        for (int from = 20000; from < 20400; from += 37) {
+            assertEquals(scan(heap, from, from + 30), scan(offHeap, from, from + 30));
+        }
+    }
+
+    @Test
+    void columnsGrowPastTheirCapacityKeepingEveryRow() {
+        for (boolean offHeap : new boolean[] {false, true}) {
+            ReservationStore store = new ReservationStore(offHeap, 16);
+            assertEquals(16L * ReservationStore.BYTES_PER_RESERVATION, store.columnBytes());
+            for (int id = 1; id < 16; id++) {
+                store.put(id, id, "Ann Lee", "ann@example.com", 100 + id, 102 + id, id * 100L, ReservationStore.CONFIRMED);
+            }
+            // Far past double the capacity, leaving a run of unused ids
+            store.put(1000, 7, "Bo Chen", "bo@example.com", 500, 503, 999L, ReservationStore.CANCELLED);
+            assertEquals(1001L * ReservationStore.BYTES_PER_RESERVATION, store.columnBytes());
+            store.put(1001, 8, "Bo Chen", "bo@example.com", 500, 503, 999L, ReservationStore.CONFIRMED);
+            assertEquals(2002L * ReservationStore.BYTES_PER_RESERVATION, store.columnBytes());
+
+            assertEquals(17, store.size());
+            assertEquals(1001, store.maxId());
+            for (int id = 1; id < 16; id++) {
+                assertEquals(id, store.roomId(id));
+                assertEquals(100 + id, store.checkIn(id));
+                assertEquals(id * 100L, store.priceCents(id));
+                assertEquals("Ann Lee", store.guestName(id));
+            }
+            assertFalse(store.exists(0));
+            assertFalse(store.exists(500));
+            assertFalse(store.exists(1002));
+            assertEquals("Cancelled", store.statusLabel(1000));
+            assertEquals("bo@example.com", store.guestEmail(1001));
+
+            // Rewriting a row does not count it twice
+            store.put(5, 9, "Ann Lee", "ann@example.com", 105, 107, 500L, ReservationStore.CONFIRMED);
+            assertEquals(17, store.size());
+            assertEquals(2, store.guestCount());
+        }
+    }
+
+    @Test
+    void scanVisitsConfirmedStaysOverlappingTheWindowInIdOrder() {
+        ReservationStore store = new ReservationStore(true, 16);
+        store.put(4, 1, "Ann Lee", "ann@example.com", 10, 12, 200L, ReservationStore.CONFIRMED);
+        store.put(2, 2, "Ann Lee", "ann@example.com", 11, 15, 400L, ReservationStore.CONFIRMED);
+        store.put(3, 3, "Bo Chen", "bo@example.com", 11, 13, 300L, ReservationStore.CANCELLED);
+        store.put(7, 4, "Bo Chen", "bo@example.com", 14, 16, 250L, ReservationStore.CONFIRMED);
+        store.put(9, 5, "Bo Chen", "bo@example.com", 5, 20, 900L, ReservationStore.CONFIRMED);
+
+        assertEquals(List.of("2|2|11|15|400", "4|1|10|12|200", "9|5|5|20|900"), scan(store, 11, 12));
+        // Check-out night is free, check-in night is not
+        assertEquals(List.of("2|2|11|15|400", "9|5|5|20|900"), scan(store, 12, 14));
+        assertEquals(List.of("7|4|14|16|250", "9|5|5|20|900"), scan(store, 15, 16));
+        assertEquals(List.of(), scan(store, 20, 30));
+
+        store.setStatus(9, ReservationStore.CANCELLED);
+        store.setRoom(7, 6);
+        assertEquals(List.of("7|6|14|16|250"), scan(store, 15, 16));
+    }
+
+    @Test
+    void statusLabelsMapToCodes() {
+        assertEquals(ReservationStore.CONFIRMED, ReservationStore.statusCode("Confirmed"));
+        assertEquals(ReservationStore.CANCELLED, ReservationStore.statusCode("Cancelled"));
+        assertThrows(IllegalArgumentException.class, () -> ReservationStore.statusCode("confirmed"));
+    }
+
+    @Test
+    void dictionaryStoresEachGuestOnce() {
+        GuestDictionary dictionary = new GuestDictionary();
+        int ann = dictionary.intern("Ann Lee", "ann@example.com");
+        assertEquals(ann, dictionary.intern("Ann Lee", "ann@example.com"));
+        int renamed = dictionary.intern("Ann Lee-Smith", "ann@example.com");
+        assertNotEquals(ann, renamed);
+        assertEquals("Ann Lee-Smith", dictionary.name(renamed));
+        assertEquals("ann@example.com", dictionary.email(renamed));
+
+        // The email follows the last separator, so a name holding one still splits back correctly
+        int odd = dictionary.intern("Odd\u0000Name", "odd@example.com");
+        assertEquals("Odd\u0000Name", dictionary.name(odd));
+        assertEquals("odd@example.com", dictionary.email(odd));
+
+        for (int i = 0; i < 3000; i++) {
+            dictionary.intern("Guest " + i, "g" + i + "@example.com");
+        }
+        assertEquals(3003, dictionary.size());
+        assertEquals(ann, dictionary.intern("Ann Lee", "ann@example.com"));
+        assertEquals("Guest 2999", dictionary.name(dictionary.intern("Guest 2999", "g2999@example.com")));
+        assertEquals(3003, dictionary.size());
+    }
+}
@@ -0,0 +1,127 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.BitSet;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import src.HotelReservationSystem.AssignmentReport;
+import src.HotelReservationSystem.AvailabilityIndex;
+import src.HotelReservationSystem.BookingResult;
+import src.HotelReservationSystem.PropertyShard;
+import src.HotelReservationSystem.ReservationService;
+import src.HotelReservationSystem.RoomAssigner;
+import src.HotelReservationSystem.RoomCalendar;
+import src.HotelReservationSystem.RoomMoves;
+
+class RoomAssignerTest {
+    private static final LocalDate CHECK_IN = LocalDate.of(2040, 11, 1);
+
+    @TempDir
+    Path directory;
+
+    private PropertyShard shard;
+    private final ReservationService reservations = new ReservationService();
+    // Two nights is the shortest sellable stay, so a one-night gap is an orphan
+    private final RoomAssigner assigner = new RoomAssigner(2);
+
+    @BeforeEach
+    void openShard() throws SQLException {
+        shard = TestShards.open(directory);
+    }
+
+    @AfterEach
+    void closeShard() {
+        shard.close();
+    }
+
+    private BookingResult book(int roomId, int fromDay, int toDay, boolean roomFlexible) {
+        return reservations.book(shard, roomId, "Ann Lee", "ann@example.com", CHECK_IN.plusDays(fromDay),
+            CHECK_IN.plusDays(toDay), 100, null, roomFlexible);
+    }
+
+    @Test
+    void assignmentPicksTheTightestFitAndAvoidsOrphanNights() {
+        int[] rooms = shard.availabilityIndex().roomsOfType("Deluxe");
+        assertTrue(book(rooms[0], 0, 2, false).isConfirmed());
+        assertTrue(book(rooms[1], 0, 3, false).isConfirmed());
+
+        // Straight after the first stay: no gap on that room, an open one on an empty room
+        assertEquals(rooms[0], reservations.assignRoom(shard, "Deluxe", CHECK_IN.plusDays(2), CHECK_IN.plusDays(4)));
+        // After the second: the first room would be left with one unsellable night, so the second wins
+        assertEquals(rooms[1], reservations.assignRoom(shard, "Deluxe", CHECK_IN.plusDays(3), CHECK_IN.plusDays(5)));
+        assertEquals(0, reservations.assignRoom(shard, "Penthouse", CHECK_IN, CHECK_IN.plusDays(1)));
+    }
+
+    @Test
+    void planMovesAFlexibleStayOutOfAnOrphanGap() {
+        int[] roomIds = {11, 12, 13};
+        RoomCalendar[] calendars = {new RoomCalendar(), new RoomCalendar(), new RoomCalendar()};
+        calendars[0].add(1, 100, 102);
+        calendars[0].add(2, 103, 105);
+        calendars[2].add(3, 100, 110);
+        BitSet flexible = new BitSet();
+        flexible.set(2);
+
+        RoomAssigner.TypePlan plan = assigner.planType("Deluxe", roomIds, calendars, flexible, 90);
+        assertEquals(1, plan.getFlexibleStays());
+        assertEquals(1, plan.getOrphanNightsBefore());
+        assertEquals(0, plan.getOrphanNightsAfter());
+        assertEquals(1, plan.getMoves());
+        assertEquals(2, plan.moves.reservationId(0));
+        assertEquals(11, plan.moves.fromRoom(0));
+        assertEquals(12, plan.moves.toRoom(0));
+
+        // A stay that is not flexible is never lifted, so there is nothing to gain
+        RoomCalendar[] fixed = {new RoomCalendar(), new RoomCalendar()};
+        fixed[0].add(1, 100, 102);
+        fixed[0].add(2, 103, 105);
+        RoomAssigner.TypePlan none = assigner.planType("Deluxe", new int[] {11, 12}, fixed, new BitSet(), 90);
+        assertEquals(0, none.getMoves());
+        assertEquals(1, none.getOrphanNightsAfter());
+    }
+
+    @Test
+    void optimizedStayCanBeCancelledInItsNewRoom() {
+        int[] rooms = shard.availabilityIndex().roomsOfType("Deluxe");
+        assertTrue(book(rooms[0], 0, 2, false).isConfirmed());
+        BookingResult flexible = book(rooms[0], 3, 5, true);
+        assertTrue(flexible.isConfirmed());
+        int reservationId = flexible.getReservation().getReservationId();
+
+        AssignmentReport report = reservations.optimizeRooms(shard);
+        assertEquals(1, report.getMoved());
+        assertEquals(1, report.getOrphanNightsBefore());
+        assertEquals(0, report.getOrphanNightsAfter());
+        int movedTo = reservations.getReservationDetails(shard, reservationId).getRoomId();
+        assertTrue(movedTo != rooms[0]);
+        assertFalse(shard.availabilityIndex().isFree(movedTo, CHECK_IN.plusDays(3), CHECK_IN.plusDays(5)));
+        assertTrue(shard.availabilityIndex().isFree(rooms[0], CHECK_IN.plusDays(2), CHECK_IN.plusDays(5)));
+
+        assertTrue(reservations.cancelReservation(shard, reservationId));
+        assertTrue(shard.availabilityIndex().isFree(movedTo, CHECK_IN.plusDays(3), CHECK_IN.plusDays(5)));
+        assertFalse(reservations.cancelReservation(shard, reservationId));
+    }
+
+    @Test
+    void holdOnANewNightMakesTheMovesStale() {
+        AvailabilityIndex index = new AvailabilityIndex();
+        assertTrue(index.tryHold(12, 7, 103, 104));
+        RoomMoves moves = new RoomMoves();
+        moves.add(2, 11, 12, 103, 105);
+        assertTrue(index.holdsOverlap(moves));
+
+        RoomMoves later = new RoomMoves();
+        later.add(2, 11, 12, 104, 106);
+        assertFalse(index.holdsOverlap(later));
+    }
+}
@@ -0,0 +1,59 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import src.HotelReservationSystem.PropertyShard;
+import src.HotelReservationSystem.Room;
+import src.HotelReservationSystem.RoomCatalog;
+
+class RoomCatalogTest {
+    @TempDir
+    Path directory;
+
+    private PropertyShard shard;
+
+    @BeforeEach
+    void openShard() throws SQLException {
+        shard = TestShards.open(directory);
+    }
+
+    @AfterEach
+    void closeShard() {
+        shard.close();
+    }
+
+    @Test
+    void unknownRoomsGoToTheDatabaseOnce() {
+        RoomCatalog catalog = shard.roomCatalog();
+        long misses = catalog.stats().getMisses();
+        for (int i = 0; i < 5; i++) {
+            assertNull(catalog.findByNumber("999"));
+            assertNull(catalog.findById(999));
+        }
+        assertEquals(misses + 2, catalog.stats().getMisses());
+        assertNotNull(catalog.findByNumber("7"));
+    }
+
+    @Test
+    void addedRoomIsFoundAfterAnEarlierMiss() throws SQLException {
+        RoomCatalog catalog = shard.roomCatalog();
+        assertNull(catalog.findByNumber("999"));
+        assertNull(catalog.findById(999));
+
+        shard.repository().insertRooms(List.of(new Room(999, "999", "Suite", 300, true, 4)));
+        catalog.load(shard.repository());
+        assertEquals(999, catalog.findByNumber("999").getRoomId());
+        assertEquals("999", catalog.findById(999).getRoomNumber());
+    }
+}
@@ -0,0 +1,115 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import src.HotelReservationSystem.PropertyShard;
+import src.HotelReservationSystem.ReservationService;
+import src.HotelReservationSystem.Room;
+import src.HotelReservationSystem.RoomSearchQuery;
+import src.HotelReservationSystem.RoomSearchResult;
+import src.HotelReservationSystem.RoomService;
+import src.HotelReservationSystem.SearchCursor;
+
+class RoomSearchTest {
+    private static final LocalDate CHECK_IN = LocalDate.of(2040, 6, 1);
+    private static final LocalDate CHECK_OUT = CHECK_IN.plusDays(3);
+
+    @TempDir
+    Path directory;
+
+    private PropertyShard shard;
+    private final RoomService rooms = new RoomService();
+
+    @BeforeEach
+    void openShard() throws SQLException {
+        shard = TestShards.open(directory);
+        // A booking flags its room unavailable, so rooms 4, 5 and 9 drop out whatever their dates
+        ReservationService reservations = new ReservationService();
+        for (int[] stay : new int[][] {{4, 1, 2}, {5, -2, 1}, {9, 3, 5}}) {
+            assertTrue(reservations.book(shard, stay[0], "Ann Lee", "ann@example.com", CHECK_IN.plusDays(stay[1]),
+                CHECK_IN.plusDays(stay[2]), 100, null).isConfirmed());
+        }
+    }
+
+    @AfterEach
+    void closeShard() {
+        shard.close();
+    }
+
+    // Every page through the encoded cursor, as a client would follow it
+    private List<Integer> pageThrough(Set<String> types, double maxPrice, int guests, int limit) {
+        List<Integer> found = new ArrayList<>();
+        SearchCursor cursor = null;
+        do {
+            RoomSearchResult page = rooms.search(shard,
+                new RoomSearchQuery(CHECK_IN, CHECK_OUT, types, maxPrice, guests, limit, cursor));
+            assertTrue(page.getRooms().size() <= limit);
+            page.getRooms().forEach(room -> found.add(room.getRoomId()));
+            cursor = page.hasMore() ? SearchCursor.decode(page.getNextCursor().encode()) : null;
+        } while (cursor != null);
+        return found;
+    }
+
+    private List<Integer> expected(Set<String> types, double maxPrice, int guests) {
+        List<Room> all = new ArrayList<>(shard.roomCatalog().findAll());
+        all.sort(Comparator.comparingLong(Room::getPriceCents).thenComparingInt(Room::getRoomId));
+        List<Integer> ids = new ArrayList<>();
+        for (Room room : all) {
+            if (room.isAvailable() && (types.isEmpty() || types.contains(room.getRoomType()))
+                && room.getPricePerNight() <= maxPrice
+                && room.getCapacity() >= guests
+                && shard.availabilityIndex().isFree(room.getRoomId(), CHECK_IN, CHECK_OUT)) {
+                ids.add(room.getRoomId());
+            }
+        }
+        return ids;
+    }
+
+    @Test
+    void pagesCoverEveryMatchOnceAcrossTiedPrices() {
+        List<Set<String>> typeFilters = List.of(Set.of(), Set.of("Suite"), Set.of("Standard", "Deluxe"));
+        for (Set<String> types : typeFilters) {
+            for (double maxPrice : new double[] {Double.POSITIVE_INFINITY, 150, 149.99, 100}) {
+                for (int limit = 1; limit <= 4; limit++) {
+                    List<Integer> found = pageThrough(types, maxPrice, 0, limit);
+                    String filter = types + " <= " + maxPrice + " by " + limit;
+                    assertEquals(expected(types, maxPrice, 0), found, filter);
+                    assertEquals(found.size(), new HashSet<>(found).size(), filter);
+                }
+            }
+        }
+        assertEquals(List.of(3, 6, 1, 7, 10), expected(Set.of("Standard", "Deluxe"), 150, 0));
+        assertEquals(expected(Set.of(), Double.POSITIVE_INFINITY, 4), pageThrough(Set.of(), Double.POSITIVE_INFINITY, 4, 2));
+    }
+
+    @Test
+    void cursorIsKeyedOnCents() {
+        SearchCursor cursor = SearchCursor.decode(new SearchCursor(15000, 7).encode());
+        assertEquals(15000, cursor.getPriceCents());
+        assertEquals(7, cursor.getRoomId());
+
+        // Resuming after room 7 at 150.00 skips only the Deluxe rooms up to it
+        RoomSearchResult page = rooms.search(shard, new RoomSearchQuery(CHECK_IN, CHECK_OUT, Set.of(),
+            Double.POSITIVE_INFINITY, 0, 50, cursor));
+        assertEquals(List.of(10, 2, 8), page.getRooms().stream().map(Room::getRoomId).toList());
+        assertNull(page.getNextCursor());
+        assertThrows(IllegalArgumentException.class, () -> SearchCursor.decode("bm90IGEgY3Vyc29y"));
+    }
+}
@@ -0,0 +1,158 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import src.HotelReservationSystem.BookingResult;
+import src.HotelReservationSystem.ConnectionPool;
+import src.HotelReservationSystem.DatabaseManager;
+import src.HotelReservationSystem.Payment;
+import src.HotelReservationSystem.PooledConnection;
+import src.HotelReservationSystem.PropertyShard;
+import src.HotelReservationSystem.Reservation;
+import src.HotelReservationSystem.ReservationService;
+import src.HotelReservationSystem.Room;
+import src.HotelReservationSystem.SchemaMigrations;
+
+class SchemaMigrationsTest {
+    @TempDir
+    Path directory;
+
+    // hotel.db as the release before versioned migrations left it: three tables and user_version 0
+    private String baselineDatabase() throws SQLException {
+        String url = "jdbc:sqlite:" + directory.resolve("hotel.db");
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS rooms (" +
+                "room_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "room_number TEXT NOT NULL UNIQUE," +
+                "room_type TEXT NOT NULL," +
+                "price_per_night REAL NOT NULL," +
+                "is_available BOOLEAN NOT NULL DEFAULT 1)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS reservations (" +
+                "reservation_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "room_id INTEGER NOT NULL," +
+                "guest_name TEXT NOT NULL," +
+                "guest_email TEXT NOT NULL," +
+                "check_in_date TEXT NOT NULL," +
+                "check_out_date TEXT NOT NULL," +
+                "total_price REAL NOT NULL," +
+                "status TEXT NOT NULL," +
+                "FOREIGN KEY (room_id) REFERENCES rooms(room_id))");
+            stmt.execute("CREATE TABLE IF NOT EXISTS payments (" +
+                "payment_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "reservation_id INTEGER NOT NULL," +
+                "amount REAL NOT NULL," +
+                "payment_date TEXT NOT NULL," +
+                "payment_method TEXT NOT NULL," +
+                "FOREIGN KEY (reservation_id) REFERENCES reservations(reservation_id))");
+            stmt.execute("INSERT INTO rooms (room_number, room_type, price_per_night, is_available) VALUES " +
+                "('101', 'Standard', 100.00, 1), ('102', 'Deluxe', 150.00, 1), ('201', 'Suite', 250.00, 0)");
+            stmt.execute("INSERT INTO reservations (room_id, guest_name, guest_email, check_in_date, " +
+                "check_out_date, total_price, status) VALUES " +
+                "(1, 'Ann Lee', 'Ann@Example.com', '2040-05-01', '2040-05-03', 200.0, 'Confirmed'), " +
+                "(3, 'Ann Lee', 'ann@example.com', '2040-06-01', '2040-06-02', 250.0, 'Cancelled'), " +
+                "(2, 'Bo Chen', 'bo@example.com', '2040-05-02', '2040-05-05', 450.0, 'Confirmed')");
+            stmt.execute("INSERT INTO payments (reservation_id, amount, payment_date, payment_method) " +
+                "VALUES (1, 200.0, '2040-04-20', 'Card')");
+        }
+        return url;
+    }
+
+    private static int userVersion(PooledConnection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : -1;
+        }
+    }
+
+    @Test
+    void baselineDatabaseUpgradesKeepingItsData() throws SQLException {
+        String url = baselineDatabase();
+        PropertyShard shard = new PropertyShard("OLD", "Old", url);
+        shard.open();
+        try {
+            try (PooledConnection conn = shard.read()) {
+                assertEquals(SchemaMigrations.latestVersion(), userVersion(conn));
+            }
+            // No sample rooms on top of the existing ones, capacity backfilled from the type
+            List<Room> rooms = shard.repository().loadRooms();
+            assertEquals(List.of("101", "102", "201"), rooms.stream().map(Room::getRoomNumber).toList());
+            assertEquals(List.of(2, 3, 4), rooms.stream().map(Room::getCapacity).toList());
+            assertFalse(rooms.get(2).isAvailable());
+
+            Reservation ann = shard.repository().findReservation(1);
+            assertEquals(LocalDate.of(2040, 5, 1), ann.getCheckInDate());
+            assertEquals(LocalDate.of(2040, 5, 3), ann.getCheckOutDate());
+            assertEquals(200.0, ann.getTotalPrice());
+            assertFalse(ann.isRoomFlexible());
+            // Both of Ann's stays land on one profile despite the differing case
+            assertTrue(ann.getGuestId() > 0);
+            assertEquals(ann.getGuestId(), shard.repository().findReservation(2).getGuestId());
+            assertEquals("Cancelled", shard.repository().findReservation(2).getStatus());
+
+            // Payments taken before asynchronous settlement count as settled
+            List<Payment> payments = shard.repository().findPayments(1);
+            assertEquals(1, payments.size());
+            assertEquals(Payment.SETTLED, payments.get(0).getStatus());
+            assertEquals(LocalDate.of(2040, 4, 20), payments.get(0).getPaymentDate());
+
+            // Existing stays still block their rooms, and new ones join the backfilled profile
+            ReservationService reservations = new ReservationService();
+            assertEquals(BookingResult.Status.CONFLICT, reservations.book(shard, 2, "Cy Diaz", "cy@example.com",
+                LocalDate.of(2040, 5, 3), LocalDate.of(2040, 5, 4), 100, null).getStatus());
+            Reservation later = reservations.book(shard, 1, "Ann Lee", "ann@example.com", LocalDate.of(2040, 7, 1),
+                LocalDate.of(2040, 7, 2), 100, null).getReservation();
+            assertEquals(ann.getGuestId(), later.getGuestId());
+        } finally {
+            shard.close();
+        }
+
+        // Reopening finds nothing left to apply
+        shard.open();
+        try {
+            try (PooledConnection conn = shard.read()) {
+                assertEquals(SchemaMigrations.latestVersion(), userVersion(conn));
+            }
+            assertEquals(3, shard.repository().loadRooms().size());
+            assertEquals(4, shard.repository().findReservation(4).getReservationId());
+        } finally {
+            shard.close();
+        }
+    }
+
+    @Test
+    void migrationsApplyOneVersionAtATime() throws SQLException {
+        ConnectionPool pool = DatabaseManager.newConnectionPool(baselineDatabase());
+        try (PooledConnection conn = pool.acquireWrite()) {
+            assertEquals(0, userVersion(conn));
+            for (int version = 1; version <= SchemaMigrations.latestVersion(); version++) {
+                SchemaMigrations.migrate(conn, version);
+                assertEquals(version, userVersion(conn));
+                // Running a version again is a no-op
+                SchemaMigrations.migrate(conn, version);
+                assertEquals(version, userVersion(conn));
+            }
+            SchemaMigrations.migrate(conn);
+            assertEquals(SchemaMigrations.latestVersion(), userVersion(conn));
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM reservations WHERE guest_id IS NULL")) {
+                assertTrue(rs.next());
+                assertEquals(0, rs.getInt(1));
+            }
+        } finally {
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import src.HotelReservationSystem.Payment;
+import src.HotelReservationSystem.PaymentGateway;
+import src.HotelReservationSystem.PaymentService;
+import src.HotelReservationSystem.PropertyShard;
+import src.HotelReservationSystem.ReservationService;
+import src.HotelReservationSystem.SettlementQueue;
+import src.HotelReservationSystem.StubPaymentGateway;
+
+class SettlementQueueTest {
+    @TempDir
+    Path directory;
+
+    private PropertyShard shard;
+    private SettlementQueue queue;
+    private int reservationId;
+
+    @BeforeEach
+    void openShard() throws SQLException {
+        shard = TestShards.open(directory);
+        reservationId = new ReservationService().book(shard, 1, "Ann Lee", "ann@example.com",
+            LocalDate.of(2040, 4, 1), LocalDate.of(2040, 4, 3), 100, null).getReservation().getReservationId();
+    }
+
+    @AfterEach
+    void close() {
+        if (queue != null) queue.close();
+        shard.close();
+    }
+
+    private SettlementQueue queue(PaymentGateway gateway, int maxAttempts, long backoffMillis) {
+        queue = new SettlementQueue(shard.repository(), shard.changes(), gateway, 2, maxAttempts, backoffMillis, 1000);
+        return queue;
+    }
+
+    // Stored Pending without being submitted, as a crash right after the commit would leave it
+    private Payment pending(double amount, String key) throws SQLException {
+        return shard.repository().insertPayment(PaymentService.newPending(reservationId, amount, "Card", key), () -> {});
+    }
+
+    private Payment awaitSettled(Payment payment) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            for (Payment stored : shard.repository().findPayments(reservationId)) {
+                if (stored.getPaymentId() == payment.getPaymentId() && !Payment.PENDING.equals(stored.getStatus())) {
+                    return stored;
+                }
+            }
+            Thread.sleep(5);
+        }
+        throw new AssertionError("Payment " + payment.getPaymentId() + " still pending");
+    }
+
+    // The queue lets go of a payment just after its settlement commits
+    private void awaitIdle() throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (queue.inFlight() > 0) {
+            if (System.nanoTime() > deadline) throw new AssertionError(queue.inFlight() + " payments in flight");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void transientFailuresAreRetriedWithBackoffUnderTheSameKey() throws Exception {
+        StubPaymentGateway stub = new StubPaymentGateway(0, 0, 0);
+        List<Long> calls = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger attempts = new AtomicInteger();
+        // The first response is lost after the charge went through, the second call fails outright
+        PaymentGateway gateway = (key, cents, method) -> {
+            calls.add(System.nanoTime());
+            int attempt = attempts.incrementAndGet();
+            if (attempt == 1) {
+                stub.process(key, cents, method);
+                throw new IOException("Gateway response lost (injected)");
+            }
+            if (attempt == 2) {
+                throw new IOException("Gateway unavailable (injected)");
+            }
+            return stub.process(key, cents, method);
+        };
+        Payment payment = pending(100, "order-1");
+        queue(gateway, 5, 40).submit(payment);
+
+        Payment settled = awaitSettled(payment);
+        assertEquals(Payment.SETTLED, settled.getStatus());
+        assertEquals("stub-00000001", settled.getGatewayReference());
+        assertEquals(1, stub.processedCount());
+        assertEquals(3, calls.size());
+        // Half the backoff at least, doubling from one retry to the next
+        assertTrue(calls.get(1) - calls.get(0) >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(calls.get(2) - calls.get(1) >= TimeUnit.MILLISECONDS.toNanos(40));
+        awaitIdle();
+    }
+
+    @Test
+    void lastFailedAttemptFailsThePayment() throws Exception {
+        Payment payment = pending(100, "order-1");
+        queue(new StubPaymentGateway(0, 1.0, 0), 3, 1).submit(payment);
+
+        Payment failed = awaitSettled(payment);
+        assertEquals(Payment.FAILED, failed.getStatus());
+        assertTrue(failed.getGatewayReference().startsWith("Gateway failed after 3 attempts"));
+        awaitIdle();
+    }
+
+    @Test
+    void declineFailsThePaymentWithoutRetrying() throws Exception {
+        StubPaymentGateway stub = new StubPaymentGateway(0, 0, 1.0);
+        AtomicInteger calls = new AtomicInteger();
+        Payment payment = pending(100, "order-1");
+        queue((key, cents, method) -> {
+            calls.incrementAndGet();
+            return stub.process(key, cents, method);
+        }, 5, 1).submit(payment);
+
+        Payment declined = awaitSettled(payment);
+        assertEquals(Payment.FAILED, declined.getStatus());
+        assertEquals("Declined by issuer", declined.getGatewayReference());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void recoverQueuesEachPendingPaymentOnce() throws Exception {
+        List<Payment> payments = List.of(pending(100, "order-1"), pending(50, "order-2"), pending(25, "order-3"));
+        StubPaymentGateway stub = new StubPaymentGateway(0, 0, 0);
+        CountDownLatch release = new CountDownLatch(1);
+        SettlementQueue queue = queue((key, cents, method) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            return stub.process(key, cents, method);
+        }, 5, 1);
+
+        assertEquals(3, queue.recover());
+        // Recovering again while they are in flight queues nothing twice
+        assertEquals(3, queue.recover());
+        assertEquals(3, queue.inFlight());
+        release.countDown();
+        for (Payment payment : payments) {
+            assertEquals(Payment.SETTLED, awaitSettled(payment).getStatus());
+        }
+        assertEquals(3, stub.processedCount());
+        awaitIdle();
+        assertEquals(0, queue.recover());
+    }
+}
@@ -0,0 +1,16 @@
+package src;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+
+// A property shard in its own SQLite file under a test's temporary directory, seeded with the ten sample rooms
+final class TestShards {
+    private TestShards() {}
+
+    static HotelReservationSystem.PropertyShard open(Path directory) throws SQLException {
+        HotelReservationSystem.PropertyShard shard = new HotelReservationSystem.PropertyShard("TEST", "Test",
+            "jdbc:sqlite:" + directory.resolve("test.db"));
+        shard.open();
+        return shard;
+    }
+}
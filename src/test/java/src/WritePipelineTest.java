@@ -0,0 +1,74 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import src.HotelReservationSystem.PooledConnection;
+import src.HotelReservationSystem.PropertyShard;
+import src.HotelReservationSystem.Sql;
+import src.HotelReservationSystem.WriteBatch;
+import src.HotelReservationSystem.WriteOp;
+import src.HotelReservationSystem.WritePipeline;
+
+class WritePipelineTest {
+    @TempDir
+    Path directory;
+
+    private PropertyShard shard;
+
+    @BeforeEach
+    void openShard() throws SQLException {
+        shard = TestShards.open(directory);
+    }
+
+    @AfterEach
+    void closeShard() {
+        shard.close();
+    }
+
+    // Queues a room's availability update, then fails if asked to, after its batched row is already staged
+    private static WriteOp<Boolean> markUnavailable(int roomId, boolean fail) {
+        return new WriteOp<Boolean>() {
+            @Override
+            Boolean apply(PooledConnection conn, WriteBatch batch) throws SQLException {
+                batch.add(Sql.ROOM_UPDATE_AVAILABILITY, pstmt -> {
+                    pstmt.setBoolean(1, false);
+                    pstmt.setInt(2, roomId);
+                });
+                if (fail) {
+                    throw new SQLException("constraint failed");
+                }
+                return true;
+            }
+
+            @Override
+            Boolean onError(SQLException e) {
+                return false;
+            }
+        };
+    }
+
+    @Test
+    void failedOperationLeavesNoBatchedRowsBehind() throws Exception {
+        WritePipeline pipeline = shard.writePipeline();
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int roomId = 1; roomId <= 6; roomId++) {
+            results.add(pipeline.submit(markUnavailable(roomId, roomId % 2 == 0)));
+        }
+        for (int roomId = 1; roomId <= 6; roomId++) {
+            boolean failed = roomId % 2 == 0;
+            assertEquals(!failed, results.get(roomId - 1).get());
+            assertEquals(failed, shard.repository().findRoom(roomId).isAvailable(), "room " + roomId);
+        }
+    }
+}